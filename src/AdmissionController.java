@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control and load shedding for the HTTP endpoints
+ * Each endpoint gets its own concurrency limit and bounded wait queue. The prediction limit
+ * adapts to observed latency (AIMD: +1/limit per fast request, x0.9 when latency exceeds the
+ * target), and anything beyond limit + queue is answered immediately with 503 or 429 and a
+ * Retry-After header instead of piling up in the server backlog. The server's own executor is
+ * bounded too (see dispatcher), so exchanges cannot pile up before a limiter ever sees them.
+ */
+public class AdmissionController {
+    
+    private final List<EndpointLimiter> limiters = new ArrayList<>();
+    private final LongAdder shedInline = new LongAdder();
+    
+    // Set while an exchange runs on the server's dispatcher thread because even the shedding pool was full
+    private static final ThreadLocal<Boolean> SHEDDING_INLINE = ThreadLocal.withInitial(() -> false);
+    
+    /**
+     * Limits for one endpoint; minLimit == maxLimit gives a fixed limit
+     */
+    public static class Limits {
+        int initialLimit = 16;
+        int minLimit = 1;
+        int maxLimit = 64;
+        int maxQueue = 16;
+        long queueTimeoutMillis = 50;
+        long targetLatencyMillis = 100;
+        int rejectStatus = 503;
+        int retryAfterSeconds = 1;
+        
+        public Limits initialLimit(int value) { this.initialLimit = value; return this; }
+        public Limits minLimit(int value) { this.minLimit = value; return this; }
+        public Limits maxLimit(int value) { this.maxLimit = value; return this; }
+        public Limits maxQueue(int value) { this.maxQueue = value; return this; }
+        public Limits queueTimeoutMillis(long value) { this.queueTimeoutMillis = value; return this; }
+        public Limits targetLatencyMillis(long value) { this.targetLatencyMillis = value; return this; }
+        public Limits rejectStatus(int value) { this.rejectStatus = value; return this; }
+        public Limits retryAfterSeconds(int value) { this.retryAfterSeconds = value; return this; }
+    }
+    
+    /**
+     * Wrap a handler so it only runs within the endpoint's limits
+     */
+    public com.sun.net.httpserver.HttpHandler limit(String name, com.sun.net.httpserver.HttpHandler delegate, Limits limits) {
+        EndpointLimiter limiter = new EndpointLimiter(name, delegate, limits);
+        synchronized (limiters) {
+            limiters.add(limiter);
+        }
+        return limiter;
+    }
+    
+    /**
+     * Handler threads the endpoints limited so far can hold at once, running or parked in their queues
+     */
+    public int threadsHeld() {
+        int held = 0;
+        synchronized (limiters) {
+            for (EndpointLimiter limiter : limiters) {
+                held += limiter.limits.maxLimit + limiter.limits.maxQueue;
+            }
+        }
+        return held;
+    }
+    
+    /**
+     * Executor for the HTTP server: a fixed pool with a bounded queue. An exchange that finds the
+     * queue full runs on a small shedding pool instead, where every limited endpoint answers 503
+     * without doing any work; if the shedding pool is full as well, the exchange is answered the
+     * same way on the server's dispatcher thread rather than rejected into it.
+     */
+    public ExecutorService dispatcher(int threads, int queue) {
+        ThreadPoolExecutor shedding = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queue)), ShedThread::new, (exchange, pool) -> {
+                shedInline.increment();
+                SHEDDING_INLINE.set(true);
+                try {
+                    exchange.run();
+                } finally {
+                    SHEDDING_INLINE.set(false);
+                }
+            });
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queue)), (exchange, pool) -> shedding.execute(exchange));
+    }
+    
+    private static final class ShedThread extends Thread {
+        ShedThread(Runnable task) {
+            super(task, "http-shed");
+            setDaemon(true);
+        }
+    }
+    
+    static class EndpointLimiter implements com.sun.net.httpserver.HttpHandler {
+        private final String name;
+        private final com.sun.net.httpserver.HttpHandler delegate;
+        private final Limits limits;
+        private final long queueTimeoutNanos;
+        private final long targetLatencyNanos;
+        
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private double limit;
+        private int inFlight;
+        private int queued;
+        private long lastDecrease;
+        
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder shedQueueFull = new LongAdder();
+        private final LongAdder shedQueueTimeout = new LongAdder();
+        private final LongAdder shedAtDispatch = new LongAdder();
+        
+        EndpointLimiter(String name, com.sun.net.httpserver.HttpHandler delegate, Limits limits) {
+            this.name = name;
+            this.delegate = delegate;
+            this.limits = limits;
+            this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(limits.queueTimeoutMillis);
+            this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(limits.targetLatencyMillis);
+            this.limit = Math.max(limits.minLimit, Math.min(limits.maxLimit, limits.initialLimit));
+        }
+        
+        @Override
+        public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            if (Thread.currentThread() instanceof ShedThread || SHEDDING_INLINE.get()) {
+                shedAtDispatch.increment();
+                reject(exchange, 503);
+                return;
+            }
+            if (!acquire()) {
+                reject(exchange, limits.rejectStatus);
+                return;
+            }
+            accepted.increment();
+            long start = System.nanoTime();
+            try {
+                delegate.handle(exchange);
+            } finally {
+                release(System.nanoTime() - start);
+            }
+        }
+        
+        private boolean acquire() {
+            lock.lock();
+            try {
+                if (inFlight < (int) limit) {
+                    inFlight++;
+                    return true;
+                }
+                if (queued >= limits.maxQueue) {
+                    shedQueueFull.increment();
+                    return false;
+                }
+                
+                queued++;
+                try {
+                    long remaining = queueTimeoutNanos;
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            shedQueueTimeout.increment();
+                            return false;
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                    inFlight++;
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    shedQueueTimeout.increment();
+                    return false;
+                } finally {
+                    queued--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        private void release(long latencyNanos) {
+            lock.lock();
+            try {
+                inFlight--;
+                // AIMD: grow by about one per limit's worth of fast requests, back off at most once per target window
+                if (latencyNanos > targetLatencyNanos) {
+                    long now = System.nanoTime();
+                    if (now - lastDecrease > targetLatencyNanos) {
+                        limit = Math.max(limits.minLimit, limit * 0.9);
+                        lastDecrease = now;
+                    }
+                } else if (limit < limits.maxLimit) {
+                    limit = Math.min(limits.maxLimit, limit + 1.0 / limit);
+                }
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        private void reject(com.sun.net.httpserver.HttpExchange exchange, int status) throws IOException {
+            String message = status == 429
+                ? "Too many " + name + " requests in progress"
+                : "Server overloaded, " + name + " request shed";
+            
+            exchange.getRequestBody().close();
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(limits.retryAfterSeconds));
+            JsonResponseWriter.get().beginObject().name("error").value(message).endObject().send(exchange, status);
+        }
+        
+        String toJson() {
+            lock.lock();
+            try {
+                return String.format(Locale.ROOT,
+                    "{\"endpoint\": \"%s\", \"limit\": %.2f, \"inFlight\": %d, \"queued\": %d, \"maxQueue\": %d, " +
+                    "\"accepted\": %d, \"shedQueueFull\": %d, \"shedQueueTimeout\": %d, \"shedAtDispatch\": %d, \"rejectStatus\": %d}",
+                    name, limit, inFlight, queued, limits.maxQueue,
+                    accepted.sum(), shedQueueFull.sum(), shedQueueTimeout.sum(), shedAtDispatch.sum(), limits.rejectStatus
+                );
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Per-endpoint limits and shed counts as a JSON array
+     */
+    public String metricsJson() {
+        StringBuilder json = new StringBuilder("{\"shedInline\": ").append(shedInline.sum()).append(", \"endpoints\": [");
+        synchronized (limiters) {
+            for (int i = 0; i < limiters.size(); i++) {
+                if (i > 0) json.append(", ");
+                json.append(limiters.get(i).toJson());
+            }
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,525 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only audit trail of every served prediction
+ * Request threads publish fixed-size records into a lock-free multi-producer ring: a slot is
+ * claimed with one CAS, filled with plain stores and published with a release store, so the
+ * request path never locks, allocates or touches the disk. A single writer thread drains the
+ * ring in sequence order into memory-mapped segment files and rotates to a new segment when
+ * one is full. If the writer falls behind by a whole ring, producers wait rather than drop;
+ * if the writer thread has stopped, producers drop the record at once (counted in the metrics)
+ * instead of waiting forever, so an audit disk failure never fails the prediction itself.
+ *
+ * Record layout (little endian, 112 bytes): sequence, epoch millis, model version (int),
+ * source (int), latency nanos, the nine features, price. The sequence is written last, so after
+ * a process crash a record whose sequence is not the expected next one marks the end of the log.
+ * That ordering says nothing about what reaches the disk on power loss: only records covered by
+ * a completed force (see FsyncPolicy) are durable, and the OS may write back a later record's
+ * page with its sequence but without the rest of it.
+ */
+public class AuditLog implements AutoCloseable {
+    public static final int RECORD_BYTES = 112;
+    public static final int HEADER_BYTES = 16;
+    public static final int SOURCE_HTTP = 0;
+    public static final int SOURCE_BINARY = 1;
+    private static final byte[] MAGIC = "HPAUDIT1".getBytes(StandardCharsets.US_ASCII);
+    private static final int LONGS_PER_RECORD = RECORD_BYTES / Long.BYTES;
+    private static final int FEATURES_OFFSET = 4; // in longs
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final int RELEASE_EVERY = 256; // records drained between advances of the consumer cursor
+    
+    /**
+     * When segment writes are forced to disk: never explicitly (the OS decides, plus on rotation
+     * and close), after every drained batch, or at most once per interval
+     */
+    public enum FsyncPolicy { NONE, BATCH, INTERVAL }
+    
+    private final Path directory;
+    private final long segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    
+    // Ring: slot data as raw longs plus the sequence last published into each slot
+    private final int capacity;
+    private final int mask;
+    private final long[] slots;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed;   // next sequence to hand to a producer
+    private final AtomicLong consumed;  // next sequence the writer will drain
+    
+    // Writer state, only touched by the writer thread (and open/close)
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int position;
+    private int forcedPosition;
+    private long lastForceNanos = System.nanoTime();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean writerStopped;
+    private volatile Throwable writerFailure;
+    
+    // Metrics
+    private final long firstSequence;
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder dropped = new LongAdder(); // records refused because the writer had stopped
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    
+    public AuditLog(Path directory, int ringCapacity, long segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must hold a record and fit one mapping: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = HEADER_BYTES + (segmentBytes - HEADER_BYTES) / RECORD_BYTES * RECORD_BYTES;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMillis));
+        this.capacity = Integer.highestOneBit(Math.max(2, ringCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.slots = new long[capacity * LONGS_PER_RECORD];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        
+        Files.createDirectories(directory);
+        this.firstSequence = resume();
+        this.claimed = new AtomicLong(firstSequence);
+        this.consumed = new AtomicLong(firstSequence);
+        
+        writer = new Thread(this::writeLoop, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Log configured by -Dhousing.audit.dir (required; null when unset), -Dhousing.audit.ringSize,
+     * -Dhousing.audit.segmentMB, -Dhousing.audit.fsync (none, batch, interval) and -Dhousing.audit.fsyncMs
+     */
+    public static AuditLog fromSystemProperties() throws IOException {
+        String dir = System.getProperty("housing.audit.dir");
+        if (dir == null) {
+            return null;
+        }
+        return new AuditLog(Paths.get(dir),
+            Integer.getInteger("housing.audit.ringSize", 1 << 16),
+            Long.getLong("housing.audit.segmentMB", 64) << 20,
+            FsyncPolicy.valueOf(System.getProperty("housing.audit.fsync", "interval").toUpperCase(Locale.ROOT)),
+            Long.getLong("housing.audit.fsyncMs", 1000));
+    }
+    
+    // ---- producers -----------------------------------------------------------------------
+    
+    /**
+     * Record one served prediction from a feature row; false if it was dropped because the writer has stopped
+     */
+    public boolean record(int source, int modelVersion, double[] features, double price, long latencyNanos) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        int base = (int) (sequence & mask) * LONGS_PER_RECORD;
+        fillHeader(base, source, modelVersion, latencyNanos);
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            slots[base + FEATURES_OFFSET + j] = Double.doubleToRawLongBits(features[j]);
+        }
+        slots[base + FEATURES_OFFSET + HouseSchema.NUM_FEATURES] = Double.doubleToRawLongBits(price);
+        published.lazySet((int) (sequence & mask), sequence);
+        return true;
+    }
+    
+    /**
+     * Record one served prediction from row r of a columnar block; false if it was dropped
+     */
+    public boolean record(int source, int modelVersion, double[][] columns, int r, double price, long latencyNanos) {
+        long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        int base = (int) (sequence & mask) * LONGS_PER_RECORD;
+        fillHeader(base, source, modelVersion, latencyNanos);
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            slots[base + FEATURES_OFFSET + j] = Double.doubleToRawLongBits(columns[j][r]);
+        }
+        slots[base + FEATURES_OFFSET + HouseSchema.NUM_FEATURES] = Double.doubleToRawLongBits(price);
+        published.lazySet((int) (sequence & mask), sequence);
+        return true;
+    }
+    
+    // Next free sequence, or -1 once the writer has stopped; spins, then yields, while the ring is a full lap ahead of the writer
+    private long claim() {
+        int spins = 0;
+        while (true) {
+            if (writerStopped) {
+                dropped.increment();
+                return -1;
+            }
+            long sequence = claimed.get();
+            if (sequence - consumed.get() >= capacity) {
+                if (spins++ == 0) {
+                    stalls.increment();
+                }
+                if (spins < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            } else if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+    
+    private void fillHeader(int base, int source, int modelVersion, long latencyNanos) {
+        // slots[base] stays unused: the sequence travels in published[] and is written last
+        slots[base + 1] = System.currentTimeMillis();
+        slots[base + 2] = (long) source << 32 | (modelVersion & 0xFFFFFFFFL);
+        slots[base + 3] = latencyNanos;
+    }
+    
+    // ---- writer --------------------------------------------------------------------------
+    
+    // Whatever ends the writer, producers must see it rather than wait for a drain that never comes
+    private void writeLoop() {
+        try {
+            drain();
+        } catch (Throwable e) {
+            writerFailure = e;
+            System.err.println(" Audit log writer died: " + e);
+        } finally {
+            writerStopped = true;
+        }
+    }
+    
+    private void drain() {
+        long next = consumed.get();
+        while (running || next < claimed.get()) {
+            int drained = 0;
+            while (published.get((int) (next & mask)) == next) {
+                append(next, (int) (next & mask) * LONGS_PER_RECORD);
+                next++;
+                if (++drained % RELEASE_EVERY == 0) {
+                    consumed.lazySet(next);
+                }
+            }
+            if (drained > 0) {
+                consumed.set(next);
+                written.addAndGet(drained);
+            }
+            
+            long now = System.nanoTime();
+            if (position > forcedPosition && (fsyncPolicy == FsyncPolicy.BATCH && drained > 0
+                    || fsyncPolicy == FsyncPolicy.INTERVAL && now - lastForceNanos >= fsyncIntervalNanos)) {
+                force();
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        force();
+    }
+    
+    private void append(long sequence, int base) {
+        try {
+            if (segment == null || position + RECORD_BYTES > segmentBytes) {
+                rotate(sequence);
+            }
+            for (int i = 1; i < LONGS_PER_RECORD; i++) {
+                segment.putLong(position + i * Long.BYTES, slots[base + i]);
+            }
+            segment.putLong(position, sequence);
+            position += RECORD_BYTES;
+        } catch (IOException | UncheckedIOException e) {
+            // Keep draining so request threads are never blocked on a broken disk; the gap is counted
+            if (lost.getAndIncrement() == 0) {
+                System.err.println(" Audit log write failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void rotate(long sequence) throws IOException {
+        if (segment != null) {
+            force();
+            channel.close();
+        }
+        Path file = directory.resolve(segmentName(sequence));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.put(0, MAGIC);
+        segment.putInt(MAGIC.length, RECORD_BYTES);
+        position = HEADER_BYTES;
+        forcedPosition = 0;
+        segments.incrementAndGet();
+    }
+    
+    private void force() {
+        if (segment != null && position > forcedPosition) {
+            segment.force(forcedPosition, position - forcedPosition);
+            forcedPosition = position;
+            fsyncs.incrementAndGet();
+        }
+        lastForceNanos = System.nanoTime();
+    }
+    
+    // Continue after the last intact record of the newest segment; returns the next sequence
+    private long resume() throws IOException {
+        List<Path> existing = segmentFiles(directory);
+        if (existing.isEmpty()) {
+            return 1;
+        }
+        Path last = existing.get(existing.size() - 1);
+        long expected = firstSequenceOf(last);
+        channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        checkHeader(segment, last);
+        position = HEADER_BYTES;
+        while (position + RECORD_BYTES <= size && segment.getLong(position) == expected) {
+            position += RECORD_BYTES;
+            expected++;
+        }
+        forcedPosition = position;
+        if (size != segmentBytes) {
+            // Written with a different segment size: leave it as is and start a fresh segment
+            channel.close();
+            channel = null;
+            segment = null;
+            if (expected == firstSequenceOf(last)) {
+                Files.delete(last);
+            }
+        }
+        return expected;
+    }
+    
+    /**
+     * Flush everything published so far to disk and stop the writer
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+    
+    /**
+     * True once the writer thread has died; records are dropped from then on
+     */
+    public boolean isWriterFailed() {
+        return writerFailure != null;
+    }
+    
+    public String metricsJson() {
+        long claimedNow = claimed.get();
+        return String.format(Locale.ROOT,
+            "{\"directory\": \"%s\", \"ringCapacity\": %d, \"fsync\": \"%s\", \"published\": %d, \"written\": %d, "
+                + "\"backlog\": %d, \"producerStalls\": %d, \"segmentsCreated\": %d, \"fsyncs\": %d, \"lost\": %d, "
+                + "\"writerFailed\": %b, \"dropped\": %d, \"writerFailure\": %s}",
+            directory.toString().replace("\\", "\\\\").replace("\"", "\\\""), capacity,
+            fsyncPolicy.name().toLowerCase(Locale.ROOT), claimedNow - firstSequence, written.get(),
+            claimedNow - consumed.get(), stalls.sum(), segments.get(), fsyncs.get(), lost.get(), writerFailure != null,
+            dropped.sum(), writerFailure == null ? "null" : "\"" + writerFailure.getClass().getSimpleName() + "\"");
+    }
+    
+    // ---- reading -------------------------------------------------------------------------
+    
+    static String segmentName(long firstSequence) {
+        return String.format(Locale.ROOT, "audit-%016d.seg", firstSequence);
+    }
+    
+    static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("audit-".length(), name.length() - ".seg".length()));
+    }
+    
+    static List<Path> segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().matches("audit-\\d{16}\\.seg"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+    
+    private static void checkHeader(ByteBuffer segment, Path file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        segment.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || segment.getInt(MAGIC.length) != RECORD_BYTES) {
+            throw new IOException("Not an audit segment: " + file);
+        }
+    }
+    
+    /**
+     * Receives records in sequence order; row holds the nine features followed by the price
+     */
+    public interface RecordVisitor {
+        void visit(long sequence, long epochMillis, int modelVersion, int source, long latencyNanos, double[] row);
+    }
+    
+    /**
+     * Visit every intact record with a sequence of at least fromSequence; returns the next sequence
+     * after the last record visited (a gap in the sequence across segments ends the scan)
+     */
+    public static long scan(Path directory, long fromSequence, RecordVisitor visitor) throws IOException {
+        double[] row = new double[HouseSchema.NUM_FIELDS];
+        long expected = -1;
+        for (Path file : segmentFiles(directory)) {
+            long first = firstSequenceOf(file);
+            if (expected >= 0 && first != expected) {
+                System.err.println(" Audit log gap: expected sequence " + expected + ", " + file.getFileName() + " starts at " + first);
+                return expected;
+            }
+            expected = first;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                checkHeader(segment, file);
+                long size = channel.size();
+                for (long position = HEADER_BYTES; position + RECORD_BYTES <= size; position += RECORD_BYTES) {
+                    int at = (int) position;
+                    if (segment.getLong(at) != expected) {
+                        break;
+                    }
+                    if (expected >= fromSequence) {
+                        long versionAndSource = segment.getLong(at + 2 * Long.BYTES);
+                        for (int j = 0; j < row.length; j++) {
+                            row[j] = segment.getDouble(at + (FEATURES_OFFSET + j) * Long.BYTES);
+                        }
+                        visitor.visit(expected, segment.getLong(at + Long.BYTES), (int) versionAndSource,
+                            (int) (versionAndSource >>> 32), segment.getLong(at + 3 * Long.BYTES), row);
+                    }
+                    expected++;
+                }
+            }
+        }
+        return Math.max(expected, 1);
+    }
+    
+    /**
+     * java AuditLog read dir [fromSequence] [limit]  - records as CSV
+     * java AuditLog summary dir                      - record count, time span and per-version counts
+     * java AuditLog bench [threads] [records]        - request-path cost of publishing into a temporary log
+     */
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        switch (command) {
+            case "read": {
+                Path dir = Paths.get(args[1]);
+                long from = args.length > 2 ? Long.parseLong(args[2]) : 1;
+                long limit = args.length > 3 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+                StringBuilder line = new StringBuilder();
+                long[] remaining = {limit};
+                System.out.println("sequence,timestamp,modelVersion,source,latencyMicros," + HouseSchema.csvHeader());
+                scan(dir, from, (sequence, millis, version, source, latency, row) -> {
+                    if (remaining[0]-- <= 0) {
+                        return;
+                    }
+                    line.setLength(0);
+                    line.append(sequence).append(',').append(Instant.ofEpochMilli(millis)).append(',').append(version)
+                        .append(',').append(source == SOURCE_BINARY ? "binary" : "http")
+                        .append(',').append(String.format(Locale.ROOT, "%.1f", latency / 1000.0)).append(',');
+                    HouseSchema.appendCsv(row, line);
+                    System.out.println(line);
+                });
+                break;
+            }
+            case "summary": {
+                Path dir = Paths.get(args[1]);
+                long[] stats = {0, Long.MAX_VALUE, Long.MIN_VALUE}; // records, first millis, last millis
+                TreeMap<Integer, long[]> perVersion = new TreeMap<>();
+                long next = scan(dir, 1, (sequence, millis, version, source, latency, row) -> {
+                    stats[0]++;
+                    stats[1] = Math.min(stats[1], millis);
+                    stats[2] = Math.max(stats[2], millis);
+                    perVersion.computeIfAbsent(version, v -> new long[1])[0]++;
+                });
+                System.out.println("Segments: " + segmentFiles(dir).size());
+                System.out.println("Records: " + stats[0] + " (next sequence " + next + ")");
+                if (stats[0] > 0) {
+                    System.out.println("From " + Instant.ofEpochMilli(stats[1]) + " to " + Instant.ofEpochMilli(stats[2]));
+                }
+                perVersion.forEach((version, count) -> System.out.println("  model version " + version + ": " + count[0]));
+                break;
+            }
+            case "bench": {
+                // Bursts that fit in the ring, timed on the producers only, with the writer draining between bursts
+                int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+                int records = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+                int ringSize = 1 << 16;
+                int burst = ringSize / 2 / threads;
+                Path dir = Files.createTempDirectory("audit-bench");
+                double[] features = {2000, 3, 2, 10, 7.5, 2, 4, 3, 1};
+                long producerNanos = 0;
+                long published = 0;
+                try (AuditLog log = new AuditLog(dir, ringSize, 64L << 20, FsyncPolicy.INTERVAL, 1000)) {
+                    for (int round = 0; published < records; round++) {
+                        long[] nanos = new long[threads];
+                        Thread[] workers = new Thread[threads];
+                        for (int t = 0; t < threads; t++) {
+                            int id = t;
+                            workers[t] = new Thread(() -> {
+                                long start = System.nanoTime();
+                                for (int i = 0; i < burst; i++) {
+                                    log.record(SOURCE_HTTP, 1, features, 350_000 + i, 1000);
+                                }
+                                nanos[id] = System.nanoTime() - start;
+                            });
+                        }
+                        for (Thread worker : workers) worker.start();
+                        for (Thread worker : workers) worker.join();
+                        while (log.consumed.get() < log.claimed.get()) {
+                            Thread.sleep(1);
+                        }
+                        if (round >= 5) { // the first bursts run interpreted
+                            for (long n : nanos) producerNanos += n;
+                            published += (long) burst * threads;
+                        }
+                    }
+                    System.out.printf(Locale.ROOT, "%d producer threads, %d records: %.1f ns per record on the request path%n",
+                        threads, published, (double) producerNanos / published);
+                    System.out.println(log.metricsJson());
+                }
+                long[] count = {0};
+                scan(dir, 1, (sequence, millis, version, source, latency, row) -> count[0]++);
+                System.out.println("Read back " + count[0] + " records");
+                for (Path file : segmentFiles(dir)) {
+                    Files.delete(file);
+                }
+                Files.delete(dir);
+                break;
+            }
+            default:
+                System.out.println("Usage: java AuditLog read <dir> [fromSequence] [limit] | summary <dir> | bench [threads] [records]");
+        }
+    }
+}
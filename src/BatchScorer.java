@@ -0,0 +1,255 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Non-interactive scoring for shell pipelines
+ * Reads rows in the housing_data.csv schema (price column optional) from stdin or a file and
+ * writes one predicted price per row, in input order. A reader thread cuts the input into
+ * blocks at line boundaries, worker threads parse the raw bytes straight into feature columns
+ * and score them as one block, and the writer emits the blocks in sequence. A snapshot of a
+ * segmented version scores through its segment models.
+ *
+ * Usage: java BatchScorer [--input file|-] [--output file|-] [--model model.snap | --train data.csv] [--threads N]
+ */
+public class BatchScorer {
+    private static final int BLOCK_BYTES = 1 << 20;
+    private static final int NUM_FEATURES = HouseSchema.NUM_FEATURES;
+    
+    private final UltimateHousingPredictor.LinearRegressionModel model;
+    private final SegmentModels segments; // null when the global model prices every row
+    private final int threads;
+    
+    // Formatted predictions for one input block
+    private static class ScoredBlock {
+        final byte[] bytes;
+        final int length;
+        final int rows;
+        
+        ScoredBlock(byte[] bytes, int length, int rows) {
+            this.bytes = bytes;
+            this.length = length;
+            this.rows = rows;
+        }
+    }
+    
+    public BatchScorer(UltimateHousingPredictor.LinearRegressionModel model, int threads) {
+        this(model, null, threads);
+    }
+    
+    public BatchScorer(UltimateHousingPredictor.LinearRegressionModel model, SegmentModels segments, int threads) {
+        this.model = model;
+        this.segments = segments;
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Score every row of in and write the predictions to out; returns the number of rows scored
+     */
+    public long score(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-scorer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Futures are queued in input order; the bound keeps the reader at most a few blocks ahead
+        BlockingQueue<Future<ScoredBlock>> pending = new ArrayBlockingQueue<>(threads * 2);
+        Future<ScoredBlock> endOfInput = CompletableFuture.completedFuture(null);
+        long rows = 0;
+        
+        Thread reader = new Thread(() -> {
+            try {
+                byte[] carry = new byte[0];
+                while (true) {
+                    byte[] block = Arrays.copyOf(carry, Math.max(BLOCK_BYTES, carry.length * 2));
+                    int filled = carry.length;
+                    int read = 0;
+                    while (filled < block.length && (read = in.read(block, filled, block.length - filled)) > 0) {
+                        filled += read;
+                    }
+                    
+                    // Hand over everything up to the last newline; the partial line waits for the next block
+                    int end = filled;
+                    if (read >= 0) {
+                        while (end > 0 && block[end - 1] != '\n') {
+                            end--;
+                        }
+                        if (end == 0) {
+                            carry = Arrays.copyOf(block, filled); // a single line longer than the block
+                            continue;
+                        }
+                    }
+                    carry = Arrays.copyOfRange(block, end, filled);
+                    byte[] data = block;
+                    int length = end;
+                    pending.put(workers.submit(() -> scoreBlock(data, length)));
+                    if (read < 0) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // the consumer has stopped; nobody is waiting for the rest
+            } catch (Exception e) {
+                // Wait for room: a dropped failure would end the output early as if the input had ended
+                try {
+                    pending.put(CompletableFuture.failedFuture(e));
+                } catch (InterruptedException stopped) {
+                    Thread.currentThread().interrupt();
+                }
+            } finally {
+                try {
+                    pending.put(endOfInput);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+        
+        try {
+            while (true) {
+                Future<ScoredBlock> next = pending.take();
+                if (next == endOfInput) {
+                    break;
+                }
+                ScoredBlock block = next.get();
+                out.write(block.bytes, 0, block.length);
+                rows += block.rows;
+            }
+            out.flush();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+        return rows;
+    }
+    
+    private ScoredBlock scoreBlock(byte[] data, int length) {
+        double[][] columns = new double[NUM_FEATURES][1024];
+        double[] scratch = new double[NUM_FEATURES];
+        int rows = 0;
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i > lineStart && data[i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd > lineStart && HouseSchema.isDataLine(data[lineStart])) {
+                if (rows == columns[0].length) {
+                    for (int j = 0; j < NUM_FEATURES; j++) {
+                        columns[j] = Arrays.copyOf(columns[j], rows * 2);
+                    }
+                }
+                parseRow(data, lineStart, lineEnd, columns, rows, scratch);
+                rows++;
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < length) { // last line of the input without a newline
+            int lineEnd = data[length - 1] == '\r' ? length - 1 : length;
+            if (lineEnd > lineStart && HouseSchema.isDataLine(data[lineStart])) {
+                if (rows == columns[0].length) {
+                    for (int j = 0; j < NUM_FEATURES; j++) {
+                        columns[j] = Arrays.copyOf(columns[j], rows + 1);
+                    }
+                }
+                parseRow(data, lineStart, lineEnd, columns, rows, scratch);
+                rows++;
+            }
+        }
+        
+        double[] prices = new double[rows];
+        if (segments != null) {
+            segments.predictColumns(columns, rows, prices);
+        } else {
+            model.predictColumns(columns, rows, prices);
+        }
+        
+        // Prices rarely need more than 16 bytes each ("-1234567890.12\n")
+        byte[] output = new byte[Math.max(64, rows * 24)];
+        int position = 0;
+        for (int r = 0; r < rows; r++) {
+            if (output.length - position < 64) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            position = formatPrice(prices[r], output, position);
+            output[position++] = '\n';
+        }
+        return new ScoredBlock(output, position, rows);
+    }
+    
+    // Parses the features straight into the block's columns; a price column, if present, is ignored
+    private static void parseRow(byte[] data, int start, int end, double[][] columns, int row, double[] scratch) {
+        int fields = HouseSchema.parseCsv(data, start, end, scratch);
+        if (fields < NUM_FEATURES) {
+            throw new IllegalArgumentException("Expected at least " + NUM_FEATURES + " columns: "
+                + new String(data, start, end - start, StandardCharsets.UTF_8));
+        }
+        for (int j = 0; j < NUM_FEATURES; j++) {
+            columns[j][row] = scratch[j];
+        }
+    }
+    
+    // Two decimals, the same text as %.2f
+    static int formatPrice(double price, byte[] out, int position) {
+        return JsonResponseWriter.formatFixed(price, 2, out, position);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        String input = "-";
+        String output = "-";
+        String modelFile = null;
+        String trainFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--input": input = args[i + 1]; break;
+                case "--output": output = args[i + 1]; break;
+                case "--model": modelFile = args[i + 1]; break;
+                case "--train": trainFile = args[i + 1]; break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Usage: java BatchScorer [--input file|-] [--output file|-] "
+                        + "[--model model.snap | --train data.csv] [--threads N]");
+                    System.exit(2);
+            }
+        }
+        
+        // stdout carries the predictions, so every message goes to stderr
+        UltimateHousingPredictor.LinearRegressionModel model;
+        SegmentModels segments = null;
+        if (modelFile != null) {
+            ModelSnapshot snapshot = ModelSnapshot.read(Paths.get(modelFile));
+            model = snapshot.model;
+            segments = snapshot.segments;
+        } else if (trainFile != null) {
+            model = new StreamingTrainer(Paths.get(trainFile)).run().toUnivariateModel();
+        } else {
+            model = new UltimateHousingPredictor.HousingMLSystem(UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses()).getModel();
+        }
+        
+        long start = System.nanoTime();
+        long rows;
+        try (InputStream in = input.equals("-") ? System.in : Files.newInputStream(Paths.get(input));
+             OutputStream out = output.equals("-")
+                 ? new FileOutputStream(FileDescriptor.out)
+                 : new BufferedOutputStream(Files.newOutputStream(Paths.get(output)), 1 << 16)) {
+            rows = new BatchScorer(model, segments, threads).score(in, out);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Scoring failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Scored %,d rows in %.2f s (%,.0f rows/s) on %d threads%n", rows, seconds, rows / seconds, threads);
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Java client for BinaryPredictionServer
+ * send() and receive() can be interleaved freely to keep many requests in flight on one connection.
+ */
+public class BinaryPredictionClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    
+    /**
+     * One decoded response frame
+     */
+    public static class Response {
+        public final int requestId;
+        public final int status;
+        public final int modelVersion;
+        public final double[] prices;
+        
+        Response(int requestId, int status, int modelVersion, double[] prices) {
+            this.requestId = requestId;
+            this.status = status;
+            this.modelVersion = modelVersion;
+            this.prices = prices;
+        }
+        
+        public boolean isOk() {
+            return status == BinaryPredictionServer.STATUS_OK;
+        }
+    }
+    
+    public BinaryPredictionClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+    }
+    
+    /**
+     * Queue one request frame; call flush() (or predict()) to put it on the wire
+     */
+    public void send(int requestId, List<UltimateHousingPredictor.House> houses) throws IOException {
+        out.writeInt(8 + houses.size() * BinaryPredictionServer.RECORD_BYTES);
+        out.writeInt(requestId);
+        out.writeInt(houses.size());
+        for (UltimateHousingPredictor.House house : houses) {
+            out.writeDouble(house.getSquareFootage());
+            out.writeByte(house.getBedrooms());
+            out.writeByte(house.getBathrooms());
+            out.writeShort(house.getAge());
+            out.writeFloat((float) house.getNeighborhood());
+            out.writeByte(house.getParkingSpaces());
+            out.writeByte(house.getLocationType().ordinal());
+            out.writeByte(house.getFurnishingState().ordinal());
+            out.writeByte(house.getKitchenType().ordinal());
+        }
+    }
+    
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    public Response receive() throws IOException {
+        in.readInt(); // length
+        int requestId = in.readInt();
+        int status = in.readInt();
+        int modelVersion = in.readInt();
+        double[] prices = new double[in.readInt()];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = in.readDouble();
+        }
+        return new Response(requestId, status, modelVersion, prices);
+    }
+    
+    /**
+     * Synchronous round trip
+     */
+    public double[] predict(List<UltimateHousingPredictor.House> houses) throws IOException {
+        send(0, houses);
+        flush();
+        Response response = receive();
+        if (!response.isOk()) {
+            throw new IOException("Prediction failed on the server");
+        }
+        return response.prices;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+    
+    /**
+     * Pipelined single-house benchmark: java BinaryPredictionClient [host] [port] [requests] [window]
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 9090;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        int window = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        
+        List<UltimateHousingPredictor.House> houses = UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses();
+        Random random = new Random(7);
+        
+        try (BinaryPredictionClient client = new BinaryPredictionClient(host, port)) {
+            System.out.printf("First house: $%,.2f%n", client.predict(houses.subList(0, 1))[0]);
+            
+            long start = System.nanoTime();
+            int sent = 0;
+            int received = 0;
+            while (received < requests) {
+                if (sent < requests && sent - received < window) {
+                    while (sent < requests && sent - received < window) {
+                        int index = random.nextInt(houses.size());
+                        client.send(sent++, houses.subList(index, index + 1));
+                    }
+                    client.flush();
+                }
+                Response response = client.receive();
+                if (!response.isOk()) {
+                    throw new IOException("Request " + response.requestId + " failed");
+                }
+                received++;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%,d pipelined predictions in %.2f s: %,.0f predictions/s%n", requests, seconds, requests / seconds);
+        }
+    }
+}
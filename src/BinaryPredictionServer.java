@@ -0,0 +1,235 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Length-prefixed binary prediction protocol for internal callers
+ * Runs next to the HTTP server and skips HTTP headers, JSON parsing and String.format entirely.
+ *
+ * Request frame (big-endian):
+ *   int length, int requestId, int count, then count records of RECORD_BYTES:
+ *   double squareFootage, byte bedrooms, byte bathrooms, short age, float neighborhood,
+ *   byte parkingSpaces, byte locationType, byte furnishingState, byte kitchenType (enum ordinals)
+ * Response frame:
+ *   int length, int requestId, int status, int modelVersion, int count, then count doubles
+ *
+ * Clients may pipeline any number of frames; responses come back in request order and the
+ * socket is flushed only once no further requests are already waiting.
+ *
+ * Each connection gets its own thread, up to housing.binary.maxConnections at once;
+ * connections beyond that are closed as soon as they are accepted.
+ */
+public class BinaryPredictionServer {
+    public static final int RECORD_BYTES = 20;
+    public static final int MAX_RECORDS_PER_FRAME = 65_536;
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+    public static final int DEFAULT_MAX_CONNECTIONS = Integer.getInteger("housing.binary.maxConnections", 64);
+    
+    private final ModelRegistry registry;
+    private final ServerSocket serverSocket;
+    private final AuditLog audit; // may be null
+    private final int maxConnections;
+    private final Semaphore connectionSlots;
+    
+    // Metrics
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder predictions = new LongAdder();
+    private final LongAdder serverNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    
+    public BinaryPredictionServer(ModelRegistry registry, int port) throws IOException {
+        this(registry, port, null);
+    }
+    
+    public BinaryPredictionServer(ModelRegistry registry, int port, AuditLog audit) throws IOException {
+        this(registry, port, audit, DEFAULT_MAX_CONNECTIONS);
+    }
+    
+    public BinaryPredictionServer(ModelRegistry registry, int port, AuditLog audit, int maxConnections) throws IOException {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.registry = registry;
+        this.serverSocket = new ServerSocket(port);
+        this.audit = audit;
+        this.maxConnections = maxConnections;
+        this.connectionSlots = new Semaphore(maxConnections);
+    }
+    
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "binary-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!connectionSlots.tryAcquire()) {
+                    rejectedConnections.increment();
+                    socket.close();
+                    continue;
+                }
+                try {
+                    socket.setTcpNoDelay(true);
+                    connections.increment();
+                    Thread worker = new Thread(() -> {
+                        try {
+                            serve(socket);
+                        } finally {
+                            connectionSlots.release();
+                        }
+                    }, "binary-connection");
+                    worker.setDaemon(true);
+                    worker.start();
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    // e.g. no native thread left for the worker: refuse this connection, keep accepting
+                    connectionSlots.release();
+                    rejectedConnections.increment();
+                    socket.close();
+                    System.err.println(" Binary connection refused: " + e);
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println(" Binary listener accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            
+            // Per-connection scratch, reused for every frame
+            double[][] columns = new double[HouseSchema.NUM_FEATURES][0];
+            double[] prices = new double[0];
+            
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                int requestId = in.readInt();
+                int count = in.readInt();
+                if (count < 0 || count > MAX_RECORDS_PER_FRAME || length != 8 + count * RECORD_BYTES) {
+                    errors.increment();
+                    writeError(out, requestId);
+                    out.flush();
+                    return; // the stream is out of sync; drop the connection
+                }
+                
+                long start = System.nanoTime();
+                if (columns[0].length < count) {
+                    int capacity = Math.max(count, 64);
+                    columns = new double[HouseSchema.NUM_FEATURES][capacity];
+                    prices = new double[capacity];
+                }
+                
+                boolean valid = true;
+                for (int i = 0; i < count; i++) {
+                    columns[0][i] = in.readDouble();
+                    columns[1][i] = in.readByte();
+                    columns[2][i] = in.readByte();
+                    columns[3][i] = in.readShort();
+                    columns[4][i] = in.readFloat();
+                    columns[5][i] = in.readByte();
+                    int location = in.readByte();
+                    int furnishing = in.readByte();
+                    int kitchen = in.readByte();
+                    if (location < 0 || location >= HouseSchema.LOCATION.levelCount() || furnishing < 0
+                            || furnishing >= HouseSchema.FURNISHING.levelCount() || kitchen < 0 || kitchen >= HouseSchema.KITCHEN.levelCount()) {
+                        valid = false;
+                        continue;
+                    }
+                    columns[6][i] = HouseSchema.LOCATION.featureValue(location);
+                    columns[7][i] = HouseSchema.FURNISHING.featureValue(furnishing);
+                    columns[8][i] = HouseSchema.KITCHEN.featureValue(kitchen);
+                }
+                
+                ModelRegistry.ModelVersion version = registry.route();
+                if (!valid || version == null) {
+                    errors.increment();
+                    writeError(out, requestId);
+                } else {
+                    version.predictColumns(columns, count, prices);
+                    
+                    out.writeInt(12 + count * Double.BYTES);
+                    out.writeInt(requestId);
+                    out.writeInt(STATUS_OK);
+                    out.writeInt(version.id);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeDouble(prices[i]);
+                    }
+                    
+                    long elapsed = System.nanoTime() - start;
+                    version.recordLatency(elapsed);
+                    for (int i = 0; i < count; i++) {
+                        version.drift.record(columns, i, prices[i]);
+                    }
+                    if (audit != null) {
+                        for (int i = 0; i < count; i++) {
+                            audit.record(AuditLog.SOURCE_BINARY, version.id, columns, i, prices[i], elapsed);
+                        }
+                    }
+                    frames.increment();
+                    predictions.add(count);
+                    serverNanos.add(elapsed);
+                }
+                
+                // Pipelined callers: keep writing into the buffer while more requests are queued
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // client went away
+        } catch (IOException e) {
+            errors.increment();
+        } catch (RuntimeException e) {
+            // a scoring bug; the socket is closed by the try, and the other connections keep going
+            errors.increment();
+            System.err.println(" Binary connection failed: " + e);
+        }
+    }
+    
+    private static void writeError(DataOutputStream out, int requestId) throws IOException {
+        out.writeInt(12);
+        out.writeInt(requestId);
+        out.writeInt(STATUS_ERROR);
+        out.writeInt(-1);
+        out.writeInt(0);
+    }
+    
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+    
+    /**
+     * Listener metrics as a JSON object
+     */
+    public String metricsJson() {
+        long count = predictions.sum();
+        double nanosPerPrediction = count == 0 ? 0 : (double) serverNanos.sum() / count;
+        return String.format(Locale.ROOT,
+            "{\"port\": %d, \"connections\": %d, \"activeConnections\": %d, \"maxConnections\": %d, \"rejectedConnections\": %d, \"frames\": %d, \"predictions\": %d, \"errors\": %d, \"serverNanosPerPrediction\": %.1f}",
+            getPort(), connections.sum(), maxConnections - connectionSlots.availablePermits(), maxConnections, rejectedConnections.sum(), frames.sum(), count, errors.sum(), nanosPerPrediction
+        );
+    }
+}
@@ -0,0 +1,479 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scorer class generated for one trained model
+ * A trained LinearRegressionModel never changes, so instead of looping over its coefficient
+ * array (and, with a FeatureExpansion, testing every term's level factors) on each call, this
+ * emits a hidden class whose score method is the model written out as straight-line code with
+ * every coefficient an ldc2_w constant.
+ *
+ * Categorical columns that expansion terms test for a level are resolved once per row by a
+ * chain of compares against that field's encoded levels. Each branch of the chain holds the
+ * model with those levels substituted: indicator terms that cannot fire are gone, the ones that
+ * do are folded into the intercept and raw slopes, and products are merged by their remaining
+ * raw columns. The market expansion's 108 columns become at most 13 multiply-adds per row.
+ * A row whose category value matches no level falls back to the model's interpreter.
+ *
+ * Hidden classes are not tied to the class loader, so a scorer is unloaded with its model.
+ * Models whose generated method would exceed HotSpot's 8000-byte JIT limit are not compiled.
+ * -Dhousing.scorer.compile=false keeps every model on the interpreter.
+ *
+ * Usage: java CompiledScorer [rows] [spec]   (interpreter vs compiled, raw and expanded)
+ */
+public abstract class CompiledScorer {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("housing.scorer.compile", "true"));
+    static final int MAX_METHOD_BYTES = 8000;
+    
+    private static final String MODEL = "UltimateHousingPredictor$LinearRegressionModel";
+    private static final String SELF = "CompiledScorer";
+    
+    final UltimateHousingPredictor.LinearRegressionModel model;
+    private int branches;
+    private int codeBytes;
+    
+    protected CompiledScorer(UltimateHousingPredictor.LinearRegressionModel model) {
+        this.model = model;
+    }
+    
+    /**
+     * Price for one raw feature row
+     */
+    public abstract double score(double[] features);
+    
+    /**
+     * Price for row i of a columnar block: columns[j][i] is raw feature j of row i
+     */
+    public abstract double scoreAt(double[][] columns, int i);
+    
+    public void scoreColumns(double[][] columns, int rows, double[] out) {
+        for (int i = 0; i < rows; i++) {
+            out[i] = scoreAt(columns, i);
+        }
+    }
+    
+    public int getBranches() { return branches; }
+    public int getCodeBytes() { return codeBytes; }
+    
+    // Called by the generated code for rows whose category values match no encoded level
+    final double interpret(double[] features) {
+        return model.interpret(features);
+    }
+    
+    final double interpretAt(double[][] columns, int i) {
+        double[] row = new double[columns.length];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = columns[j][i];
+        }
+        return model.interpret(row);
+    }
+    
+    /**
+     * Generate and load a scorer for the model, or return null when it is disabled or too large to JIT
+     */
+    static CompiledScorer compile(UltimateHousingPredictor.LinearRegressionModel model) {
+        if (!ENABLED) {
+            return null;
+        }
+        // Anything that goes wrong here only costs the speedup: the model keeps its interpreter
+        try {
+            Generator generator = new Generator(model);
+            byte[] classBytes = generator.classFile();
+            if (classBytes == null) {
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            CompiledScorer scorer = (CompiledScorer) lookup
+                .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, UltimateHousingPredictor.LinearRegressionModel.class))
+                .invoke(model);
+            scorer.branches = generator.branches;
+            scorer.codeBytes = generator.codeBytes;
+            return scorer;
+        } catch (Throwable e) {
+            System.err.println("Model compilation failed, using the interpreter: " + e);
+            return null;
+        }
+    }
+    
+    /**
+     * The model as sums of products of raw columns under level conditions, and the bytecode for it
+     */
+    private static final class Generator {
+        private final double intercept;
+        private final List<double[]> coefficients = new ArrayList<>(); // one per monomial
+        private final List<int[]> factors = new ArrayList<>();         // raw columns multiplied together
+        private final List<int[]> conditionColumns = new ArrayList<>();
+        private final List<double[]> conditionLevels = new ArrayList<>();
+        private final int[] specialized;                               // columns some condition tests, ascending
+        private final double[] assigned = new double[HouseSchema.NUM_FEATURES];
+        int branches;
+        int codeBytes;
+        
+        Generator(UltimateHousingPredictor.LinearRegressionModel model) {
+            intercept = model.intercept;
+            int raw = model.expansion != null ? HouseSchema.NUM_FEATURES : model.coefficients.length;
+            for (int j = 0; j < raw; j++) {
+                add(model.coefficients[j], new int[] {j}, new int[0], new double[0]);
+            }
+            boolean[] tested = new boolean[HouseSchema.NUM_FEATURES];
+            if (model.expansion != null) {
+                for (int t = 0; t < model.expansion.termCount(); t++) {
+                    int[] columns = model.expansion.termColumns(t);
+                    double[] levels = model.expansion.termLevels(t);
+                    List<Integer> plain = new ArrayList<>();
+                    List<Integer> conditioned = new ArrayList<>();
+                    for (int f = 0; f < columns.length; f++) {
+                        (Double.isNaN(levels[f]) ? plain : conditioned).add(f);
+                    }
+                    int[] conditionColumn = new int[conditioned.size()];
+                    double[] conditionLevel = new double[conditioned.size()];
+                    for (int k = 0; k < conditioned.size(); k++) {
+                        conditionColumn[k] = columns[conditioned.get(k)];
+                        conditionLevel[k] = levels[conditioned.get(k)];
+                        tested[conditionColumn[k]] = true;
+                    }
+                    add(model.coefficients[HouseSchema.NUM_FEATURES + t],
+                        plain.stream().mapToInt(f -> columns[f]).toArray(), conditionColumn, conditionLevel);
+                }
+            }
+            int count = 0;
+            for (boolean column : tested) if (column) count++;
+            specialized = new int[count];
+            for (int j = 0, k = 0; j < tested.length; j++) {
+                if (tested[j]) specialized[k++] = j;
+            }
+            Arrays.fill(assigned, Double.NaN);
+        }
+        
+        private void add(double coefficient, int[] columns, int[] conditionColumn, double[] conditionLevel) {
+            if (coefficient == 0) return;
+            coefficients.add(new double[] {coefficient});
+            factors.add(columns);
+            conditionColumns.add(conditionColumn);
+            conditionLevels.add(conditionLevel);
+        }
+        
+        byte[] classFile() {
+            ConstantPool pool = new ConstantPool();
+            int thisClass = pool.classRef(SELF + "$Generated");
+            int superClass = pool.classRef(SELF);
+            int code = pool.utf8("Code");
+            int initName = pool.utf8("<init>");
+            int initDescriptor = pool.utf8("(L" + MODEL + ";)V");
+            int scoreName = pool.utf8("score");
+            int scoreDescriptor = pool.utf8("([D)D");
+            int scoreAtName = pool.utf8("scoreAt");
+            int scoreAtDescriptor = pool.utf8("([[DI)D");
+            
+            Bytecode init = new Bytecode();
+            init.u1(0x2a).u1(0x2b); // aload_0, aload_1
+            init.u1(0xb7).u2(pool.methodRef(SELF, "<init>", "(L" + MODEL + ";)V")); // invokespecial
+            init.u1(0xb1); // return
+            
+            Bytecode row = new Bytecode();
+            if (!emitNode(row, 0, false, pool)) {
+                return null;
+            }
+            Bytecode columnar = new Bytecode();
+            if (!emitNode(columnar, 0, true, pool)) {
+                return null;
+            }
+            branches /= 2;
+            codeBytes = row.length;
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + row.length + columnar.length);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49); // Java 5: the old verifier infers branch types, so no StackMapTable is needed
+                pool.writeTo(out);
+                out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(0); // interfaces
+                out.writeShort(0); // fields
+                out.writeShort(3);
+                writeMethod(out, initName, initDescriptor, code, init, 2, 2);
+                writeMethod(out, scoreName, scoreDescriptor, code, row, 8, 2);
+                writeMethod(out, scoreAtName, scoreAtDescriptor, code, columnar, 8, 3);
+                out.writeShort(0); // class attributes
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // cannot happen for an in-memory stream
+            }
+            return bytes.toByteArray();
+        }
+        
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+                                        Bytecode code, int maxStack, int maxLocals) throws IOException {
+            out.writeShort(0x0001); // ACC_PUBLIC
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code.bytes, 0, code.length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+        }
+        
+        // One compare chain per specialized column; below the last one, the model for those levels.
+        // Gives up (false) as soon as the method outgrows MAX_METHOD_BYTES, before any branch offset can overflow.
+        private boolean emitNode(Bytecode code, int depth, boolean columnar, ConstantPool pool) {
+            if (depth == specialized.length) {
+                emitLeaf(code, columnar, pool);
+                branches++;
+                return code.length <= MAX_METHOD_BYTES;
+            }
+            int column = specialized[depth];
+            for (double level : HouseSchema.FIELDS[column].featureValues) {
+                emitLoad(code, column, columnar);
+                code.u1(0x14).u2(pool.doubleConstant(level)); // ldc2_w
+                code.u1(0x97); // dcmpl: NaN compares unequal
+                int jump = code.length;
+                code.u1(0x9a).u2(0); // ifne past this level's code
+                assigned[column] = level;
+                boolean fits = emitNode(code, depth + 1, columnar, pool);
+                assigned[column] = Double.NaN;
+                if (!fits) {
+                    return false;
+                }
+                code.patch2(jump + 1, code.length - jump);
+            }
+            // No level matched
+            code.u1(0x2a).u1(0x2b); // aload_0, aload_1
+            if (columnar) {
+                code.u1(0x1c); // iload_2
+                code.u1(0xb6).u2(pool.methodRef(SELF, "interpretAt", "([[DI)D")); // invokevirtual
+            } else {
+                code.u1(0xb6).u2(pool.methodRef(SELF, "interpret", "([D)D"));
+            }
+            code.u1(0xaf); // dreturn
+            return code.length <= MAX_METHOD_BYTES;
+        }
+        
+        // Intercept plus one multiply-add per distinct product of the columns still unknown
+        private void emitLeaf(Bytecode code, boolean columnar, ConstantPool pool) {
+            double constant = intercept;
+            Map<String, double[]> merged = new LinkedHashMap<>();
+            Map<String, int[]> products = new HashMap<>();
+            monomials:
+            for (int m = 0; m < coefficients.size(); m++) {
+                int[] conditionColumn = conditionColumns.get(m);
+                for (int k = 0; k < conditionColumn.length; k++) {
+                    if (assigned[conditionColumn[k]] != conditionLevels.get(m)[k]) continue monomials;
+                }
+                double coefficient = coefficients.get(m)[0];
+                int[] unknown = new int[factors.get(m).length];
+                int count = 0;
+                for (int column : factors.get(m)) {
+                    if (Double.isNaN(assigned[column])) {
+                        unknown[count++] = column;
+                    } else {
+                        coefficient *= assigned[column];
+                    }
+                }
+                if (count == 0) {
+                    constant += coefficient;
+                    continue;
+                }
+                unknown = Arrays.copyOf(unknown, count);
+                Arrays.sort(unknown);
+                String key = Arrays.toString(unknown);
+                merged.computeIfAbsent(key, k -> new double[1])[0] += coefficient;
+                products.put(key, unknown);
+            }
+            
+            code.u1(0x14).u2(pool.doubleConstant(constant)); // ldc2_w
+            for (Map.Entry<String, double[]> entry : merged.entrySet()) {
+                if (entry.getValue()[0] == 0) continue;
+                code.u1(0x14).u2(pool.doubleConstant(entry.getValue()[0]));
+                for (int column : products.get(entry.getKey())) {
+                    emitLoad(code, column, columnar);
+                    code.u1(0x6b); // dmul
+                }
+                code.u1(0x63); // dadd
+            }
+            code.u1(0xaf); // dreturn
+        }
+        
+        // features[column], or columns[column][i]
+        private static void emitLoad(Bytecode code, int column, boolean columnar) {
+            code.u1(0x2b).u1(0x10).u1(column); // aload_1, bipush
+            if (columnar) {
+                code.u1(0x32).u1(0x1c); // aaload, iload_2
+            }
+            code.u1(0x31); // daload
+        }
+    }
+    
+    private static final class Bytecode {
+        byte[] bytes = new byte[256];
+        int length;
+        
+        Bytecode u1(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) value;
+            return this;
+        }
+        
+        Bytecode u2(int value) {
+            return u1(value >>> 8).u1(value);
+        }
+        
+        void patch2(int at, int value) {
+            if (value > Short.MAX_VALUE) {
+                throw new IllegalStateException("Branch offset " + value + " does not fit in 16 bits");
+            }
+            bytes[at] = (byte) (value >>> 8);
+            bytes[at + 1] = (byte) value;
+        }
+    }
+    
+    // Entries are written as they are first requested, so everything they refer to precedes them
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int next = 1;
+        
+        int utf8(String value) {
+            return entry("U" + value, 1, 1, () -> out.writeUTF(value));
+        }
+        
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, 1, 7, () -> out.writeShort(nameIndex));
+        }
+        
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, 1, 12, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, 1, 10, () -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+        
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry("D" + bits, 2, 6, () -> out.writeLong(bits)); // doubles take two slots
+        }
+        
+        private interface Body {
+            void write() throws IOException;
+        }
+        
+        private int entry(String key, int slots, int tag, Body body) {
+            Integer existing = indexes.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                out.writeByte(tag);
+                body.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int index = next;
+            next += slots;
+            if (next > 0xFFFF) {
+                throw new IllegalStateException("Constant pool overflow");
+            }
+            indexes.put(key, index);
+            return index;
+        }
+        
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(next);
+            out.flush();
+            bytes.writeTo(target);
+        }
+    }
+    
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        FeatureExpansion expansion = FeatureExpansion.parse(args.length > 1 ? args[1] : "market");
+        List<UltimateHousingPredictor.House> train = DatasetGenerator.generateEnhancedData(rows, 7);
+        List<UltimateHousingPredictor.House> test = DatasetGenerator.generateEnhancedData(Math.max(1000, rows / 4), 8);
+        double[][] features = new double[test.size()][];
+        double[][] columns = new double[HouseSchema.NUM_FEATURES][test.size()];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = test.get(i).toFeatureArray();
+            for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+                columns[j][i] = features[i][j];
+            }
+        }
+        
+        for (FeatureExpansion candidate : new FeatureExpansion[] {null, expansion}) {
+            TrainingStatistics statistics = new TrainingStatistics(candidate);
+            for (UltimateHousingPredictor.House house : train) {
+                statistics.add(house.toFeatureArray(), house.getPrice());
+            }
+            UltimateHousingPredictor.LinearRegressionModel model = new RidgePath(statistics).compute(1e-6, 1e3, 200).bestModel();
+            long start = System.nanoTime();
+            CompiledScorer scorer = compile(model);
+            long compileNanos = System.nanoTime() - start;
+            if (scorer == null) {
+                System.out.println("Model was not compiled");
+                continue;
+            }
+            
+            double maxDifference = 0;
+            double[] interpreted = new double[features.length];
+            double[] compiled = new double[features.length];
+            model.predictColumns(columns, features.length, interpreted);
+            scorer.scoreColumns(columns, features.length, compiled);
+            for (int i = 0; i < features.length; i++) {
+                maxDifference = Math.max(maxDifference, Math.abs(model.interpret(features[i]) - scorer.score(features[i])) / Math.abs(model.interpret(features[i])));
+                maxDifference = Math.max(maxDifference, Math.abs(interpreted[i] - compiled[i]) / Math.abs(interpreted[i]));
+            }
+            
+            // Best of the timed rounds after ten warm-up rounds, so both paths are JIT-compiled
+            double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+            double sink = 0;
+            for (int round = 0; round < 60; round++) {
+                long t0 = System.nanoTime();
+                for (double[] row : features) sink += model.interpret(row);
+                long t1 = System.nanoTime();
+                for (double[] row : features) sink += scorer.score(row);
+                long t2 = System.nanoTime();
+                model.predictColumns(columns, features.length, interpreted);
+                long t3 = System.nanoTime();
+                scorer.scoreColumns(columns, features.length, compiled);
+                long t4 = System.nanoTime();
+                sink += interpreted[round] + compiled[round];
+                if (round < 10) continue;
+                best[0] = Math.min(best[0], (double) (t1 - t0) / features.length);
+                best[1] = Math.min(best[1], (double) (t2 - t1) / features.length);
+                best[2] = Math.min(best[2], (double) (t3 - t2) / features.length);
+                best[3] = Math.min(best[3], (double) (t4 - t3) / features.length);
+            }
+            System.out.printf("%-8s %3d columns, %2d branches, %5d bytes, compiled in %.2f ms, max relative difference %.1e%n",
+                candidate == null ? "raw" : "expanded", model.coefficients.length, scorer.getBranches(), scorer.getCodeBytes(),
+                compileNanos / 1e6, maxDifference);
+            System.out.printf("         per row: interpreter %6.2f ns, compiled %6.2f ns (%.1fx)%n", best[0], best[1], best[0] / best[1]);
+            System.out.printf("         columnar: interpreter %6.2f ns, compiled %6.2f ns (%.1fx)%s%n", best[2], best[3], best[2] / best[3],
+                sink == 42 ? "" : "");
+        }
+    }
+}
@@ -12,20 +12,7 @@ import java.util.Scanner;
  */
 public class DatasetGenerator {
     
-    // Enum for location types to match main system
-    public enum LocationType {
-        DOWNTOWN, SUBURB, RURAL, UPTOWN, BEACHSIDE, METROPOLITAN
-    }
-    
-    // Enum for furnishing states to match main system
-    public enum FurnishingState {
-        FURNISHED, UNFURNISHED, SEMI_FURNISHED
-    }
-    
-    // Enum for kitchen types to match main system
-    public enum KitchenType {
-        OPEN_KITCHEN, CLOSED_KITCHEN
-    }
+    // Houses, enums and the CSV layout are shared with the main system through HouseSchema
     
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
@@ -50,7 +37,7 @@ public class DatasetGenerator {
         
         System.out.println("\nGenerating " + numSamples + " enhanced samples...");
         
-        List<EnhancedHouse> houses = generateEnhancedData(numSamples);
+        List<UltimateHousingPredictor.House> houses = generateEnhancedData(numSamples);
         
         try {
             saveEnhancedDataset(houses, filename);
@@ -75,9 +62,16 @@ public class DatasetGenerator {
     /**
      * Generate enhanced realistic housing data with all features
      */
-    private static List<EnhancedHouse> generateEnhancedData(int numSamples) {
-        List<EnhancedHouse> houses = new ArrayList<>();
-        Random random = new Random(42); // Fixed seed for reproducible results
+    private static List<UltimateHousingPredictor.House> generateEnhancedData(int numSamples) {
+        return generateEnhancedData(numSamples, 42); // Fixed seed for reproducible results
+    }
+    
+    /**
+     * Same distributions with a caller-chosen seed (used by LoadGenerator for request payloads)
+     */
+    static List<UltimateHousingPredictor.House> generateEnhancedData(int numSamples, long seed) {
+        List<UltimateHousingPredictor.House> houses = new ArrayList<>();
+        Random random = new Random(seed);
         
         for (int i = 0; i < numSamples; i++) {
             // Generate correlated features
@@ -94,7 +88,7 @@ public class DatasetGenerator {
             area = Math.max(500, Math.min(5000, area));
             
             // Location with realistic distribution
-            LocationType location = generateLocationType(random);
+            UltimateHousingPredictor.LocationType location = generateLocationType(random);
             
             // Age (0-50 years, skewed towards newer)
             int age = (int) Math.abs(random.nextGaussian() * 10);
@@ -104,10 +98,10 @@ public class DatasetGenerator {
             double neighborhood = generateNeighborhoodQuality(location, random);
             
             // Furnishing state
-            FurnishingState furnishing = generateFurnishingState(random);
+            UltimateHousingPredictor.FurnishingState furnishing = generateFurnishingState(random);
             
             // Kitchen type (correlates with modern houses)
-            KitchenType kitchen = generateKitchenType(age, random);
+            UltimateHousingPredictor.KitchenType kitchen = generateKitchenType(age, random);
             
             // Parking correlates with size and location
             int parking = generateParkingSpaces(bedrooms, location, random);
@@ -118,8 +112,8 @@ public class DatasetGenerator {
                 parking, location, furnishing, kitchen, random
             );
             
-            houses.add(new EnhancedHouse(
-                (int)Math.round(area),                    // Round to whole number
+            houses.add(new UltimateHousingPredictor.House(
+                (double)Math.round(area),                 // Round to whole number
                 bedrooms,
                 bathrooms,
                 age,
@@ -138,20 +132,20 @@ public class DatasetGenerator {
     /**
      * Generate location type with realistic distribution
      */
-    private static LocationType generateLocationType(Random random) {
+    private static UltimateHousingPredictor.LocationType generateLocationType(Random random) {
         double prob = random.nextDouble();
-        if (prob < 0.35) return LocationType.SUBURB;      // 35%
-        else if (prob < 0.55) return LocationType.METROPOLITAN; // 20%
-        else if (prob < 0.70) return LocationType.DOWNTOWN;     // 15%
-        else if (prob < 0.82) return LocationType.UPTOWN;       // 12%
-        else if (prob < 0.92) return LocationType.BEACHSIDE;    // 10%
-        else return LocationType.RURAL;                         // 8%
+        if (prob < 0.35) return UltimateHousingPredictor.LocationType.SUBURB;      // 35%
+        else if (prob < 0.55) return UltimateHousingPredictor.LocationType.METROPOLITAN; // 20%
+        else if (prob < 0.70) return UltimateHousingPredictor.LocationType.DOWNTOWN;     // 15%
+        else if (prob < 0.82) return UltimateHousingPredictor.LocationType.UPTOWN;       // 12%
+        else if (prob < 0.92) return UltimateHousingPredictor.LocationType.BEACHSIDE;    // 10%
+        else return UltimateHousingPredictor.LocationType.RURAL;                         // 8%
     }
     
     /**
      * Generate neighborhood quality based on location
      */
-    private static double generateNeighborhoodQuality(LocationType location, Random random) {
+    private static double generateNeighborhoodQuality(UltimateHousingPredictor.LocationType location, Random random) {
         double baseQuality;
         switch (location) {
             case BEACHSIDE: baseQuality = 4.5; break;
@@ -172,29 +166,29 @@ public class DatasetGenerator {
     /**
      * Generate furnishing state
      */
-    private static FurnishingState generateFurnishingState(Random random) {
+    private static UltimateHousingPredictor.FurnishingState generateFurnishingState(Random random) {
         double prob = random.nextDouble();
-        if (prob < 0.4) return FurnishingState.UNFURNISHED;     // 40%
-        else if (prob < 0.75) return FurnishingState.SEMI_FURNISHED; // 35%
-        else return FurnishingState.FURNISHED;                  // 25%
+        if (prob < 0.4) return UltimateHousingPredictor.FurnishingState.UNFURNISHED;     // 40%
+        else if (prob < 0.75) return UltimateHousingPredictor.FurnishingState.SEMI_FURNISHED; // 35%
+        else return UltimateHousingPredictor.FurnishingState.FURNISHED;                  // 25%
     }
     
     /**
      * Generate kitchen type (newer houses more likely to have open kitchen)
      */
-    private static KitchenType generateKitchenType(int age, Random random) {
+    private static UltimateHousingPredictor.KitchenType generateKitchenType(int age, Random random) {
         // Newer houses (<= 10 years) more likely to have open kitchen
         if (age <= 10) {
-            return random.nextDouble() < 0.7 ? KitchenType.OPEN_KITCHEN : KitchenType.CLOSED_KITCHEN;
+            return random.nextDouble() < 0.7 ? UltimateHousingPredictor.KitchenType.OPEN_KITCHEN : UltimateHousingPredictor.KitchenType.CLOSED_KITCHEN;
         } else {
-            return random.nextDouble() < 0.3 ? KitchenType.OPEN_KITCHEN : KitchenType.CLOSED_KITCHEN;
+            return random.nextDouble() < 0.3 ? UltimateHousingPredictor.KitchenType.OPEN_KITCHEN : UltimateHousingPredictor.KitchenType.CLOSED_KITCHEN;
         }
     }
     
     /**
      * Generate parking spaces based on bedrooms and location
      */
-    private static int generateParkingSpaces(int bedrooms, LocationType location, Random random) {
+    private static int generateParkingSpaces(int bedrooms, UltimateHousingPredictor.LocationType location, Random random) {
         int baseParking;
         
         // Base parking based on bedrooms
@@ -222,8 +216,8 @@ public class DatasetGenerator {
      */
     private static double calculateEnhancedPrice(
             double area, int bedrooms, int bathrooms, int age, double neighborhood,
-            int parking, LocationType location, FurnishingState furnishing, 
-            KitchenType kitchen, Random random) {
+            int parking, UltimateHousingPredictor.LocationType location, UltimateHousingPredictor.FurnishingState furnishing, 
+            UltimateHousingPredictor.KitchenType kitchen, Random random) {
         
         // Base price per square foot
         double basePricePerSqFt = 150.0;
@@ -246,7 +240,7 @@ public class DatasetGenerator {
         }
         
         // Kitchen bonus
-        double kitchenBonus = (kitchen == KitchenType.OPEN_KITCHEN) ? 20000 : 0;
+        double kitchenBonus = (kitchen == UltimateHousingPredictor.KitchenType.OPEN_KITCHEN) ? 20000 : 0;
         
         // Age depreciation (1.5% per year)
         double ageDepreciation = age * 0.015;
@@ -271,7 +265,7 @@ public class DatasetGenerator {
     /**
      * Get location-based price multiplier
      */
-    private static double getLocationMultiplier(LocationType location) {
+    private static double getLocationMultiplier(UltimateHousingPredictor.LocationType location) {
         switch (location) {
             case BEACHSIDE: return 1.8;
             case UPTOWN: return 1.5;
@@ -295,27 +289,17 @@ public class DatasetGenerator {
     /**
      * Save enhanced dataset to CSV file
      */
-    private static void saveEnhancedDataset(List<EnhancedHouse> houses, String filename) throws IOException {
+    private static void saveEnhancedDataset(List<UltimateHousingPredictor.House> houses, String filename) throws IOException {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
             // Write enhanced header
-            writer.write("squareFootage,bedrooms,bathrooms,age,neighborhood,parkingSpaces,locationType,furnishingState,kitchenType,price");
+            writer.write(HouseSchema.csvHeader());
             writer.newLine();
             
             // Write data
-            for (EnhancedHouse house : houses) {
-                String line = String.format("%d,%d,%d,%d,%.1f,%d,%s,%s,%s,%d",
-                    house.getSquareFootage(),
-                    house.getBedrooms(),
-                    house.getBathrooms(),
-                    house.getAge(),
-                    house.getNeighborhood(),
-                    house.getParkingSpaces(),
-                    house.getLocationType(),
-                    house.getFurnishingState(),
-                    house.getKitchenType(),
-                    (int)house.getPrice()
-                );
-                writer.write(line);
+            StringBuilder line = new StringBuilder(128);
+            for (UltimateHousingPredictor.House house : houses) {
+                line.setLength(0);
+                writer.append(HouseSchema.appendCsv(house, line));
                 writer.newLine();
             }
         }
@@ -324,13 +308,13 @@ public class DatasetGenerator {
     /**
      * Display enhanced dataset statistics
      */
-    private static void displayEnhancedStatistics(List<EnhancedHouse> houses) {
+    private static void displayEnhancedStatistics(List<UltimateHousingPredictor.House> houses) {
         System.out.println("\n=== Enhanced Dataset Statistics ===");
         
         // Price statistics
-        double minPrice = houses.stream().mapToDouble(EnhancedHouse::getPrice).min().orElse(0);
-        double maxPrice = houses.stream().mapToDouble(EnhancedHouse::getPrice).max().orElse(0);
-        double avgPrice = houses.stream().mapToDouble(EnhancedHouse::getPrice).average().orElse(0);
+        double minPrice = houses.stream().mapToDouble(UltimateHousingPredictor.House::getPrice).min().orElse(0);
+        double maxPrice = houses.stream().mapToDouble(UltimateHousingPredictor.House::getPrice).max().orElse(0);
+        double avgPrice = houses.stream().mapToDouble(UltimateHousingPredictor.House::getPrice).average().orElse(0);
         
         System.out.println("\nPrice Range:");
         System.out.printf("  Min: $%,.0f\n", minPrice);
@@ -338,9 +322,9 @@ public class DatasetGenerator {
         System.out.printf("  Avg: $%,.0f\n", avgPrice);
         
         // Area statistics
-        double minArea = houses.stream().mapToDouble(EnhancedHouse::getSquareFootage).min().orElse(0);
-        double maxArea = houses.stream().mapToDouble(EnhancedHouse::getSquareFootage).max().orElse(0);
-        double avgArea = houses.stream().mapToDouble(EnhancedHouse::getSquareFootage).average().orElse(0);
+        double minArea = houses.stream().mapToDouble(UltimateHousingPredictor.House::getSquareFootage).min().orElse(0);
+        double maxArea = houses.stream().mapToDouble(UltimateHousingPredictor.House::getSquareFootage).max().orElse(0);
+        double avgArea = houses.stream().mapToDouble(UltimateHousingPredictor.House::getSquareFootage).average().orElse(0);
         
         System.out.println("\nArea Range:");
         System.out.printf("  Min: %.0f sq ft\n", minArea);
@@ -359,7 +343,7 @@ public class DatasetGenerator {
         }
         
         System.out.println("\nLocation Distribution:");
-        for (LocationType loc : LocationType.values()) {
+        for (UltimateHousingPredictor.LocationType loc : UltimateHousingPredictor.LocationType.values()) {
             long count = houses.stream().filter(h -> h.getLocationType() == loc).count();
             if (count > 0) {
                 System.out.printf("  %-15s: %d houses (%.1f%%)\n", 
@@ -368,7 +352,7 @@ public class DatasetGenerator {
         }
         
         System.out.println("\nFurnishing Distribution:");
-        for (FurnishingState furn : FurnishingState.values()) {
+        for (UltimateHousingPredictor.FurnishingState furn : UltimateHousingPredictor.FurnishingState.values()) {
             long count = houses.stream().filter(h -> h.getFurnishingState() == furn).count();
             if (count > 0) {
                 System.out.printf("  %-15s: %d houses (%.1f%%)\n", 
@@ -377,7 +361,7 @@ public class DatasetGenerator {
         }
         
         System.out.println("\nKitchen Type Distribution:");
-        for (KitchenType kitchen : KitchenType.values()) {
+        for (UltimateHousingPredictor.KitchenType kitchen : UltimateHousingPredictor.KitchenType.values()) {
             long count = houses.stream().filter(h -> h.getKitchenType() == kitchen).count();
             if (count > 0) {
                 System.out.printf("  %-15s: %d houses (%.1f%%)\n", 
@@ -400,60 +384,8 @@ public class DatasetGenerator {
      * Quick method to generate and save dataset programmatically
      */
     public static void generateAndSave(int numSamples, String filename) throws IOException {
-        List<EnhancedHouse> houses = generateEnhancedData(numSamples);
+        List<UltimateHousingPredictor.House> houses = generateEnhancedData(numSamples);
         saveEnhancedDataset(houses, filename);
         System.out.println("Generated " + numSamples + " enhanced samples and saved to " + filename);
     }
 }
-
-/**
- * Enhanced House class matching the main system's features
- */
-class EnhancedHouse {
-    private int squareFootage;
-    private int bedrooms;
-    private int bathrooms;
-    private int age;
-    private double neighborhood;
-    private int parkingSpaces;
-    private DatasetGenerator.LocationType locationType;
-    private DatasetGenerator.FurnishingState furnishingState;
-    private DatasetGenerator.KitchenType kitchenType;
-    private double price;
-
-    public EnhancedHouse(int squareFootage, int bedrooms, int bathrooms, int age,
-                        double neighborhood, int parkingSpaces, 
-                        DatasetGenerator.LocationType locationType,
-                        DatasetGenerator.FurnishingState furnishingState,
-                        DatasetGenerator.KitchenType kitchenType, double price) {
-        this.squareFootage = squareFootage;
-        this.bedrooms = bedrooms;
-        this.bathrooms = bathrooms;
-        this.age = age;
-        this.neighborhood = neighborhood;
-        this.parkingSpaces = parkingSpaces;
-        this.locationType = locationType;
-        this.furnishingState = furnishingState;
-        this.kitchenType = kitchenType;
-        this.price = price;
-    }
-
-    // Getters
-    public int getSquareFootage() { return squareFootage; }
-    public int getBedrooms() { return bedrooms; }
-    public int getBathrooms() { return bathrooms; }
-    public int getAge() { return age; }
-    public double getNeighborhood() { return neighborhood; }
-    public int getParkingSpaces() { return parkingSpaces; }
-    public DatasetGenerator.LocationType getLocationType() { return locationType; }
-    public DatasetGenerator.FurnishingState getFurnishingState() { return furnishingState; }
-    public DatasetGenerator.KitchenType getKitchenType() { return kitchenType; }
-    public double getPrice() { return price; }
-
-    @Override
-    public String toString() {
-        return String.format("%d sqft, %dbd/%dbth, %d yrs, %.1f neigh, %d park, %s, %s, %s, $%,.0f",
-                squareFootage, bedrooms, bathrooms, age, neighborhood, parkingSpaces,
-                locationType, furnishingState, kitchenType, price);
-    }
-}
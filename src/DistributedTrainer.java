@@ -0,0 +1,513 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator/worker training over a directory of CSV shards
+ * Each worker is a separate JVM that streams the shards it is handed into TrainingStatistics
+ * (through StreamingTrainer) and sends the statistics back. The coordinator hands out one shard
+ * at a time per worker, merges the results in shard order and leaves the solve to the caller,
+ * so a distributed fit is the same fit a single StreamingTrainer pass gives. A worker that
+ * drops its connection or times out is retired and its shard goes back to the front of the
+ * queue for the others; a shard a worker could not read is retried elsewhere a few times,
+ * because workers on other hosts may see different files. Shard paths are sent as the
+ * coordinator resolves them, so remote workers need the same paths (e.g. a shared mount).
+ * When the run fails, the connections still waiting on a shard are closed at once. A reply the
+ * coordinator cannot parse retires that worker like a dropped connection but also counts as an
+ * attempt at the shard, and the whole run fails once it exceeds its deadline
+ * (-Dhousing.distributed.runTimeoutMs, 30 minutes by default).
+ *
+ * Workers bind to -Dhousing.distributed.bind (default 127.0.0.1), only read shards inside
+ * -Dhousing.distributed.dataDir (default the working directory), and only serve coordinators
+ * that prove they hold the shared secret (-Dhousing.distributed.secretFile, or
+ * -Dhousing.distributed.secret). Error messages name the failure, never the file's contents.
+ *
+ * Protocol (big-endian, one task at a time per connection):
+ *   hello:  worker sends int magic and a 32-byte nonce; the coordinator answers HMAC-SHA256(secret, nonce)
+ *   task:   int magic, int shard, UTF path, UTF expansion spec ("" for the raw features)
+ *   result: int shard, int status, then TrainingStatistics.writeTo on STATUS_OK, a UTF message on STATUS_ERROR
+ * A host:port may be listed more than once to give that worker several concurrent shards.
+ *
+ * Usage:
+ *   java DistributedTrainer worker [port]
+ *   java DistributedTrainer coordinate <csv|directory> <host:port,...> [expansion] [snapshot file]
+ *   java DistributedTrainer local <csv|directory> [workers] [killAfterShards]   (spawns localhost workers)
+ */
+public class DistributedTrainer {
+    private static final int MAGIC = 0x48445432; // "HDT2"
+    private static final int NONCE_BYTES = 32;
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+    
+    private final List<Path> shards;
+    private final List<InetSocketAddress> workers;
+    private final byte[] secret;
+    private FeatureExpansion expansion;
+    private int connectTimeoutMillis = 2000;
+    private int taskTimeoutMillis = 600_000;
+    private int maxAttempts = 3;
+    private long runTimeoutMillis = Long.getLong("housing.distributed.runTimeoutMs", 1_800_000);
+    
+    // Outcome of the last run(); each worker slot writes only its own entries
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger reassigned = new AtomicInteger();
+    private int[] workerShards;
+    private long[] workerRows;
+    private String[] workerFailures;
+    private long runMillis;
+    private long rows;
+    private volatile String failure;
+    private Socket[] sockets; // open connections of the current run, closed by cancel()
+    
+    public DistributedTrainer(Path source, List<InetSocketAddress> workers) throws IOException {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("No workers given");
+        }
+        this.shards = StreamingTrainer.listShards(source);
+        this.workers = workers;
+        this.secret = configuredSecret();
+    }
+    
+    public DistributedTrainer expansion(FeatureExpansion expansion) { this.expansion = expansion; return this; }
+    public DistributedTrainer connectTimeout(int millis) { this.connectTimeoutMillis = millis; return this; }
+    public DistributedTrainer taskTimeout(int millis) { this.taskTimeoutMillis = millis; return this; }
+    public DistributedTrainer maxAttempts(int attempts) { this.maxAttempts = Math.max(1, attempts); return this; }
+    public DistributedTrainer runTimeout(long millis) { this.runTimeoutMillis = millis; return this; }
+    
+    public int completedShards() { return completed.get(); }
+    
+    /**
+     * "host:port" entries separated by commas, semicolons or spaces; a bare port means localhost
+     */
+    public static List<InetSocketAddress> parseWorkers(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : list.trim().split("[,;\\s]+")) {
+            if (entry.isEmpty()) continue;
+            int colon = entry.lastIndexOf(':');
+            String host = colon >= 0 ? entry.substring(0, colon) : "localhost";
+            addresses.add(new InetSocketAddress(host, Integer.parseInt(entry.substring(colon + 1))));
+        }
+        return addresses;
+    }
+    
+    /**
+     * Workers named by a client, each of which must be listed in -Dhousing.distributed.workers
+     */
+    public static List<InetSocketAddress> allowedWorkers(String requested) {
+        // Compared as written, so a client-supplied host is never even looked up
+        List<String> allowed = workerEntries(System.getProperty("housing.distributed.workers", ""));
+        for (String entry : workerEntries(requested)) {
+            if (!allowed.contains(entry)) {
+                throw new IllegalArgumentException("Worker " + entry + " is not listed in housing.distributed.workers");
+            }
+        }
+        return parseWorkers(requested);
+    }
+    
+    private static List<String> workerEntries(String list) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : list.trim().split("[,;\\s]+")) {
+            if (!entry.isEmpty()) {
+                entries.add(entry.indexOf(':') >= 0 ? entry : "localhost:" + entry);
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * The shared secret from -Dhousing.distributed.secretFile or -Dhousing.distributed.secret
+     */
+    static byte[] configuredSecret() throws IOException {
+        String file = System.getProperty("housing.distributed.secretFile");
+        String secret = file != null ? Files.readString(Paths.get(file), StandardCharsets.UTF_8).trim()
+            : System.getProperty("housing.distributed.secret");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("Distributed training needs a shared secret: set housing.distributed.secretFile or housing.distributed.secret");
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] proof(byte[] secret, byte[] nonce) {
+        try {
+            javax.crypto.Mac mac = javax.crypto.Mac.getInstance("HmacSHA256");
+            mac.init(new javax.crypto.spec.SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Train every shard on the workers and merge the statistics in shard order
+     */
+    public TrainingStatistics run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int count = shards.size();
+        BlockingDeque<Integer> pending = new LinkedBlockingDeque<>();
+        for (int s = 0; s < count; s++) {
+            pending.add(s);
+        }
+        TrainingStatistics[] results = new TrainingStatistics[count];
+        int[] attempts = new int[count];
+        AtomicInteger remaining = new AtomicInteger(count);
+        completed.set(0);
+        reassigned.set(0);
+        failure = null;
+        workerShards = new int[workers.size()];
+        workerRows = new long[workers.size()];
+        workerFailures = new String[workers.size()];
+        sockets = new Socket[workers.size()];
+        
+        List<Thread> slots = new ArrayList<>();
+        for (int w = 0; w < workers.size(); w++) {
+            int worker = w;
+            Thread slot = new Thread(() -> drive(worker, pending, results, attempts, remaining), "train-coordinator-" + w);
+            slot.setDaemon(true);
+            slot.start();
+            slots.add(slot);
+        }
+        long deadline = System.nanoTime() + runTimeoutMillis * 1_000_000L;
+        try {
+            for (Thread slot : slots) {
+                long left = deadline - System.nanoTime();
+                if (left > 0) {
+                    slot.join(Math.max(1, left / 1_000_000));
+                }
+                if (slot.isAlive()) {
+                    cancel("Distributed training exceeded its " + runTimeoutMillis + " ms deadline");
+                    slot.join(); // its socket is closed, so it ends at once
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel("Coordinator interrupted");
+            throw e;
+        }
+        runMillis = (System.nanoTime() - start) / 1_000_000;
+        
+        if (remaining.get() > 0) {
+            throw new IOException(failure != null ? failure
+                : "All " + workers.size() + " workers failed with " + remaining.get() + " of " + count + " shards untrained");
+        }
+        TrainingStatistics total = new TrainingStatistics(expansion);
+        for (TrainingStatistics part : results) {
+            total.merge(part);
+        }
+        rows = total.getCount();
+        return total;
+    }
+    
+    // Fail the run and close every open connection, so no slot waits out its task timeout
+    private void cancel(String reason) {
+        synchronized (sockets) {
+            if (failure == null) {
+                failure = reason;
+            }
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                        // closing is all we want
+                    }
+                }
+            }
+        }
+    }
+    
+    // One connection to one worker; hands it shards until none are left or the worker fails
+    private void drive(int worker, BlockingDeque<Integer> pending, TrainingStatistics[] results, int[] attempts, AtomicInteger remaining) {
+        InetSocketAddress address = workers.get(worker);
+        String spec = expansion != null ? expansion.spec() : "";
+        try (Socket socket = new Socket()) {
+            synchronized (sockets) {
+                if (failure != null) {
+                    return;
+                }
+                sockets[worker] = socket;
+            }
+            socket.connect(address, connectTimeoutMillis);
+            socket.setSoTimeout(taskTimeoutMillis);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            
+            // Answer the worker's challenge
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a training worker");
+            }
+            byte[] nonce = new byte[NONCE_BYTES];
+            in.readFully(nonce);
+            out.write(proof(secret, nonce));
+            out.flush();
+            
+            while (remaining.get() > 0 && failure == null) {
+                Integer shard = pending.poll(20, TimeUnit.MILLISECONDS);
+                if (shard == null) {
+                    continue; // the rest are in flight on other workers, which may still fail
+                }
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(shard);
+                    out.writeUTF(shards.get(shard).toAbsolutePath().toString());
+                    out.writeUTF(spec);
+                    out.flush();
+                    
+                    if (in.readInt() != shard) {
+                        throw new IOException("Worker answered for the wrong shard");
+                    }
+                    if (in.readInt() == STATUS_OK) {
+                        TrainingStatistics statistics = TrainingStatistics.readFrom(in);
+                        results[shard] = statistics;
+                        workerShards[worker]++;
+                        workerRows[worker] += statistics.getCount();
+                        completed.incrementAndGet();
+                        remaining.decrementAndGet();
+                    } else {
+                        String message = in.readUTF();
+                        synchronized (attempts) {
+                            if (++attempts[shard] >= Math.min(maxAttempts, workers.size())) {
+                                cancel("Shard " + shards.get(shard) + " failed: " + message);
+                            } else {
+                                reassigned.incrementAndGet();
+                                pending.addLast(shard);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // The worker is gone or stuck: someone else takes the shard
+                    reassigned.incrementAndGet();
+                    pending.addFirst(shard);
+                    throw e;
+                } catch (RuntimeException e) {
+                    // A reply we cannot parse: retire the worker, and let the shard fail if it keeps doing this
+                    synchronized (attempts) {
+                        if (++attempts[shard] >= Math.min(maxAttempts, workers.size())) {
+                            cancel("Shard " + shards.get(shard) + " failed: malformed worker reply (" + e + ")");
+                        } else {
+                            reassigned.incrementAndGet();
+                            pending.addFirst(shard);
+                        }
+                    }
+                    throw new IOException("Malformed reply: " + e, e);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (failure != null) {
+                return; // cancelled: the run has already failed
+            }
+            workerFailures[worker] = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            System.err.println(" Training worker " + address + " failed: " + workerFailures[worker]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Summary of the last run as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT, "{\"shards\": %d, \"rows\": %d, \"millis\": %d, \"reassigned\": %d, \"workers\": [",
+            shards.size(), rows, runMillis, reassigned.get()));
+        for (int w = 0; w < workers.size(); w++) {
+            if (w > 0) json.append(", ");
+            InetSocketAddress address = workers.get(w);
+            json.append(String.format(Locale.ROOT, "{\"address\": \"%s:%d\", \"shards\": %d, \"rows\": %d, \"failed\": %s}",
+                address.getHostString(), address.getPort(), workerShards[w], workerRows[w], workerFailures[w] != null));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+    
+    /**
+     * Worker side: serve tasks on port (0 picks a free one) until the process is stopped
+     */
+    public static void serve(int port) throws IOException {
+        byte[] secret = configuredSecret();
+        Path dataDir = Paths.get(System.getProperty("housing.distributed.dataDir", ".")).toRealPath();
+        InetAddress bind = InetAddress.getByName(System.getProperty("housing.distributed.bind", "127.0.0.1"));
+        ServerSocket serverSocket = new ServerSocket(port, 50, bind);
+        System.out.println("Training worker listening on port " + serverSocket.getLocalPort());
+        System.out.flush();
+        while (true) {
+            Socket socket = serverSocket.accept();
+            Thread connection = new Thread(() -> serveConnection(socket, secret, dataDir), "train-worker");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+    
+    private static void serveConnection(Socket socket, byte[] secret, Path dataDir) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            // Challenge the peer before reading any task
+            byte[] nonce = new byte[NONCE_BYTES];
+            new SecureRandom().nextBytes(nonce);
+            out.writeInt(MAGIC);
+            out.write(nonce);
+            out.flush();
+            socket.setSoTimeout(10_000);
+            byte[] answer = new byte[NONCE_BYTES];
+            in.readFully(answer);
+            if (!MessageDigest.isEqual(answer, proof(secret, nonce))) {
+                System.err.println("Rejected a connection from " + socket.getRemoteSocketAddress() + ": wrong secret");
+                return;
+            }
+            socket.setSoTimeout(0);
+            
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (magic != MAGIC) {
+                    return; // not a coordinator; drop the connection
+                }
+                int shard = in.readInt();
+                String path = in.readUTF();
+                String spec = in.readUTF();
+                
+                long start = System.nanoTime();
+                TrainingStatistics statistics;
+                try {
+                    Path shardPath = Paths.get(path).toAbsolutePath().normalize();
+                    if (!shardPath.startsWith(dataDir) || !shardPath.toRealPath().startsWith(dataDir)) {
+                        throw new IllegalArgumentException("Shard is outside the worker's data directory");
+                    }
+                    FeatureExpansion expansion = spec.isEmpty() ? null : FeatureExpansion.parse(spec);
+                    statistics = new StreamingTrainer(shardPath).expansion(expansion).run();
+                } catch (Exception e) {
+                    // The full message can quote input lines; only the worker's own log gets it
+                    System.err.println("Shard " + path + " failed: " + e.getMessage());
+                    out.writeInt(shard);
+                    out.writeInt(STATUS_ERROR);
+                    out.writeUTF(e.getClass().getSimpleName() + " on the worker; see its log");
+                    out.flush();
+                    continue;
+                }
+                out.writeInt(shard);
+                out.writeInt(STATUS_OK);
+                statistics.writeTo(out);
+                out.flush();
+                System.out.printf("Shard %s: %,d rows in %.1f ms%n", path, statistics.getCount(), (System.nanoTime() - start) / 1e6);
+            }
+        } catch (IOException e) {
+            System.err.println("Coordinator connection lost: " + e.getMessage());
+        }
+    }
+    
+    // The single-process default: ridge for an expansion, otherwise the HousingMLSystem per-feature fit
+    static UltimateHousingPredictor.LinearRegressionModel fit(TrainingStatistics statistics) {
+        return statistics.getExpansion() != null
+            ? new RidgePath(statistics).compute(1e-6, 1e3, 200).bestModel()
+            : statistics.toUnivariateModel();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 1 && args[0].equals("worker")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 9301);
+        } else if (args.length >= 3 && args[0].equals("coordinate")) {
+            DistributedTrainer trainer = new DistributedTrainer(Paths.get(args[1]), parseWorkers(args[2]))
+                .expansion(args.length > 3 && !args[3].isEmpty() ? FeatureExpansion.parse(args[3]) : null);
+            TrainingStatistics statistics = trainer.run();
+            System.out.println(trainer.toJson());
+            UltimateHousingPredictor.LinearRegressionModel model = fit(statistics);
+            if (args.length > 4) {
+                new ModelSnapshot(model, statistics.getCount()).write(Paths.get(args[4]));
+                System.out.println("Model snapshot published to " + args[4]);
+            }
+            new UltimateHousingPredictor.HousingMLSystem(model).displayModelInfo();
+        } else if (args.length >= 2 && args[0].equals("local")) {
+            runLocal(Paths.get(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 3, args.length > 3 ? Integer.parseInt(args[3]) : -1);
+        } else {
+            System.out.println("Usage: java DistributedTrainer worker [port]");
+            System.out.println("       java DistributedTrainer coordinate <csv|directory> <host:port,...> [expansion] [snapshot]");
+            System.out.println("       java DistributedTrainer local <csv|directory> [workers] [killAfterShards]");
+        }
+    }
+    
+    // Spawn worker JVMs on localhost, optionally kill one mid-run, and check the result against one StreamingTrainer pass
+    private static void runLocal(Path source, int workerCount, int killAfterShards) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        byte[] secretBytes = new byte[16];
+        new SecureRandom().nextBytes(secretBytes);
+        String secret = HexFormat.of().formatHex(secretBytes);
+        Path dataDir = Files.isDirectory(source) ? source : source.toAbsolutePath().getParent();
+        try {
+            for (int w = 0; w < workerCount; w++) {
+                Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        "-Dhousing.distributed.secret=" + secret, "-Dhousing.distributed.dataDir=" + dataDir,
+                        "DistributedTrainer", "worker", "0")
+                    .redirectErrorStream(true).start();
+                processes.add(process);
+                BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                String banner = output.readLine();
+                if (banner == null || !banner.startsWith("Training worker listening on port ")) {
+                    throw new IOException("Worker " + w + " did not start: " + banner);
+                }
+                addresses.add(new InetSocketAddress("localhost", Integer.parseInt(banner.substring(banner.lastIndexOf(' ') + 1))));
+                String prefix = "  [worker " + w + "] ";
+                Thread pump = new Thread(() -> output.lines().forEach(line -> System.out.println(prefix + line)));
+                pump.setDaemon(true);
+                pump.start();
+            }
+            
+            System.setProperty("housing.distributed.secret", secret);
+            DistributedTrainer trainer = new DistributedTrainer(source, addresses);
+            if (killAfterShards >= 0) {
+                Thread killer = new Thread(() -> {
+                    try {
+                        while (trainer.completedShards() < killAfterShards) {
+                            Thread.sleep(1);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.out.println("  Killing worker 0");
+                    processes.get(0).destroyForcibly();
+                });
+                killer.setDaemon(true);
+                killer.start();
+            }
+            TrainingStatistics statistics = trainer.run();
+            System.out.println(trainer.toJson());
+            
+            long start = System.nanoTime();
+            TrainingStatistics single = new StreamingTrainer(source).run();
+            long singleMillis = (System.nanoTime() - start) / 1_000_000;
+            double[] distributed = fit(statistics).coefficients;
+            double[] reference = fit(single).coefficients;
+            double difference = 0;
+            for (int j = 0; j < reference.length; j++) {
+                difference = Math.max(difference, Math.abs(distributed[j] - reference[j]) / Math.max(1e-12, Math.abs(reference[j])));
+            }
+            System.out.printf("Single process: %,d rows in %d ms; distributed: %,d rows; largest relative coefficient difference %.2e%n",
+                single.getCount(), singleMillis, statistics.getCount(), difference);
+        } finally {
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Input and prediction drift between served traffic and a model's training data
+ * Every model version carries two sketches of the same shape: one built from its training rows
+ * (prices predicted by the version itself, so like is compared with like) and one fed by every
+ * prediction it serves. Numeric fields go into log-linear histograms (16 buckets per power of
+ * two, bucket width at most 6.25%), categorical fields into counts per level. Sketches are
+ * mergeable and recording is lock-free: each thread increments counters in its own stripe.
+ *
+ * Drift per field is the population stability index over ten bins cut at the reference deciles
+ * (merged where a bucket spans several deciles, as for bedroom counts) and, for numeric fields,
+ * the Kolmogorov-Smirnov distance between the two histograms. A PSI above 0.1 is usually read as
+ * a moderate shift and above 0.25 as a large one.
+ */
+public class DriftMonitor {
+    public static final double DEFAULT_PSI_THRESHOLD = 0.2;
+    public static final long DEFAULT_MIN_ROWS = 100;
+    private static final int REFERENCE_ROW_LIMIT = 200_000;
+    private static final int BINS = 10;
+    private static final double MIN_SHARE = 1e-4; // keeps PSI finite for empty bins
+    
+    // Numeric buckets: a zero bucket with mirrored magnitude buckets on each side
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int MIN_EXPONENT = -8;
+    private static final int MAX_EXPONENT = 32;
+    private static final int MAGNITUDE_BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) << SUB_BUCKET_BITS;
+    private static final int NUMERIC_BUCKETS = 2 * MAGNITUDE_BUCKETS + 1;
+    private static final int ZERO_BUCKET = MAGNITUDE_BUCKETS;
+    
+    // Per-field offsets within one stripe, in schema order; the row count follows the last field
+    private static final int[] OFFSET = new int[HouseSchema.NUM_FIELDS];
+    private static final int[] SIZE = new int[HouseSchema.NUM_FIELDS];
+    private static final int COUNT_OFFSET;
+    private static final int STRIPE_LONGS;
+    static {
+        int offset = 0;
+        for (int f = 0; f < HouseSchema.NUM_FIELDS; f++) {
+            HouseSchema.Field field = HouseSchema.FIELDS[f];
+            OFFSET[f] = offset;
+            SIZE[f] = field.kind == HouseSchema.Kind.CATEGORY ? field.levelCount() + 1 : NUMERIC_BUCKETS; // + unknown level
+            offset += SIZE[f];
+        }
+        COUNT_OFFSET = offset;
+        STRIPE_LONGS = (offset + 1 + 15) & ~15; // whole 128-byte lines, so stripes never share one
+    }
+    
+    /**
+     * Striped counters for all fields of a stream of (features, price) rows
+     */
+    public static class Sketch {
+        private final AtomicLongArray counts;
+        private final int stripeMask;
+        
+        public Sketch(int stripes) {
+            int count = Integer.highestOneBit(Math.max(1, stripes));
+            this.stripeMask = count - 1;
+            this.counts = new AtomicLongArray(count * STRIPE_LONGS);
+        }
+        
+        /**
+         * Sketch striped for the machine's request threads
+         */
+        public static Sketch forServing() {
+            return new Sketch(Math.min(16, Runtime.getRuntime().availableProcessors() * 2));
+        }
+        
+        public void record(double[] features, double price) {
+            int base = stripe();
+            for (int f = 0; f < HouseSchema.NUM_FEATURES; f++) {
+                counts.getAndIncrement(base + OFFSET[f] + bucket(f, features[f]));
+            }
+            counts.getAndIncrement(base + OFFSET[HouseSchema.PRICE] + bucket(HouseSchema.PRICE, price));
+            counts.getAndIncrement(base + COUNT_OFFSET);
+        }
+        
+        /**
+         * Record row r of a columnar block
+         */
+        public void record(double[][] columns, int r, double price) {
+            int base = stripe();
+            for (int f = 0; f < HouseSchema.NUM_FEATURES; f++) {
+                counts.getAndIncrement(base + OFFSET[f] + bucket(f, columns[f][r]));
+            }
+            counts.getAndIncrement(base + OFFSET[HouseSchema.PRICE] + bucket(HouseSchema.PRICE, price));
+            counts.getAndIncrement(base + COUNT_OFFSET);
+        }
+        
+        private int stripe() {
+            return (int) (Thread.currentThread().getId() & stripeMask) * STRIPE_LONGS;
+        }
+        
+        /**
+         * Counters summed over the stripes, one stripe's layout
+         */
+        public long[] totals() {
+            long[] totals = new long[STRIPE_LONGS];
+            for (int i = 0; i < counts.length(); i++) {
+                totals[i % STRIPE_LONGS] += counts.get(i);
+            }
+            return totals;
+        }
+        
+        public long rows() {
+            long rows = 0;
+            for (int base = 0; base < counts.length(); base += STRIPE_LONGS) {
+                rows += counts.get(base + COUNT_OFFSET);
+            }
+            return rows;
+        }
+        
+        /**
+         * Add another sketch's counts into this one
+         */
+        public Sketch merge(Sketch other) {
+            long[] totals = other.totals();
+            for (int i = 0; i < STRIPE_LONGS; i++) {
+                counts.getAndAdd(i, totals[i]);
+            }
+            return this;
+        }
+        
+        /**
+         * Start a new observation window; increments racing with the reset may survive it
+         */
+        public void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+    }
+    
+    /**
+     * Row access shared by the training stores: column j of row r in schema numbering
+     */
+    public interface ColumnReader {
+        double get(long row, int column);
+    }
+    
+    /**
+     * Reference sketch of in-memory training houses, priced by the model being monitored
+     */
+    public static Sketch reference(List<UltimateHousingPredictor.House> houses, UltimateHousingPredictor.LinearRegressionModel model) {
+        Sketch sketch = new Sketch(1);
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        int stride = Math.max(1, (houses.size() + REFERENCE_ROW_LIMIT - 1) / REFERENCE_ROW_LIMIT);
+        for (int i = 0; i < houses.size(); i += stride) {
+            HouseSchema.toRow(houses.get(i), features);
+            sketch.record(features, model.predict(features));
+        }
+        return sketch;
+    }
+    
+    /**
+     * Reference sketch of (a stride sample of) a training store
+     */
+    public static Sketch reference(long rows, ColumnReader store, UltimateHousingPredictor.LinearRegressionModel model) {
+        Sketch sketch = new Sketch(1);
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        long stride = Math.max(1, (rows + REFERENCE_ROW_LIMIT - 1) / REFERENCE_ROW_LIMIT);
+        for (long r = 0; r < rows; r += stride) {
+            for (int j = 0; j < features.length; j++) {
+                features[j] = store.get(r, j);
+            }
+            sketch.record(features, model.predict(features));
+        }
+        return sketch;
+    }
+    
+    // ---- buckets -------------------------------------------------------------------------
+    
+    static int bucket(int field, double value) {
+        HouseSchema.Field schemaField = HouseSchema.FIELDS[field];
+        if (schemaField.kind == HouseSchema.Kind.CATEGORY) {
+            int ordinal = schemaField.ordinalOfFeature(value);
+            return ordinal < 0 ? schemaField.levelCount() : ordinal;
+        }
+        if (value > 0) {
+            return ZERO_BUCKET + 1 + magnitudeBucket(value);
+        }
+        if (value < 0) {
+            return ZERO_BUCKET - 1 - magnitudeBucket(-value);
+        }
+        return ZERO_BUCKET; // zero and NaN
+    }
+    
+    // Exponent and top mantissa bits of a positive double; tiny values fall into the first bucket, huge ones into the last
+    private static int magnitudeBucket(double magnitude) {
+        long bits = Double.doubleToRawLongBits(magnitude);
+        int exponent = (int) (bits >>> 52) - 1023;
+        if (exponent < MIN_EXPONENT) {
+            return 0;
+        }
+        if (exponent >= MAX_EXPONENT) {
+            return MAGNITUDE_BUCKETS - 1;
+        }
+        int sub = (int) (bits >>> (52 - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return (exponent - MIN_EXPONENT) << SUB_BUCKET_BITS | sub;
+    }
+    
+    // Lower edge of a numeric bucket (exact for small whole numbers)
+    static double bucketValue(int bucket) {
+        if (bucket == ZERO_BUCKET) {
+            return 0;
+        }
+        int magnitude = bucket > ZERO_BUCKET ? bucket - ZERO_BUCKET - 1 : ZERO_BUCKET - 1 - bucket;
+        int exponent = (magnitude >> SUB_BUCKET_BITS) + MIN_EXPONENT;
+        double value = Math.scalb(1.0 + (magnitude & ((1 << SUB_BUCKET_BITS) - 1)) / (double) (1 << SUB_BUCKET_BITS), exponent);
+        return bucket > ZERO_BUCKET ? value : -value;
+    }
+    
+    // ---- scores --------------------------------------------------------------------------
+    
+    /**
+     * Population stability index of live against reference over bins of consecutive buckets;
+     * binEnds[b] is the exclusive end bucket of bin b
+     */
+    static double psi(long[] reference, long referenceRows, long[] live, long liveRows, int offset, int[] binEnds) {
+        double psi = 0;
+        int start = 0;
+        for (int end : binEnds) {
+            long r = 0;
+            long l = 0;
+            for (int i = start; i < end; i++) {
+                r += reference[offset + i];
+                l += live[offset + i];
+            }
+            double expected = Math.max(MIN_SHARE, (double) r / referenceRows);
+            double actual = Math.max(MIN_SHARE, (double) l / liveRows);
+            psi += (actual - expected) * Math.log(actual / expected);
+            start = end;
+        }
+        return psi;
+    }
+    
+    // Bins closing at the bucket where the reference reaches each decile; duplicates collapse
+    static int[] decileBins(long[] reference, long referenceRows, int offset, int size) {
+        int[] ends = new int[BINS];
+        int bins = 0;
+        long cumulative = 0;
+        int nextDecile = 1;
+        for (int i = 0; i < size && nextDecile < BINS; i++) {
+            cumulative += reference[offset + i];
+            if (cumulative * BINS >= nextDecile * referenceRows) {
+                ends[bins++] = i + 1;
+                while (nextDecile < BINS && cumulative * BINS >= nextDecile * referenceRows) {
+                    nextDecile++;
+                }
+            }
+        }
+        if (bins == 0 || ends[bins - 1] < size) {
+            ends[bins++] = size;
+        }
+        return java.util.Arrays.copyOf(ends, bins);
+    }
+    
+    static double kolmogorovSmirnov(long[] reference, long referenceRows, long[] live, long liveRows, int offset, int size) {
+        double distance = 0;
+        long r = 0;
+        long l = 0;
+        for (int i = 0; i < size; i++) {
+            r += reference[offset + i];
+            l += live[offset + i];
+            distance = Math.max(distance, Math.abs((double) r / referenceRows - (double) l / liveRows));
+        }
+        return distance;
+    }
+    
+    static double quantile(long[] counts, long rows, int offset, int size, double q) {
+        long target = (long) Math.ceil(q * rows);
+        long cumulative = 0;
+        for (int i = 0; i < size; i++) {
+            cumulative += counts[offset + i];
+            if (cumulative >= Math.max(1, target)) {
+                return bucketValue(i);
+            }
+        }
+        return bucketValue(size - 1);
+    }
+    
+    /**
+     * Drift report of one version as a JSON object; scores are only given once the live sketch
+     * holds minRows rows, and fields whose PSI exceeds the threshold are listed under "drifted"
+     */
+    public static void writeJson(JsonResponseWriter json, int versionId, Sketch referenceSketch, Sketch liveSketch,
+                                 double psiThreshold, long minRows) {
+        long[] live = liveSketch.totals();
+        long liveRows = live[COUNT_OFFSET];
+        json.beginObject().name("modelVersion").value(versionId);
+        json.name("servedRows").value(liveRows);
+        if (referenceSketch == null) {
+            json.name("referenceRows").nullValue()
+                .name("error").value("No training rows to compare with (model loaded from a snapshot or streamed)")
+                .endObject();
+            return;
+        }
+        long[] reference = referenceSketch.totals();
+        long referenceRows = reference[COUNT_OFFSET];
+        boolean scored = liveRows >= Math.max(1, minRows) && referenceRows > 0;
+        json.name("referenceRows").value(referenceRows)
+            .name("psiThreshold").value(psiThreshold)
+            .name("minRows").value(minRows);
+        
+        double[] psi = new double[HouseSchema.NUM_FIELDS];
+        json.name("fields").beginArray();
+        for (int f = 0; f < HouseSchema.NUM_FIELDS; f++) {
+            HouseSchema.Field field = HouseSchema.FIELDS[f];
+            boolean categorical = field.kind == HouseSchema.Kind.CATEGORY;
+            json.beginObject().name("name").value(field.name);
+            if (scored) {
+                int[] bins = categorical ? levelBins(SIZE[f]) : decileBins(reference, referenceRows, OFFSET[f], SIZE[f]);
+                psi[f] = psi(reference, referenceRows, live, liveRows, OFFSET[f], bins);
+                json.name("psi").value(round(psi[f]));
+                if (!categorical) {
+                    json.name("ks").value(round(kolmogorovSmirnov(reference, referenceRows, live, liveRows, OFFSET[f], SIZE[f])));
+                }
+            }
+            json.name("reference");
+            writeDistribution(json, field, reference, referenceRows, f);
+            json.name("served");
+            writeDistribution(json, field, live, liveRows, f);
+            json.endObject();
+        }
+        json.endArray();
+        
+        json.name("drifted").beginArray();
+        if (scored) {
+            for (int f = 0; f < HouseSchema.NUM_FIELDS; f++) {
+                if (psi[f] > psiThreshold) {
+                    json.value(HouseSchema.FIELDS[f].name);
+                }
+            }
+        }
+        json.endArray().endObject();
+    }
+    
+    // Categorical fields: shares per level; numeric fields: p10, median and p90
+    private static void writeDistribution(JsonResponseWriter json, HouseSchema.Field field, long[] counts, long rows, int f) {
+        if (rows == 0) {
+            json.nullValue();
+            return;
+        }
+        json.beginObject();
+        if (field.kind == HouseSchema.Kind.CATEGORY) {
+            for (int level = 0; level < SIZE[f]; level++) {
+                long count = counts[OFFSET[f] + level];
+                if (count > 0) {
+                    json.name(level < field.levelCount() ? field.label(level) : "unknown").value(round((double) count / rows));
+                }
+            }
+        } else {
+            json.name("p10").value(quantile(counts, rows, OFFSET[f], SIZE[f], 0.1))
+                .name("p50").value(quantile(counts, rows, OFFSET[f], SIZE[f], 0.5))
+                .name("p90").value(quantile(counts, rows, OFFSET[f], SIZE[f], 0.9));
+        }
+        json.endObject();
+    }
+    
+    private static int[] levelBins(int size) {
+        int[] ends = new int[size];
+        for (int i = 0; i < size; i++) {
+            ends[i] = i + 1;
+        }
+        return ends;
+    }
+    
+    private static double round(double value) {
+        return Math.round(value * 10_000) / 10_000.0;
+    }
+}
@@ -0,0 +1,360 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Declared interaction and polynomial terms on top of the nine raw model features
+ * An expanded model's coefficients are the nine raw slopes followed by one slope per term, but
+ * the expanded row is never stored: TrainingStatistics builds it in a scratch row as each raw
+ * row is added, and LinearRegressionModel computes the terms while scoring. Training and
+ * scoring memory therefore stays that of the raw columns, whatever the number of terms.
+ *
+ * A spec is a list of terms separated by ',' or ';' (the /api/train parser splits on commas),
+ * each a product of factors joined by '*':
+ *   squareFootage          the raw value
+ *   age^2                  a power (2 to 4)
+ *   locationType=BEACHSIDE 1 for that categorical level, 0 otherwise
+ *   locationType=*         one term per level
+ * e.g. "squareFootage*age, age^2, squareFootage*locationType=*". Terms that repeat a raw
+ * feature or an earlier term are dropped. The presets below can be used in place of a spec.
+ *
+ * Usage: java FeatureExpansion [rows] [spec]   (ridge fit with and without the expansion)
+ */
+public class FeatureExpansion {
+    public static final int MAX_WIDTH = 160;
+    
+    /**
+     * The DatasetGenerator price is (linear in the house) x location multiplier x (1 - 0.015 age),
+     * so per-location intercepts and slopes, each with an age slope, make it linear again
+     */
+    public static final String MARKET = "locationType=*, age*locationType=*, "
+        + "squareFootage*locationType=*, squareFootage*age*locationType=*, "
+        + "bedrooms*locationType=*, bedrooms*age*locationType=*, "
+        + "bathrooms*locationType=*, bathrooms*age*locationType=*, "
+        + "neighborhood*locationType=*, neighborhood*age*locationType=*, "
+        + "parkingSpaces*locationType=*, parkingSpaces*age*locationType=*, "
+        + "furnishingState=*, furnishingState=**locationType=*, "
+        + "kitchenType*locationType=*";
+    
+    private static final Map<String, String> PRESETS = Map.of(
+        "market", MARKET,
+        "pairwise", pairwiseSpec());
+    
+    private final Term[] terms;
+    private final int width;
+    private final String spec;
+    
+    // One product of raw features and level indicators
+    private static final class Term {
+        final String name;
+        final int[] columns;
+        final double[] levels; // feature value the factor must equal, NaN for the raw value
+        
+        Term(String name, int[] columns, double[] levels) {
+            this.name = name;
+            this.columns = columns;
+            this.levels = levels;
+        }
+        
+        double value(double[] row) {
+            double value = 1;
+            for (int f = 0; f < columns.length; f++) {
+                double x = row[columns[f]];
+                if (Double.isNaN(levels[f])) {
+                    value *= x;
+                } else if (x != levels[f]) {
+                    return 0;
+                }
+            }
+            return value;
+        }
+        
+        double value(double[][] columnData, int i) {
+            double value = 1;
+            for (int f = 0; f < columns.length; f++) {
+                double x = columnData[columns[f]][i];
+                if (Double.isNaN(levels[f])) {
+                    value *= x;
+                } else if (x != levels[f]) {
+                    return 0;
+                }
+            }
+            return value;
+        }
+    }
+    
+    private FeatureExpansion(List<Term> terms) {
+        this.terms = terms.toArray(new Term[0]);
+        this.width = HouseSchema.NUM_FEATURES + this.terms.length;
+        StringBuilder canonical = new StringBuilder();
+        for (Term term : this.terms) {
+            if (canonical.length() > 0) canonical.append(", ");
+            canonical.append(term.name);
+        }
+        this.spec = canonical.toString();
+    }
+    
+    /**
+     * Parse a spec or preset name ("market", "pairwise")
+     */
+    public static FeatureExpansion parse(String specOrPreset) {
+        String text = PRESETS.getOrDefault(specOrPreset.trim().toLowerCase(Locale.ROOT), specOrPreset);
+        Map<String, Term> terms = new LinkedHashMap<>();
+        for (String declared : text.split("[,;]")) {
+            declared = declared.trim();
+            if (declared.isEmpty()) continue;
+            for (Term term : expandWildcards(declared)) {
+                terms.putIfAbsent(term.name, term);
+            }
+        }
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            terms.remove(HouseSchema.FIELDS[j].name);
+        }
+        if (HouseSchema.NUM_FEATURES + terms.size() > MAX_WIDTH) {
+            throw new IllegalArgumentException("Feature expansion has " + terms.size() + " terms; at most "
+                + (MAX_WIDTH - HouseSchema.NUM_FEATURES) + " are supported");
+        }
+        return new FeatureExpansion(new ArrayList<>(terms.values()));
+    }
+    
+    // One declared term becomes one term per combination of the levels its wildcards stand for
+    private static List<Term> expandWildcards(String declared) {
+        List<int[]> columns = new ArrayList<>();
+        List<double[]> levels = new ArrayList<>();
+        columns.add(new int[0]);
+        levels.add(new double[0]);
+        for (String factor : declared.split("(?<!=)\\*")) {
+            factor = factor.trim();
+            int equals = factor.indexOf('=');
+            int caret = factor.indexOf('^');
+            String name = equals >= 0 ? factor.substring(0, equals).trim()
+                : caret >= 0 ? factor.substring(0, caret).trim() : factor;
+            int column = HouseSchema.fieldIndex(name);
+            if (column >= HouseSchema.NUM_FEATURES) {
+                throw new IllegalArgumentException("Not a model feature: " + name);
+            }
+            HouseSchema.Field field = HouseSchema.FIELDS[column];
+            
+            double[] choices;
+            int repeat = 1;
+            if (equals >= 0) {
+                if (field.kind != HouseSchema.Kind.CATEGORY) {
+                    throw new IllegalArgumentException(name + " is not categorical: " + factor);
+                }
+                String level = factor.substring(equals + 1).trim();
+                if (level.equals("*")) {
+                    choices = new double[field.levelCount()];
+                    for (int i = 0; i < choices.length; i++) choices[i] = field.featureValue(i);
+                } else {
+                    choices = new double[] {field.featureValue(ordinalOfLabel(field, level))};
+                }
+            } else {
+                choices = new double[] {Double.NaN};
+                if (caret >= 0) {
+                    repeat = Integer.parseInt(factor.substring(caret + 1).trim());
+                    if (repeat < 2 || repeat > 4) {
+                        throw new IllegalArgumentException("Powers must be 2 to 4: " + factor);
+                    }
+                }
+            }
+            
+            List<int[]> nextColumns = new ArrayList<>();
+            List<double[]> nextLevels = new ArrayList<>();
+            for (int c = 0; c < columns.size(); c++) {
+                for (double choice : choices) {
+                    int[] prefix = columns.get(c);
+                    int[] extendedColumns = Arrays.copyOf(prefix, prefix.length + repeat);
+                    double[] extendedLevels = Arrays.copyOf(levels.get(c), prefix.length + repeat);
+                    for (int r = prefix.length; r < extendedColumns.length; r++) {
+                        extendedColumns[r] = column;
+                        extendedLevels[r] = choice;
+                    }
+                    nextColumns.add(extendedColumns);
+                    nextLevels.add(extendedLevels);
+                }
+            }
+            columns = nextColumns;
+            levels = nextLevels;
+        }
+        
+        List<Term> terms = new ArrayList<>();
+        for (int c = 0; c < columns.size(); c++) {
+            terms.add(canonical(columns.get(c), levels.get(c)));
+        }
+        return terms;
+    }
+    
+    // Factors sorted by column (indicators first), repeated raw factors written as powers
+    private static Term canonical(int[] columns, double[] levels) {
+        Integer[] order = new Integer[columns.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> columns[a] != columns[b] ? Integer.compare(columns[a], columns[b])
+            : Boolean.compare(Double.isNaN(levels[a]), Double.isNaN(levels[b])));
+        
+        int[] sortedColumns = new int[columns.length];
+        double[] sortedLevels = new double[columns.length];
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < order.length; i++) {
+            sortedColumns[i] = columns[order[i]];
+            sortedLevels[i] = levels[order[i]];
+        }
+        for (int i = 0; i < sortedColumns.length; ) {
+            HouseSchema.Field field = HouseSchema.FIELDS[sortedColumns[i]];
+            if (name.length() > 0) name.append('*');
+            name.append(field.name);
+            if (!Double.isNaN(sortedLevels[i])) {
+                name.append('=').append(field.labelOfFeature(sortedLevels[i]));
+                i++;
+                continue;
+            }
+            int run = 1;
+            while (i + run < sortedColumns.length && sortedColumns[i + run] == sortedColumns[i] && Double.isNaN(sortedLevels[i + run])) {
+                run++;
+            }
+            if (run > 1) name.append('^').append(run);
+            i += run;
+        }
+        return new Term(name.toString(), sortedColumns, sortedLevels);
+    }
+    
+    private static int ordinalOfLabel(HouseSchema.Field field, String label) {
+        for (int i = 0; i < field.levelCount(); i++) {
+            if (field.label(i).equals(label)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown " + field.name + " level: " + label);
+    }
+    
+    // Squares of the numeric features and products of every pair of features
+    private static String pairwiseSpec() {
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < HouseSchema.NUM_FEATURES; i++) {
+            for (int j = i; j < HouseSchema.NUM_FEATURES; j++) {
+                if (i == j && HouseSchema.FIELDS[i].kind == HouseSchema.Kind.CATEGORY) continue;
+                if (spec.length() > 0) spec.append(", ");
+                spec.append(HouseSchema.FIELDS[i].name).append('*').append(HouseSchema.FIELDS[j].name);
+            }
+        }
+        return spec.toString();
+    }
+    
+    /**
+     * Raw features plus terms
+     */
+    public int width() {
+        return width;
+    }
+    
+    public int termCount() {
+        return terms.length;
+    }
+    
+    /**
+     * Canonical spec; parse(spec()) gives the same expansion
+     */
+    public String spec() {
+        return spec;
+    }
+    
+    /**
+     * Name of expanded column j: the raw feature name or the term's canonical form
+     */
+    public String name(int j) {
+        return j < HouseSchema.NUM_FEATURES ? HouseSchema.FIELDS[j].name : terms[j - HouseSchema.NUM_FEATURES].name;
+    }
+    
+    // Raw columns of term t's factors, and the level each must equal (NaN where the raw value is used)
+    int[] termColumns(int t) {
+        return terms[t].columns;
+    }
+    
+    double[] termLevels(int t) {
+        return terms[t].levels;
+    }
+    
+    /**
+     * Write the width() expanded values of a raw feature row into out
+     */
+    public double[] expand(double[] row, double[] out) {
+        System.arraycopy(row, 0, out, 0, HouseSchema.NUM_FEATURES);
+        for (int t = 0; t < terms.length; t++) {
+            out[HouseSchema.NUM_FEATURES + t] = terms[t].value(row);
+        }
+        return out;
+    }
+    
+    /**
+     * Expanded row times coefficients, without building the expanded row
+     */
+    public double dot(double[] coefficients, double[] row) {
+        double sum = 0;
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            sum += coefficients[j] * row[j];
+        }
+        for (int t = 0; t < terms.length; t++) {
+            double coefficient = coefficients[HouseSchema.NUM_FEATURES + t];
+            if (coefficient != 0) {
+                sum += coefficient * terms[t].value(row);
+            }
+        }
+        return sum;
+    }
+    
+    /**
+     * Add each term's contribution to a columnar block of predictions: columns[j][i] is raw feature j of row i
+     */
+    public void addTerms(double[] coefficients, double[][] columns, int rows, double[] out) {
+        for (int t = 0; t < terms.length; t++) {
+            double coefficient = coefficients[HouseSchema.NUM_FEATURES + t];
+            if (coefficient == 0) continue;
+            Term term = terms[t];
+            for (int i = 0; i < rows; i++) {
+                out[i] += coefficient * term.value(columns, i);
+            }
+        }
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FeatureExpansion && ((FeatureExpansion) other).spec.equals(spec);
+    }
+    
+    @Override
+    public int hashCode() {
+        return spec.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return spec;
+    }
+    
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        FeatureExpansion expansion = parse(args.length > 1 ? args[1] : "market");
+        List<UltimateHousingPredictor.House> train = DatasetGenerator.generateEnhancedData(rows, 7);
+        List<UltimateHousingPredictor.House> test = DatasetGenerator.generateEnhancedData(Math.max(1000, rows / 4), 8);
+        System.out.printf("%d training rows, %d test rows, %d terms (%d expanded columns)%n",
+            train.size(), test.size(), expansion.termCount(), expansion.width());
+        
+        for (FeatureExpansion candidate : new FeatureExpansion[] {null, expansion}) {
+            long start = System.nanoTime();
+            TrainingStatistics statistics = new TrainingStatistics(candidate);
+            for (UltimateHousingPredictor.House house : train) {
+                statistics.add(house.toFeatureArray(), house.getPrice());
+            }
+            UltimateHousingPredictor.LinearRegressionModel model = new RidgePath(statistics).compute(1e-6, 1e3, 200).bestModel();
+            long trainNanos = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            ModelEvaluator evaluator = ModelEvaluator.evaluate(model, test);
+            long scoreNanos = System.nanoTime() - start;
+            System.out.printf("%-9s fit %7.1f ms, score %6.1f ns/row, test %s%n",
+                candidate == null ? "raw" : "expanded", trainNanos / 1e6, (double) scoreNanos / test.size(), evaluator.toJson());
+        }
+    }
+}
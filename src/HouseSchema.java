@@ -0,0 +1,780 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The single definition of the ten-field house record and its codecs
+ * A house travels in four representations:
+ *   object - UltimateHousingPredictor.House
+ *   row    - double[]: the nine model features in FIELDS order, then the price (the OffHeapHouseStore layout)
+ *   CSV    - a housing_data.csv line, categorical fields spelled as enum constant names
+ *   JSON   - the flat /api/predict object, categorical fields given as the web form's codes
+ *
+ * Each categorical level is one table entry holding its enum constant, the value the model sees
+ * and the code the web form sends. The two integer mappings differ on purpose: feature values
+ * for location are ordered roughly by price, form codes follow the form's option list, and both
+ * are public contracts (trained models and API clients). Keeping them side by side in one table
+ * is what stops them drifting apart. The codecs walk this table and the raw bytes or chars:
+ * no reflection, no split strings and no Map per record.
+ *
+ * Usage: java HouseSchema [records] [millisPerCodec]   (codec throughput benchmark)
+ */
+public final class HouseSchema {
+    public static final int NUM_FEATURES = 9;
+    public static final int PRICE = 9;
+    public static final int NUM_FIELDS = 10;
+    
+    public enum Kind { DECIMAL, COUNT, CATEGORY }
+    
+    /**
+     * One categorical level: enum constant, model feature value and web form code
+     */
+    static final class Level {
+        final Enum<?> constant;
+        final double featureValue;
+        final int formCode;
+        
+        Level(Enum<?> constant, double featureValue, int formCode) {
+            this.constant = constant;
+            this.featureValue = featureValue;
+            this.formCode = formCode;
+        }
+    }
+    
+    public static final class Field {
+        public final String name;
+        public final Kind kind;
+        final int decimals;           // CSV digits after the point for DECIMAL fields, -1 for the shortest exact form
+        final Enum<?>[] levels;       // CATEGORY only, all arrays indexed by enum ordinal
+        final double[] featureValues;
+        final int[] formCodes;
+        final byte[][] names;
+        final int fallbackOrdinal;    // level for unknown form codes; the web form has always been lenient
+        
+        private Field(String name, Kind kind, int decimals, Enum<?>[] levels, double[] featureValues,
+                      int[] formCodes, int fallbackOrdinal) {
+            this.name = name;
+            this.kind = kind;
+            this.decimals = decimals;
+            this.levels = levels;
+            this.featureValues = featureValues;
+            this.formCodes = formCodes;
+            this.fallbackOrdinal = fallbackOrdinal;
+            if (levels != null) {
+                names = new byte[levels.length][];
+                for (int i = 0; i < levels.length; i++) {
+                    names[i] = levels[i].name().getBytes(StandardCharsets.US_ASCII);
+                }
+            } else {
+                names = null;
+            }
+        }
+        
+        public int levelCount() {
+            return levels.length;
+        }
+        
+        public double featureValue(int ordinal) {
+            return featureValues[ordinal];
+        }
+        
+        public String label(int ordinal) {
+            return levels[ordinal].name();
+        }
+        
+        public int minFormCode() {
+            return Arrays.stream(formCodes).min().getAsInt();
+        }
+        
+        public int maxFormCode() {
+            return Arrays.stream(formCodes).max().getAsInt();
+        }
+        
+        /**
+         * Ordinal of the level the model encodes as value, or -1
+         */
+        public int ordinalOfFeature(double value) {
+            for (int i = 0; i < featureValues.length; i++) {
+                if (featureValues[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        /**
+         * Ordinal of the level the web form sends as code; unknown codes map to the fallback level
+         */
+        public int ordinalOfFormCode(int code) {
+            for (int i = 0; i < formCodes.length; i++) {
+                if (formCodes[i] == code) {
+                    return i;
+                }
+            }
+            return fallbackOrdinal;
+        }
+        
+        int ordinalOfName(byte[] data, int from, int to) {
+            for (int i = 0; i < names.length; i++) {
+                if (Arrays.equals(data, from, to, names[i], 0, names[i].length)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        int ordinalOfName(CharSequence text, int from, int to) {
+            for (int i = 0; i < names.length; i++) {
+                byte[] candidate = names[i];
+                if (candidate.length == to - from && regionEquals(text, from, candidate)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        public String labelOfFeature(double value) {
+            int ordinal = ordinalOfFeature(value);
+            if (ordinal < 0) {
+                throw new IllegalArgumentException("No " + name + " level is encoded as " + value);
+            }
+            return label(ordinal);
+        }
+    }
+    
+    public static final Field LOCATION = category("locationType", UltimateHousingPredictor.LocationType.values(), UltimateHousingPredictor.LocationType.SUBURB,
+        level(UltimateHousingPredictor.LocationType.DOWNTOWN, 4, 1),
+        level(UltimateHousingPredictor.LocationType.SUBURB, 2, 2),
+        level(UltimateHousingPredictor.LocationType.RURAL, 1, 3),
+        level(UltimateHousingPredictor.LocationType.UPTOWN, 3, 4),
+        level(UltimateHousingPredictor.LocationType.BEACHSIDE, 6, 5),
+        level(UltimateHousingPredictor.LocationType.METROPOLITAN, 5, 6));
+    
+    public static final Field FURNISHING = category("furnishingState", UltimateHousingPredictor.FurnishingState.values(),
+        UltimateHousingPredictor.FurnishingState.SEMI_FURNISHED,
+        level(UltimateHousingPredictor.FurnishingState.FURNISHED, 3, 3),
+        level(UltimateHousingPredictor.FurnishingState.UNFURNISHED, 1, 1),
+        level(UltimateHousingPredictor.FurnishingState.SEMI_FURNISHED, 2, 2));
+    
+    public static final Field KITCHEN = category("kitchenType", UltimateHousingPredictor.KitchenType.values(), UltimateHousingPredictor.KitchenType.CLOSED_KITCHEN,
+        level(UltimateHousingPredictor.KitchenType.OPEN_KITCHEN, 1, 1),
+        level(UltimateHousingPredictor.KitchenType.CLOSED_KITCHEN, 0, 0));
+    
+    public static final Field[] FIELDS = {
+        decimal("squareFootage", -1),
+        count("bedrooms"),
+        count("bathrooms"),
+        count("age"),
+        decimal("neighborhood", 1),
+        count("parkingSpaces"),
+        LOCATION,
+        FURNISHING,
+        KITCHEN,
+        decimal("price", -1)
+    };
+    
+    public static final int LOCATION_COLUMN = 6;
+    public static final int FURNISHING_COLUMN = 7;
+    public static final int KITCHEN_COLUMN = 8;
+    
+    private static final UltimateHousingPredictor.LocationType[] LOCATIONS = UltimateHousingPredictor.LocationType.values();
+    private static final UltimateHousingPredictor.FurnishingState[] FURNISHINGS = UltimateHousingPredictor.FurnishingState.values();
+    private static final UltimateHousingPredictor.KitchenType[] KITCHENS = UltimateHousingPredictor.KitchenType.values();
+    
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+    
+    private HouseSchema() {}
+    
+    private static Field decimal(String name, int decimals) {
+        return new Field(name, Kind.DECIMAL, decimals, null, null, null, -1);
+    }
+    
+    private static Field count(String name) {
+        return new Field(name, Kind.COUNT, 0, null, null, null, -1);
+    }
+    
+    private static Level level(Enum<?> constant, double featureValue, int formCode) {
+        return new Level(constant, featureValue, formCode);
+    }
+    
+    // Lays the table out by ordinal and refuses to start if an enum constant has no entry
+    private static Field category(String name, Enum<?>[] constants, Enum<?> fallback, Level... table) {
+        Enum<?>[] levels = new Enum<?>[constants.length];
+        double[] featureValues = new double[constants.length];
+        int[] formCodes = new int[constants.length];
+        for (Level level : table) {
+            int ordinal = level.constant.ordinal();
+            levels[ordinal] = level.constant;
+            featureValues[ordinal] = level.featureValue;
+            formCodes[ordinal] = level.formCode;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == null) {
+                throw new IllegalStateException(name + " has no schema entry for " + constants[i]);
+            }
+        }
+        return new Field(name, Kind.CATEGORY, 0, levels, featureValues, formCodes, fallback.ordinal());
+    }
+    
+    public static int fieldIndex(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].name.equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field: " + name);
+    }
+    
+    public static String csvHeader() {
+        StringBuilder header = new StringBuilder();
+        for (Field field : FIELDS) {
+            if (header.length() > 0) header.append(',');
+            header.append(field.name);
+        }
+        return header.toString();
+    }
+    
+    // ---- object <-> row ------------------------------------------------------------------
+    
+    /**
+     * Write the features (and the price when the row has room for it) of house into row
+     */
+    public static double[] toRow(UltimateHousingPredictor.House house, double[] row) {
+        row[0] = house.getSquareFootage();
+        row[1] = house.getBedrooms();
+        row[2] = house.getBathrooms();
+        row[3] = house.getAge();
+        row[4] = house.getNeighborhood();
+        row[5] = house.getParkingSpaces();
+        row[LOCATION_COLUMN] = LOCATION.featureValues[house.getLocationType().ordinal()];
+        row[FURNISHING_COLUMN] = FURNISHING.featureValues[house.getFurnishingState().ordinal()];
+        row[KITCHEN_COLUMN] = KITCHEN.featureValues[house.getKitchenType().ordinal()];
+        if (row.length > PRICE) {
+            row[PRICE] = house.getPrice();
+        }
+        return row;
+    }
+    
+    /**
+     * House for a row; the price is 0 when the row only holds features
+     */
+    public static UltimateHousingPredictor.House toHouse(double[] row) {
+        return new UltimateHousingPredictor.House(
+            row[0], whole(row, 1), whole(row, 2), whole(row, 3), row[4], whole(row, 5),
+            LOCATIONS[encodedOrdinal(LOCATION, row[LOCATION_COLUMN])],
+            FURNISHINGS[encodedOrdinal(FURNISHING, row[FURNISHING_COLUMN])],
+            KITCHENS[encodedOrdinal(KITCHEN, row[KITCHEN_COLUMN])],
+            row.length > PRICE ? row[PRICE] : 0
+        );
+    }
+    
+    private static int whole(double[] row, int column) {
+        double value = row[column];
+        if (value != (int) value) {
+            throw new IllegalArgumentException(FIELDS[column].name + " must be a whole number: " + value);
+        }
+        return (int) value;
+    }
+    
+    private static int encodedOrdinal(Field field, double value) {
+        int ordinal = field.ordinalOfFeature(value);
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("No " + field.name + " level is encoded as " + value);
+        }
+        return ordinal;
+    }
+    
+    // ---- CSV -----------------------------------------------------------------------------
+    
+    /**
+     * Header and blank lines start with something other than a number
+     */
+    public static boolean isDataLine(byte first) {
+        return (first >= '0' && first <= '9') || first == '-' || first == '.' || first == '+';
+    }
+    
+    /**
+     * Parse one CSV line (without its line terminator) from raw bytes into row
+     * Fills as many leading fields as the line and row both have and returns the number of
+     * columns in the line, so callers decide whether the price column is required.
+     */
+    public static int parseCsv(byte[] data, int start, int end, double[] row) {
+        int columns = 0;
+        int position = start;
+        while (position <= end) {
+            int fieldEnd = position;
+            while (fieldEnd < end && data[fieldEnd] != ',') {
+                fieldEnd++;
+            }
+            if (columns < NUM_FIELDS && columns < row.length) {
+                int from = position;
+                int to = fieldEnd;
+                while (from < to && data[from] == ' ') from++;
+                while (to > from && data[to - 1] == ' ') to--;
+                
+                Field field = FIELDS[columns];
+                if (field.kind == Kind.CATEGORY) {
+                    int ordinal = field.ordinalOfName(data, from, to);
+                    if (ordinal < 0) {
+                        throw new IllegalArgumentException("Unknown " + field.name + " '" + text(data, from, to)
+                            + "' in row: " + text(data, start, end));
+                    }
+                    row[columns] = field.featureValues[ordinal];
+                } else {
+                    double value = parseDouble(data, from, to);
+                    if (field.kind == Kind.COUNT && value != (int) value) {
+                        throw new IllegalArgumentException(field.name + " must be a whole number in row: " + text(data, start, end));
+                    }
+                    row[columns] = value;
+                }
+            }
+            columns++;
+            position = fieldEnd + 1;
+        }
+        return columns;
+    }
+    
+    public static int parseCsv(CharSequence line, double[] row) {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        int end = bytes.length;
+        while (end > 0 && (bytes[end - 1] == '\r' || bytes[end - 1] == ' ')) {
+            end--;
+        }
+        return parseCsv(bytes, 0, end, row);
+    }
+    
+    /**
+     * A complete CSV line with all ten columns as a House
+     */
+    public static UltimateHousingPredictor.House houseFromCsv(CharSequence line) {
+        double[] row = new double[NUM_FIELDS];
+        int columns = parseCsv(line, row);
+        if (columns != NUM_FIELDS) {
+            throw new IllegalArgumentException("Expected " + NUM_FIELDS + " columns but found " + columns + ": " + line);
+        }
+        return toHouse(row);
+    }
+    
+    /**
+     * Append a row as a CSV line (no terminator); the price column is written when the row has one
+     */
+    public static StringBuilder appendCsv(double[] row, StringBuilder out) {
+        int fields = Math.min(row.length, NUM_FIELDS);
+        for (int i = 0; i < fields; i++) {
+            if (i > 0) out.append(',');
+            Field field = FIELDS[i];
+            if (field.kind == Kind.CATEGORY) {
+                out.append(field.labelOfFeature(row[i]));
+            } else {
+                appendNumber(field, row[i], out);
+            }
+        }
+        return out;
+    }
+    
+    public static StringBuilder appendCsv(UltimateHousingPredictor.House house, StringBuilder out) {
+        appendNumber(FIELDS[0], house.getSquareFootage(), out).append(',');
+        out.append(house.getBedrooms()).append(',');
+        out.append(house.getBathrooms()).append(',');
+        out.append(house.getAge()).append(',');
+        appendNumber(FIELDS[4], house.getNeighborhood(), out).append(',');
+        out.append(house.getParkingSpaces()).append(',');
+        out.append(house.getLocationType().name()).append(',');
+        out.append(house.getFurnishingState().name()).append(',');
+        out.append(house.getKitchenType().name()).append(',');
+        return appendNumber(FIELDS[PRICE], house.getPrice(), out);
+    }
+    
+    // Whole values without a fraction, fixed decimals where the field has them, otherwise Double.toString
+    private static StringBuilder appendNumber(Field field, double value, StringBuilder out) {
+        if (field.decimals > 0 && Math.abs(value) < 1e15 / POWERS_OF_TEN[field.decimals]) {
+            long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[field.decimals]);
+            if (value < 0 && scaled != 0) {
+                out.append('-');
+            }
+            long unit = (long) POWERS_OF_TEN[field.decimals];
+            out.append(scaled / unit).append('.');
+            String fraction = Long.toString(scaled % unit);
+            for (int pad = fraction.length(); pad < field.decimals; pad++) {
+                out.append('0');
+            }
+            return out.append(fraction);
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return out.append((long) value);
+        }
+        return out.append(value);
+    }
+    
+    // ---- JSON ----------------------------------------------------------------------------
+    
+    /**
+     * Parse a flat JSON object with the /api/predict fields into row
+     * Categorical fields accept the web form code or the enum constant name as a string; numbers
+     * may be quoted. Unknown keys are skipped. All nine features are required; the price is
+     * optional and reads as 0 when absent.
+     */
+    public static void parseJson(String json, double[] row) {
+        int length = json.length();
+        int i = skipWhitespace(json, 0);
+        if (i >= length || json.charAt(i) != '{') {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        int seen = 0;
+        i = skipWhitespace(json, i + 1);
+        if (i < length && json.charAt(i) == '}') {
+            i++;
+        } else {
+            while (true) {
+                if (i >= length || json.charAt(i) != '"') {
+                    throw new IllegalArgumentException("Expected a key at offset " + i);
+                }
+                int keyStart = i + 1;
+                int keyEnd = endOfString(json, keyStart);
+                i = skipWhitespace(json, keyEnd + 1);
+                if (i >= length || json.charAt(i) != ':') {
+                    throw new IllegalArgumentException("Expected ':' at offset " + i);
+                }
+                i = skipWhitespace(json, i + 1);
+                
+                int index = -1;
+                for (int f = 0; f < NUM_FIELDS; f++) {
+                    String name = FIELDS[f].name;
+                    if (name.length() == keyEnd - keyStart && regionEquals(json, keyStart, name)) {
+                        index = f;
+                        break;
+                    }
+                }
+                
+                if (i >= length) {
+                    throw new IllegalArgumentException("Missing value for key at offset " + keyStart);
+                }
+                char c = json.charAt(i);
+                if (index < 0 || index >= row.length) {
+                    i = skipValue(json, i);
+                } else if (c == '"') {
+                    int valueEnd = endOfString(json, i + 1);
+                    row[index] = fieldValue(FIELDS[index], json, i + 1, valueEnd, true);
+                    seen |= 1 << index;
+                    i = valueEnd + 1;
+                } else {
+                    int valueEnd = i;
+                    while (valueEnd < length && "+-.0123456789eE".indexOf(json.charAt(valueEnd)) >= 0) {
+                        valueEnd++;
+                    }
+                    if (valueEnd == i) {
+                        throw new IllegalArgumentException(FIELDS[index].name + " must be a number");
+                    }
+                    row[index] = fieldValue(FIELDS[index], json, i, valueEnd, false);
+                    seen |= 1 << index;
+                    i = valueEnd;
+                }
+                
+                i = skipWhitespace(json, i);
+                if (i < length && json.charAt(i) == ',') {
+                    i = skipWhitespace(json, i + 1);
+                } else if (i < length && json.charAt(i) == '}') {
+                    i++;
+                    break;
+                } else {
+                    throw new IllegalArgumentException("Expected ',' or '}' at offset " + i);
+                }
+            }
+        }
+        
+        for (int f = 0; f < NUM_FEATURES; f++) {
+            if ((seen & (1 << f)) == 0) {
+                throw new IllegalArgumentException("Missing field: " + FIELDS[f].name);
+            }
+        }
+        if (row.length > PRICE && (seen & (1 << PRICE)) == 0) {
+            row[PRICE] = 0;
+        }
+    }
+    
+    private static double fieldValue(Field field, CharSequence json, int from, int to, boolean quoted) {
+        if (field.kind == Kind.CATEGORY) {
+            if (quoted) {
+                int ordinal = field.ordinalOfName(json, from, to);
+                if (ordinal >= 0) {
+                    return field.featureValues[ordinal];
+                }
+            }
+            double code = parseDouble(json, from, to);
+            return field.featureValues[field.ordinalOfFormCode((int) code)];
+        }
+        double value = parseDouble(json, from, to);
+        if (field.kind == Kind.COUNT && value != (int) value) {
+            throw new IllegalArgumentException(field.name + " must be a whole number");
+        }
+        return value;
+    }
+    
+    /**
+     * Append a row as the flat /api/predict object; the price is included when the row has one
+     */
+    public static StringBuilder appendJson(double[] row, StringBuilder out) {
+        out.append('{');
+        int fields = Math.min(row.length, NUM_FIELDS);
+        for (int i = 0; i < fields; i++) {
+            Field field = FIELDS[i];
+            if (i > 0) out.append(", ");
+            out.append('"').append(field.name).append("\": ");
+            if (field.kind == Kind.CATEGORY) {
+                out.append(field.formCodes[encodedOrdinal(field, row[i])]);
+            } else {
+                appendNumber(field, row[i], out);
+            }
+        }
+        return out.append('}');
+    }
+    
+    private static int skipWhitespace(CharSequence text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+    
+    // Index of the closing quote of a string whose contents start at from
+    private static int endOfString(CharSequence text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string at offset " + from);
+    }
+    
+    // Index of the ',' or '}' after the value of an unknown key, stepping over nested objects and arrays
+    private static int skipValue(CharSequence text, int i) {
+        int depth = 0;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                i = endOfString(text, i + 1);
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return i;
+            }
+        }
+        return i;
+    }
+    
+    private static boolean regionEquals(CharSequence text, int from, String expected) {
+        for (int k = 0; k < expected.length(); k++) {
+            if (text.charAt(from + k) != expected.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean regionEquals(CharSequence text, int from, byte[] expected) {
+        for (int k = 0; k < expected.length; k++) {
+            if (text.charAt(from + k) != expected[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static String text(byte[] data, int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.UTF_8);
+    }
+    
+    // ---- numbers -------------------------------------------------------------------------
+    
+    /**
+     * Plain decimals with up to 15 significant digits are converted exactly (one correctly rounded
+     * division by a power of ten); anything else falls back to Double.parseDouble
+     */
+    public static double parseDouble(byte[] data, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDot = false;
+        boolean seenDigit = false;
+        boolean fast = true;
+        for (; i < to; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || b != '0') digits++;
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenDot) scale++;
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                fast = false;
+                break;
+            }
+        }
+        if (fast && seenDigit && digits <= 15 && scale < POWERS_OF_TEN.length) {
+            double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(data, from, to - from, StandardCharsets.US_ASCII));
+    }
+    
+    public static double parseDouble(CharSequence text, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDot = false;
+        boolean seenDigit = false;
+        boolean fast = true;
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || c != '0') digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenDot) scale++;
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                fast = false;
+                break;
+            }
+        }
+        if (fast && seenDigit && digits <= 15 && scale < POWERS_OF_TEN.length) {
+            double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(text.subSequence(from, to).toString());
+    }
+    
+    // ---- benchmark -----------------------------------------------------------------------
+    
+    private static volatile long benchmarkSink;
+    
+    private interface Codec {
+        long run(int record);
+    }
+    
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long millisPerCodec = args.length > 1 ? Long.parseLong(args[1]) : 2_000;
+        
+        List<UltimateHousingPredictor.House> houses = DatasetGenerator.generateEnhancedData(records, 7);
+        double[][] rows = new double[records][];
+        byte[][] csvLines = new byte[records][];
+        String[] csvStrings = new String[records];
+        String[] jsons = new String[records];
+        for (int r = 0; r < records; r++) {
+            rows[r] = toRow(houses.get(r), new double[NUM_FIELDS]);
+            csvStrings[r] = appendCsv(houses.get(r), new StringBuilder()).toString();
+            csvLines[r] = csvStrings[r].getBytes(StandardCharsets.US_ASCII);
+            jsons[r] = appendJson(rows[r], new StringBuilder()).toString();
+        }
+        
+        // Every representation must round-trip to the same row before anything is timed
+        double[] scratch = new double[NUM_FIELDS];
+        for (int r = 0; r < records; r++) {
+            parseCsv(csvLines[r], 0, csvLines[r].length, scratch);
+            check(Arrays.equals(rows[r], scratch), "CSV bytes", csvStrings[r]);
+            check(Arrays.equals(rows[r], toRow(houseFromCsv(csvStrings[r]), new double[NUM_FIELDS])), "CSV line", csvStrings[r]);
+            parseJson(jsons[r], scratch);
+            check(Arrays.equals(rows[r], scratch), "JSON", jsons[r]);
+            check(Arrays.equals(rows[r], toRow(toHouse(rows[r]), new double[NUM_FIELDS])), "object", csvStrings[r]);
+            check(csvStrings[r].equals(appendCsv(rows[r], new StringBuilder()).toString()), "row to CSV", csvStrings[r]);
+        }
+        System.out.printf("Round trips verified for %,d records%n", records);
+        System.out.printf("%-34s %14s %10s%n", "codec", "records/s", "ns/record");
+        
+        StringBuilder out = new StringBuilder(256);
+        bench("CSV bytes -> row", records, millisPerCodec,
+            r -> parseCsv(csvLines[r], 0, csvLines[r].length, scratch));
+        bench("CSV line -> House", records, millisPerCodec,
+            r -> houseFromCsv(csvStrings[r]).getBedrooms());
+        bench("CSV line -> House (String.split)", records, millisPerCodec,
+            r -> splitFromCsv(csvStrings[r]).getBedrooms());
+        bench("JSON -> row", records, millisPerCodec,
+            r -> { parseJson(jsons[r], scratch); return (long) scratch[0]; });
+        bench("House -> row", records, millisPerCodec,
+            r -> (long) toRow(houses.get(r), scratch)[0]);
+        bench("row -> House", records, millisPerCodec,
+            r -> toHouse(rows[r]).getAge());
+        bench("row -> CSV", records, millisPerCodec,
+            r -> { out.setLength(0); return appendCsv(rows[r], out).length(); });
+        bench("House -> CSV", records, millisPerCodec,
+            r -> { out.setLength(0); return appendCsv(houses.get(r), out).length(); });
+        bench("row -> JSON", records, millisPerCodec,
+            r -> { out.setLength(0); return appendJson(rows[r], out).length(); });
+    }
+    
+    private static void check(boolean ok, String codec, String record) {
+        if (!ok) {
+            throw new IllegalStateException(codec + " round trip changed " + record);
+        }
+    }
+    
+    // Timed passes over all records after a warm-up of the same length
+    private static void bench(String name, int records, long millis, Codec codec) {
+        long sink = 0;
+        long warmUpEnd = System.nanoTime() + millis * 1_000_000L / 2;
+        while (System.nanoTime() < warmUpEnd) {
+            for (int r = 0; r < records; r++) {
+                sink += codec.run(r);
+            }
+        }
+        long done = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000L;
+        while (System.nanoTime() < end) {
+            for (int r = 0; r < records; r++) {
+                sink += codec.run(r);
+            }
+            done += records;
+        }
+        long elapsed = System.nanoTime() - start;
+        benchmarkSink = sink;
+        System.out.printf(Locale.ROOT, "%-34s %,14.0f %10.1f%n", name, done * 1e9 / elapsed, (double) elapsed / done);
+    }
+    
+    // The per-field split/valueOf parser this schema replaced, kept as the benchmark baseline
+    private static UltimateHousingPredictor.House splitFromCsv(String line) {
+        String[] fields = line.split(",");
+        return new UltimateHousingPredictor.House(
+            Double.parseDouble(fields[0].trim()),
+            Integer.parseInt(fields[1].trim()),
+            Integer.parseInt(fields[2].trim()),
+            Integer.parseInt(fields[3].trim()),
+            Double.parseDouble(fields[4].trim()),
+            Integer.parseInt(fields[5].trim()),
+            UltimateHousingPredictor.LocationType.valueOf(fields[6].trim()),
+            UltimateHousingPredictor.FurnishingState.valueOf(fields[7].trim()),
+            UltimateHousingPredictor.KitchenType.valueOf(fields[8].trim()),
+            Double.parseDouble(fields[9].trim())
+        );
+    }
+}
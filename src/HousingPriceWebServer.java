@@ -1,53 +1,264 @@
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple Java Web Server for Housing Price Prediction
  * Serves HTML interface and handles prediction requests
  */
 public class HousingPriceWebServer {
-    private static UltimateHousingPredictor.HousingMLSystem mlSystem;
-    private static boolean isTrained = false;
+    private static final ModelRegistry registry = ModelRegistry.fromSystemProperties();
+    private static volatile boolean isTrained = false;
+    private static final PredictionBatcher batcher = PredictionBatcher.fromSystemProperties();
+    private static BinaryPredictionServer binaryServer;
+    private static AuditLog audit; // every served prediction, when -Dhousing.audit.dir is set
+    private static ModelReplication replication;
+    private static final AdmissionController admission = new AdmissionController();
+    private static final WhatIfAnalyzer whatIf = new WhatIfAnalyzer();
+    
+    // Startup phases reported by /api/status: the port is live first, then the model loads, then the JIT warms up;
+    // FAILED means startup left no primary version, and the node becomes ready once one is trained or replicated
+    enum Phase { LIVE, LOADING, WARMING, READY, FAILED }
+    private static volatile Phase phase = Phase.LIVE;
+    private static final long[] phaseStartNanos = new long[Phase.values().length];
+    private static long liveMillis;
+    private static volatile long warmUpSink; // keeps the JIT from discarding warm-up work
+    private static volatile boolean awaitingLeader; // a follower whose leader did not answer at boot
+    
+    // The last packed store trained or sampled from stays resident until a different or newer file is asked for
+    private static PackedHouseStore residentPacked;
+    private static Path residentPackedPath;
+    private static long residentPackedModified;
+    
+    // Files named in API requests must lie inside this directory (-Dhousing.data.dir, default the working directory)
+    private static final Path DATA_DIR = Paths.get(System.getProperty("housing.data.dir", ".")).toAbsolutePath().normalize();
     
     public static void main(String[] args) throws IOException {
-        // Initialize the ML system with sample data
         System.out.println(" Starting Housing Price Prediction Web Server...");
-        initializeMLSystem();
+        int port = Integer.getInteger("housing.server.port", 8080);
+        
+        // Every node publishes its primary model; with -Dhousing.replication.leader it also follows that node
+        replication = ModelReplication.fromSystemProperties(registry, version -> modelAvailable());
+        
+        // Fast start binds the port first and loads the model in the background; otherwise initialize up front
+        boolean fastStart = Boolean.getBoolean("housing.startup.fast");
+        if (!fastStart) {
+            initializeMLSystem();
+            warmUp();
+        }
+        
+        // Handlers block while their prediction waits for a batch, so they need a real pool
+        int handlerThreads = Integer.getInteger("housing.server.threads", Math.max(32, Runtime.getRuntime().availableProcessors() * 4));
+        
+        // Without TCP_NODELAY every keep-alive response waits ~40 ms on the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        
+        // Open the audit log before anything can be served; closing it drains the ring to disk
+        audit = AuditLog.fromSystemProperties();
+        if (audit != null) {
+            AuditLog log = audit;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    System.err.println(" Audit log close failed: " + e.getMessage());
+                }
+            }, "audit-close"));
+            System.out.println(" Auditing predictions to " + System.getProperty("housing.audit.dir"));
+        }
         
-        // Create HTTP server on port 8080
-        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(8080), 0);
+        // Create HTTP server on port 8080 (housing.server.port); connections beyond the accept backlog are refused by the OS
+        int backlog = Integer.getInteger("housing.server.backlog", 128);
+        com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(port), backlog);
         
         // Serve the web interface
         server.createContext("/", new WebPageHandler());
         
-        // API endpoints
-        server.createContext("/api/train", new TrainHandler());
-        server.createContext("/api/predict", new PredictHandler());
+        // API endpoints; training, evaluation and model management get small fixed limits so they
+        // can never occupy the threads predictions need, and status/metrics are never shed
+        server.createContext("/api/train", admission.limit("train", new TrainHandler(), new AdmissionController.Limits()
+            .initialLimit(1).minLimit(1).maxLimit(1).maxQueue(0).rejectStatus(429).retryAfterSeconds(5)));
         server.createContext("/api/status", new StatusHandler());
-        server.createContext("/api/evaluate", new EvaluateHandler());
+        server.createContext("/api/evaluate", admission.limit("evaluate", new EvaluateHandler(), new AdmissionController.Limits()
+            .initialLimit(2).minLimit(2).maxLimit(2).maxQueue(2)));
+        server.createContext("/api/metrics", new MetricsHandler());
+        server.createContext("/api/models", admission.limit("models", new ModelsHandler(), new AdmissionController.Limits()
+            .initialLimit(2).minLimit(2).maxLimit(2).maxQueue(2)));
+        server.createContext("/api/drift", admission.limit("drift", new DriftHandler(), new AdmissionController.Limits()
+            .initialLimit(2).minLimit(2).maxLimit(2).maxQueue(4)));
+        // Long polls are parked without a thread, so replication needs no admission limit
+        server.createContext("/api/replication/snapshot", replication);
+        server.createContext("/api/whatif", admission.limit("whatif", new WhatIfHandler(), new AdmissionController.Limits()
+            .initialLimit(2).minLimit(2).maxLimit(2).maxQueue(4)));
         
-        server.setExecutor(null);
+        // Predictions get what the endpoints above can hold (running or queued) leaves, less two threads
+        // for the unlimited page, status and metrics handlers
+        int reserved = admission.threadsHeld() + 2;
+        int predictCapacity = Math.max(2, handlerThreads - reserved);
+        int predictLimit = Integer.getInteger("housing.admission.predict.maxLimit", Math.max(1, predictCapacity * 2 / 3));
+        server.createContext("/api/predict", admission.limit("predict", new PredictHandler(), new AdmissionController.Limits()
+            .initialLimit(predictLimit).minLimit(Math.min(4, predictLimit)).maxLimit(predictLimit)
+            .maxQueue(Integer.getInteger("housing.admission.predict.maxQueue", Math.max(0, predictCapacity - predictLimit)))
+            .queueTimeoutMillis(Long.getLong("housing.admission.predict.queueTimeoutMs", 100))
+            .targetLatencyMillis(Long.getLong("housing.admission.predict.targetLatencyMs", 50))));
+        
+        // Exchanges beyond the threads plus housing.server.queue are answered 503 at dispatch
+        server.setExecutor(admission.dispatcher(handlerThreads, Integer.getInteger("housing.server.queue", handlerThreads)));
         server.start();
+        liveMillis = java.lang.management.ManagementFactory.getRuntimeMXBean().getUptime();
+        
+        System.out.println(" Web server started on http://localhost:" + port + " after " + liveMillis + " ms");
+        if (fastStart) {
+            Thread startup = new Thread(() -> {
+                initializeMLSystem();
+                warmUp();
+            }, "startup");
+            startup.setDaemon(true);
+            startup.start();
+        }
         
-        System.out.println(" Web server started on http://localhost:8080");
-        System.out.println(" ML System: " + (isTrained ? "TRAINED" : "NOT TRAINED"));
+        if (replication.isFollower()) {
+            replication.startFollowing(Long.getLong("housing.replication.pollMs", 30_000));
+            System.out.println(" Following model versions from " + replication.getLeader());
+        }
+        
+        // Optional binary listener for internal callers
+        Integer binaryPort = Integer.getInteger("housing.binary.port");
+        if (binaryPort != null) {
+            binaryServer = new BinaryPredictionServer(registry, binaryPort, audit);
+            binaryServer.start();
+            System.out.println(" Binary prediction listener on port " + binaryServer.getPort());
+        }
+        System.out.println(" ML System: " + (isTrained ? "TRAINED" : fastStart ? "LOADING" : "NOT TRAINED"));
+        System.out.println(" Prediction batching: max " + batcher.getMaxBatchSize() + " requests, "
+            + batcher.getMaxWaitMicros() + " us wait budget");
     }
     
     private static void initializeMLSystem() {
+        enterPhase(Phase.LOADING);
         try {
+            // A follower takes the leader's model instead of training its own
+            if (replication.isFollower()) {
+                System.out.println(" Fetching model snapshot from " + replication.getLeader() + "...");
+                if (replication.bootstrap(Long.getLong("housing.replication.bootTimeoutMs", 10_000))) {
+                    System.out.println("  ML system replicated from the leader");
+                    return;
+                }
+                // Serving a model of its own would make the fleet disagree; wait for the leader instead
+                System.err.println(" Leader unreachable; not ready until its first snapshot arrives");
+                awaitingLeader = true;
+                return;
+            }
+            
+            // Start from a saved model when one exists; otherwise train and save it for the next start
+            String snapshotPath = System.getProperty("housing.model.snapshot");
+            Path snapshotFile = snapshotPath == null ? null : Paths.get(snapshotPath);
+            if (snapshotFile != null && java.nio.file.Files.exists(snapshotFile)) {
+                System.out.println(" Loading model snapshot " + snapshotFile + "...");
+                ModelSnapshot snapshot = ModelSnapshot.read(snapshotFile);
+                ModelRegistry.ModelVersion version = registry.register(
+                    new UltimateHousingPredictor.HousingMLSystem(snapshot.model), snapshot.trainingSamples);
+                version.segments = snapshot.segments;
+                registry.promote(version.id, 100);
+                isTrained = true;
+                System.out.println("  ML system loaded (" + snapshot.trainingSamples + " training samples)");
+                return;
+            }
+            
             System.out.println(" Initializing ML system with sample data...");
             List<UltimateHousingPredictor.House> trainingData = UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses();
-            mlSystem = new UltimateHousingPredictor.HousingMLSystem(trainingData);
+            UltimateHousingPredictor.HousingMLSystem mlSystem = new UltimateHousingPredictor.HousingMLSystem(trainingData);
+            ModelRegistry.ModelVersion version = registry.register(mlSystem, trainingData.size());
+            registry.promote(version.id, 100);
             isTrained = true;
             System.out.println("  ML system initialized with " + trainingData.size() + " samples");
+            saveSnapshot(version);
         } catch (Exception e) {
             System.err.println(" Error initializing ML system: " + e.getMessage());
         }
     }
     
+    /**
+     * Save version (with its segments) to housing.model.snapshot, if set, for the next start to load
+     */
+    private static void saveSnapshot(ModelRegistry.ModelVersion version) throws IOException {
+        String snapshotPath = System.getProperty("housing.model.snapshot");
+        if (snapshotPath != null) {
+            new ModelSnapshot(version.model, version.trainingSamples, version.createdAt, version.segments).write(Paths.get(snapshotPath));
+            System.out.println("  Model snapshot saved to " + snapshotPath);
+        }
+    }
+    
+    /**
+     * Run the request parse, predict and serialize paths until the JIT has compiled them,
+     * so the first real requests don't pay for interpretation. Nothing is recorded in the registry.
+     */
+    private static void warmUp() {
+        enterPhase(Phase.WARMING);
+        int iterations = Integer.getInteger("housing.warmup.iterations", 20_000);
+        long deadline = System.nanoTime() + Long.getLong("housing.warmup.maxMs", 5_000) * 1_000_000L;
+        ModelRegistry.ModelVersion version = registry.primary();
+        if (version != null && iterations > 0) {
+            List<UltimateHousingPredictor.House> houses = UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses();
+            String[] bodies = new String[houses.size()];
+            double[] features = new double[HouseSchema.NUM_FEATURES];
+            for (int i = 0; i < bodies.length; i++) {
+                bodies[i] = HouseSchema.appendJson(HouseSchema.toRow(houses.get(i), features), new StringBuilder()).toString();
+            }
+            
+            double[][] columns = new double[HouseSchema.NUM_FEATURES][1];
+            double[] prices = new double[1];
+            long start = System.nanoTime();
+            long checksum = 0;
+            int done = 0;
+            for (; done < iterations && System.nanoTime() < deadline; done++) {
+                HouseSchema.parseJson(bodies[done % bodies.length], features);
+                for (int j = 0; j < features.length; j++) {
+                    columns[j][0] = features[j];
+                }
+                version.predictColumns(columns, 1, prices);
+                checksum += writePrediction(JsonResponseWriter.get(), prices[0], version.id).length();
+            }
+            warmUpSink = checksum;
+            System.out.printf("  JIT warm-up ran %d requests in %d ms%n", done, (System.nanoTime() - start) / 1_000_000);
+        }
+        enterStartupOutcome();
+    }
+    
+    // Only a node with a primary version to serve is ready; a follower waiting for the leader stays LOADING
+    private static synchronized void enterStartupOutcome() {
+        if (registry.primary() != null) {
+            enterPhase(Phase.READY);
+        } else if (awaitingLeader) {
+            System.out.println(" Waiting for the first snapshot from " + replication.getLeader());
+            enterPhase(Phase.LOADING);
+        } else {
+            System.err.println(" No model to serve; not ready until one is trained or replicated");
+            enterPhase(Phase.FAILED);
+        }
+    }
+    
+    // A version was trained or replicated after startup gave up or while a follower waited for its leader
+    private static synchronized void modelAvailable() {
+        isTrained = true;
+        if ((phase == Phase.FAILED || awaitingLeader && phase == Phase.LOADING) && registry.primary() != null) {
+            awaitingLeader = false;
+            enterPhase(Phase.READY);
+        }
+    }
+    
+    private static synchronized void enterPhase(Phase next) {
+        phaseStartNanos[next.ordinal()] = System.nanoTime();
+        phase = next;
+    }
+    
     // Handler for serving the web page
     static class WebPageHandler implements com.sun.net.httpserver.HttpHandler {
         @Override
@@ -391,7 +602,7 @@ public class HousingPriceWebServer {
                     </div>
                     
                     <script>
-                        const API_BASE = 'http://localhost:8080/api';
+                        const API_BASE = location.protocol.startsWith('http') ? '/api' : 'http://localhost:8080/api';
                         
                         // Check model status on load
                         window.onload = () => {
@@ -523,7 +734,7 @@ public class HousingPriceWebServer {
                                         ];
                                         metricsHTML += `
                                             <div class="metric">
-                                                <span class="metric-label">${featureNames[index]}:</span>
+                                                <span class="metric-label">${data.terms ? data.terms[index] : featureNames[index]}:</span>
                                                 <span class="metric-value">${coeff.toFixed(2)}</span>
                                             </div>
                                         `;
@@ -559,32 +770,269 @@ public class HousingPriceWebServer {
                 sendError(exchange, "Method not allowed", 405);
                 return;
             }
+            if (replication != null && replication.isFollower()) {
+                sendError(exchange, "This node follows " + replication.getLeader() + "; train on the leader", 409);
+                return;
+            }
             
+            long requestStart = System.nanoTime(); // the sgd time budget counts from here
             try {
-                // Parse request
-                String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-                Map<String, Object> request = parseJson(requestBody);
+                // Parse request: a CSV upload (text/csv, optionally gzip) carries its options in the query string
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                boolean upload = contentType != null
+                    && (contentType.startsWith("text/csv") || contentType.startsWith("application/gzip") || contentType.startsWith("application/x-gzip"));
+                Map<String, Object> request = upload ? parseQuery(exchange.getRequestURI().getRawQuery())
+                    : parseJson(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
                 
-                int numSamples = 20; // default
-                if (request.containsKey("samples")) {
-                    numSamples = ((Number) request.get("samples")).intValue();
+                UltimateHousingPredictor.HousingMLSystem mlSystem;
+                long trainedSamples;
+                String evaluation;
+                DriftMonitor.Sketch driftReference = null; // versions trained from in-memory rows build their own
+                StringBuilder details = new StringBuilder();
+                
+                // Interaction and polynomial terms ("market", "pairwise" or a spec with ';' between terms), fitted by ridge
+                FeatureExpansion expansion = request.containsKey("expansion") ? FeatureExpansion.parse(request.get("expansion").toString()) : null;
+                String trainer = request.containsKey("trainer") ? request.get("trainer").toString() : expansion != null ? "ridge" : "closed-form";
+                if (expansion != null && !trainer.equals("ridge")) {
+                    throw new IllegalArgumentException("Feature expansion needs the ridge trainer");
                 }
                 
-                // Generate new training data
-                List<UltimateHousingPredictor.House> trainingData = UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses();
-                // Note: In a real implementation, you'd generate the specified number of samples
+                if (upload && (trainer.equals("sgd") || request.containsKey("sample"))) {
+                    throw new IllegalArgumentException("An upload is trained in one pass; sgd and sampling need a source, store or packed file");
+                }
                 
-                mlSystem = new UltimateHousingPredictor.HousingMLSystem(trainingData);
-                isTrained = true;
+                // Optionally reduce the source to a reservoir sample first; the sample is then trained in memory
+                List<UltimateHousingPredictor.House> sampled = request.containsKey("sample") ? sample(request, details) : null;
+                
+                if (upload) {
+                    // Parse the body as it arrives and accumulate rows through the StreamingTrainer pipeline;
+                    // "samples" stops after that many rows
+                    long start = System.nanoTime();
+                    long rowLimit = request.containsKey("samples") ? ((Number) request.get("samples")).longValue() : 0;
+                    InputStream body = StreamingTrainer.decompressIfGzip(exchange.getRequestBody());
+                    TrainingStatistics statistics = new StreamingTrainer(body, 8192, 4).expansion(expansion).rowLimit(rowLimit).run();
+                    if (statistics.getCount() == 0) {
+                        throw new IllegalArgumentException("The upload contained no data rows");
+                    }
+                    mlSystem = new UltimateHousingPredictor.HousingMLSystem(fitStatistics(trainer, statistics, request, details));
+                    trainedSamples = statistics.getCount();
+                    evaluation = "null";
+                    if (details.length() > 0) details.append(", ");
+                    details.append(String.format(Locale.ROOT, "\"upload\": {\"rows\": %d, \"compressed\": %s, \"millis\": %d}",
+                        trainedSamples, body instanceof java.util.zip.GZIPInputStream, (System.nanoTime() - start) / 1_000_000));
+                } else if (trainer.equals("sgd")) {
+                    // Mini-batch SGD over in-memory rows; the wall-clock budget covers loading, preparation and epochs,
+                    // not the evaluation, drift reference and scorer compilation that follow any train
+                    long budgetMillis = request.containsKey("timeBudgetMs") ? ((Number) request.get("timeBudgetMs")).longValue() : 1000L;
+                    long deadline = requestStart + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+                    List<UltimateHousingPredictor.House> trainingData = sampled != null ? sampled
+                        : request.containsKey("source") ? readHouses(dataPath(request.get("source")), deadline)
+                        : UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses();
+                    if (trainingData.isEmpty()) {
+                        throw new IllegalArgumentException("No training rows to fit");
+                    }
+                    double[][] features = new double[trainingData.size()][]; // standardized in place by the trainer
+                    double[] prices = new double[trainingData.size()];
+                    for (int i = 0; i < trainingData.size(); i++) {
+                        features[i] = trainingData.get(i).toFeatureArray();
+                        prices[i] = trainingData.get(i).getPrice();
+                    }
+                    
+                    SgdTrainer sgd = new SgdTrainer()
+                        .deadline(deadline)
+                        .threads(request.containsKey("threads") ? ((Number) request.get("threads")).intValue() : 1)
+                        .batchSize(request.containsKey("batchSize") ? ((Number) request.get("batchSize")).intValue() : 32)
+                        .learningRate(request.containsKey("learningRate") ? ((Number) request.get("learningRate")).doubleValue() : 0.05)
+                        .schedule(request.containsKey("schedule")
+                            ? SgdTrainer.Schedule.valueOf(request.get("schedule").toString().toUpperCase())
+                            : SgdTrainer.Schedule.INVERSE_TIME);
+                    mlSystem = new UltimateHousingPredictor.HousingMLSystem(sgd.train(features, prices), trainingData);
+                    trainedSamples = trainingData.size();
+                    evaluation = String.format(Locale.ROOT, "{\"epochs\": %d, \"stoppedByDeadline\": %s, \"metrics\": %s}",
+                        sgd.getEpochsRun(), sgd.isStoppedByDeadline(), ModelEvaluator.evaluate(mlSystem.getModel(), trainingData).toJson());
+                } else if (sampled == null && request.containsKey("store")) {
+                    // Train and evaluate straight from an off-heap store file
+                    try (OffHeapHouseStore store = OffHeapHouseStore.open(dataPath(request.get("store")))) {
+                        mlSystem = new UltimateHousingPredictor.HousingMLSystem(fitStatistics(trainer, store.accumulate(expansion), request, details));
+                        trainedSamples = store.size();
+                        evaluation = store.evaluate(mlSystem.getModel()).toJson();
+                        driftReference = DriftMonitor.reference(store.size(), store::get, mlSystem.getModel());
+                    }
+                } else if (sampled == null && request.containsKey("packed")) {
+                    // Train and evaluate straight from the packed words of a resident store
+                    PackedHouseStore store = packedStore(request.get("packed").toString());
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    mlSystem = new UltimateHousingPredictor.HousingMLSystem(fitStatistics(trainer, store.accumulate(threads, expansion), request, details));
+                    trainedSamples = store.size();
+                    evaluation = store.evaluate(mlSystem.getModel()).toJson();
+                    driftReference = DriftMonitor.reference(store.size(), store::get, mlSystem.getModel());
+                } else if (sampled == null && request.containsKey("source")) {
+                    TrainingStatistics statistics;
+                    if (request.containsKey("workers")) {
+                        // Hand the shards to DistributedTrainer workers ("host:port; host:port", each one listed in
+                        // -Dhousing.distributed.workers) and merge their statistics
+                        DistributedTrainer distributed = new DistributedTrainer(dataPath(request.get("source")),
+                            DistributedTrainer.allowedWorkers(request.get("workers").toString())).expansion(expansion);
+                        statistics = distributed.run();
+                        if (details.length() > 0) details.append(", ");
+                        details.append("\"distributed\": ").append(distributed.toJson());
+                    } else {
+                        // Stream a CSV file or shard directory in bounded chunks, optionally resumable
+                        Path checkpoint = request.containsKey("checkpoint") ? dataPath(request.get("checkpoint")) : null;
+                        StreamingTrainer streamingTrainer = new StreamingTrainer(dataPath(request.get("source")), 8192, 4, checkpoint, 1_000_000L);
+                        statistics = streamingTrainer.expansion(expansion).run();
+                    }
+                    mlSystem = new UltimateHousingPredictor.HousingMLSystem(fitStatistics(trainer, statistics, request, details));
+                    trainedSamples = statistics.getCount();
+                    evaluation = "null";
+                } else {
+                    // Generate new training data
+                    List<UltimateHousingPredictor.House> trainingData = sampled != null ? sampled
+                        : UltimateHousingPredictor.SampleDataGenerator.generateSampleHouses();
+                    // Note: In a real implementation, you'd generate the specified number of samples
+                    
+                    if (trainer.equals("closed-form")) {
+                        mlSystem = new UltimateHousingPredictor.HousingMLSystem(trainingData);
+                    } else if (trainer.equals("subset")) {
+                        // Rows in memory: split them into folds so subsets can be cross-validated
+                        int k = request.containsKey("folds") ? ((Number) request.get("folds")).intValue() : 5;
+                        TrainingStatistics[] folds = SubsetSelector.accumulateFolds(trainingData, k);
+                        mlSystem = new UltimateHousingPredictor.HousingMLSystem(selectSubset(folds, request, details), trainingData);
+                    } else {
+                        TrainingStatistics statistics = new TrainingStatistics(expansion);
+                        for (UltimateHousingPredictor.House house : trainingData) {
+                            statistics.add(house.toFeatureArray(), house.getPrice());
+                        }
+                        mlSystem = new UltimateHousingPredictor.HousingMLSystem(fitStatistics(trainer, statistics, request, details), trainingData);
+                    }
+                    trainedSamples = trainingData.size();
+                    evaluation = ModelEvaluator.evaluate(mlSystem.getModel(), trainingData).toJson();
+                }
+                
+                if (expansion != null) {
+                    if (details.length() > 0) details.append(", ");
+                    details.append(String.format(Locale.ROOT, "\"expansion\": {\"terms\": %d, \"columns\": %d}", expansion.termCount(), expansion.width()));
+                }
+                
+                // "segments": N price bands routes each house to a locationType x furnishingState x band model,
+                // fitted from its summed training rows the first time that segment is asked for
+                SegmentModels segments = null;
+                if (request.containsKey("segments")) {
+                    int bands = ((Number) request.get("segments")).intValue();
+                    int minRows = request.containsKey("segmentMinRows") ? ((Number) request.get("segmentMinRows")).intValue() : SegmentModels.DEFAULT_MIN_ROWS;
+                    long maxBytes = request.containsKey("segmentMaxBytes") ? ((Number) request.get("segmentMaxBytes")).longValue() : SegmentModels.DEFAULT_MAX_BYTES;
+                    List<UltimateHousingPredictor.House> rows = mlSystem.getTrainingData();
+                    if (!rows.isEmpty()) {
+                        segments = new SegmentModels(mlSystem.getModel(), rows.size(), SegmentModels.columns(rows), bands, minRows, maxBytes);
+                    } else if (sampled == null && !upload && request.containsKey("packed")) {
+                        PackedHouseStore store = packedStore(request.get("packed").toString());
+                        segments = new SegmentModels(mlSystem.getModel(), store.size(), store::get, bands, minRows, maxBytes);
+                    } else {
+                        throw new IllegalArgumentException("Segment models need rows kept in memory or a packed store");
+                    }
+                }
+                
+                ModelRegistry.ModelVersion version = registry.register(mlSystem, trainedSamples);
+                if (driftReference != null) {
+                    version.driftReference = driftReference;
+                }
+                version.segments = segments;
+                
+                // By default the new version takes all traffic; "traffic" canaries it, "shadow" only mirrors it
+                if (request.containsKey("shadow") && ((Number) request.get("shadow")).intValue() != 0) {
+                    registry.setShadow(version.id);
+                } else {
+                    int traffic = request.containsKey("traffic") ? ((Number) request.get("traffic")).intValue() : 100;
+                    registry.promote(version.id, traffic);
+                }
+                modelAvailable();
+                if (registry.primary() == version) {
+                    try {
+                        saveSnapshot(version);
+                    } catch (IOException e) {
+                        System.err.println(" Could not save the model snapshot: " + e.getMessage()); // the version serves regardless
+                    }
+                }
                 
                 // Send success response
-                String response = String.format("{\"samples\": %d, \"status\": \"trained\"}", trainingData.size());
-                sendJsonResponse(exchange, response);
+                JsonResponseWriter json = JsonResponseWriter.get().beginObject()
+                    .name("samples").value(trainedSamples)
+                    .name("status").value("trained")
+                    .name("modelVersion").value(version.id)
+                    .name("evaluation").raw(evaluation);
+                if (details.length() > 0) json.raw(details);
+                json.endObject().send(exchange, 200);
                 
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, "Invalid training request: " + e.getMessage(), 400);
             } catch (Exception e) {
                 sendError(exchange, "Training failed: " + e.getMessage(), 500);
             }
         }
+        
+        // {"sample": "uniform|stratified|weighted", "sampleSize": 100000, "stratifyBy": "locationType", "weightBy": "price"}
+        // over "source" (CSV or shard directory), "store", "packed", or "generate": N rows from the DatasetGenerator distributions
+        private List<UltimateHousingPredictor.House> sample(Map<String, Object> request, StringBuilder details) throws IOException, InterruptedException {
+            ReservoirSampler.Mode mode = ReservoirSampler.Mode.valueOf(request.get("sample").toString().toUpperCase(Locale.ROOT));
+            int size = request.containsKey("sampleSize") ? ((Number) request.get("sampleSize")).intValue() : 100_000;
+            int strataColumn = ReservoirSampler.column(request.containsKey("stratifyBy") ? request.get("stratifyBy").toString() : "locationType");
+            int weightColumn = ReservoirSampler.column(request.containsKey("weightBy") ? request.get("weightBy").toString() : "price");
+            long seed = request.containsKey("seed") ? ((Number) request.get("seed")).longValue() : System.nanoTime();
+            ReservoirSampler sampler = new ReservoirSampler(mode, size, strataColumn, weightColumn, seed,
+                Runtime.getRuntime().availableProcessors());
+            
+            long start = System.nanoTime();
+            ReservoirSampler.Reservoir reservoir;
+            if (request.containsKey("store")) {
+                try (OffHeapHouseStore store = OffHeapHouseStore.open(dataPath(request.get("store")))) {
+                    reservoir = sampler.sampleStore(store);
+                }
+            } else if (request.containsKey("packed")) {
+                reservoir = sampler.samplePacked(packedStore(request.get("packed").toString()));
+            } else if (request.containsKey("source")) {
+                reservoir = sampler.sampleCsv(dataPath(request.get("source")));
+            } else {
+                long rows = request.containsKey("generate") ? ((Number) request.get("generate")).longValue() : 1_000_000L;
+                reservoir = sampler.sampleGenerator(rows);
+            }
+            if (details.length() > 0) details.append(", ");
+            details.append("\"sampling\": ").append(reservoir.toJson((System.nanoTime() - start) / 1_000_000));
+            return reservoir.houses();
+        }
+        
+        // Best of all feature subsets by "criterion": cv (the default with folds), bic (the default without) or aic
+        private UltimateHousingPredictor.LinearRegressionModel selectSubset(TrainingStatistics[] folds, Map<String, Object> request,
+                                                                           StringBuilder details) throws InterruptedException {
+            SubsetSelector.Criterion criterion = request.containsKey("criterion")
+                ? SubsetSelector.Criterion.valueOf(request.get("criterion").toString().toUpperCase(Locale.ROOT))
+                : folds.length > 1 ? SubsetSelector.Criterion.CV : SubsetSelector.Criterion.BIC;
+            SubsetSelector selector = new SubsetSelector(folds).search(criterion, Runtime.getRuntime().availableProcessors());
+            if (details.length() > 0) details.append(", ");
+            details.append("\"subsets\": ").append(selector.toJson());
+            return selector.bestModel();
+        }
+        
+        // Fit one of the statistics-based trainers; extra output (e.g. the ridge path) goes into details
+        private UltimateHousingPredictor.LinearRegressionModel fitStatistics(String trainer, TrainingStatistics statistics,
+                                                                            Map<String, Object> request, StringBuilder details)
+                throws InterruptedException {
+            switch (trainer) {
+                case "closed-form":
+                    return statistics.toUnivariateModel();
+                case "ridge":
+                    double minLambda = request.containsKey("minLambda") ? ((Number) request.get("minLambda")).doubleValue() : 1e-6;
+                    double maxLambda = request.containsKey("maxLambda") ? ((Number) request.get("maxLambda")).doubleValue() : 1e3;
+                    int lambdas = request.containsKey("lambdas") ? ((Number) request.get("lambdas")).intValue() : 200;
+                    RidgePath path = new RidgePath(statistics).compute(minLambda, maxLambda, lambdas);
+                    if (details.length() > 0) details.append(", ");
+                    details.append("\"ridge\": ").append(path.toJson());
+                    return path.bestModel();
+                case "subset":
+                    return selectSubset(new TrainingStatistics[] {statistics}, request, details);
+                default:
+                    throw new IllegalArgumentException("Unknown trainer: " + trainer);
+            }
+        }
     }
     
     static class PredictHandler implements com.sun.net.httpserver.HttpHandler {
@@ -596,72 +1044,92 @@ public class HousingPriceWebServer {
             }
             
             if (!isTrained) {
-                sendError(exchange, "Model not trained", 400);
+                if (phase == Phase.LOADING) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendError(exchange, "Model is loading", 503);
+                } else {
+                    sendError(exchange, "Model not trained", 400);
+                }
                 return;
             }
             
             try {
                 // Parse request
                 String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-                Map<String, Object> request = parseJson(requestBody);
-                
-                // Create house object from request
-                UltimateHousingPredictor.House house = new UltimateHousingPredictor.House(
-                    ((Number) request.get("squareFootage")).doubleValue(),
-                    ((Number) request.get("bedrooms")).intValue(),
-                    ((Number) request.get("bathrooms")).intValue(),
-                    ((Number) request.get("age")).intValue(),
-                    ((Number) request.get("neighborhood")).doubleValue(),
-                    ((Number) request.get("parkingSpaces")).intValue(),
-                    getLocationType(((Number) request.get("locationType")).intValue()),
-                    getFurnishingState(((Number) request.get("furnishingState")).intValue()),
-                    getKitchenType(((Number) request.get("kitchenType")).intValue()),
-                    0 // price will be predicted
-                );
+                double[] features = new double[HouseSchema.NUM_FEATURES];
+                HouseSchema.parseJson(requestBody, features);
                 
-                // Get prediction
-                double predictedPrice = mlSystem.predictPrice(house);
+                // Get prediction from the routed version (coalesced with concurrent requests)
+                ModelRegistry.ModelVersion version = registry.route();
+                if (version == null) {
+                    // Only a shadow is registered: nothing may answer for it
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendError(exchange, "No model version serves traffic", 503);
+                    return;
+                }
+                long start = System.nanoTime();
+                SegmentModels segments = version.segments;
+                double predictedPrice = segments != null ? segments.predict(features) : batcher.predict(version.model, features);
+                long elapsed = System.nanoTime() - start;
+                registry.recordServed(version, elapsed, features, predictedPrice);
+                if (audit != null) {
+                    audit.record(AuditLog.SOURCE_HTTP, version.id, features, predictedPrice, elapsed);
+                }
                 
                 // Send response
-                String response = String.format("{\"predictedPrice\": %.2f}", predictedPrice);
-                sendJsonResponse(exchange, response);
+                writePrediction(JsonResponseWriter.get(), predictedPrice, version.id).send(exchange, 200);
                 
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, "Invalid house: " + e.getMessage(), 400);
             } catch (Exception e) {
                 sendError(exchange, "Prediction failed: " + e.getMessage(), 500);
             }
         }
-        
-        private UltimateHousingPredictor.LocationType getLocationType(int choice) {
-            switch (choice) {
-                case 1: return UltimateHousingPredictor.LocationType.DOWNTOWN;
-                case 2: return UltimateHousingPredictor.LocationType.SUBURB;
-                case 3: return UltimateHousingPredictor.LocationType.RURAL;
-                case 4: return UltimateHousingPredictor.LocationType.UPTOWN;
-                case 5: return UltimateHousingPredictor.LocationType.BEACHSIDE;
-                case 6: return UltimateHousingPredictor.LocationType.METROPOLITAN;
-                default: return UltimateHousingPredictor.LocationType.SUBURB;
-            }
-        }
-        
-        private UltimateHousingPredictor.FurnishingState getFurnishingState(int choice) {
-            switch (choice) {
-                case 1: return UltimateHousingPredictor.FurnishingState.UNFURNISHED;
-                case 2: return UltimateHousingPredictor.FurnishingState.SEMI_FURNISHED;
-                case 3: return UltimateHousingPredictor.FurnishingState.FURNISHED;
-                default: return UltimateHousingPredictor.FurnishingState.SEMI_FURNISHED;
-            }
-        }
-        
-        private UltimateHousingPredictor.KitchenType getKitchenType(int choice) {
-            return choice == 1 ? UltimateHousingPredictor.KitchenType.OPEN_KITCHEN : UltimateHousingPredictor.KitchenType.CLOSED_KITCHEN;
-        }
     }
     
     static class StatusHandler implements com.sun.net.httpserver.HttpHandler {
         @Override
         public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
-            String response = String.format("{\"trained\": %s}", isTrained);
-            sendJsonResponse(exchange, response);
+            Phase current = phase;
+            JsonResponseWriter json = JsonResponseWriter.get();
+            synchronized (HousingPriceWebServer.class) {
+                json.beginObject()
+                    .name("trained").value(isTrained)
+                    .name("phase").value(current.name().toLowerCase(Locale.ROOT))
+                    .name("ready").value(current == Phase.READY)
+                    .name("audit").value(audit == null ? "off" : audit.isWriterFailed() ? "failed" : "writing")
+                    .name("phaseMillis").beginObject()
+                    .name("live").value(liveMillis);
+                phaseMillis(json.name("loading"), Phase.LOADING);
+                phaseMillis(json.name("warming"), Phase.WARMING);
+                json.endObject().endObject();
+            }
+            
+            // Readiness probe for load balancers: 503 until the model is loaded and warm
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null && query.contains("probe=ready") && current != Phase.READY) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                json.send(exchange, 503);
+                return;
+            }
+            json.send(exchange, 200);
+        }
+        
+        // Duration of a phase, still running if it is the current one; null if it never started
+        private static void phaseMillis(JsonResponseWriter json, Phase of) {
+            long start = phaseStartNanos[of.ordinal()];
+            if (start == 0) {
+                json.nullValue();
+                return;
+            }
+            // Ends where the next phase began, which is READY or FAILED after warming
+            long end = System.nanoTime();
+            for (long next : phaseStartNanos) {
+                if (next != 0 && next - start > 0 && next - end < 0) {
+                    end = next;
+                }
+            }
+            json.value((end - start) / 1_000_000);
         }
     }
     
@@ -674,22 +1142,32 @@ public class HousingPriceWebServer {
             }
             
             try {
-                // Get model info using reflection (since coefficients are private)
-                java.lang.reflect.Field modelField = mlSystem.getClass().getDeclaredField("model");
-                modelField.setAccessible(true);
-                UltimateHousingPredictor.LinearRegressionModel model = 
-                    (UltimateHousingPredictor.LinearRegressionModel) modelField.get(mlSystem);
+                ModelRegistry.ModelVersion primary = registry.primary();
+                if (primary == null) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendError(exchange, "No model version serves traffic", 503);
+                    return;
+                }
+                UltimateHousingPredictor.LinearRegressionModel model = primary.model;
                 
                 // Build response with coefficients
-                StringBuilder response = new StringBuilder();
-                response.append("{\"coefficients\": [");
-                for (int i = 0; i < model.coefficients.length; i++) {
-                    if (i > 0) response.append(",");
-                    response.append(String.format("%.2f", model.coefficients[i]));
+                JsonResponseWriter json = JsonResponseWriter.get();
+                json.beginObject().name("coefficients").beginArray();
+                for (double coefficient : model.coefficients) {
+                    json.value(coefficient, 2);
                 }
-                response.append("], \"intercept\": ").append(String.format("%.2f", model.intercept)).append("}");
+                json.endArray().name("intercept").value(model.intercept, 2);
+                if (model.expansion != null) {
+                    // Names for every coefficient: the nine features, then the expansion's terms
+                    json.name("terms").beginArray();
+                    for (int j = 0; j < model.coefficients.length; j++) {
+                        json.value(model.expansion.name(j));
+                    }
+                    json.endArray();
+                }
+                json.endObject();
                 
-                sendJsonResponse(exchange, response.toString());
+                json.send(exchange, 200);
                 
             } catch (Exception e) {
                 sendError(exchange, "Evaluation failed: " + e.getMessage(), 500);
@@ -697,26 +1175,239 @@ public class HousingPriceWebServer {
         }
     }
     
+    static class MetricsHandler implements com.sun.net.httpserver.HttpHandler {
+        @Override
+        public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            JsonResponseWriter.get().beginObject()
+                .name("batching").raw(batcher.metricsJson())
+                .name("binary").raw(binaryServer == null ? "null" : binaryServer.metricsJson())
+                .name("admission").raw(admission.metricsJson())
+                .name("audit").raw(audit == null ? "null" : audit.metricsJson())
+                .name("replication").raw(replication == null ? "null" : replication.metricsJson())
+                .endObject().send(exchange, 200);
+        }
+    }
+    
+    static class WhatIfHandler implements com.sun.net.httpserver.HttpHandler {
+        @Override
+        public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            if (!isTrained) {
+                sendError(exchange, "Model not trained", 400);
+                return;
+            }
+            
+            try {
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    // Base house as for /api/predict plus {"x": "bathrooms", "xFrom": 1, "xTo": 4[, "xSteps": 4][, "y": "locationType"]}
+                    String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    Map<String, Object> request = parseJson(requestBody);
+                    ModelRegistry.ModelVersion version = request.containsKey("version")
+                        ? registry.get(((Number) request.get("version")).intValue())
+                        : registry.primary();
+                    if (version == null) {
+                        sendError(exchange, "Unknown model version", 404);
+                        return;
+                    }
+                    if (!request.containsKey("x")) {
+                        sendError(exchange, "Missing x feature", 400);
+                        return;
+                    }
+                    
+                    double[] base = new double[HouseSchema.NUM_FEATURES];
+                    HouseSchema.parseJson(requestBody, base);
+                    WhatIfAnalyzer.Axis x = parseAxis(request, "x", WhatIfAnalyzer.MAX_GRID_POINTS);
+                    WhatIfAnalyzer.Axis y = request.containsKey("y")
+                        ? parseAxis(request, "y", WhatIfAnalyzer.MAX_GRID_POINTS / x.values.length) : null;
+                    double[] prices = WhatIfAnalyzer.surface(version, base, x, y);
+                    sendJsonResponse(exchange, WhatIfAnalyzer.surfaceJson(version.id, x, y, prices));
+                } else {
+                    // Partial-dependence curves, cached per version
+                    String query = exchange.getRequestURI().getQuery();
+                    ModelRegistry.ModelVersion version = query != null && query.startsWith("version=")
+                        ? registry.get(Integer.parseInt(query.substring("version=".length())))
+                        : registry.primary();
+                    if (version == null) {
+                        sendError(exchange, "Unknown model version", 404);
+                        return;
+                    }
+                    String curves = whatIf.partialDependenceJson(version);
+                    if (curves == null) {
+                        sendError(exchange, "Model version " + version.id + " has no in-memory training data", 400);
+                        return;
+                    }
+                    sendJsonResponse(exchange, curves);
+                }
+            } catch (Exception e) {
+                sendError(exchange, "What-if failed: " + e.getMessage(), 400);
+            }
+        }
+        
+        // Numeric features take a from/to range; categorical ones take UI codes and default to every level.
+        // The point count is checked against limit in long arithmetic before any array is allocated.
+        private static WhatIfAnalyzer.Axis parseAxis(Map<String, Object> request, String axis, int limit) {
+            int feature = WhatIfAnalyzer.featureIndex(request.get(axis).toString());
+            Number from = (Number) request.get(axis + "From");
+            Number to = (Number) request.get(axis + "To");
+            Number steps = (Number) request.get(axis + "Steps");
+            
+            HouseSchema.Field field = HouseSchema.FIELDS[feature];
+            if (field.kind == HouseSchema.Kind.CATEGORY) {
+                int firstCode = from != null ? from.intValue() : field.minFormCode();
+                int lastCode = to != null ? to.intValue() : field.maxFormCode();
+                int count = WhatIfAnalyzer.axisPoints(axis, (long) lastCode - firstCode + 1, limit);
+                double[] values = new double[count];
+                String[] labels = new String[count];
+                for (int i = 0; i < count; i++) {
+                    int level = field.ordinalOfFormCode(firstCode + i);
+                    values[i] = field.featureValue(level);
+                    labels[i] = field.label(level);
+                }
+                return new WhatIfAnalyzer.Axis(feature, values, labels);
+            }
+            
+            if (from == null || to == null) {
+                throw new IllegalArgumentException("Numeric axis " + axis + " needs " + axis + "From and " + axis + "To");
+            }
+            double first = from.doubleValue();
+            double last = to.doubleValue();
+            boolean integral = first == Math.rint(first) && last == Math.rint(last);
+            long requested = steps != null ? steps.longValue() : integral ? (long) Math.abs(last - first) + 1 : 10;
+            int count = WhatIfAnalyzer.axisPoints(axis, Math.max(1, requested), limit);
+            return new WhatIfAnalyzer.Axis(feature, WhatIfAnalyzer.range(first, last, count), null);
+        }
+    }
+    
+    static class ModelsHandler implements com.sun.net.httpserver.HttpHandler {
+        @Override
+        public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            try {
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    Map<String, Object> request = parseJson(requestBody);
+                    
+                    // {"split": "1=70;2=30"} | {"version": 2, "traffic": 30} | {"shadow": 3} | {"retire": 1}
+                    if (request.containsKey("split")) {
+                        Map<Integer, Integer> split = new HashMap<>();
+                        for (String part : request.get("split").toString().split(";")) {
+                            String[] idAndPercent = part.split("=");
+                            split.put(Integer.parseInt(idAndPercent[0].trim()), Integer.parseInt(idAndPercent[1].trim()));
+                        }
+                        registry.setTraffic(split);
+                    } else if (request.containsKey("version") && request.containsKey("traffic")) {
+                        registry.promote(((Number) request.get("version")).intValue(), ((Number) request.get("traffic")).intValue());
+                    } else if (request.containsKey("shadow")) {
+                        registry.setShadow(((Number) request.get("shadow")).intValue());
+                    } else if (request.containsKey("retire")) {
+                        registry.retire(((Number) request.get("retire")).intValue());
+                    } else {
+                        sendError(exchange, "Expected split, version/traffic, shadow or retire", 400);
+                        return;
+                    }
+                }
+                sendJsonResponse(exchange, registry.toJson());
+            } catch (IllegalArgumentException | ClassCastException | ArrayIndexOutOfBoundsException e) {
+                sendError(exchange, "Invalid model request: " + e.getMessage(), 400);
+            }
+        }
+    }
+    
+    static class DriftHandler implements com.sun.net.httpserver.HttpHandler {
+        private static final double PSI_THRESHOLD = Double.parseDouble(
+            System.getProperty("housing.drift.psiThreshold", String.valueOf(DriftMonitor.DEFAULT_PSI_THRESHOLD)));
+        private static final long MIN_ROWS = Long.getLong("housing.drift.minRows", DriftMonitor.DEFAULT_MIN_ROWS);
+        
+        @Override
+        public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+            if (!isTrained) {
+                sendError(exchange, "Model not trained", 400);
+                return;
+            }
+            
+            try {
+                // GET [?version=N] reports served traffic since the last reset; POST {"reset": true[, "version": N]} starts a new window
+                ModelRegistry.ModelVersion version;
+                boolean reset = false;
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    Map<String, Object> request = parseJson(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                    version = request.containsKey("version") ? registry.get(((Number) request.get("version")).intValue()) : registry.primary();
+                    reset = "true".equals(String.valueOf(request.get("reset")));
+                } else {
+                    String query = exchange.getRequestURI().getQuery();
+                    version = query != null && query.startsWith("version=")
+                        ? registry.get(Integer.parseInt(query.substring("version=".length())))
+                        : registry.primary();
+                }
+                if (version == null) {
+                    sendError(exchange, "Unknown model version", 404);
+                    return;
+                }
+                
+                JsonResponseWriter json = JsonResponseWriter.get();
+                DriftMonitor.writeJson(json, version.id, version.driftReference, version.drift, PSI_THRESHOLD, MIN_ROWS);
+                if (reset) {
+                    version.drift.reset();
+                }
+                json.send(exchange, 200);
+            } catch (IllegalArgumentException | ClassCastException e) {
+                sendError(exchange, "Invalid drift request: " + e.getMessage(), 400);
+            }
+        }
+    }
+    
     // Utility methods
+    
+    /**
+     * Resolve a file named in a request against the data directory, rejecting anything that leaves it
+     */
+    static Path dataPath(Object requested) throws IOException {
+        Path path = DATA_DIR.resolve(requested.toString()).normalize();
+        if (!path.startsWith(DATA_DIR)
+            || (java.nio.file.Files.exists(path) && !path.toRealPath().startsWith(DATA_DIR.toRealPath()))) {
+            throw new IllegalArgumentException("Path " + requested + " is outside the data directory");
+        }
+        return path;
+    }
+    
     private static void sendJsonResponse(com.sun.net.httpserver.HttpExchange exchange, String response) throws IOException {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        exchange.sendResponseHeaders(200, response.getBytes(StandardCharsets.UTF_8).length);
-        
-        OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes(StandardCharsets.UTF_8));
-        os.close();
+        JsonResponseWriter.get().raw(response).send(exchange, 200);
     }
     
     private static void sendError(com.sun.net.httpserver.HttpExchange exchange, String message, int code) throws IOException {
-        String response = String.format("{\"error\": \"%s\"}", message);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        exchange.sendResponseHeaders(code, response.getBytes(StandardCharsets.UTF_8).length);
-        
-        OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes(StandardCharsets.UTF_8));
-        os.close();
+        JsonResponseWriter.get().beginObject().name("error").value(message).endObject().send(exchange, code);
+    }
+    
+    // {"predictedPrice": 123456.78, "modelVersion": 3}
+    static JsonResponseWriter writePrediction(JsonResponseWriter json, double price, int versionId) {
+        return json.beginObject().name("predictedPrice").value(price, 2).name("modelVersion").value(versionId).endObject();
+    }
+    
+    private static synchronized PackedHouseStore packedStore(String file) throws IOException {
+        Path path = dataPath(file);
+        long modified = java.nio.file.Files.getLastModifiedTime(path).toMillis();
+        if (!path.equals(residentPackedPath) || modified != residentPackedModified) {
+            residentPacked = null; // let the old pages go before the new ones are allocated
+            residentPacked = PackedHouseStore.read(path);
+            residentPackedPath = path;
+            residentPackedModified = modified;
+        }
+        return residentPacked;
+    }
+    
+    // Load a whole housing_data.csv file into memory, giving up at the deadline (System.nanoTime())
+    private static List<UltimateHousingPredictor.House> readHouses(Path csv, long deadline) throws IOException {
+        List<UltimateHousingPredictor.House> houses = new ArrayList<>();
+        try (BufferedReader reader = java.nio.file.Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null) {
+                if ((houses.size() & 4095) == 0 && System.nanoTime() >= deadline) {
+                    throw new IllegalStateException("Time budget ran out while loading " + csv + " (" + houses.size() + " rows read)");
+                }
+                if (!line.isBlank()) {
+                    houses.add(UltimateHousingPredictor.House.fromCsv(line));
+                }
+            }
+        }
+        return houses;
     }
     
     private static Map<String, Object> parseJson(String json) {
@@ -726,23 +1417,39 @@ public class HousingPriceWebServer {
         String[] pairs = json.split(",");
         
         for (String pair : pairs) {
-            String[] keyValue = pair.split(":");
+            String[] keyValue = pair.split(":", 2); // values such as host:port keep their colons
             if (keyValue.length == 2) {
-                String key = keyValue[0].trim();
-                String value = keyValue[1].trim();
-                
-                // Try to parse as number
-                try {
-                    if (value.contains(".")) {
-                        result.put(key, Double.parseDouble(value));
-                    } else {
-                        result.put(key, Integer.parseInt(value));
-                    }
-                } catch (NumberFormatException e) {
-                    result.put(key, value);
-                }
+                result.put(keyValue[0].trim(), parseValue(keyValue[1].trim()));
             }
         }
         return result;
     }
+    
+    // The same options as parseJson, from a raw query string: trainer=ridge&expansion=market&samples=100000
+    private static Map<String, Object> parseQuery(String query) {
+        Map<String, Object> result = new HashMap<>();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            String[] keyValue = pair.split("=", 2); // expansion specs such as locationType=* keep their '='
+            if (keyValue.length == 2) {
+                result.put(java.net.URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8).trim(),
+                    parseValue(java.net.URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8).trim()));
+            }
+        }
+        return result;
+    }
+    
+    // Numbers become Integer or Double, anything else stays a string
+    private static Object parseValue(String value) {
+        try {
+            if (value.contains(".")) {
+                return Double.parseDouble(value);
+            }
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
 }
\ No newline at end of file
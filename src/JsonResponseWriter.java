@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON serialized straight into a pooled UTF-8 byte buffer
+ * Each handler thread reuses one writer, so building and sending a response allocates nothing
+ * for the body: no format strings, no intermediate String and a single encoding pass whose
+ * length becomes the Content-Length. Commas between members and elements are inserted
+ * automatically; output follows the server's existing style ({"key": value, "key": value}).
+ *
+ * Doubles are written in the shortest form that parses back to the same value whenever that
+ * form has at most 17 fractional digits and 15 significant ones, which covers prices,
+ * coefficients and metrics; other values fall back to Double.toString.
+ */
+public class JsonResponseWriter {
+    private static final int INITIAL_BYTES = 1024;
+    private static final int RETAINED_BYTES = 1 << 20; // larger buffers are dropped after the response
+    private static final int MAX_DEPTH = 32;
+    private static final long MAX_EXACT = 1L << 53;
+    private static final int FIXED_RESERVE = 312; // sign and integer digits of Double.MAX_VALUE, point
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    
+    private static final double[] POWERS_OF_TEN = new double[18];
+    private static final long[] LONG_POWERS_OF_TEN = new long[18];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        LONG_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+            LONG_POWERS_OF_TEN[i] = LONG_POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+    
+    private static final ThreadLocal<JsonResponseWriter> POOL = ThreadLocal.withInitial(JsonResponseWriter::new);
+    
+    private byte[] buffer = new byte[INITIAL_BYTES];
+    private int length;
+    private final boolean[] hasMember = new boolean[MAX_DEPTH]; // per open container: needs a comma first
+    private int depth;
+    private boolean afterName;
+    
+    /**
+     * This thread's writer, emptied
+     */
+    public static JsonResponseWriter get() {
+        JsonResponseWriter writer = POOL.get();
+        writer.reset();
+        return writer;
+    }
+    
+    public JsonResponseWriter reset() {
+        if (buffer.length > RETAINED_BYTES) {
+            buffer = new byte[INITIAL_BYTES];
+        }
+        length = 0;
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+    
+    public JsonResponseWriter beginObject() {
+        separate();
+        return open((byte) '{');
+    }
+    
+    public JsonResponseWriter endObject() {
+        return close((byte) '}');
+    }
+    
+    public JsonResponseWriter beginArray() {
+        separate();
+        return open((byte) '[');
+    }
+    
+    public JsonResponseWriter endArray() {
+        return close((byte) ']');
+    }
+    
+    public JsonResponseWriter name(String name) {
+        separate();
+        writeString(name);
+        ensure(2);
+        buffer[length++] = ':';
+        buffer[length++] = ' ';
+        afterName = true;
+        return this;
+    }
+    
+    public JsonResponseWriter value(String value) {
+        separate();
+        if (value == null) {
+            return ascii("null");
+        }
+        writeString(value);
+        return this;
+    }
+    
+    public JsonResponseWriter value(boolean value) {
+        separate();
+        return ascii(value ? "true" : "false");
+    }
+    
+    public JsonResponseWriter nullValue() {
+        separate();
+        return ascii("null");
+    }
+    
+    public JsonResponseWriter value(long value) {
+        separate();
+        writeLong(value);
+        return this;
+    }
+    
+    /**
+     * Shortest decimal that reads back as exactly this double; NaN and infinities become null
+     */
+    public JsonResponseWriter value(double value) {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return ascii("null");
+        }
+        double magnitude = Math.abs(value);
+        for (int decimals = 0; decimals < POWERS_OF_TEN.length; decimals++) {
+            double scaled = Math.rint(magnitude * POWERS_OF_TEN[decimals]);
+            if (scaled >= MAX_EXACT) {
+                break;
+            }
+            // Both operands are exact, so the division is the correctly rounded value of the decimal
+            if (scaled / POWERS_OF_TEN[decimals] == magnitude) {
+                if (value < 0 || (value == 0 && 1 / value < 0)) {
+                    ensure(1);
+                    buffer[length++] = '-';
+                }
+                writeDecimal((long) scaled, decimals);
+                return this;
+            }
+        }
+        return ascii(Double.toString(value));
+    }
+    
+    /**
+     * Fixed number of decimals, the same text String.format("%.2f") produces for decimals = 2
+     */
+    public JsonResponseWriter value(double value, int decimals) {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return ascii("null");
+        }
+        ensure(FIXED_RESERVE + decimals);
+        length = formatFixed(value, decimals, buffer, length);
+        return this;
+    }
+    
+    /**
+     * Already serialized JSON (e.g. a component's toJson()), encoded as UTF-8
+     */
+    public JsonResponseWriter raw(CharSequence json) {
+        separate();
+        int count = json.length();
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            char c = json.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else {
+                i = writeNonAscii(json, i);
+            }
+        }
+        return this;
+    }
+    
+    public int length() {
+        return length;
+    }
+    
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+    
+    /**
+     * Send the buffer as the complete response with the given status
+     */
+    public void send(com.sun.net.httpserver.HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(buffer, 0, length);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Write value with a fixed number of decimals into out at position; returns the new position.
+     * Shared with BatchScorer. Formatter rounds the shortest decimal digits half up (1.005 gives
+     * 1.01), so values whose scaled fraction is close to a tie take that exact path instead of
+     * rounding the scaled double. Like %.2f, negative values keep their sign even when they round to zero.
+     */
+    static int formatFixed(double value, int decimals, byte[] out, int position) {
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            out[position++] = '-';
+        }
+        double magnitude = Math.abs(value);
+        double scaledValue = magnitude * POWERS_OF_TEN[decimals];
+        double tieDistance = Math.max(1e-6, 4 * Math.ulp(scaledValue));
+        if (!(scaledValue < MAX_EXACT) || Math.abs(scaledValue - Math.floor(scaledValue) - 0.5) < tieDistance) {
+            byte[] text = BigDecimal.valueOf(magnitude).setScale(decimals, RoundingMode.HALF_UP).toPlainString()
+                .getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, out, position, text.length);
+            return position + text.length;
+        }
+        long scaled = Math.round(scaledValue);
+        long unit = LONG_POWERS_OF_TEN[decimals];
+        position = writeDigits(scaled / unit, out, position);
+        if (decimals > 0) {
+            out[position++] = '.';
+            long fraction = scaled % unit;
+            for (long digit = unit / 10; digit > 0; digit /= 10) {
+                out[position++] = (byte) ('0' + fraction / digit % 10);
+            }
+        }
+        return position;
+    }
+    
+    private static int writeDigits(long value, byte[] out, int position) {
+        int start = position;
+        do {
+            out[position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int a = start, b = position - 1; a < b; a++, b--) {
+            byte swap = out[a];
+            out[a] = out[b];
+            out[b] = swap;
+        }
+        return position;
+    }
+    
+    private void writeLong(long value) {
+        ensure(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                ascii(Long.toString(value));
+                return;
+            }
+            buffer[length++] = '-';
+            value = -value;
+        }
+        length = writeDigits(value, buffer, length);
+    }
+    
+    // mantissa / 10^decimals with trailing fractional zeros already absent (decimals is minimal)
+    private void writeDecimal(long mantissa, int decimals) {
+        ensure(40);
+        long unit = LONG_POWERS_OF_TEN[decimals];
+        length = writeDigits(mantissa / unit, buffer, length);
+        if (decimals > 0) {
+            buffer[length++] = '.';
+            long fraction = mantissa % unit;
+            for (long digit = unit / 10; digit > 0; digit /= 10) {
+                buffer[length++] = (byte) ('0' + fraction / digit % 10);
+            }
+        }
+    }
+    
+    private void writeString(String value) {
+        ensure(value.length() + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                ensure(2);
+                buffer[length++] = '\\';
+                buffer[length++] = (byte) c;
+            } else if (c < 0x20) {
+                ensure(6);
+                switch (c) {
+                    case '\n': buffer[length++] = '\\'; buffer[length++] = 'n'; break;
+                    case '\r': buffer[length++] = '\\'; buffer[length++] = 'r'; break;
+                    case '\t': buffer[length++] = '\\'; buffer[length++] = 't'; break;
+                    default:
+                        buffer[length++] = '\\';
+                        buffer[length++] = 'u';
+                        buffer[length++] = '0';
+                        buffer[length++] = '0';
+                        buffer[length++] = HEX[c >> 4];
+                        buffer[length++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x80) {
+                ensure(1);
+                buffer[length++] = (byte) c;
+            } else {
+                i = writeNonAscii(value, i);
+            }
+        }
+        ensure(1);
+        buffer[length++] = '"';
+    }
+    
+    // UTF-8 for one char (or surrogate pair) at index i; returns the index of the last char consumed
+    private int writeNonAscii(CharSequence text, int i) {
+        ensure(4);
+        char c = text.charAt(i);
+        if (c < 0x800) {
+            buffer[length++] = (byte) (0xC0 | (c >> 6));
+            buffer[length++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            buffer[length++] = '?'; // unpaired surrogate, as String.getBytes does
+        } else {
+            buffer[length++] = (byte) (0xE0 | (c >> 12));
+            buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+    
+    private JsonResponseWriter ascii(String text) {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+    
+    // Comma before every member or element after the first, except right after a name
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasMember[depth - 1]) {
+                ensure(2);
+                buffer[length++] = ',';
+                buffer[length++] = ' ';
+            }
+            hasMember[depth - 1] = true;
+        }
+    }
+    
+    private JsonResponseWriter open(byte bracket) {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        }
+        ensure(1);
+        buffer[length++] = bracket;
+        hasMember[depth++] = false;
+        return this;
+    }
+    
+    private JsonResponseWriter close(byte bracket) {
+        depth--;
+        ensure(1);
+        buffer[length++] = bracket;
+        return this;
+    }
+    
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ * Small dense linear algebra helpers for the regression solvers
+ * Matrices here are at most a few dozen columns wide, so simple O(p^3) routines are plenty
+ */
+public class LinearAlgebra {
+    
+    private LinearAlgebra() {}
+    
+    /**
+     * Eigendecomposition of a symmetric matrix by cyclic Jacobi rotations
+     * Fills values[i] and the matching column vectors[.][i]; the input is left untouched
+     */
+    public static void symmetricEigen(double[][] matrix, double[] values, double[][] vectors) {
+        int n = matrix.length;
+        double[][] a = new double[n][];
+        for (int i = 0; i < n; i++) {
+            a[i] = matrix[i].clone();
+            Arrays.fill(vectors[i], 0);
+            vectors[i][i] = 1.0;
+        }
+        
+        for (int sweep = 0; sweep < 100; sweep++) {
+            double offDiagonal = 0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    offDiagonal += a[p][q] * a[p][q];
+                }
+            }
+            if (offDiagonal < 1e-30) {
+                break;
+            }
+            
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (Math.abs(a[p][q]) < 1e-300) {
+                        continue;
+                    }
+                    // Rotation angle that zeroes a[p][q]
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) t = 1;
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    
+                    for (int k = 0; k < n; k++) {
+                        double akp = a[k][p];
+                        double akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = a[p][k];
+                        double aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double vkp = vectors[k][p];
+                        double vkq = vectors[k][q];
+                        vectors[k][p] = c * vkp - s * vkq;
+                        vectors[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+        
+        for (int i = 0; i < n; i++) {
+            values[i] = a[i][i];
+        }
+    }
+    
+    /**
+     * Solve a * x = b for a symmetric positive definite n x n matrix stored row-major in a,
+     * factoring it in place (a is overwritten with its Cholesky factor, b is left untouched).
+     * Returns false, leaving x undefined, when a pivot is not safely positive (a singular or
+     * collinear system).
+     */
+    public static boolean choleskySolve(double[] a, double[] b, int n, double[] x) {
+        for (int j = 0; j < n; j++) {
+            double diagonal = a[j * n + j];
+            for (int k = 0; k < j; k++) {
+                diagonal -= a[j * n + k] * a[j * n + k];
+            }
+            if (!(diagonal > 0) || diagonal <= 1e-10 * a[j * n + j]) {
+                return false;
+            }
+            double pivot = Math.sqrt(diagonal);
+            a[j * n + j] = pivot;
+            for (int i = j + 1; i < n; i++) {
+                double sum = a[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= a[i * n + k] * a[j * n + k];
+                }
+                a[i * n + j] = sum / pivot;
+            }
+        }
+        // Forward substitution with L, then back substitution with L^T
+        for (int i = 0; i < n; i++) {
+            double sum = b[i];
+            for (int k = 0; k < i; k++) {
+                sum -= a[i * n + k] * x[k];
+            }
+            x[i] = sum / a[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = x[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= a[k * n + i] * x[k];
+            }
+            x[i] = sum / a[i * n + i];
+        }
+        return true;
+    }
+}
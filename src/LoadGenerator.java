@@ -0,0 +1,343 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the HousingPriceWebServer API
+ *
+ * Open loop (default): requests are issued on a fixed schedule regardless of how fast the server
+ * answers, and every latency is measured from the request's intended start time. A stalled server
+ * therefore shows up as a long tail instead of silently slowing the generator down (coordinated
+ * omission). Closed loop: a fixed number of connections send back to back; with --rate each
+ * connection still follows its own schedule and is corrected the same way, without it the
+ * closed loop reports service time only.
+ *
+ * Usage: java LoadGenerator [--url http://localhost:8080] [--mode open|closed] [--rate 500]
+ *          [--connections 32] [--duration 30] [--warmup 5] [--mix predict=95,evaluate=4,train=1] [--seed 1]
+ */
+public class LoadGenerator {
+    
+    enum Operation { PREDICT, EVALUATE, TRAIN }
+    
+    /**
+     * Log-linear latency histogram in microseconds: exact below 256, then 128 linear sub-buckets
+     * per power of two (under 0.8% relative error), safe to record from many threads
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 256;
+        private static final int HALF = SUB_BUCKETS / 2;
+        private static final int MAX_MAGNITUDE = 40; // about 12 days in microseconds
+        
+        private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (MAX_MAGNITUDE - 7) * HALF);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(indexFor(value));
+            total.increment();
+            max.accumulateAndGet(value, Math::max);
+        }
+        
+        private static int indexFor(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int magnitude = Math.min(MAX_MAGNITUDE - 1, 63 - Long.numberOfLeadingZeros(value));
+            int shift = magnitude - 7;
+            long sub = Math.min(SUB_BUCKETS - 1, value >>> shift);
+            return SUB_BUCKETS + (magnitude - 8) * HALF + (int) (sub - HALF);
+        }
+        
+        // Highest value that maps to the bucket, so percentiles are never understated
+        private static long valueAt(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int offset = index - SUB_BUCKETS;
+            int shift = offset / HALF + 1;
+            long sub = HALF + offset % HALF;
+            return ((sub + 1) << shift) - 1;
+        }
+        
+        long getCount() {
+            return total.sum();
+        }
+        
+        long getMax() {
+            return max.get();
+        }
+        
+        long percentile(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target) {
+                    return Math.min(valueAt(i), getMax());
+                }
+            }
+            return getMax();
+        }
+        
+        /**
+         * Full percentile distribution, two rows per halving of the remaining tail
+         */
+        String distribution() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%14s %12s %12s %16s%n", "Value (us)", "Percentile", "TotalCount", "1/(1-Percentile)"));
+            long count = getCount();
+            for (int step = 0; ; step++) {
+                double fraction = 1 - Math.pow(2, -step / 2.0);
+                if (step > 0 && 1 / (1 - fraction) > count) {
+                    break;
+                }
+                double percentile = fraction * 100;
+                out.append(String.format(Locale.ROOT, "%14d %12.6f %12d %16.2f%n",
+                    percentile(percentile), fraction, (long) Math.ceil(fraction * count), 1 / (1 - fraction)));
+            }
+            out.append(String.format(Locale.ROOT, "%14d %12.6f %12d %16s%n", getMax(), 1.0, count, "inf"));
+            return out.toString();
+        }
+    }
+    
+    /**
+     * Outcome counts and latencies for one operation
+     */
+    static class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+        final LongAdder failures = new LongAdder();
+        
+        void record(int status, long micros) {
+            statusCodes.computeIfAbsent(status, code -> new LongAdder()).increment();
+            latency.record(micros);
+        }
+    }
+    
+    private final HttpClient client;
+    private final URI baseUri;
+    private final List<String> predictBodies;
+    private final Operation[] mixTable;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final LongAdder skipped = new LongAdder();
+    private volatile boolean measuring;
+    
+    LoadGenerator(String url, Map<Operation, Integer> mix, int payloads, long seed, int connections) {
+        this.baseUri = URI.create(url.endsWith("/") ? url : url + "/");
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newFixedThreadPool(Math.max(4, connections)))
+            .build();
+        
+        // Payloads follow the same feature distributions as the generated training data
+        this.predictBodies = new ArrayList<>(payloads);
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        for (UltimateHousingPredictor.House house : DatasetGenerator.generateEnhancedData(payloads, seed)) {
+            predictBodies.add(HouseSchema.appendJson(HouseSchema.toRow(house, features), new StringBuilder()).toString());
+        }
+        
+        List<Operation> table = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                table.add(entry.getKey());
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Request mix is empty");
+        }
+        this.mixTable = table.toArray(new Operation[0]);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+    
+    private HttpRequest buildRequest(Operation operation, Random random) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().timeout(Duration.ofSeconds(30));
+        switch (operation) {
+            case PREDICT:
+                return builder.uri(baseUri.resolve("api/predict"))
+                    .POST(HttpRequest.BodyPublishers.ofString(predictBodies.get(random.nextInt(predictBodies.size())))).build();
+            case EVALUATE:
+                return builder.uri(baseUri.resolve("api/evaluate")).GET().build();
+            default:
+                return builder.uri(baseUri.resolve("api/train"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"samples\": 20}")).build();
+        }
+    }
+    
+    private void record(Operation operation, int status, long intendedStart) {
+        if (measuring) {
+            long micros = (System.nanoTime() - intendedStart) / 1_000;
+            stats.get(operation).record(status, micros);
+        }
+    }
+    
+    /**
+     * Issue requests at a constant rate; latency counts from each request's scheduled time
+     */
+    void runOpenLoop(double rate, long durationNanos, int maxInFlight) {
+        long interval = (long) (1e9 / rate);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        
+        for (long i = 0; ; i++) {
+            long intended = start + i * interval;
+            if (intended >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = mixTable[random.nextInt(mixTable.length)];
+            if (!inFlight.tryAcquire()) {
+                // Generator-side cap reached: count the request as failed at its scheduled time
+                skipped.increment();
+                if (measuring) stats.get(operation).failures.increment();
+                continue;
+            }
+            client.sendAsync(buildRequest(operation, random), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    inFlight.release();
+                    if (error != null) {
+                        if (measuring) stats.get(operation).failures.increment();
+                    } else {
+                        record(operation, response.statusCode(), intended);
+                    }
+                });
+        }
+        inFlight.acquireUninterruptibly(maxInFlight); // drain
+    }
+    
+    /**
+     * Fixed number of senders; with a rate each sender keeps its own schedule
+     */
+    void runClosedLoop(int connections, double rate, long durationNanos) throws InterruptedException {
+        long interval = rate > 0 ? (long) (1e9 * connections / rate) : 0;
+        long end = System.nanoTime() + durationNanos;
+        Thread[] senders = new Thread[connections];
+        for (int t = 0; t < connections; t++) {
+            long seed = 1 + t;
+            senders[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                long intended = System.nanoTime();
+                while (intended < end) {
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    long issued = interval > 0 ? intended : System.nanoTime();
+                    Operation operation = mixTable[random.nextInt(mixTable.length)];
+                    try {
+                        HttpResponse<Void> response = client.send(buildRequest(operation, random), HttpResponse.BodyHandlers.discarding());
+                        record(operation, response.statusCode(), issued);
+                    } catch (IOException e) {
+                        if (measuring) stats.get(operation).failures.increment();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    intended = interval > 0 ? intended + interval : System.nanoTime();
+                }
+            }, "load-" + t);
+            senders[t].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+    }
+    
+    void printReport(double seconds) {
+        for (Operation operation : Operation.values()) {
+            OperationStats operationStats = stats.get(operation);
+            LatencyHistogram histogram = operationStats.latency;
+            long failures = operationStats.failures.sum();
+            if (histogram.getCount() == 0 && failures == 0) {
+                continue;
+            }
+            StringBuilder codes = new StringBuilder();
+            new TreeMap<>(operationStats.statusCodes).forEach((code, count) -> codes.append(' ').append(code).append('=').append(count.sum()));
+            
+            System.out.printf("%n=== %s: %,d responses (%.1f/s), %,d failures, status%s ===%n",
+                operation.name().toLowerCase(Locale.ROOT), histogram.getCount(), histogram.getCount() / seconds, failures, codes);
+            System.out.printf("p50 %,d us | p90 %,d us | p99 %,d us | p99.9 %,d us | p99.99 %,d us | max %,d us%n",
+                histogram.percentile(50), histogram.percentile(90), histogram.percentile(99),
+                histogram.percentile(99.9), histogram.percentile(99.99), histogram.getMax());
+            System.out.print(histogram.distribution());
+        }
+        if (skipped.sum() > 0) {
+            System.out.printf("%n%,d requests were not sent because the generator's in-flight cap was reached%n", skipped.sum());
+        }
+    }
+    
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] nameAndWeight = part.split("=");
+            weights.put(Operation.valueOf(nameAndWeight[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(nameAndWeight[1].trim()));
+        }
+        return weights;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        String mode = options.getOrDefault("mode", "open");
+        double rate = Double.parseDouble(options.getOrDefault("rate", mode.equals("open") ? "500" : "0"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "5"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "10000"));
+        Map<Operation, Integer> mix = parseMix(options.getOrDefault("mix", "predict=95,evaluate=4,train=1"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        
+        LoadGenerator generator = new LoadGenerator(url, mix, 10_000, seed, connections);
+        System.out.printf("%s loop against %s: %s, %d s warm-up + %d s measured, mix %s%n",
+            mode, url, rate > 0 ? String.format(Locale.ROOT, "%.0f req/s", rate) : connections + " connections",
+            warmup, duration, mix);
+        
+        long totalNanos = TimeUnit.SECONDS.toNanos(warmup + duration);
+        Thread enableMeasuring = new Thread(() -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+                generator.measuring = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        enableMeasuring.setDaemon(true);
+        enableMeasuring.start();
+        
+        long start = System.nanoTime();
+        if (mode.equals("closed")) {
+            generator.runClosedLoop(connections, rate, totalNanos);
+        } else {
+            generator.runOpenLoop(rate, totalNanos, maxInFlight);
+        }
+        double measuredSeconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9 - warmup);
+        generator.printReport(measuredSeconds);
+        System.exit(0);
+    }
+}
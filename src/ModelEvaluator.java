@@ -0,0 +1,53 @@
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming regression metrics (R², RMSE, MAE, MAPE)
+ * Rows are fed one at a time so any data source can be evaluated without materializing it
+ */
+public class ModelEvaluator {
+    private long count;
+    private double squaredErrorSum;
+    private double absoluteErrorSum;
+    private double percentageErrorSum;
+    private long percentageCount;
+    
+    // Running mean / sum of squares of the actual price for R²
+    private double actualMean;
+    private double actualSquares;
+    
+    public void add(double actual, double predicted) {
+        double error = actual - predicted;
+        count++;
+        squaredErrorSum += error * error;
+        absoluteErrorSum += Math.abs(error);
+        if (actual != 0) {
+            percentageErrorSum += Math.abs(error / actual);
+            percentageCount++;
+        }
+        
+        double delta = actual - actualMean;
+        actualMean += delta / count;
+        actualSquares += delta * (actual - actualMean);
+    }
+    
+    public long getCount() { return count; }
+    public double rmse() { return count == 0 ? 0 : Math.sqrt(squaredErrorSum / count); }
+    public double mae() { return count == 0 ? 0 : absoluteErrorSum / count; }
+    public double mape() { return percentageCount == 0 ? 0 : 100.0 * percentageErrorSum / percentageCount; }
+    public double r2() { return actualSquares == 0 ? 0 : 1.0 - squaredErrorSum / actualSquares; }
+    
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"rows\": %d, \"r2\": %.4f, \"rmse\": %.2f, \"mae\": %.2f, \"mape\": %.2f}",
+            count, r2(), rmse(), mae(), mape());
+    }
+    
+    public static ModelEvaluator evaluate(UltimateHousingPredictor.LinearRegressionModel model,
+                                          List<UltimateHousingPredictor.House> houses) {
+        ModelEvaluator evaluator = new ModelEvaluator();
+        for (UltimateHousingPredictor.House house : houses) {
+            evaluator.add(house.getPrice(), model.predict(house.toFeatureArray()));
+        }
+        return evaluator;
+    }
+}
@@ -0,0 +1,415 @@
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * In-process registry of immutable model versions
+ * Splits prediction traffic across versions and shadow-scores a candidate off the request thread.
+ * Versions that have served and are now idle (no traffic, not the shadow) are kept for rollback
+ * up to keepIdle of them; older idle versions are retired with their training rows.
+ */
+public class ModelRegistry {
+    public static final int DEFAULT_KEEP_IDLE = 2;
+    
+    /**
+     * One trained, immutable model version with its serving statistics
+     */
+    static class ModelVersion {
+        final int id;
+        final UltimateHousingPredictor.HousingMLSystem system;
+        final UltimateHousingPredictor.LinearRegressionModel model;
+        final long trainingSamples;
+        final long createdAt;
+        
+        // Served (or shadow) latency
+        final LongAdder scored = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        
+        // Shadow prediction minus the price actually served for the same request
+        final LongAdder deltaCount = new LongAdder();
+        final DoubleAdder deltaSum = new DoubleAdder();
+        final DoubleAdder absDeltaSum = new DoubleAdder();
+        final DoubleAdder squaredDeltaSum = new DoubleAdder();
+        
+        // Inputs and prices this version has served, and the same sketch over its training rows (null when it has none)
+        final DriftMonitor.Sketch drift = DriftMonitor.Sketch.forServing();
+        volatile DriftMonitor.Sketch driftReference;
+        
+        // Lazily fitted per-segment models that price requests instead of the global model (null when not segmented)
+        volatile SegmentModels segments;
+        
+        // Set once the version has carried traffic or shadowed it; only such versions are retired as idle
+        boolean served;
+        
+        ModelVersion(int id, UltimateHousingPredictor.HousingMLSystem system, long trainingSamples) {
+            this.id = id;
+            this.system = system;
+            this.model = system.getModel().compile(); // served versions score through a generated class
+            this.trainingSamples = trainingSamples;
+            this.createdAt = System.currentTimeMillis();
+            if (!system.getTrainingData().isEmpty()) {
+                this.driftReference = DriftMonitor.reference(system.getTrainingData(), model);
+            }
+        }
+        
+        double predict(double[] features) {
+            SegmentModels segmentModels = segments;
+            return segmentModels != null ? segmentModels.predict(features) : model.predict(features);
+        }
+        
+        void predictColumns(double[][] columns, int rows, double[] out) {
+            SegmentModels segmentModels = segments;
+            if (segmentModels != null) {
+                segmentModels.predictColumns(columns, rows, out);
+            } else {
+                model.predictColumns(columns, rows, out);
+            }
+        }
+        
+        void recordLatency(long nanos) {
+            scored.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+        
+        void recordDelta(double delta) {
+            deltaCount.increment();
+            deltaSum.add(delta);
+            absDeltaSum.add(Math.abs(delta));
+            squaredDeltaSum.add(delta * delta);
+        }
+        
+        String toJson(int trafficPercent, boolean shadow) {
+            long count = scored.sum();
+            long deltas = deltaCount.sum();
+            double averageMicros = count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+            double meanDelta = deltas == 0 ? 0 : deltaSum.sum() / deltas;
+            double meanAbsDelta = deltas == 0 ? 0 : absDeltaSum.sum() / deltas;
+            double rmsDelta = deltas == 0 ? 0 : Math.sqrt(squaredDeltaSum.sum() / deltas);
+            CompiledScorer scorer = model.getCompiled();
+            SegmentModels segmentModels = segments;
+            
+            return String.format(Locale.ROOT,
+                "{\"version\": %d, \"trafficPercent\": %d, \"shadow\": %s, \"samples\": %d, \"createdAt\": %d, \"compiledBytes\": %d, " +
+                "\"scored\": %d, \"averageLatencyMicros\": %.2f, \"maxLatencyMicros\": %.2f, " +
+                "\"shadowComparisons\": %d, \"meanDelta\": %.2f, \"meanAbsDelta\": %.2f, \"rmsDelta\": %.2f%s}",
+                id, trafficPercent, shadow, trainingSamples, createdAt, scorer != null ? scorer.getCodeBytes() : 0,
+                count, averageMicros, maxNanos.get() / 1000.0,
+                deltas, meanDelta, meanAbsDelta, rmsDelta,
+                segmentModels != null ? ", \"segments\": " + segmentModels.toJson() : ""
+            );
+        }
+    }
+    
+    /**
+     * Immutable routing table, swapped atomically on every change
+     * Holds the versions themselves, so a published table stays usable after a version is retired
+     */
+    private static class Routing {
+        final ModelVersion[] routed;
+        final int[] versionIds;
+        final int[] cumulativePercent;
+        final ModelVersion shadow;
+        final int shadowId;
+        
+        Routing(ModelVersion[] routed, int[] cumulativePercent, ModelVersion shadow) {
+            this.routed = routed;
+            this.versionIds = new int[routed.length];
+            for (int i = 0; i < routed.length; i++) {
+                versionIds[i] = routed[i].id;
+            }
+            this.cumulativePercent = cumulativePercent;
+            this.shadow = shadow;
+            this.shadowId = shadow != null ? shadow.id : -1;
+        }
+        
+        int percentFor(int id) {
+            for (int i = 0; i < versionIds.length; i++) {
+                if (versionIds[i] == id) {
+                    return cumulativePercent[i] - (i == 0 ? 0 : cumulativePercent[i - 1]);
+                }
+            }
+            return 0;
+        }
+    }
+    
+    private final Map<Integer, ModelVersion> versions = new ConcurrentHashMap<>();
+    private final int keepIdle;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private volatile Routing routing = new Routing(new ModelVersion[0], new int[0], null);
+    
+    // Told about every change of primary version, under the registry lock (see ModelReplication)
+    private Consumer<ModelVersion> primaryListener;
+    private int notifiedPrimaryId = -1;
+    
+    // Shadow work runs on its own thread and is dropped rather than queued without bound
+    private final LongAdder shadowDropped = new LongAdder();
+    private final LongAdder retiredIdle = new LongAdder();
+    private final ThreadPoolExecutor shadowExecutor = new ThreadPoolExecutor(
+        1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(10_000),
+        runnable -> {
+            Thread thread = new Thread(runnable, "shadow-scorer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        },
+        (runnable, executor) -> shadowDropped.increment()
+    );
+    
+    public ModelRegistry() {
+        this(DEFAULT_KEEP_IDLE);
+    }
+    
+    public ModelRegistry(int keepIdle) {
+        if (keepIdle < 0) {
+            throw new IllegalArgumentException("keepIdle must be non-negative");
+        }
+        this.keepIdle = keepIdle;
+    }
+    
+    public static ModelRegistry fromSystemProperties() {
+        return new ModelRegistry(Integer.getInteger("housing.models.keepIdle", DEFAULT_KEEP_IDLE));
+    }
+    
+    /**
+     * Add a new version without routing any traffic to it
+     */
+    public ModelVersion register(UltimateHousingPredictor.HousingMLSystem system, long trainingSamples) {
+        ModelVersion version = new ModelVersion(nextId.getAndIncrement(), system, trainingSamples);
+        versions.put(version.id, version);
+        return version;
+    }
+    
+    /**
+     * Replace the traffic split; percentages must cover 100% between them
+     */
+    public synchronized void setTraffic(Map<Integer, Integer> percentByVersion) {
+        int total = 0;
+        for (Map.Entry<Integer, Integer> entry : percentByVersion.entrySet()) {
+            if (!versions.containsKey(entry.getKey())) {
+                throw new IllegalArgumentException("Unknown model version " + entry.getKey());
+            }
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("Traffic percent must be non-negative");
+            }
+            total += entry.getValue();
+        }
+        if (total != 100) {
+            throw new IllegalArgumentException("Traffic percentages must add up to 100, got " + total);
+        }
+        
+        List<ModelVersion> routed = new ArrayList<>();
+        List<Integer> cumulative = new ArrayList<>();
+        int running = 0;
+        for (Map.Entry<Integer, Integer> entry : new TreeMap<>(percentByVersion).entrySet()) {
+            if (entry.getValue() > 0) {
+                running += entry.getValue();
+                routed.add(versions.get(entry.getKey()));
+                cumulative.add(running);
+            }
+        }
+        
+        ModelVersion shadow = routed.contains(routing.shadow) ? null : routing.shadow;
+        routing = new Routing(routed.toArray(new ModelVersion[0]), toArray(cumulative), shadow);
+        notifyPrimary();
+        retireIdle();
+    }
+    
+    // Keep the newest keepIdle versions that served before and are idle now; retire the rest
+    private void retireIdle() {
+        Routing current = routing;
+        for (ModelVersion version : current.routed) {
+            version.served = true;
+        }
+        if (current.shadow != null) {
+            current.shadow.served = true;
+        }
+        List<Integer> idle = new ArrayList<>();
+        for (ModelVersion version : versions.values()) {
+            if (version.served && current.percentFor(version.id) == 0 && version.id != current.shadowId) {
+                idle.add(version.id);
+            }
+        }
+        Collections.sort(idle);
+        for (int i = 0; i < idle.size() - keepIdle; i++) {
+            versions.remove(idle.get(i)); // routing snapshots hold version references, so in-flight requests finish on it
+            retiredIdle.increment();
+        }
+    }
+    
+    /**
+     * Call listener with the current primary version and again whenever another version becomes primary
+     */
+    public synchronized void onPrimaryChange(Consumer<ModelVersion> listener) {
+        primaryListener = listener;
+        notifiedPrimaryId = -1;
+        notifyPrimary();
+    }
+    
+    private void notifyPrimary() {
+        ModelVersion current = primary();
+        if (primaryListener != null && current != null && current.id != notifiedPrimaryId) {
+            notifiedPrimaryId = current.id;
+            primaryListener.accept(current);
+        }
+    }
+    
+    /**
+     * Move a share of traffic onto one version, scaling the others down proportionally
+     */
+    public synchronized void promote(int id, int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Traffic percent must be between 0 and 100");
+        }
+        Routing current = routing;
+        Map<Integer, Integer> split = new HashMap<>();
+        int remaining = 100 - percent;
+        int othersTotal = 100 - current.percentFor(id);
+        int assigned = 0;
+        int lastOther = -1;
+        
+        for (int other : current.versionIds) {
+            if (other == id) {
+                continue;
+            }
+            int share = othersTotal == 0 ? 0 : current.percentFor(other) * remaining / othersTotal;
+            split.put(other, share);
+            assigned += share;
+            lastOther = other;
+        }
+        
+        // Rounding leftovers go to the last remaining version; with no others the candidate takes everything
+        if (lastOther >= 0) {
+            split.merge(lastOther, remaining - assigned, Integer::sum);
+            split.put(id, percent);
+        } else {
+            split.put(id, 100);
+        }
+        setTraffic(split);
+    }
+    
+    /**
+     * Shadow-score every served request with this version (-1 to stop)
+     */
+    public synchronized void setShadow(int id) {
+        if (id >= 0 && !versions.containsKey(id)) {
+            throw new IllegalArgumentException("Unknown model version " + id);
+        }
+        Routing current = routing;
+        routing = new Routing(current.routed, current.cumulativePercent, id >= 0 ? versions.get(id) : null);
+        retireIdle();
+    }
+    
+    /**
+     * Drop a version that no longer serves traffic
+     */
+    public synchronized void retire(int id) {
+        if (routing.percentFor(id) > 0) {
+            throw new IllegalArgumentException("Model version " + id + " still serves traffic");
+        }
+        if (routing.shadowId == id) {
+            setShadow(-1);
+        }
+        versions.remove(id);
+    }
+    
+    public boolean isEmpty() {
+        return routing.versionIds.length == 0;
+    }
+    
+    public ModelVersion get(int id) {
+        return versions.get(id);
+    }
+    
+    /**
+     * The version carrying the largest traffic share
+     */
+    public ModelVersion primary() {
+        Routing current = routing;
+        ModelVersion best = null;
+        int bestPercent = -1;
+        for (ModelVersion version : current.routed) {
+            int percent = current.percentFor(version.id);
+            if (percent > bestPercent) {
+                best = version;
+                bestPercent = percent;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Pick the version that serves the next request
+     */
+    public ModelVersion route() {
+        Routing current = routing;
+        if (current.routed.length == 1) {
+            return current.routed[0];
+        }
+        int draw = ThreadLocalRandom.current().nextInt(100);
+        for (int i = 0; i < current.routed.length; i++) {
+            if (draw < current.cumulativePercent[i]) {
+                return current.routed[i];
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Record a served prediction and hand it to the shadow candidate, if any
+     */
+    public void recordServed(ModelVersion served, long latencyNanos, double[] features, double servedPrice) {
+        served.recordLatency(latencyNanos);
+        served.drift.record(features, servedPrice);
+        
+        ModelVersion shadow = routing.shadow;
+        if (shadow == null || shadow == served) {
+            return;
+        }
+        shadowExecutor.execute(() -> {
+            long start = System.nanoTime();
+            double shadowPrice = shadow.predict(features);
+            shadow.recordLatency(System.nanoTime() - start);
+            shadow.recordDelta(shadowPrice - servedPrice);
+            shadow.drift.record(features, shadowPrice);
+        });
+    }
+    
+    /**
+     * All versions with their routing and statistics as a JSON object
+     */
+    public String toJson() {
+        Routing current = routing;
+        StringBuilder json = new StringBuilder();
+        json.append("{\"shadowVersion\": ").append(current.shadowId);
+        json.append(", \"shadowDropped\": ").append(shadowDropped.sum());
+        json.append(", \"keepIdle\": ").append(keepIdle);
+        json.append(", \"retiredIdle\": ").append(retiredIdle.sum());
+        json.append(", \"versions\": [");
+        boolean first = true;
+        for (ModelVersion version : new TreeMap<>(versions).values()) {
+            if (!first) json.append(", ");
+            json.append(version.toJson(current.percentFor(version.id), current.shadowId == version.id));
+            first = false;
+        }
+        json.append("]}");
+        return json.toString();
+    }
+    
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Leader/follower replication of the primary model as ModelSnapshot bytes
+ * Every node publishes its primary version on GET /api/replication/snapshot?epoch=E&after=N[&waitMs=30000].
+ * A request for a version the node already has is parked, without holding a handler thread,
+ * until a newer one is published (200 with the snapshot) or the wait runs out (204). Versions
+ * are the leader's registry ids, numbered within an epoch (the leader's start time), so a
+ * restarted leader counting from 1 again is still picked up.
+ * A follower (housing.replication.leader=http://host:port) loads the leader's snapshot at boot
+ * instead of training, and stays unready until it has one, then long-polls for the next one. Each snapshot's CRC is checked by
+ * ModelSnapshot.fromBytes before it is registered and promoted to all traffic in one routing
+ * swap, so requests in flight finish on the old version and none are dropped. A follower
+ * republishes what it received under the leader's version number, so followers can also
+ * feed other followers.
+ */
+public class ModelReplication implements com.sun.net.httpserver.HttpHandler {
+    public static final String VERSION_HEADER = "X-Model-Version";
+    public static final String EPOCH_HEADER = "X-Model-Epoch";
+    private static final long MAX_WAIT_MILLIS = 120_000;
+    
+    private final ModelRegistry registry;
+    private final String leader; // null on the leader
+    private final Consumer<ModelRegistry.ModelVersion> onSwap;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replication");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // What this node currently publishes; guarded by this
+    private long publishedEpoch = -1;
+    private long publishedVersion = -1;
+    private byte[] publishedSnapshot;
+    private final List<Waiter> waiters = new ArrayList<>();
+    
+    // Follower state
+    private volatile long followedEpoch = -1;
+    private volatile long followedVersion = -1;
+    private volatile long lastSwapMillis;
+    private volatile long lastContactMillis;
+    private volatile String lastError;
+    private HttpClient client;
+    
+    // Metrics
+    private final LongAdder snapshotsServed = new LongAdder();
+    private final LongAdder pollsTimedOut = new LongAdder();
+    private final LongAdder swaps = new LongAdder();
+    private final LongAdder fetchFailures = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    
+    // A parked long-poll
+    private static class Waiter {
+        final com.sun.net.httpserver.HttpExchange exchange;
+        final long epoch;
+        final long after;
+        
+        Waiter(com.sun.net.httpserver.HttpExchange exchange, long epoch, long after) {
+            this.exchange = exchange;
+            this.epoch = epoch;
+            this.after = after;
+        }
+    }
+    
+    /**
+     * @param leader base URL of the node to follow, or null for a node that only publishes
+     * @param onSwap called after a replicated version has taken all traffic
+     */
+    public ModelReplication(ModelRegistry registry, String leader, Consumer<ModelRegistry.ModelVersion> onSwap) {
+        this.registry = registry;
+        this.leader = leader == null || leader.isEmpty() ? null : leader.replaceAll("/+$", "");
+        this.onSwap = onSwap;
+        if (this.leader == null) {
+            // Leaders publish whatever becomes primary: trained, promoted or loaded from a snapshot
+            long epoch = System.currentTimeMillis();
+            registry.onPrimaryChange(version ->
+                publish(epoch, version.id, new ModelSnapshot(version.model, version.trainingSamples, version.createdAt, version.segments).toBytes()));
+        }
+    }
+    
+    public static ModelReplication fromSystemProperties(ModelRegistry registry, Consumer<ModelRegistry.ModelVersion> onSwap) {
+        return new ModelReplication(registry, System.getProperty("housing.replication.leader"), onSwap);
+    }
+    
+    public boolean isFollower() {
+        return leader != null;
+    }
+    
+    public String getLeader() {
+        return leader;
+    }
+    
+    /**
+     * Make snapshot the one served to pollers and hand it to every poller that is behind
+     */
+    public void publish(long epoch, long version, byte[] snapshot) {
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            if (epoch == publishedEpoch && version <= publishedVersion) {
+                return;
+            }
+            publishedEpoch = epoch;
+            publishedVersion = version;
+            publishedSnapshot = snapshot;
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (waiter.epoch != epoch || waiter.after < version) {
+                    ready.add(waiter);
+                    it.remove();
+                }
+            }
+        }
+        // Off the publishing thread, which may hold the registry lock
+        scheduler.execute(() -> {
+            for (Waiter waiter : ready) {
+                sendSnapshot(waiter.exchange, epoch, version, snapshot);
+            }
+        });
+    }
+    
+    @Override
+    public void handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        long epoch = -1;
+        long after = -1;
+        long waitMillis = 0;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                try {
+                    if (parameter.startsWith("epoch=")) epoch = Long.parseLong(parameter.substring(6));
+                    if (parameter.startsWith("after=")) after = Long.parseLong(parameter.substring(6));
+                    if (parameter.startsWith("waitMs=")) waitMillis = Math.min(MAX_WAIT_MILLIS, Long.parseLong(parameter.substring(7)));
+                } catch (NumberFormatException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    exchange.close();
+                    return;
+                }
+            }
+        }
+        
+        long publishedEpoch;
+        long version;
+        byte[] snapshot;
+        boolean newer;
+        Waiter waiter = null;
+        synchronized (this) {
+            publishedEpoch = this.publishedEpoch;
+            version = publishedVersion;
+            snapshot = publishedSnapshot;
+            newer = snapshot != null && (epoch != publishedEpoch || version > after);
+            if (!newer && waitMillis > 0) {
+                waiter = new Waiter(exchange, epoch, after);
+                waiters.add(waiter);
+            }
+        }
+        if (waiter != null) {
+            Waiter parked = waiter;
+            scheduler.schedule(() -> {
+                boolean expired;
+                synchronized (this) {
+                    expired = waiters.remove(parked);
+                }
+                if (expired) {
+                    pollsTimedOut.increment();
+                    sendEmpty(parked.exchange);
+                }
+            }, waitMillis, TimeUnit.MILLISECONDS);
+        } else if (newer) {
+            sendSnapshot(exchange, publishedEpoch, version, snapshot);
+        } else {
+            sendEmpty(exchange);
+        }
+    }
+    
+    private void sendSnapshot(com.sun.net.httpserver.HttpExchange exchange, long epoch, long version, byte[] snapshot) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set(EPOCH_HEADER, Long.toString(epoch));
+            exchange.getResponseHeaders().set(VERSION_HEADER, Long.toString(version));
+            exchange.sendResponseHeaders(200, snapshot.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(snapshot);
+            }
+            snapshotsServed.increment();
+        } catch (IOException e) {
+            exchange.close(); // the poller went away
+        }
+    }
+    
+    private static void sendEmpty(com.sun.net.httpserver.HttpExchange exchange) {
+        try {
+            exchange.sendResponseHeaders(204, -1);
+        } catch (IOException e) {
+            // the poller went away
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Follower boot: take the leader's current snapshot, waiting at most timeoutMillis; false if it could not be had
+     */
+    public boolean bootstrap(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                if (fetch(0, Duration.ofMillis(Math.max(1, deadline - System.currentTimeMillis())))) {
+                    return true;
+                }
+            } catch (IOException | RuntimeException e) {
+                recordFailure(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (System.currentTimeMillis() + 500 >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(500); // leader still starting up
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+    
+    /**
+     * Follower: long-poll the leader for newer versions on a daemon thread until the process exits
+     * Any failure, including a malformed reply or a version that fails to install, is recorded and retried with backoff
+     */
+    public void startFollowing(long pollMillis) {
+        Thread follower = new Thread(() -> {
+            long backoff = 250;
+            while (true) {
+                try {
+                    fetch(pollMillis, Duration.ofMillis(pollMillis + 10_000));
+                    backoff = 250;
+                } catch (IOException | RuntimeException e) {
+                    recordFailure(e);
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                    backoff = Math.min(30_000, backoff * 2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "replication-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+    
+    // One poll; true when a newer version was installed
+    private boolean fetch(long waitMillis, Duration timeout) throws IOException, InterruptedException {
+        if (client == null) {
+            client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(2)).build();
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(leader + "/api/replication/snapshot?epoch=" + followedEpoch
+            + "&after=" + followedVersion + "&waitMs=" + waitMillis))
+            .timeout(timeout).GET().build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        lastContactMillis = System.currentTimeMillis();
+        if (response.statusCode() == 204) {
+            return false;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Leader answered " + response.statusCode());
+        }
+        long epoch = headerValue(response, EPOCH_HEADER);
+        long version = headerValue(response, VERSION_HEADER);
+        byte[] bytes = response.body();
+        bytesFetched.add(bytes.length);
+        ModelSnapshot snapshot = ModelSnapshot.fromBytes(bytes); // rejects corrupted or truncated bodies
+        install(epoch, version, snapshot, bytes);
+        return true;
+    }
+    
+    private static long headerValue(HttpResponse<?> response, String header) throws IOException {
+        String value = response.headers().firstValue(header).orElseThrow(() -> new IOException("Leader sent no " + header));
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Leader sent a malformed " + header + ": " + value);
+        }
+    }
+    
+    private synchronized void install(long epoch, long version, ModelSnapshot snapshot, byte[] bytes) {
+        if (epoch == followedEpoch && version <= followedVersion) {
+            return;
+        }
+        ModelRegistry.ModelVersion previous = registry.primary();
+        ModelRegistry.ModelVersion installed = registry.register(new UltimateHousingPredictor.HousingMLSystem(snapshot.model), snapshot.trainingSamples);
+        installed.segments = snapshot.segments;
+        registry.promote(installed.id, 100);
+        if (previous != null) {
+            registry.retire(previous.id); // routing snapshots hold version references, so routed requests finish on it
+        }
+        followedEpoch = epoch;
+        followedVersion = version;
+        lastSwapMillis = System.currentTimeMillis();
+        lastError = null;
+        swaps.increment();
+        publish(epoch, version, bytes);
+        onSwap.accept(installed);
+        System.out.println(" Replicated model version " + version + " from " + leader + " (local version " + installed.id + ")");
+    }
+    
+    private void recordFailure(Exception e) {
+        fetchFailures.increment();
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        lastError = e instanceof RuntimeException && e.getMessage() != null ? e.getClass().getSimpleName() + ": " + message : message;
+    }
+    
+    public String metricsJson() {
+        long version;
+        int parked;
+        synchronized (this) {
+            version = publishedVersion;
+            parked = waiters.size();
+        }
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT, "{\"role\": \"%s\", \"publishedVersion\": %d, \"parkedPolls\": %d, "
+                + "\"snapshotsServed\": %d, \"pollsTimedOut\": %d",
+            isFollower() ? "follower" : "leader", version, parked, snapshotsServed.sum(), pollsTimedOut.sum()));
+        if (isFollower()) {
+            json.append(String.format(Locale.ROOT, ", \"leader\": \"%s\", \"followedVersion\": %d, \"swaps\": %d, "
+                    + "\"fetchFailures\": %d, \"bytesFetched\": %d, \"lastSwapMillis\": %d, \"lastContactMillis\": %d, \"lastError\": ",
+                leader, followedVersion, swaps.sum(), fetchFailures.sum(), bytesFetched.sum(), lastSwapMillis, lastContactMillis));
+            String error = lastError;
+            json.append(error == null ? "null" : "\"" + error.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        }
+        json.append("}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of a trained model
+ * Lets a server start from a saved model instead of retraining, and lets other processes ship
+ * models around. The payload is followed by a CRC32 so a truncated or corrupted file is
+ * rejected instead of serving garbage coefficients.
+ *
+ * Layout (big-endian): int magic, int format, long trainingSamples, long createdAt,
+ *   double intercept, int numCoefficients, numCoefficients doubles, then long crc32 of all of the above
+ * Format 2 is written for models with a FeatureExpansion: the coefficients are followed by the
+ * expansion spec (DataOutput UTF). Models over the raw features are still written as format 1.
+ * Format 3 is written for segmented versions: the coefficients are followed by the expansion spec
+ * (empty for none) and the SegmentModels band edges, limits and per-segment statistics, so a
+ * restored or replicated version prices houses through the same segments.
+ */
+public class ModelSnapshot {
+    private static final int MAGIC = 0x484D444C; // "HMDL"
+    private static final int FORMAT = 1;
+    private static final int FORMAT_EXPANDED = 2;
+    private static final int FORMAT_SEGMENTED = 3;
+    private static final int HEADER_BYTES = 36;
+    
+    public final UltimateHousingPredictor.LinearRegressionModel model;
+    public final long trainingSamples;
+    public final long createdAt;
+    public final SegmentModels segments; // null when the version is not segmented
+    
+    public ModelSnapshot(UltimateHousingPredictor.LinearRegressionModel model, long trainingSamples) {
+        this(model, trainingSamples, System.currentTimeMillis(), null);
+    }
+    
+    ModelSnapshot(UltimateHousingPredictor.LinearRegressionModel model, long trainingSamples, long createdAt, SegmentModels segments) {
+        this.model = model;
+        this.trainingSamples = trainingSamples;
+        this.createdAt = createdAt;
+        this.segments = segments;
+    }
+    
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + Long.BYTES + model.coefficients.length * Double.BYTES);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(segments != null ? FORMAT_SEGMENTED : model.expansion != null ? FORMAT_EXPANDED : FORMAT);
+            out.writeLong(trainingSamples);
+            out.writeLong(createdAt);
+            out.writeDouble(model.intercept);
+            out.writeInt(model.coefficients.length);
+            for (double coefficient : model.coefficients) {
+                out.writeDouble(coefficient);
+            }
+            if (segments != null) {
+                out.writeUTF(model.expansion != null ? model.expansion.spec() : "");
+                segments.writeTo(out);
+            } else if (model.expansion != null) {
+                out.writeUTF(model.expansion.spec());
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen for an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+    
+    public static ModelSnapshot fromBytes(byte[] data) throws IOException {
+        if (data.length < HEADER_BYTES + Long.BYTES) {
+            throw new IOException("Model snapshot is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - Long.BYTES);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipNBytes(data.length - Long.BYTES);
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("Model snapshot checksum mismatch");
+        }
+        
+        in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a model snapshot");
+        }
+        int format = in.readInt();
+        if (format != FORMAT && format != FORMAT_EXPANDED && format != FORMAT_SEGMENTED) {
+            throw new IOException("Unsupported model snapshot format " + format);
+        }
+        long trainingSamples = in.readLong();
+        long createdAt = in.readLong();
+        double intercept = in.readDouble();
+        int count = in.readInt();
+        long coefficientsEnd = HEADER_BYTES + (long) count * Double.BYTES;
+        if (count < 0 || (format == FORMAT ? data.length != coefficientsEnd + Long.BYTES : data.length < coefficientsEnd + 2 + Long.BYTES)) {
+            throw new IOException("Model snapshot has an inconsistent length");
+        }
+        double[] coefficients = new double[count];
+        for (int i = 0; i < count; i++) {
+            coefficients[i] = in.readDouble();
+        }
+        FeatureExpansion expansion = null;
+        String spec = format == FORMAT ? "" : in.readUTF();
+        if (format == FORMAT_EXPANDED && in.available() != Long.BYTES) {
+            throw new IOException("Model snapshot has an inconsistent length");
+        }
+        if (!spec.isEmpty()) {
+            try {
+                expansion = FeatureExpansion.parse(spec);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Model snapshot has an unusable feature expansion: " + e.getMessage());
+            }
+            if (expansion.width() != count) {
+                throw new IOException("Model snapshot has " + count + " coefficients for " + expansion.width() + " expanded features");
+            }
+        }
+        UltimateHousingPredictor.LinearRegressionModel model = new UltimateHousingPredictor.LinearRegressionModel(intercept, coefficients, expansion);
+        SegmentModels segments = null;
+        if (format == FORMAT_SEGMENTED) {
+            segments = SegmentModels.readFrom(in, model);
+            if (in.available() != Long.BYTES) {
+                throw new IOException("Model snapshot has an inconsistent length");
+            }
+        }
+        return new ModelSnapshot(model, trainingSamples, createdAt, segments);
+    }
+    
+    /**
+     * Write atomically: readers see either the old snapshot or the complete new one
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, toBytes());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    public static ModelSnapshot read(Path file) throws IOException {
+        return fromBytes(Files.readAllBytes(file));
+    }
+}
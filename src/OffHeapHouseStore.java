@@ -0,0 +1,266 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap columnar store for training rows
+ * Each of the nine feature columns and the price column lives in native memory
+ * (direct buffers, or a memory-mapped file), split into fixed-size chunks so the
+ * row count is not limited by the heap or by the 2 GB size of a single buffer.
+ * The GC never scans the data, so retraining on large sets does not cause long pauses.
+ */
+public class OffHeapHouseStore implements AutoCloseable {
+    public static final int NUM_FEATURES = HouseSchema.NUM_FEATURES;
+    public static final int PRICE_COLUMN = NUM_FEATURES;
+    private static final int NUM_COLUMNS = NUM_FEATURES + 1;
+    
+    private static final int DEFAULT_CHUNK_ROWS = 1 << 20;
+    private static final long MAGIC = 0x484F555345535431L; // "HOUSEST1"
+    private static final int HEADER_BYTES = 64;
+    
+    private final int chunkRows;
+    private final FileChannel channel;      // null for anonymous native memory
+    private final MappedByteBuffer header;  // null for anonymous native memory and read-only stores
+    private final boolean readOnly;         // opened with open(): nothing may be appended or written
+    private final List<DoubleBuffer[]> chunks = new ArrayList<>(); // chunk -> column buffers
+    private long rowCount;
+    
+    private OffHeapHouseStore(int chunkRows, FileChannel channel, MappedByteBuffer header, boolean readOnly) {
+        this.chunkRows = chunkRows;
+        this.channel = channel;
+        this.header = header;
+        this.readOnly = readOnly;
+    }
+    
+    /**
+     * Store backed by anonymous native memory, released when the store is closed and collected
+     */
+    public static OffHeapHouseStore allocate() {
+        return new OffHeapHouseStore(DEFAULT_CHUNK_ROWS, null, null, false);
+    }
+    
+    /**
+     * Store backed by a memory-mapped file; rows persist and the data may exceed physical memory
+     */
+    public static OffHeapHouseStore create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.putLong(0, MAGIC);
+        header.putInt(8, DEFAULT_CHUNK_ROWS);
+        header.putLong(12, 0L);
+        return new OffHeapHouseStore(DEFAULT_CHUNK_ROWS, channel, header, false);
+    }
+    
+    /**
+     * Reopen a store written by create(), read-only
+     * The header is read and checked before anything is mapped, so a foreign or truncated file is
+     * rejected without being extended or written to.
+     */
+    public static OffHeapHouseStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long fileBytes = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (fileBytes < HEADER_BYTES || channel.read(header, 0) != HEADER_BYTES || header.getLong(0) != MAGIC) {
+                throw new IOException("Not a house store: " + file);
+            }
+            int chunkRows = header.getInt(8);
+            long rows = header.getLong(12);
+            if (chunkRows <= 0 || chunkRows > Integer.MAX_VALUE / Double.BYTES || rows < 0) {
+                throw new IOException("Corrupt house store header: " + file);
+            }
+            long chunkCount = rows / chunkRows + (rows % chunkRows != 0 ? 1 : 0);
+            long requiredBytes;
+            try {
+                // A crafted row count must not wrap around and slip past the truncation check
+                requiredBytes = Math.addExact(HEADER_BYTES,
+                    Math.multiplyExact(Math.multiplyExact(chunkCount, (long) NUM_COLUMNS * chunkRows), Double.BYTES));
+            } catch (ArithmeticException e) {
+                throw new IOException("Corrupt house store header: " + file + " claims " + rows + " rows");
+            }
+            if (requiredBytes > fileBytes) {
+                throw new IOException("House store " + file + " is truncated: " + rows + " rows need " + requiredBytes
+                    + " bytes, the file has " + fileBytes);
+            }
+            
+            OffHeapHouseStore store = new OffHeapHouseStore(chunkRows, channel, null, true);
+            for (long chunk = 0; chunk < chunkCount; chunk++) {
+                store.addChunk();
+            }
+            store.rowCount = rows;
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private void addChunk() throws IOException {
+        long chunkBytes = (long) chunkRows * Double.BYTES;
+        DoubleBuffer[] columns = new DoubleBuffer[NUM_COLUMNS];
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+            ByteBuffer buffer;
+            if (channel == null) {
+                buffer = ByteBuffer.allocateDirect((int) chunkBytes);
+            } else {
+                long offset = HEADER_BYTES + ((long) chunks.size() * NUM_COLUMNS + column) * chunkBytes;
+                buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, offset, chunkBytes);
+            }
+            columns[column] = buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        chunks.add(columns);
+    }
+    
+    public void append(double[] features, double price) throws IOException {
+        if (readOnly) {
+            throw new IOException("House store was opened read-only");
+        }
+        int chunk = (int) (rowCount / chunkRows);
+        int index = (int) (rowCount % chunkRows);
+        if (chunk == chunks.size()) {
+            addChunk();
+        }
+        DoubleBuffer[] columns = chunks.get(chunk);
+        for (int j = 0; j < NUM_FEATURES; j++) {
+            columns[j].put(index, features[j]);
+        }
+        columns[PRICE_COLUMN].put(index, price);
+        rowCount++;
+        if (header != null) {
+            header.putLong(12, rowCount);
+        }
+    }
+    
+    public void append(UltimateHousingPredictor.House house) throws IOException {
+        append(house.toFeatureArray(), house.getPrice());
+    }
+    
+    public long size() {
+        return rowCount;
+    }
+    
+    public double get(long row, int column) {
+        return chunks.get((int) (row / chunkRows))[column].get((int) (row % chunkRows));
+    }
+    
+    /**
+     * One pass over the columns into mergeable regression statistics
+     */
+    public TrainingStatistics accumulate() {
+        return accumulate(null);
+    }
+    
+    /**
+     * Same pass, with the expansion's terms computed per row (null for the raw features)
+     */
+    public TrainingStatistics accumulate(FeatureExpansion expansion) {
+        TrainingStatistics statistics = new TrainingStatistics(expansion);
+        double[] row = new double[NUM_FEATURES];
+        for (int chunk = 0; chunk < chunks.size(); chunk++) {
+            DoubleBuffer[] columns = chunks.get(chunk);
+            int rows = rowsInChunk(chunk);
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < NUM_FEATURES; j++) {
+                    row[j] = columns[j].get(i);
+                }
+                statistics.add(row, columns[PRICE_COLUMN].get(i));
+            }
+        }
+        return statistics;
+    }
+    
+    /**
+     * Score every stored row, a columnar block at a time
+     */
+    public ModelEvaluator evaluate(UltimateHousingPredictor.LinearRegressionModel model) {
+        ModelEvaluator evaluator = new ModelEvaluator();
+        int blockRows = 4096;
+        double[][] block = new double[NUM_FEATURES][blockRows];
+        double[] predictions = new double[blockRows];
+        
+        for (int chunk = 0; chunk < chunks.size(); chunk++) {
+            DoubleBuffer[] columns = chunks.get(chunk);
+            int rows = rowsInChunk(chunk);
+            for (int start = 0; start < rows; start += blockRows) {
+                int length = Math.min(blockRows, rows - start);
+                for (int j = 0; j < NUM_FEATURES; j++) {
+                    columns[j].get(start, block[j], 0, length);
+                }
+                model.predictColumns(block, length, predictions);
+                DoubleBuffer prices = columns[PRICE_COLUMN];
+                for (int i = 0; i < length; i++) {
+                    evaluator.add(prices.get(start + i), predictions[i]);
+                }
+            }
+        }
+        return evaluator;
+    }
+    
+    private int rowsInChunk(int chunk) {
+        return (int) Math.min(chunkRows, rowCount - (long) chunk * chunkRows);
+    }
+    
+    /**
+     * Append every row of a housing_data.csv file
+     */
+    public long importCsv(Path csv) throws IOException {
+        long imported = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    append(UltimateHousingPredictor.House.fromCsv(line));
+                    imported++;
+                }
+            }
+        }
+        return imported;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        if (channel != null) {
+            if (header != null) {
+                header.force();
+            }
+            channel.close();
+        }
+    }
+    
+    /**
+     * Command line: import a CSV into a store file, or train and evaluate from one
+     *   java OffHeapHouseStore import data/housing_data.csv houses.store
+     *   java OffHeapHouseStore train houses.store
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("import")) {
+            try (OffHeapHouseStore store = create(Paths.get(args[2]))) {
+                long rows = store.importCsv(Paths.get(args[1]));
+                System.out.println("Imported " + rows + " rows into " + args[2]);
+            }
+        } else if (args.length >= 2 && args[0].equals("train")) {
+            try (OffHeapHouseStore store = open(Paths.get(args[1]))) {
+                long start = System.nanoTime();
+                UltimateHousingPredictor.HousingMLSystem mlSystem = new UltimateHousingPredictor.HousingMLSystem(store.accumulate().toUnivariateModel());
+                System.out.printf("Trained on %,d rows in %.1f ms%n", store.size(), (System.nanoTime() - start) / 1e6);
+                mlSystem.displayModelInfo();
+                System.out.println("Evaluation: " + store.evaluate(mlSystem.getModel()).toJson());
+            }
+        } else {
+            System.out.println("Usage: java OffHeapHouseStore import <csv> <store> | train <store>");
+        }
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Bit-packed in-heap store for very large training sets
+ * All nine features of a house are packed into one long and the price is kept as a double,
+ * 16 bytes per house against roughly 100 for a House object in a list, so 500M listings fit in
+ * 8 GB of heap. Both live in fixed-size primitive pages, so there are no per-row objects for the
+ * GC to trace and no 2^31 array limit. Training, evaluation, sampling and statistics read the
+ * packed words directly; a House is only built for rows that are handed out (e.g. into a sample).
+ *
+ * Word layout, low bits first:
+ *   squareFootage  17 bits, whole square feet (0-131071)
+ *   bedrooms        4 bits (0-15)
+ *   bathrooms       4 bits (0-15)
+ *   age             8 bits, years (0-255)
+ *   parkingSpaces   4 bits (0-15)
+ *   neighborhood    6 bits, tenths (0.0-6.3)
+ *   locationType    3 bits, enum ordinal
+ *   furnishingState 3 bits, enum ordinal
+ *   kitchenType     3 bits, enum ordinal
+ *   12 bits spare
+ * Square footage and neighborhood are quantized (to whole feet and tenths, the precision the
+ * data is generated and published with); everything else round-trips exactly. Rows that do not
+ * fit the bit widths are rejected rather than silently clamped.
+ */
+public class PackedHouseStore {
+    private static final int PAGE_SHIFT = 20;
+    private static final int PAGE_ROWS = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_ROWS - 1;
+    private static final long MAGIC = 0x485041434B454431L; // "HPACKED1"
+    private static final int HEADER_BYTES = 24;
+    
+    // Shift and width of each feature's bit field, in HouseSchema.FIELDS order
+    private static final int[] SHIFT = {0, 17, 21, 25, 37, 33, 43, 46, 49};
+    private static final int[] WIDTH = {17, 4, 4, 8, 6, 4, 3, 3, 3};
+    private static final int NEIGHBORHOOD = 4;
+    
+    private final List<long[]> wordPages = new ArrayList<>();
+    private final List<double[]> pricePages = new ArrayList<>();
+    private long rowCount;
+    
+    // Decoded feature value for every raw bit-field value, so unpacking is shifts, masks and loads
+    private static final double[][] DECODE = new double[HouseSchema.NUM_FEATURES][];
+    static {
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            HouseSchema.Field field = HouseSchema.FIELDS[j];
+            int values = field.kind == HouseSchema.Kind.CATEGORY ? field.levelCount() : 1 << WIDTH[j];
+            DECODE[j] = new double[values];
+            for (int raw = 0; raw < values; raw++) {
+                DECODE[j][raw] = field.kind == HouseSchema.Kind.CATEGORY ? field.featureValue(raw)
+                    : j == NEIGHBORHOOD ? raw / 10.0 : raw;
+            }
+        }
+    }
+    
+    /**
+     * Pack the nine features of a HouseSchema row into one word
+     */
+    public static long pack(double[] row) {
+        long word = 0;
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            HouseSchema.Field field = HouseSchema.FIELDS[j];
+            long raw;
+            if (field.kind == HouseSchema.Kind.CATEGORY) {
+                raw = field.ordinalOfFeature(row[j]);
+            } else {
+                raw = Math.round(j == NEIGHBORHOOD ? row[j] * 10 : row[j]);
+            }
+            if (raw < 0 || raw >= (1L << WIDTH[j])) {
+                throw new IllegalArgumentException(field.name + " " + row[j] + " does not fit the packed layout");
+            }
+            word |= raw << SHIFT[j];
+        }
+        return word;
+    }
+    
+    /**
+     * Raw bit field of one feature: the quantized value, or the enum ordinal for categorical features
+     */
+    public static int field(long word, int feature) {
+        return (int) (word >>> SHIFT[feature]) & ((1 << WIDTH[feature]) - 1);
+    }
+    
+    public static double decode(long word, int feature) {
+        return DECODE[feature][field(word, feature)];
+    }
+    
+    /**
+     * Decode the nine features of a word into row[0..8]
+     */
+    public static void unpack(long word, double[] row) {
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            row[j] = DECODE[j][(int) (word >>> SHIFT[j]) & ((1 << WIDTH[j]) - 1)];
+        }
+    }
+    
+    public void append(double[] row, double price) {
+        int page = (int) (rowCount >>> PAGE_SHIFT);
+        int index = (int) (rowCount & PAGE_MASK);
+        if (page == wordPages.size()) {
+            wordPages.add(new long[Math.min(PAGE_ROWS, 1024)]);
+            pricePages.add(new double[Math.min(PAGE_ROWS, 1024)]);
+        } else if (index == wordPages.get(page).length) {
+            // The last page grows by doubling up to PAGE_ROWS so small stores stay small
+            wordPages.set(page, Arrays.copyOf(wordPages.get(page), index * 2));
+            pricePages.set(page, Arrays.copyOf(pricePages.get(page), index * 2));
+        }
+        wordPages.get(page)[index] = pack(row);
+        pricePages.get(page)[index] = price;
+        rowCount++;
+    }
+    
+    public void append(UltimateHousingPredictor.House house) {
+        append(house.toFeatureArray(), house.getPrice());
+    }
+    
+    public long size() {
+        return rowCount;
+    }
+    
+    /**
+     * Heap bytes held by the pages
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (int page = 0; page < wordPages.size(); page++) {
+            bytes += (long) wordPages.get(page).length * Long.BYTES + (long) pricePages.get(page).length * Double.BYTES;
+        }
+        return bytes;
+    }
+    
+    public long word(long row) {
+        return wordPages.get((int) (row >>> PAGE_SHIFT))[(int) (row & PAGE_MASK)];
+    }
+    
+    public double price(long row) {
+        return pricePages.get((int) (row >>> PAGE_SHIFT))[(int) (row & PAGE_MASK)];
+    }
+    
+    /**
+     * One column of a row in HouseSchema numbering (the price is column 9)
+     */
+    public double get(long row, int column) {
+        return column == HouseSchema.PRICE ? price(row) : decode(word(row), column);
+    }
+    
+    public UltimateHousingPredictor.House house(long row) {
+        double[] values = new double[HouseSchema.NUM_FIELDS];
+        unpack(word(row), values);
+        values[HouseSchema.PRICE] = price(row);
+        return HouseSchema.toHouse(values);
+    }
+    
+    private int rowsInPage(int page) {
+        return (int) Math.min(PAGE_ROWS, rowCount - ((long) page << PAGE_SHIFT));
+    }
+    
+    /**
+     * Regression statistics over every row, one task per page, merged in page order
+     */
+    public TrainingStatistics accumulate(int threads) throws InterruptedException {
+        return accumulate(threads, null);
+    }
+    
+    /**
+     * Same pass, with the expansion's terms computed per row (null for the raw features)
+     */
+    public TrainingStatistics accumulate(int threads, FeatureExpansion expansion) throws InterruptedException {
+        List<Callable<TrainingStatistics>> tasks = new ArrayList<>();
+        for (int p = 0; p < wordPages.size(); p++) {
+            int page = p;
+            tasks.add(() -> {
+                TrainingStatistics statistics = new TrainingStatistics(expansion);
+                long[] words = wordPages.get(page);
+                double[] prices = pricePages.get(page);
+                double[] row = new double[HouseSchema.NUM_FEATURES];
+                int rows = rowsInPage(page);
+                for (int i = 0; i < rows; i++) {
+                    unpack(words[i], row);
+                    statistics.add(row, prices[i]);
+                }
+                return statistics;
+            });
+        }
+        TrainingStatistics total = new TrainingStatistics(expansion);
+        for (TrainingStatistics part : ParallelTasks.runAll(tasks, threads)) {
+            total.merge(part);
+        }
+        return total;
+    }
+    
+    /**
+     * Score every row, a columnar block at a time
+     */
+    public ModelEvaluator evaluate(UltimateHousingPredictor.LinearRegressionModel model) {
+        ModelEvaluator evaluator = new ModelEvaluator();
+        int blockRows = 4096;
+        double[][] block = new double[HouseSchema.NUM_FEATURES][blockRows];
+        double[] predictions = new double[blockRows];
+        for (int page = 0; page < wordPages.size(); page++) {
+            long[] words = wordPages.get(page);
+            double[] prices = pricePages.get(page);
+            int rows = rowsInPage(page);
+            for (int start = 0; start < rows; start += blockRows) {
+                int length = Math.min(blockRows, rows - start);
+                for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+                    double[] decode = DECODE[j];
+                    double[] column = block[j];
+                    int shift = SHIFT[j];
+                    int mask = (1 << WIDTH[j]) - 1;
+                    for (int i = 0; i < length; i++) {
+                        column[i] = decode[(int) (words[start + i] >>> shift) & mask];
+                    }
+                }
+                model.predictColumns(block, length, predictions);
+                for (int i = 0; i < length; i++) {
+                    evaluator.add(prices[start + i], predictions[i]);
+                }
+            }
+        }
+        return evaluator;
+    }
+    
+    /**
+     * Per-column summary computed on the raw bit fields: min, max and mean for numeric columns,
+     * row counts per level for categorical ones
+     */
+    public String describe(int threads) throws InterruptedException {
+        int numFeatures = HouseSchema.NUM_FEATURES;
+        List<Callable<long[][]>> tasks = new ArrayList<>();
+        for (int p = 0; p < wordPages.size(); p++) {
+            int page = p;
+            tasks.add(() -> {
+                // Histogram of raw values per feature; numeric fields are at most 17 bits wide
+                long[][] histograms = new long[numFeatures][];
+                for (int j = 0; j < numFeatures; j++) {
+                    histograms[j] = new long[1 << WIDTH[j]];
+                }
+                long[] words = wordPages.get(page);
+                int rows = rowsInPage(page);
+                for (int i = 0; i < rows; i++) {
+                    long word = words[i];
+                    for (int j = 0; j < numFeatures; j++) {
+                        histograms[j][(int) (word >>> SHIFT[j]) & ((1 << WIDTH[j]) - 1)]++;
+                    }
+                }
+                return histograms;
+            });
+        }
+        long[][] histograms = new long[numFeatures][];
+        for (int j = 0; j < numFeatures; j++) {
+            histograms[j] = new long[1 << WIDTH[j]];
+        }
+        for (long[][] part : ParallelTasks.runAll(tasks, threads)) {
+            for (int j = 0; j < numFeatures; j++) {
+                for (int raw = 0; raw < part[j].length; raw++) {
+                    histograms[j][raw] += part[j][raw];
+                }
+            }
+        }
+        
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT, "{\"rows\": %d, \"bytes\": %d, \"columns\": {", rowCount, memoryBytes()));
+        for (int j = 0; j < numFeatures; j++) {
+            HouseSchema.Field field = HouseSchema.FIELDS[j];
+            if (j > 0) json.append(", ");
+            json.append('"').append(field.name).append("\": {");
+            if (field.kind == HouseSchema.Kind.CATEGORY) {
+                for (int level = 0; level < field.levelCount(); level++) {
+                    if (level > 0) json.append(", ");
+                    json.append('"').append(field.label(level)).append("\": ").append(histograms[j][level]);
+                }
+            } else {
+                int min = -1;
+                int max = -1;
+                double sum = 0;
+                for (int raw = 0; raw < histograms[j].length; raw++) {
+                    if (histograms[j][raw] > 0) {
+                        if (min < 0) min = raw;
+                        max = raw;
+                        sum += DECODE[j][raw] * histograms[j][raw];
+                    }
+                }
+                json.append(String.format(Locale.ROOT, "\"min\": %s, \"max\": %s, \"mean\": %.4f",
+                    min < 0 ? "null" : DECODE[j][min], max < 0 ? "null" : DECODE[j][max], rowCount == 0 ? 0 : sum / rowCount));
+            }
+            json.append('}');
+        }
+        
+        double minPrice = Double.MAX_VALUE;
+        double maxPrice = -Double.MAX_VALUE;
+        double priceSum = 0;
+        for (int page = 0; page < pricePages.size(); page++) {
+            double[] prices = pricePages.get(page);
+            int rows = rowsInPage(page);
+            for (int i = 0; i < rows; i++) {
+                minPrice = Math.min(minPrice, prices[i]);
+                maxPrice = Math.max(maxPrice, prices[i]);
+                priceSum += prices[i];
+            }
+        }
+        if (rowCount > 0) {
+            json.append(String.format(Locale.ROOT, ", \"price\": {\"min\": %.2f, \"max\": %.2f, \"mean\": %.2f}",
+                minPrice, maxPrice, priceSum / rowCount));
+        }
+        return json.append("}}").toString();
+    }
+    
+    /**
+     * Append every data row of a CSV file or shard directory, parsing the bytes straight into words
+     */
+    public long importCsv(Path source) throws IOException {
+        long imported = 0;
+        double[] row = new double[HouseSchema.NUM_FIELDS];
+        byte[] buffer = new byte[1 << 20];
+        for (Path shard : StreamingTrainer.listShards(source)) {
+            try (InputStream in = Files.newInputStream(shard)) {
+                int filled = 0;
+                boolean eof = false;
+                while (!eof) {
+                    int read = in.read(buffer, filled, buffer.length - filled);
+                    if (read < 0) {
+                        eof = true;
+                        if (filled == 0) {
+                            break;
+                        }
+                        buffer[filled++] = '\n';
+                    } else {
+                        filled += read;
+                    }
+                    
+                    int lineStart = 0;
+                    for (int i = 0; i < filled; i++) {
+                        if (buffer[i] != '\n') {
+                            continue;
+                        }
+                        int from = lineStart;
+                        int to = i;
+                        lineStart = i + 1;
+                        while (from < to && buffer[from] <= ' ') from++;
+                        while (to > from && buffer[to - 1] <= ' ') to--;
+                        if (from == to || !HouseSchema.isDataLine(buffer[from])) {
+                            continue;
+                        }
+                        if (HouseSchema.parseCsv(buffer, from, to, row) != HouseSchema.NUM_FIELDS) {
+                            throw new IllegalArgumentException("Expected " + HouseSchema.NUM_FIELDS + " columns: "
+                                + new String(buffer, from, to - from, StandardCharsets.UTF_8));
+                        }
+                        append(row, row[HouseSchema.PRICE]);
+                        imported++;
+                    }
+                    System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+                    filled -= lineStart;
+                    if (filled == buffer.length) {
+                        throw new IOException("Line longer than " + buffer.length + " bytes in " + shard);
+                    }
+                }
+            }
+        }
+        return imported;
+    }
+    
+    /**
+     * Write atomically: header, then each page's words followed by its prices (native byte order)
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+            buffer.putLong(MAGIC).putInt(PAGE_ROWS).putInt(0).putLong(rowCount);
+            for (int page = 0; page < wordPages.size(); page++) {
+                int rows = rowsInPage(page);
+                long[] words = wordPages.get(page);
+                double[] prices = pricePages.get(page);
+                for (int start = 0; start < rows; ) {
+                    int length = Math.min(rows - start, buffer.remaining() / Long.BYTES);
+                    buffer.asLongBuffer().put(words, start, length);
+                    buffer.position(buffer.position() + length * Long.BYTES);
+                    start += length;
+                    drain(channel, buffer);
+                }
+                for (int start = 0; start < rows; ) {
+                    int length = Math.min(rows - start, buffer.remaining() / Double.BYTES);
+                    buffer.asDoubleBuffer().put(prices, start, length);
+                    buffer.position(buffer.position() + length * Double.BYTES);
+                    start += length;
+                    drain(channel, buffer);
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // Flush the buffer once it has no room for another value
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+    
+    public static PackedHouseStore read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+            buffer.limit(HEADER_BYTES);
+            readFully(channel, buffer);
+            buffer.flip();
+            if (buffer.getLong() != MAGIC || buffer.getInt() != PAGE_ROWS) {
+                throw new IOException("Not a packed house store: " + file);
+            }
+            buffer.getInt();
+            long rows = buffer.getLong();
+            // Checked without overflow, so a crafted row count cannot wrap around to the file size
+            if (rows < 0 || rows > (channel.size() - HEADER_BYTES) / (Long.BYTES + Double.BYTES)
+                    || channel.size() != HEADER_BYTES + rows * (Long.BYTES + Double.BYTES)) {
+                throw new IOException("Packed house store is truncated: " + file);
+            }
+            
+            PackedHouseStore store = new PackedHouseStore();
+            for (long first = 0; first < rows; first += PAGE_ROWS) {
+                int pageRows = (int) Math.min(PAGE_ROWS, rows - first);
+                long[] words = new long[pageRows];
+                double[] prices = new double[pageRows];
+                for (int start = 0; start < pageRows; ) {
+                    buffer.clear();
+                    buffer.limit(Math.min(buffer.capacity(), (pageRows - start) * Long.BYTES));
+                    readFully(channel, buffer);
+                    buffer.flip();
+                    int length = buffer.remaining() / Long.BYTES;
+                    buffer.asLongBuffer().get(words, start, length);
+                    start += length;
+                }
+                for (int start = 0; start < pageRows; ) {
+                    buffer.clear();
+                    buffer.limit(Math.min(buffer.capacity(), (pageRows - start) * Double.BYTES));
+                    readFully(channel, buffer);
+                    buffer.flip();
+                    int length = buffer.remaining() / Double.BYTES;
+                    buffer.asDoubleBuffer().get(prices, start, length);
+                    start += length;
+                }
+                store.wordPages.add(words);
+                store.pricePages.add(prices);
+            }
+            store.rowCount = rows;
+            return store;
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of packed house store");
+            }
+        }
+    }
+    
+    /**
+     * Command line:
+     *   java PackedHouseStore import data.csv|shards/ houses.pack
+     *   java PackedHouseStore generate 10000000 houses.pack
+     *   java PackedHouseStore train|stats houses.pack
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length >= 3 && (args[0].equals("import") || args[0].equals("generate"))) {
+            PackedHouseStore store = new PackedHouseStore();
+            long start = System.nanoTime();
+            if (args[0].equals("import")) {
+                store.importCsv(Paths.get(args[1]));
+            } else {
+                long rows = Long.parseLong(args[1]);
+                for (long done = 0, chunk = 0; done < rows; done += 100_000, chunk++) {
+                    for (UltimateHousingPredictor.House house : DatasetGenerator.generateEnhancedData((int) Math.min(100_000, rows - done), chunk)) {
+                        store.append(house);
+                    }
+                }
+            }
+            store.write(Paths.get(args[2]));
+            System.out.printf("Packed %,d rows (%,d bytes) into %s in %.1f s%n", store.size(), store.memoryBytes(), args[2],
+                (System.nanoTime() - start) / 1e9);
+        } else if (args.length >= 2 && args[0].equals("train")) {
+            PackedHouseStore store = read(Paths.get(args[1]));
+            long start = System.nanoTime();
+            UltimateHousingPredictor.HousingMLSystem mlSystem = new UltimateHousingPredictor.HousingMLSystem(store.accumulate(threads).toUnivariateModel());
+            System.out.printf("Trained on %,d rows in %.1f ms%n", store.size(), (System.nanoTime() - start) / 1e6);
+            mlSystem.displayModelInfo();
+            System.out.println("Evaluation: " + store.evaluate(mlSystem.getModel()).toJson());
+        } else if (args.length >= 2 && args[0].equals("stats")) {
+            System.out.println(read(Paths.get(args[1])).describe(threads));
+        } else {
+            System.out.println("Usage: java PackedHouseStore import <csv|dir> <file> | generate <rows> <file> | train <file> | stats <file>");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request coalescer for single-house predictions
+ * Gathers concurrent requests into small batches and scores each batch as one columnar block.
+ * A caller never depends on the flusher for longer than the stall timeout: if its batch has not
+ * been scored by then, or the queue stays full, or the flusher thread has ended, it scores its
+ * own row directly. A flusher that ends fails everything still queued over to that path.
+ */
+public class PredictionBatcher {
+    public static final long DEFAULT_STALL_TIMEOUT_MILLIS = 100;
+    
+    // Completes the futures left behind by a flusher that ended; callers then score directly
+    private static final IllegalStateException FLUSHER_STOPPED = new IllegalStateException("Prediction batcher stopped");
+    
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final long stallTimeoutNanos;
+    private final BlockingQueue<PendingPrediction> queue;
+    private volatile boolean flusherRunning;
+    
+    // Columnar scratch block, only touched by the flusher thread
+    private double[][] columns = new double[0][];
+    private final double[] results;
+    
+    // Smoothed batch size: when traffic is light we stop waiting for company
+    private double averageBatchSize = 1.0;
+    
+    // Metrics
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong fullBatchCount = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxObservedBatch = new AtomicLong();
+    private final AtomicLong directFallbacks = new AtomicLong();
+    
+    // A single prediction waiting for its batch
+    private static class PendingPrediction {
+        final UltimateHousingPredictor.LinearRegressionModel model;
+        final double[] features;
+        final long enqueuedAt;
+        final CompletableFuture<Double> result = new CompletableFuture<>();
+        
+        PendingPrediction(UltimateHousingPredictor.LinearRegressionModel model, double[] features) {
+            this.model = model;
+            this.features = features;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+    
+    public PredictionBatcher(int maxBatchSize, long maxWaitMicros) {
+        this(maxBatchSize, maxWaitMicros, DEFAULT_STALL_TIMEOUT_MILLIS);
+    }
+    
+    public PredictionBatcher(int maxBatchSize, long maxWaitMicros, long stallTimeoutMillis) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxWaitMicros));
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, stallTimeoutMillis));
+        this.queue = new ArrayBlockingQueue<>(this.maxBatchSize * 64);
+        this.results = new double[this.maxBatchSize];
+        
+        if (this.maxBatchSize > 1) {
+            flusherRunning = true;
+            Thread flusher = new Thread(this::flushLoop, "prediction-batcher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+    
+    /**
+     * Build a batcher from -Dhousing.batch.maxSize, -Dhousing.batch.maxWaitMicros and -Dhousing.batch.stallTimeoutMs
+     */
+    public static PredictionBatcher fromSystemProperties() {
+        int maxBatchSize = Integer.getInteger("housing.batch.maxSize", 32);
+        long maxWaitMicros = Long.getLong("housing.batch.maxWaitMicros", 200L);
+        long stallTimeoutMillis = Long.getLong("housing.batch.stallTimeoutMs", DEFAULT_STALL_TIMEOUT_MILLIS);
+        return new PredictionBatcher(maxBatchSize, maxWaitMicros, stallTimeoutMillis);
+    }
+    
+    /**
+     * Score one feature row, blocking until the batch it joined has been scored
+     */
+    public double predict(UltimateHousingPredictor.LinearRegressionModel model, double[] features) throws InterruptedException {
+        requestCount.incrementAndGet();
+        
+        // Batching disabled: score inline
+        if (maxBatchSize == 1) {
+            batchCount.incrementAndGet();
+            return model.predict(features);
+        }
+        
+        PendingPrediction pending = new PendingPrediction(model, features);
+        if (!flusherRunning || !queue.offer(pending, stallTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            return scoreDirectly(model, features);
+        }
+        if (!flusherRunning) {
+            pending.result.completeExceptionally(FLUSHER_STOPPED); // it may have ended before draining our entry
+        }
+        
+        try {
+            return pending.result.get(stallTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // The flusher is stalled: take the row back, unless it was scored in the meantime
+            double price = model.predict(features);
+            if (pending.result.complete(price)) {
+                directFallbacks.incrementAndGet();
+                return price;
+            }
+            return awaitScored(pending, model, features);
+        } catch (ExecutionException e) {
+            if (e.getCause() == FLUSHER_STOPPED) {
+                return scoreDirectly(model, features);
+            }
+            throw new IllegalStateException("Batch scoring failed", e.getCause());
+        }
+    }
+    
+    private double awaitScored(PendingPrediction pending, UltimateHousingPredictor.LinearRegressionModel model, double[] features)
+            throws InterruptedException {
+        try {
+            return pending.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() == FLUSHER_STOPPED) {
+                return scoreDirectly(model, features);
+            }
+            throw new IllegalStateException("Batch scoring failed", e.getCause());
+        }
+    }
+    
+    private double scoreDirectly(UltimateHousingPredictor.LinearRegressionModel model, double[] features) {
+        directFallbacks.incrementAndGet();
+        batchCount.incrementAndGet();
+        return model.predict(features);
+    }
+    
+    private void flushLoop() {
+        List<PendingPrediction> batch = new ArrayList<>(maxBatchSize);
+        try {
+            flush(batch);
+        } finally {
+            // Whatever ended the loop, nobody may wait for it: hand every queued row back to its caller
+            flusherRunning = false;
+            for (PendingPrediction pending : batch) {
+                pending.result.completeExceptionally(FLUSHER_STOPPED);
+            }
+            PendingPrediction pending;
+            while ((pending = queue.poll()) != null) {
+                pending.result.completeExceptionally(FLUSHER_STOPPED);
+            }
+            System.err.println(" Prediction batcher stopped; predictions are scored directly");
+        }
+    }
+    
+    private void flush(List<PendingPrediction> batch) {
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                
+                // Only spend the latency budget when recent batches show concurrent callers
+                if (batch.size() < maxBatchSize && averageBatchSize > 1.5 && maxWaitNanos > 0) {
+                    long deadline = batch.get(0).enqueuedAt + maxWaitNanos;
+                    long remaining;
+                    while (batch.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                        PendingPrediction next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                    }
+                }
+                
+                scoreBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                for (PendingPrediction pending : batch) {
+                    pending.result.completeExceptionally(e);
+                }
+                batch.clear();
+            }
+            // An Error leaves the batch to flushLoop, which hands it back to the callers
+        }
+    }
+    
+    private void scoreBatch(List<PendingPrediction> batch) {
+        int size = batch.size();
+        long now = System.nanoTime();
+        
+        batchCount.incrementAndGet();
+        if (size == maxBatchSize) {
+            fullBatchCount.incrementAndGet();
+        }
+        maxObservedBatch.accumulateAndGet(size, Math::max);
+        averageBatchSize = averageBatchSize * 0.9 + size * 0.1;
+        
+        // Group by model reference; a retrain in the middle of a batch leaves at most a few groups
+        boolean[] done = new boolean[size];
+        for (int start = 0; start < size; start++) {
+            if (done[start]) {
+                continue;
+            }
+            UltimateHousingPredictor.LinearRegressionModel model = batch.get(start).model;
+            int numFeatures = batch.get(start).features.length;
+            ensureColumns(numFeatures);
+            
+            // Transpose the group's rows into the columnar block
+            int rows = 0;
+            int[] rowIndex = new int[size - start];
+            for (int i = start; i < size; i++) {
+                PendingPrediction pending = batch.get(i);
+                if (!done[i] && pending.model == model) {
+                    for (int j = 0; j < numFeatures; j++) {
+                        columns[j][rows] = pending.features[j];
+                    }
+                    rowIndex[rows++] = i;
+                    done[i] = true;
+                }
+            }
+            
+            model.predictColumns(columns, rows, results);
+            
+            for (int r = 0; r < rows; r++) {
+                PendingPrediction pending = batch.get(rowIndex[r]);
+                totalQueueNanos.addAndGet(now - pending.enqueuedAt);
+                pending.result.complete(results[r]);
+            }
+        }
+    }
+    
+    private void ensureColumns(int numFeatures) {
+        if (columns.length < numFeatures) {
+            columns = new double[numFeatures][maxBatchSize];
+        }
+    }
+    
+    public int getMaxBatchSize() { return maxBatchSize; }
+    public long getMaxWaitMicros() { return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos); }
+    
+    /**
+     * Batching metrics as a JSON object
+     */
+    public String metricsJson() {
+        long requests = requestCount.get();
+        long batches = batchCount.get();
+        double averageSize = batches == 0 ? 0 : (double) requests / batches;
+        double averageQueueMicros = requests == 0 ? 0 : totalQueueNanos.get() / 1000.0 / requests;
+        
+        return String.format(Locale.ROOT,
+            "{\"maxBatchSize\": %d, \"maxWaitMicros\": %d, \"requests\": %d, \"batches\": %d, " +
+            "\"fullBatches\": %d, \"averageBatchSize\": %.2f, \"maxObservedBatchSize\": %d, \"averageQueueMicros\": %.2f, " +
+            "\"flusherRunning\": %s, \"directFallbacks\": %d}",
+            maxBatchSize, getMaxWaitMicros(), requests, batches,
+            fullBatchCount.get(), averageSize, maxObservedBatch.get(), averageQueueMicros,
+            maxBatchSize == 1 || flusherRunning, directFallbacks.get()
+        );
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Single-pass streaming samplers for training on subsets of large datasets
+ * Every row gets a random priority key and each reservoir keeps the rows with the largest keys
+ * (bottom-k sampling). Uniform keys give a uniform sample; keys u^(1/w) give a weighted sample
+ * without replacement (Efraimidis-Spirakis A-ES, kept as log(u)/w). Stratified sampling keeps one
+ * reservoir per level of an enum column with an equal share of the capacity. Because the keys
+ * decide membership, reservoirs filled on different shards merge into exactly the reservoir one
+ * pass over all of the data would have produced, so shards are sampled in parallel.
+ */
+public class ReservoirSampler {
+    public enum Mode { UNIFORM, STRATIFIED, WEIGHTED }
+    
+    // Column numbers follow HouseSchema.FIELDS, with the price after the features
+    public static final int LOCATION_COLUMN = HouseSchema.LOCATION_COLUMN;
+    public static final int FURNISHING_COLUMN = HouseSchema.FURNISHING_COLUMN;
+    public static final int KITCHEN_COLUMN = HouseSchema.KITCHEN_COLUMN;
+    public static final int PRICE_COLUMN = HouseSchema.PRICE;
+    
+    private final Mode mode;
+    private final int size;
+    private final int strataColumn;
+    private final int weightColumn;
+    private final long seed;
+    private final int threads;
+    
+    public ReservoirSampler(Mode mode, int size, int strataColumn, int weightColumn, long seed, int threads) {
+        if (mode == Mode.STRATIFIED && (strataColumn < LOCATION_COLUMN || strataColumn > KITCHEN_COLUMN)) {
+            throw new IllegalArgumentException("Stratified sampling needs an enum column (locationType, furnishingState or kitchenType)");
+        }
+        if (mode == Mode.WEIGHTED && (weightColumn < 0 || weightColumn > PRICE_COLUMN)) {
+            throw new IllegalArgumentException("Weighted sampling needs a numeric weight column");
+        }
+        this.mode = mode;
+        this.size = size;
+        this.strataColumn = strataColumn;
+        this.weightColumn = weightColumn;
+        this.seed = seed;
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Column number for a feature name or "price"
+     */
+    public static int column(String name) {
+        return HouseSchema.fieldIndex(name);
+    }
+    
+    private int levels() {
+        return HouseSchema.FIELDS[strataColumn].levelCount();
+    }
+    
+    private String levelName(int level) {
+        return HouseSchema.FIELDS[strataColumn].label(level);
+    }
+    
+    // Min-heap on key holding the best rows seen so far
+    private static class Heap {
+        final double[] keys;
+        final UltimateHousingPredictor.House[] items;
+        int size;
+        
+        Heap(int capacity) {
+            this.keys = new double[capacity];
+            this.items = new UltimateHousingPredictor.House[capacity];
+        }
+        
+        boolean wants(double key) {
+            return size < keys.length || (keys.length > 0 && key > keys[0]);
+        }
+        
+        void add(double key, UltimateHousingPredictor.House item) {
+            if (size < keys.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (keys[parent] <= key) break;
+                    keys[i] = keys[parent];
+                    items[i] = items[parent];
+                    i = parent;
+                }
+                keys[i] = key;
+                items[i] = item;
+                return;
+            }
+            // Replace the root and sift down
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if (keys[child] >= key) break;
+                keys[i] = keys[child];
+                items[i] = items[child];
+                i = child;
+            }
+            keys[i] = key;
+            items[i] = item;
+        }
+    }
+    
+    /**
+     * Sample state for one shard; thread-confined while filling, mergeable afterwards
+     */
+    public class Reservoir {
+        private final Heap[] heaps;
+        private final SplittableRandom random;
+        private long seen;
+        
+        Reservoir(long streamSeed) {
+            int strata = mode == Mode.STRATIFIED ? levels() : 1;
+            this.heaps = new Heap[strata];
+            for (int s = 0; s < strata; s++) {
+                heaps[s] = new Heap(size / strata);
+            }
+            this.random = new SplittableRandom(streamSeed);
+        }
+        
+        private double nextKey(double weight) {
+            double u = random.nextDouble();
+            if (mode != Mode.WEIGHTED) {
+                return u;
+            }
+            // log(u^(1/w)) keeps the A-ES order without underflow for large weights
+            return weight > 0 ? Math.log(u) / weight : Double.NEGATIVE_INFINITY;
+        }
+        
+        public void offer(UltimateHousingPredictor.House house) {
+            seen++;
+            int stratum = mode == Mode.STRATIFIED ? level(house) : 0;
+            double key = nextKey(mode == Mode.WEIGHTED ? value(house, weightColumn) : 1);
+            Heap heap = heaps[stratum];
+            if (key != Double.NEGATIVE_INFINITY && heap.wants(key)) {
+                heap.add(key, house);
+            }
+        }
+        
+        // Columnar rows (e.g. from the off-heap store) only build a House when the row gets in
+        void offerRow(OffHeapHouseStore store, long row) {
+            seen++;
+            int stratum = mode == Mode.STRATIFIED ? levelOf(store.get(row, strataColumn)) : 0;
+            double key = nextKey(mode == Mode.WEIGHTED ? store.get(row, weightColumn) : 1);
+            Heap heap = heaps[stratum];
+            if (key != Double.NEGATIVE_INFINITY && heap.wants(key)) {
+                heap.add(key, houseAt(store, row));
+            }
+        }
+        
+        // Packed rows are stratified on the raw enum bits and decoded only when the row gets in
+        void offerPacked(PackedHouseStore store, long row) {
+            seen++;
+            long word = store.word(row);
+            int stratum = mode == Mode.STRATIFIED ? PackedHouseStore.field(word, strataColumn) : 0;
+            double key = nextKey(mode == Mode.WEIGHTED
+                ? weightColumn == PRICE_COLUMN ? store.price(row) : PackedHouseStore.decode(word, weightColumn)
+                : 1);
+            Heap heap = heaps[stratum];
+            if (key != Double.NEGATIVE_INFINITY && heap.wants(key)) {
+                heap.add(key, store.house(row));
+            }
+        }
+        
+        public Reservoir merge(Reservoir other) {
+            for (int s = 0; s < heaps.length; s++) {
+                Heap from = other.heaps[s];
+                for (int i = 0; i < from.size; i++) {
+                    if (heaps[s].wants(from.keys[i])) {
+                        heaps[s].add(from.keys[i], from.items[i]);
+                    }
+                }
+            }
+            seen += other.seen;
+            return this;
+        }
+        
+        public long getRowsSeen() {
+            return seen;
+        }
+        
+        public List<UltimateHousingPredictor.House> houses() {
+            List<UltimateHousingPredictor.House> houses = new ArrayList<>();
+            for (Heap heap : heaps) {
+                houses.addAll(Arrays.asList(heap.items).subList(0, heap.size));
+            }
+            return houses;
+        }
+        
+        public String toJson(long millis) {
+            StringBuilder json = new StringBuilder();
+            int sampled = 0;
+            for (Heap heap : heaps) {
+                sampled += heap.size;
+            }
+            json.append(String.format(Locale.ROOT, "{\"mode\": \"%s\", \"requested\": %d, \"sampled\": %d, \"rowsSeen\": %d, \"millis\": %d",
+                mode.name().toLowerCase(Locale.ROOT), size, sampled, seen, millis));
+            if (mode == Mode.STRATIFIED) {
+                json.append(", \"strataBy\": \"").append(HouseSchema.FIELDS[strataColumn].name).append("\", \"strata\": {");
+                for (int s = 0; s < heaps.length; s++) {
+                    if (s > 0) json.append(", ");
+                    json.append('"').append(levelName(s)).append("\": ").append(heaps[s].size);
+                }
+                json.append('}');
+            } else if (mode == Mode.WEIGHTED) {
+                json.append(", \"weightBy\": \"").append(HouseSchema.FIELDS[weightColumn].name).append('"');
+            }
+            return json.append('}').toString();
+        }
+    }
+    
+    public Reservoir newReservoir(long streamSeed) {
+        return new Reservoir(streamSeed);
+    }
+    
+    private int level(UltimateHousingPredictor.House house) {
+        switch (strataColumn) {
+            case LOCATION_COLUMN: return house.getLocationType().ordinal();
+            case FURNISHING_COLUMN: return house.getFurnishingState().ordinal();
+            default: return house.getKitchenType().ordinal();
+        }
+    }
+    
+    private int levelOf(double encoded) {
+        int level = HouseSchema.FIELDS[strataColumn].ordinalOfFeature(encoded);
+        if (level < 0) {
+            throw new IllegalArgumentException("Unknown encoded level " + encoded + " in column " + strataColumn);
+        }
+        return level;
+    }
+    
+    private static double value(UltimateHousingPredictor.House house, int column) {
+        return column == PRICE_COLUMN ? house.getPrice() : house.toFeatureArray()[column];
+    }
+    
+    private static UltimateHousingPredictor.House houseAt(OffHeapHouseStore store, long row) {
+        double[] values = new double[HouseSchema.NUM_FIELDS];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = store.get(row, column);
+        }
+        return HouseSchema.toHouse(values);
+    }
+    
+    /**
+     * Sample a CSV file or a directory of CSV shards, one shard per task
+     */
+    public Reservoir sampleCsv(Path source) throws IOException, InterruptedException {
+        List<Path> shards = StreamingTrainer.listShards(source);
+        List<Callable<Reservoir>> tasks = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            Path shard = shards.get(s);
+            long streamSeed = seed + s;
+            tasks.add(() -> {
+                Reservoir reservoir = newReservoir(streamSeed);
+                try (BufferedReader reader = Files.newBufferedReader(shard, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isBlank() && !line.startsWith("squareFootage")) {
+                            reservoir.offer(UltimateHousingPredictor.House.fromCsv(line));
+                        }
+                    }
+                }
+                return reservoir;
+            });
+        }
+        return runAndMerge(tasks);
+    }
+    
+    /**
+     * Sample an off-heap store, splitting its rows into contiguous ranges
+     */
+    public Reservoir sampleStore(OffHeapHouseStore store) throws IOException, InterruptedException {
+        long rows = store.size();
+        int parts = (int) Math.max(1, Math.min(threads, rows / 10_000));
+        List<Callable<Reservoir>> tasks = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            long from = rows * p / parts;
+            long to = rows * (p + 1) / parts;
+            long streamSeed = seed + p;
+            tasks.add(() -> {
+                Reservoir reservoir = newReservoir(streamSeed);
+                for (long row = from; row < to; row++) {
+                    reservoir.offerRow(store, row);
+                }
+                return reservoir;
+            });
+        }
+        return runAndMerge(tasks);
+    }
+    
+    /**
+     * Sample a packed store, splitting its rows into contiguous ranges
+     */
+    public Reservoir samplePacked(PackedHouseStore store) throws IOException, InterruptedException {
+        long rows = store.size();
+        int parts = (int) Math.max(1, Math.min(threads, rows / 10_000));
+        List<Callable<Reservoir>> tasks = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            long from = rows * p / parts;
+            long to = rows * (p + 1) / parts;
+            long streamSeed = seed + p;
+            tasks.add(() -> {
+                Reservoir reservoir = newReservoir(streamSeed);
+                for (long row = from; row < to; row++) {
+                    reservoir.offerPacked(store, row);
+                }
+                return reservoir;
+            });
+        }
+        return runAndMerge(tasks);
+    }
+    
+    /**
+     * Sample rows straight from the DatasetGenerator distributions without materializing them all
+     */
+    public Reservoir sampleGenerator(long rows) throws IOException, InterruptedException {
+        // Each worker keeps one reservoir across its chunks (every parts-th one), so memory is
+        // threads x sample size plus one generated chunk per worker, whatever the row count
+        int chunkRows = 100_000;
+        long chunks = (rows + chunkRows - 1) / chunkRows;
+        int parts = (int) Math.max(1, Math.min(threads, chunks));
+        List<Callable<Reservoir>> tasks = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            int first = p;
+            tasks.add(() -> {
+                Reservoir reservoir = newReservoir(seed + first);
+                for (long chunk = first; chunk < chunks; chunk += parts) {
+                    long start = chunk * chunkRows;
+                    int count = (int) Math.min(chunkRows, rows - start);
+                    for (UltimateHousingPredictor.House generated : DatasetGenerator.generateEnhancedData(count, seed + chunk)) {
+                        reservoir.offer(generated);
+                    }
+                }
+                return reservoir;
+            });
+        }
+        return runAndMerge(tasks);
+    }
+    
+    private Reservoir runAndMerge(List<Callable<Reservoir>> tasks) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            Reservoir merged = null;
+            for (Future<Reservoir> future : pool.invokeAll(tasks)) {
+                Reservoir reservoir = future.get();
+                merged = merged == null ? reservoir : merged.merge(reservoir);
+            }
+            return merged == null ? newReservoir(seed) : merged;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
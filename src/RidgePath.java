@@ -0,0 +1,159 @@
+import java.util.Locale;
+
+/**
+ * Ridge regularization path from a single eigendecomposition
+ * The centered Gram matrix comes from TrainingStatistics (one pass over the data) and is
+ * eigendecomposed once on standardized features. After that every lambda costs O(p^2) for
+ * the coefficients and O(p) for the residual sum of squares, effective degrees of freedom
+ * and generalized cross-validation score, so hundreds of lambdas cost about one fit.
+ */
+public class RidgePath {
+    private final TrainingStatistics statistics;
+    private final int numFeatures;
+    private final double[] scales;        // sqrt of each feature's centered sum of squares
+    private final double[] eigenvalues;
+    private final double[][] eigenvectors;
+    private final double[] projected;     // V^T * standardized X^T y
+    private final double priceSquares;    // centered y^T y
+    
+    private double[] lambdas;
+    private double[] gcvScores;
+    private double[] degreesOfFreedom;
+    private double[] residualSquares;
+    private int bestIndex = -1;
+    
+    public RidgePath(TrainingStatistics statistics) {
+        this.statistics = statistics;
+        this.numFeatures = statistics.getNumFeatures();
+        int p = numFeatures;
+        
+        // Standardize so a single lambda penalizes every feature on the same scale
+        scales = new double[p];
+        for (int j = 0; j < p; j++) {
+            double squares = statistics.comoment(j, j);
+            scales[j] = squares > 0 ? Math.sqrt(squares) : 0;
+        }
+        double[][] gram = new double[p][p];
+        double[] crossProducts = new double[p];
+        for (int i = 0; i < p; i++) {
+            if (scales[i] == 0) continue;
+            for (int j = 0; j < p; j++) {
+                if (scales[j] == 0) continue;
+                gram[i][j] = statistics.comoment(i, j) / (scales[i] * scales[j]);
+            }
+            crossProducts[i] = statistics.comoment(i, p) / scales[i];
+        }
+        priceSquares = statistics.comoment(p, p);
+        
+        eigenvalues = new double[p];
+        eigenvectors = new double[p][p];
+        LinearAlgebra.symmetricEigen(gram, eigenvalues, eigenvectors);
+        
+        projected = new double[p];
+        for (int i = 0; i < p; i++) {
+            double sum = 0;
+            for (int k = 0; k < p; k++) {
+                sum += eigenvectors[k][i] * crossProducts[k];
+            }
+            projected[i] = sum;
+            eigenvalues[i] = Math.max(0, eigenvalues[i]); // clip rounding noise
+        }
+    }
+    
+    /**
+     * Score a log-spaced grid of lambdas and remember the one with the lowest GCV
+     */
+    public RidgePath compute(double minLambda, double maxLambda, int count) {
+        lambdas = new double[count];
+        gcvScores = new double[count];
+        degreesOfFreedom = new double[count];
+        residualSquares = new double[count];
+        double n = statistics.getCount();
+        double logMin = Math.log(minLambda);
+        double logStep = count > 1 ? (Math.log(maxLambda) - logMin) / (count - 1) : 0;
+        
+        double bestScore = Double.MAX_VALUE;
+        for (int l = 0; l < count; l++) {
+            double lambda = Math.exp(logMin + l * logStep);
+            double rss = priceSquares;
+            double df = 1; // intercept
+            for (int i = 0; i < numFeatures; i++) {
+                double denominator = eigenvalues[i] + lambda;
+                if (denominator <= 0) continue;
+                double u2 = projected[i] * projected[i];
+                rss -= u2 * (2.0 / denominator - eigenvalues[i] / (denominator * denominator));
+                df += eigenvalues[i] / denominator;
+            }
+            rss = Math.max(0, rss);
+            double gcv = df < n ? (rss / n) / Math.pow(1 - df / n, 2) : Double.MAX_VALUE;
+            
+            lambdas[l] = lambda;
+            residualSquares[l] = rss;
+            degreesOfFreedom[l] = df;
+            gcvScores[l] = gcv;
+            if (gcv < bestScore) {
+                bestScore = gcv;
+                bestIndex = l;
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Coefficients on raw features for any lambda
+     */
+    public UltimateHousingPredictor.LinearRegressionModel modelAt(double lambda) {
+        int p = numFeatures;
+        double[] standardized = new double[p];
+        for (int i = 0; i < p; i++) {
+            double denominator = eigenvalues[i] + lambda;
+            if (denominator <= 0) continue;
+            double weight = projected[i] / denominator;
+            for (int k = 0; k < p; k++) {
+                standardized[k] += eigenvectors[k][i] * weight;
+            }
+        }
+        
+        double[] coefficients = new double[p];
+        double intercept = statistics.priceMean();
+        for (int j = 0; j < p; j++) {
+            coefficients[j] = scales[j] > 0 ? standardized[j] / scales[j] : 0;
+            intercept -= coefficients[j] * statistics.featureMean(j);
+        }
+        return new UltimateHousingPredictor.LinearRegressionModel(intercept, coefficients, statistics.getExpansion());
+    }
+    
+    public UltimateHousingPredictor.LinearRegressionModel bestModel() {
+        return modelAt(getBestLambda());
+    }
+    
+    public double getBestLambda() {
+        if (bestIndex < 0) {
+            throw new IllegalStateException("compute() has not been called");
+        }
+        return lambdas[bestIndex];
+    }
+    
+    /**
+     * The scored path and the selected lambda as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"selectedLambda\": ").append(format(getBestLambda()));
+        json.append(", \"selectedGcv\": ").append(format(gcvScores[bestIndex]));
+        json.append(", \"path\": [");
+        for (int l = 0; l < lambdas.length; l++) {
+            if (l > 0) json.append(", ");
+            json.append("{\"lambda\": ").append(format(lambdas[l]))
+                .append(", \"gcv\": ").append(format(gcvScores[l]))
+                .append(", \"df\": ").append(format(degreesOfFreedom[l]))
+                .append(", \"rss\": ").append(format(residualSquares[l])).append("}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+}
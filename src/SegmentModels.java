@@ -0,0 +1,356 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-segment models served on top of one global model
+ * A house's segment is its locationType x furnishingState x price band, where the band comes
+ * from the global model's prediction (quantiles over the training rows), so it is known before
+ * the price is. One pass over the training rows sums them into per-segment TrainingStatistics;
+ * a segment's model is fitted from its statistics (ridge over the raw features, GCV-selected
+ * lambda, the same fit its rows would give) the first time a prediction needs it, and compiled
+ * like any served model. No row and no reader over the rows is kept, so the source can be
+ * released, and the statistics travel with the global model in snapshots and replication.
+ *
+ * The statistics stay resident and count against the byte budget; fitted segments fill the
+ * rest, and past it the least recently used ones are evicted and refitted on their next
+ * request. A budget of 0 (the default) sizes it for the statistics plus half the segments'
+ * models, so traffic spread over every segment does evict. Segments with fewer than minRows training rows, and houses whose category values
+ * match no level, are priced by the global model.
+ */
+public class SegmentModels {
+    public static final int DEFAULT_PRICE_BANDS = 4;
+    public static final int MAX_PRICE_BANDS = 8;
+    public static final int DEFAULT_MIN_ROWS = 200;
+    public static final long DEFAULT_MAX_BYTES = Long.getLong("housing.segments.maxBytes", 0); // 0: sized by segment count
+    
+    private static final int BAND_SAMPLE_ROWS = 100_000;
+    private static final int MODEL_OVERHEAD_BYTES = 2048; // model, scorer object and hidden class metadata
+    private static final int TYPICAL_MODEL_BYTES = MODEL_OVERHEAD_BYTES + HouseSchema.NUM_FEATURES * Double.BYTES + 128;
+    private static final int STATISTICS_BYTES = 128 + (HouseSchema.NUM_FEATURES + 1) * (HouseSchema.NUM_FEATURES + 3) * Double.BYTES;
+    private static final HouseSchema.Field LOCATION = HouseSchema.LOCATION;
+    private static final HouseSchema.Field FURNISHING = HouseSchema.FURNISHING;
+    
+    private final UltimateHousingPredictor.LinearRegressionModel global;
+    private final double[] bandEdges;               // bands - 1 ascending predicted-price edges
+    private final int bands;
+    private final TrainingStatistics[] statistics;  // training rows of each segment, summed
+    private final long statisticsBytes;
+    private final int minRows;
+    private final long maxBytes;
+    
+    // Resident models by segment; the key space is small and fixed, so recency is a timestamp per slot
+    private static final class Segment {
+        final UltimateHousingPredictor.LinearRegressionModel model;
+        final long bytes;
+        long lastUsed; // racy but monotone enough for LRU
+        
+        Segment(UltimateHousingPredictor.LinearRegressionModel model, long bytes) {
+            this.model = model;
+            this.bytes = bytes;
+        }
+    }
+    
+    private final AtomicReferenceArray<Segment> resident;
+    private final ConcurrentHashMap<Integer, CompletableFuture<Segment>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong residentBytes = new AtomicLong();
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coldTrains = new LongAdder();
+    private final LongAdder coldWaits = new LongAdder();   // requests that waited on another request's cold train
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder coldTrainNanos = new LongAdder();
+    private final AtomicLong maxColdTrainNanos = new AtomicLong();
+    
+    /**
+     * Sum rows (schema numbering, price in column HouseSchema.PRICE) by segment; nothing is fitted
+     * yet and rows is not used after the constructor returns
+     */
+    public SegmentModels(UltimateHousingPredictor.LinearRegressionModel global, long rowCount, DriftMonitor.ColumnReader rows,
+                         int bands, int minRows, long maxBytes) {
+        this(global, bands, bandEdges(global, rowCount, rows, bands), minRows, maxBytes);
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        for (long r = 0; r < rowCount; r++) {
+            int key = segmentOf(read(rows, r, features));
+            if (key >= 0) {
+                statistics[key].add(features, rows.get(r, HouseSchema.PRICE));
+            }
+        }
+    }
+    
+    private SegmentModels(UltimateHousingPredictor.LinearRegressionModel global, int bands, double[] bandEdges, int minRows, long maxBytes) {
+        if (bands < 1 || bands > MAX_PRICE_BANDS) {
+            throw new IllegalArgumentException("Price bands must be between 1 and " + MAX_PRICE_BANDS);
+        }
+        int segments = LOCATION.levelCount() * FURNISHING.levelCount() * bands;
+        this.global = global;
+        this.bands = bands;
+        this.bandEdges = bandEdges;
+        this.minRows = minRows;
+        this.statisticsBytes = (long) segments * STATISTICS_BYTES;
+        this.maxBytes = maxBytes > 0 ? maxBytes : statisticsBytes + (long) (segments + 1) / 2 * TYPICAL_MODEL_BYTES;
+        if (statisticsBytes > this.maxBytes) {
+            throw new IllegalArgumentException("A byte budget of " + maxBytes + " does not cover the " + segments
+                + " segments' statistics (" + statisticsBytes + " bytes)");
+        }
+        this.resident = new AtomicReferenceArray<>(segments);
+        this.statistics = new TrainingStatistics[segments];
+        for (int s = 0; s < segments; s++) {
+            statistics[s] = new TrainingStatistics(HouseSchema.NUM_FEATURES);
+        }
+    }
+    
+    // Quantiles of the global prediction over (a stride sample of) the training rows
+    private static double[] bandEdges(UltimateHousingPredictor.LinearRegressionModel global, long rowCount,
+                                      DriftMonitor.ColumnReader rows, int bands) {
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        long stride = Math.max(1, (rowCount + BAND_SAMPLE_ROWS - 1) / BAND_SAMPLE_ROWS);
+        double[] predictions = new double[(int) ((rowCount + stride - 1) / stride)];
+        for (int i = 0; i < predictions.length; i++) {
+            predictions[i] = global.predict(read(rows, i * stride, features));
+        }
+        Arrays.sort(predictions);
+        double[] edges = new double[Math.max(0, bands - 1)];
+        for (int b = 1; b < bands; b++) {
+            edges[b - 1] = predictions.length == 0 ? 0 : predictions[(int) ((long) predictions.length * b / bands)];
+        }
+        return edges;
+    }
+    
+    public SegmentModels(UltimateHousingPredictor.LinearRegressionModel global, long rowCount, DriftMonitor.ColumnReader rows, int bands) {
+        this(global, rowCount, rows, bands, DEFAULT_MIN_ROWS, DEFAULT_MAX_BYTES);
+    }
+    
+    /**
+     * Column reader over in-memory houses, copied into columns once; the copy lives only as long as the reader
+     */
+    public static DriftMonitor.ColumnReader columns(List<UltimateHousingPredictor.House> houses) {
+        double[][] columns = new double[HouseSchema.NUM_FIELDS][houses.size()];
+        double[] row = new double[HouseSchema.NUM_FEATURES];
+        for (int i = 0; i < houses.size(); i++) {
+            HouseSchema.toRow(houses.get(i), row);
+            for (int j = 0; j < row.length; j++) {
+                columns[j][i] = row[j];
+            }
+            columns[HouseSchema.PRICE][i] = houses.get(i).getPrice();
+        }
+        return (r, j) -> columns[j][(int) r];
+    }
+    
+    private static double[] read(DriftMonitor.ColumnReader rows, long row, double[] features) {
+        for (int j = 0; j < features.length; j++) {
+            features[j] = rows.get(row, j);
+        }
+        return features;
+    }
+    
+    /**
+     * Band edges, limits and per-segment statistics; the models are refitted from them on demand
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(bands);
+        out.writeInt(minRows);
+        out.writeLong(maxBytes);
+        for (double edge : bandEdges) {
+            out.writeDouble(edge);
+        }
+        for (TrainingStatistics segment : statistics) {
+            segment.writeTo(out);
+        }
+    }
+    
+    public static SegmentModels readFrom(DataInput in, UltimateHousingPredictor.LinearRegressionModel global) throws IOException {
+        int bands = in.readInt();
+        if (bands < 1 || bands > MAX_PRICE_BANDS) {
+            throw new IOException("Unsupported number of price bands: " + bands);
+        }
+        int minRows = in.readInt();
+        long maxBytes = in.readLong();
+        double[] edges = new double[bands - 1];
+        for (int b = 0; b < edges.length; b++) {
+            edges[b] = in.readDouble();
+        }
+        SegmentModels models;
+        try {
+            models = new SegmentModels(global, bands, edges, minRows, maxBytes);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        for (int s = 0; s < models.statistics.length; s++) {
+            TrainingStatistics segment = TrainingStatistics.readFrom(in);
+            if (segment.getNumFeatures() != HouseSchema.NUM_FEATURES || segment.getExpansion() != null) {
+                throw new IOException("Segment statistics must cover the " + HouseSchema.NUM_FEATURES + " raw features");
+            }
+            models.statistics[s] = segment;
+        }
+        return models;
+    }
+    
+    /**
+     * Segment key of a feature row, or -1 when a category value matches no level
+     */
+    public int segmentOf(double[] features) {
+        int location = LOCATION.ordinalOfFeature(features[HouseSchema.LOCATION_COLUMN]);
+        int furnishing = FURNISHING.ordinalOfFeature(features[HouseSchema.FURNISHING_COLUMN]);
+        if (location < 0 || furnishing < 0) {
+            return -1;
+        }
+        double predicted = global.predict(features);
+        int band = 0;
+        while (band < bandEdges.length && predicted >= bandEdges[band]) {
+            band++;
+        }
+        return (location * FURNISHING.levelCount() + furnishing) * bands + band;
+    }
+    
+    public String segmentName(int key) {
+        int band = key % bands;
+        int furnishing = key / bands % FURNISHING.levelCount();
+        int location = key / bands / FURNISHING.levelCount();
+        return LOCATION.label(location) + "/" + FURNISHING.label(furnishing) + "/band" + band;
+    }
+    
+    /**
+     * Price from the house's segment model, fitting it first if it is not resident
+     */
+    public double predict(double[] features) {
+        int key = segmentOf(features);
+        if (key < 0 || statistics[key].getCount() < minRows) {
+            fallbacks.increment();
+            return global.predict(features);
+        }
+        Segment segment = resident.get(key);
+        if (segment != null) {
+            hits.increment();
+        } else {
+            segment = load(key);
+        }
+        segment.lastUsed = System.nanoTime();
+        return segment.model.predict(features);
+    }
+    
+    /**
+     * Score a columnar block (columns[j][i] holds feature j of row i) row by row through the segments
+     */
+    public void predictColumns(double[][] columns, int rows, double[] out) {
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < features.length; j++) {
+                features[j] = columns[j][i];
+            }
+            out[i] = predict(features);
+        }
+    }
+    
+    // The first request for a cold segment fits it; concurrent requests for the same segment wait for that fit
+    private Segment load(int key) {
+        CompletableFuture<Segment> pending = new CompletableFuture<>();
+        CompletableFuture<Segment> existing = loading.putIfAbsent(key, pending);
+        if (existing != null) {
+            coldWaits.increment();
+            return existing.join();
+        }
+        try {
+            Segment segment = resident.get(key); // fitted while this request was acquiring the slot
+            if (segment == null) {
+                long start = System.nanoTime();
+                segment = fit(key);
+                long elapsed = System.nanoTime() - start;
+                coldTrains.increment();
+                coldTrainNanos.add(elapsed);
+                maxColdTrainNanos.accumulateAndGet(elapsed, Math::max);
+                segment.lastUsed = System.nanoTime();
+                resident.set(key, segment);
+                residentBytes.addAndGet(segment.bytes);
+                evictOverBudget(key);
+            }
+            pending.complete(segment);
+            return segment;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+    
+    private Segment fit(int key) {
+        UltimateHousingPredictor.LinearRegressionModel model = new RidgePath(statistics[key]).compute(1e-6, 1e3, 100).bestModel().compile();
+        CompiledScorer scorer = model.getCompiled();
+        long bytes = MODEL_OVERHEAD_BYTES + (long) model.coefficients.length * Double.BYTES + (scorer != null ? scorer.getCodeBytes() : 0);
+        return new Segment(model, bytes);
+    }
+    
+    // Drop least recently used segments until the statistics and resident models fit the budget; the one just loaded stays
+    private synchronized void evictOverBudget(int keep) {
+        while (statisticsBytes + residentBytes.get() > maxBytes) {
+            int victim = -1;
+            long oldest = Long.MAX_VALUE;
+            for (int s = 0; s < resident.length(); s++) {
+                Segment segment = resident.get(s);
+                if (segment != null && s != keep && segment.lastUsed < oldest) {
+                    oldest = segment.lastUsed;
+                    victim = s;
+                }
+            }
+            if (victim < 0) {
+                return;
+            }
+            Segment evicted = resident.getAndSet(victim, null);
+            if (evicted != null) {
+                residentBytes.addAndGet(-evicted.bytes);
+                evictions.increment();
+            }
+        }
+    }
+    
+    public int residentCount() {
+        int count = 0;
+        for (int s = 0; s < resident.length(); s++) {
+            if (resident.get(s) != null) count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Residency, cache and cold-train figures as a JSON object
+     */
+    public String toJson() {
+        int trainable = 0;
+        for (TrainingStatistics segment : statistics) {
+            if (segment.getCount() >= minRows) trainable++;
+        }
+        List<String> residentNames = new ArrayList<>();
+        for (int s = 0; s < resident.length(); s++) {
+            if (resident.get(s) != null) residentNames.add("\"" + segmentName(s) + "\"");
+        }
+        long hitCount = hits.sum();
+        long trains = coldTrains.sum();
+        long waits = coldWaits.sum();
+        long lookups = hitCount + trains + waits;
+        StringBuilder edges = new StringBuilder();
+        for (double edge : bandEdges) {
+            if (edges.length() > 0) edges.append(", ");
+            edges.append(String.format(Locale.ROOT, "%.0f", edge));
+        }
+        return String.format(Locale.ROOT,
+            "{\"segments\": %d, \"trainable\": %d, \"priceBandEdges\": [%s], \"minRows\": %d, " +
+            "\"statisticsBytes\": %d, \"resident\": %d, \"residentBytes\": %d, \"maxBytes\": %d, \"hits\": %d, \"hitRate\": %.4f, " +
+            "\"coldTrains\": %d, \"coldWaits\": %d, \"averageColdTrainMillis\": %.2f, \"maxColdTrainMillis\": %.2f, " +
+            "\"evictions\": %d, \"globalFallbacks\": %d, \"residentSegments\": [%s]}",
+            statistics.length, trainable, edges, minRows,
+            statisticsBytes, residentNames.size(), residentBytes.get(), maxBytes, hitCount, lookups == 0 ? 0 : (double) hitCount / lookups,
+            trains, waits, trains == 0 ? 0 : coldTrainNanos.sum() / 1e6 / trains, maxColdTrainNanos.get() / 1e6,
+            evictions.sum(), fallbacks.sum(), String.join(", ", residentNames));
+    }
+}
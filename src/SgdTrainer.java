@@ -0,0 +1,252 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mini-batch stochastic gradient descent for the housing linear model
+ * An alternative to HousingMLSystem.trainLinearRegression for very large or growing datasets:
+ * features are standardized, the learning rate follows a schedule, several threads can update
+ * the shared weights without locks (Hogwild), and training stops at a wall-clock deadline.
+ * The deadline covers the whole call: the statistics and standardization passes check it too,
+ * and the per-epoch loss is measured on a fixed sample so its cost does not grow with the data.
+ * The rows are standardized in place, so the caller's arrays are the only copy trained on.
+ */
+public class SgdTrainer {
+    public static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int CHECK_EVERY_ROWS = 4096;
+    private static final int LOSS_SAMPLE_ROWS = 65_536;
+    
+    public enum Schedule {
+        CONSTANT,      // lr
+        INVERSE_TIME,  // lr / (1 + decay * epoch)
+        STEP           // lr * 0.5^(epoch / stepEpochs)
+    }
+    
+    private int batchSize = 32;
+    private double learningRate = 0.05;
+    private Schedule schedule = Schedule.INVERSE_TIME;
+    private double decay = 0.1;
+    private int stepEpochs = 10;
+    private int threads = 1;
+    private int maxEpochs = 200;
+    private long timeBudgetNanos = TimeUnit.SECONDS.toNanos(5);
+    private long deadlineNanos; // absolute System.nanoTime() deadline; 0 means train() start + time budget
+    private double tolerance = 1e-6;
+    private long seed = 42;
+    
+    // Outcome of the last train() call
+    private int epochsRun;
+    private double finalLoss; // mean squared error (standardized) on the loss sample
+    private boolean stoppedByDeadline;
+    
+    public SgdTrainer batchSize(int batchSize) { this.batchSize = Math.max(1, batchSize); return this; }
+    public SgdTrainer learningRate(double learningRate) { this.learningRate = learningRate; return this; }
+    public SgdTrainer schedule(Schedule schedule) { this.schedule = schedule; return this; }
+    public SgdTrainer decay(double decay) { this.decay = decay; return this; }
+    public SgdTrainer stepEpochs(int stepEpochs) { this.stepEpochs = Math.max(1, stepEpochs); return this; }
+    public SgdTrainer threads(int threads) { this.threads = Math.min(MAX_THREADS, Math.max(1, threads)); return this; }
+    public SgdTrainer maxEpochs(int maxEpochs) { this.maxEpochs = maxEpochs; return this; }
+    public SgdTrainer timeBudget(long millis) { this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(millis); return this; }
+    // A deadline that started before train(), e.g. when the request arrived; overrides timeBudget
+    public SgdTrainer deadline(long nanoTime) { this.deadlineNanos = nanoTime; return this; }
+    public SgdTrainer tolerance(double tolerance) { this.tolerance = tolerance; return this; }
+    public SgdTrainer seed(long seed) { this.seed = seed; return this; }
+    
+    public int getEpochsRun() { return epochsRun; }
+    public double getFinalLoss() { return finalLoss; }
+    public boolean isStoppedByDeadline() { return stoppedByDeadline; }
+    
+    /**
+     * Fit a model; the returned coefficients apply to raw (unstandardized) features.
+     * features and prices are overwritten with their standardized values.
+     */
+    public UltimateHousingPredictor.LinearRegressionModel train(double[][] features, double[] prices) throws InterruptedException {
+        long deadline = deadlineNanos != 0 ? deadlineNanos : System.nanoTime() + timeBudgetNanos;
+        int n = features.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("SGD needs at least one training row");
+        }
+        int numFeatures = features[0].length;
+        
+        // Standardize features and price so one learning rate suits every column
+        TrainingStatistics statistics = new TrainingStatistics(numFeatures);
+        for (int i = 0; i < n; i++) {
+            checkPreparation(i, deadline);
+            statistics.add(features[i], prices[i]);
+        }
+        double[] means = new double[numFeatures];
+        double[] scales = new double[numFeatures];
+        for (int j = 0; j < numFeatures; j++) {
+            means[j] = statistics.featureMean(j);
+            double std = Math.sqrt(statistics.comoment(j, j) / n);
+            scales[j] = std > 0 ? std : 1.0;
+        }
+        double priceMean = statistics.priceMean();
+        double priceStd = Math.sqrt(statistics.comoment(numFeatures, numFeatures) / n);
+        double priceScale = priceStd > 0 ? priceStd : 1.0;
+        
+        double[][] x = features;
+        double[] y = prices;
+        for (int i = 0; i < n; i++) {
+            checkPreparation(i, deadline);
+            for (int j = 0; j < numFeatures; j++) {
+                x[i][j] = (x[i][j] - means[j]) / scales[j];
+            }
+            y[i] = (y[i] - priceMean) / priceScale;
+        }
+        
+        // Shared parameters: weights[0..p-1] and bias at weights[p]. Hogwild workers read and
+        // write this array without synchronization; with sparse-enough conflicts the lost
+        // updates do not hurt convergence and no thread ever waits for a lock.
+        double[] weights = new double[numFeatures + 1];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Random random = new Random(seed);
+        
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        double previousLoss = Double.MAX_VALUE;
+        epochsRun = 0;
+        stoppedByDeadline = false;
+        
+        try {
+            for (int epoch = 0; epoch < maxEpochs; epoch++) {
+                if (System.nanoTime() >= deadline) {
+                    stoppedByDeadline = true;
+                    break;
+                }
+                shuffle(order, random);
+                double rate = rateFor(epoch);
+                
+                if (pool == null) {
+                    if (!runSlice(x, y, order, 0, n, weights, rate, deadline)) {
+                        stoppedByDeadline = true;
+                    }
+                } else {
+                    // Each worker takes a contiguous slice of the shuffled order
+                    Future<?>[] futures = new Future<?>[threads];
+                    boolean[] finished = new boolean[threads];
+                    for (int t = 0; t < threads; t++) {
+                        int from = (int) ((long) n * t / threads);
+                        int to = (int) ((long) n * (t + 1) / threads);
+                        int worker = t;
+                        futures[t] = pool.submit(() -> {
+                            finished[worker] = runSlice(x, y, order, from, to, weights, rate, deadline);
+                        });
+                    }
+                    for (int t = 0; t < threads; t++) {
+                        try {
+                            futures[t].get();
+                        } catch (ExecutionException e) {
+                            throw new IllegalStateException("SGD worker failed", e.getCause());
+                        }
+                        if (!finished[t]) {
+                            stoppedByDeadline = true;
+                        }
+                    }
+                }
+                epochsRun++;
+                
+                double loss = meanSquaredError(x, y, weights);
+                finalLoss = loss * priceScale * priceScale;
+                if (stoppedByDeadline || Math.abs(previousLoss - loss) < tolerance * Math.max(1.0, loss)) {
+                    break;
+                }
+                previousLoss = loss;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        
+        // Map the standardized solution back onto raw features
+        double[] coefficients = new double[numFeatures];
+        double intercept = priceMean + priceScale * weights[numFeatures];
+        for (int j = 0; j < numFeatures; j++) {
+            coefficients[j] = priceScale * weights[j] / scales[j];
+            intercept -= coefficients[j] * means[j];
+        }
+        return new UltimateHousingPredictor.LinearRegressionModel(intercept, coefficients);
+    }
+    
+    // Mini-batch updates over order[from, to); false if the deadline cut the slice short
+    private boolean runSlice(double[][] x, double[] y, int[] order, int from, int to,
+                             double[] weights, double rate, long deadline) {
+        int numFeatures = weights.length - 1;
+        double[] gradient = new double[numFeatures + 1];
+        
+        for (int start = from; start < to; start += batchSize) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            int end = Math.min(to, start + batchSize);
+            Arrays.fill(gradient, 0);
+            
+            for (int k = start; k < end; k++) {
+                double[] row = x[order[k]];
+                double prediction = weights[numFeatures];
+                for (int j = 0; j < numFeatures; j++) {
+                    prediction += weights[j] * row[j];
+                }
+                double error = prediction - y[order[k]];
+                for (int j = 0; j < numFeatures; j++) {
+                    gradient[j] += error * row[j];
+                }
+                gradient[numFeatures] += error;
+            }
+            
+            double step = rate / (end - start);
+            for (int j = 0; j <= numFeatures; j++) {
+                weights[j] -= step * gradient[j];
+            }
+        }
+        return true;
+    }
+    
+    private double rateFor(int epoch) {
+        switch (schedule) {
+            case CONSTANT: return learningRate;
+            case STEP: return learningRate * Math.pow(0.5, epoch / stepEpochs);
+            case INVERSE_TIME:
+            default: return learningRate / (1.0 + decay * epoch);
+        }
+    }
+    
+    // Before the first epoch there is no model to return, so running out of time is an error
+    private static void checkPreparation(int row, long deadline) {
+        if (row % CHECK_EVERY_ROWS == 0 && System.nanoTime() >= deadline) {
+            throw new IllegalStateException("Time budget ran out before the first SGD epoch (" + row + " rows prepared)");
+        }
+    }
+    
+    // Over a fixed stride sample of at most LOSS_SAMPLE_ROWS rows, the same rows every epoch
+    private static double meanSquaredError(double[][] x, double[] y, double[] weights) {
+        int numFeatures = weights.length - 1;
+        int stride = Math.max(1, (x.length + LOSS_SAMPLE_ROWS - 1) / LOSS_SAMPLE_ROWS);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < x.length; i += stride) {
+            double prediction = weights[numFeatures];
+            for (int j = 0; j < numFeatures; j++) {
+                prediction += weights[j] * x[i][j];
+            }
+            double error = prediction - y[i];
+            sum += error * error;
+            count++;
+        }
+        return sum / count;
+    }
+    
+    private static void shuffle(int[] order, Random random) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Out-of-core trainer for housing_data.csv files (or a directory of CSV shards)
+ * A reader thread parses fixed-size chunks and hands them to the accumulator through a
+ * bounded queue, so memory stays flat no matter how large the input is. Progress is
+ * checkpointed periodically and an interrupted run resumes from the last checkpoint.
+ * The same pipeline also trains from a single InputStream (an HTTP upload, plain or gzip), in
+ * which case rows are accumulated as the bytes arrive and there is nothing to checkpoint.
+ */
+public class StreamingTrainer {
+    private static final int CHECKPOINT_MAGIC = 0x48434B31; // "HCK1"
+    private static final int ROW_WIDTH = HouseSchema.NUM_FEATURES + 1;
+    
+    private final List<Path> shards;
+    private final InputStream stream; // read instead of the shards when set
+    private final int chunkRows;
+    private final int queueDepth;
+    private final Path checkpointFile;
+    private final long checkpointEveryRows;
+    private FeatureExpansion expansion;
+    private long rowLimit; // 0 = no limit
+    
+    // Parsed rows travel between threads in recycled chunks
+    private static class Chunk {
+        final double[] rows;
+        int size;
+        int shardIndex;
+        long endOffset;      // byte offset just past the last row in this chunk
+        boolean endOfStream;
+        Exception failure;
+        
+        Chunk(int chunkRows) {
+            this.rows = new double[chunkRows * ROW_WIDTH];
+        }
+    }
+    
+    public StreamingTrainer(Path source, int chunkRows, int queueDepth, Path checkpointFile, long checkpointEveryRows) throws IOException {
+        this.shards = listShards(source);
+        this.stream = null;
+        this.chunkRows = chunkRows;
+        this.queueDepth = queueDepth;
+        this.checkpointFile = checkpointFile;
+        this.checkpointEveryRows = checkpointEveryRows;
+    }
+    
+    public StreamingTrainer(Path source) throws IOException {
+        this(source, 8192, 4, null, 0);
+    }
+    
+    /**
+     * Train from one CSV stream, which is read to the end (or the row limit) and then closed
+     */
+    public StreamingTrainer(InputStream stream, int chunkRows, int queueDepth) {
+        this.shards = List.of();
+        this.stream = stream;
+        this.chunkRows = chunkRows;
+        this.queueDepth = queueDepth;
+        this.checkpointFile = null;
+        this.checkpointEveryRows = 0;
+    }
+    
+    /**
+     * Stop after the first maxRows data rows; 0 reads everything
+     */
+    public StreamingTrainer rowLimit(long maxRows) {
+        this.rowLimit = maxRows;
+        return this;
+    }
+    
+    /**
+     * Undo gzip compression if the stream starts with the gzip magic bytes, otherwise return it unchanged
+     */
+    public static InputStream decompressIfGzip(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(buffered, 1 << 16);
+        }
+        return buffered;
+    }
+    
+    /**
+     * Accumulate the expansion's columns instead of the raw features; a checkpoint must have been written with the same one
+     */
+    public StreamingTrainer expansion(FeatureExpansion expansion) {
+        this.expansion = expansion;
+        return this;
+    }
+    
+    static List<Path> listShards(Path source) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return List.of(source);
+        }
+        try (Stream<Path> files = Files.list(source)) {
+            List<Path> shards = files.filter(p -> p.getFileName().toString().endsWith(".csv"))
+                .sorted()
+                .collect(Collectors.toList());
+            if (shards.isEmpty()) {
+                throw new IOException("No .csv shards in " + source);
+            }
+            return shards;
+        }
+    }
+    
+    /**
+     * Stream every shard into regression statistics, resuming from the checkpoint if present
+     */
+    public TrainingStatistics run() throws IOException, InterruptedException {
+        TrainingStatistics statistics = new TrainingStatistics(expansion);
+        int startShard = 0;
+        long startOffset = 0;
+        
+        if (checkpointFile != null && Files.exists(checkpointFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+                if (in.readInt() != CHECKPOINT_MAGIC) {
+                    throw new IOException("Not a training checkpoint: " + checkpointFile);
+                }
+                int shardCount = in.readInt();
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < shardCount; i++) {
+                    names.add(in.readUTF());
+                }
+                if (!names.equals(shardNames())) {
+                    throw new IOException("Checkpoint " + checkpointFile + " was written for different input files");
+                }
+                startShard = in.readInt();
+                startOffset = in.readLong();
+                statistics = TrainingStatistics.readFrom(in);
+                if (!Objects.equals(statistics.getExpansion(), expansion)) {
+                    throw new IOException("Checkpoint " + checkpointFile + " was written with a different feature expansion");
+                }
+            }
+            System.out.println("Resuming from checkpoint: shard " + (startShard + 1) + "/" + shards.size()
+                + " at byte " + startOffset + ", " + statistics.getCount() + " rows already trained");
+        }
+        
+        // Empty chunks go back to the reader through the free queue; filled ones arrive on the ready queue
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(queueDepth + 1);
+        BlockingQueue<Chunk> ready = new ArrayBlockingQueue<>(queueDepth + 1);
+        for (int i = 0; i <= queueDepth; i++) {
+            free.add(new Chunk(chunkRows));
+        }
+        
+        final int firstShard = startShard;
+        final long firstOffset = startOffset;
+        Thread reader = new Thread(() -> readShards(firstShard, firstOffset, free, ready), "csv-reader");
+        reader.setDaemon(true);
+        reader.start();
+        
+        long rowsSinceCheckpoint = 0;
+        double[] features = new double[HouseSchema.NUM_FEATURES];
+        try {
+            while (true) {
+                Chunk chunk = ready.take();
+                if (chunk.failure != null) {
+                    throw new IOException("Failed reading training data: " + chunk.failure.getMessage(), chunk.failure);
+                }
+                if (chunk.endOfStream) {
+                    break;
+                }
+                
+                for (int r = 0; r < chunk.size; r++) {
+                    int base = r * ROW_WIDTH;
+                    System.arraycopy(chunk.rows, base, features, 0, features.length);
+                    statistics.add(features, chunk.rows[base + HouseSchema.NUM_FEATURES]);
+                }
+                rowsSinceCheckpoint += chunk.size;
+                
+                if (checkpointFile != null && rowsSinceCheckpoint >= checkpointEveryRows) {
+                    writeCheckpoint(statistics, chunk.shardIndex, chunk.endOffset);
+                    rowsSinceCheckpoint = 0;
+                }
+                free.put(chunk);
+            }
+        } finally {
+            reader.interrupt();
+        }
+        
+        if (checkpointFile != null) {
+            Files.deleteIfExists(checkpointFile);
+        }
+        return statistics;
+    }
+    
+    private void readShards(int startShard, long startOffset, BlockingQueue<Chunk> free, BlockingQueue<Chunk> ready) {
+        Chunk chunk = null;
+        double[] row = new double[ROW_WIDTH];
+        long rows = 0;
+        int sources = stream != null ? 1 : shards.size();
+        try {
+            reading:
+            for (int shard = startShard; shard < sources; shard++) {
+                long offset = shard == startShard ? startOffset : 0;
+                try (InputStream in = stream != null ? stream : Files.newInputStream(shards.get(shard))) {
+                    in.skipNBytes(offset);
+                    byte[] buffer = new byte[1 << 16];
+                    int filled = 0;
+                    int read;
+                    boolean eof = false;
+                    
+                    while (!eof) {
+                        read = in.read(buffer, filled, buffer.length - filled);
+                        if (read < 0) {
+                            eof = true;
+                            if (filled == 0) {
+                                break;
+                            }
+                            buffer[filled++] = '\n'; // terminate a final line without newline
+                        } else {
+                            filled += read;
+                        }
+                        
+                        // Consume every complete line in the buffer
+                        int lineStart = 0;
+                        for (int i = 0; i < filled; i++) {
+                            if (buffer[i] != '\n') {
+                                continue;
+                            }
+                            int lineBytes = i + 1 - lineStart;
+                            int from = lineStart;
+                            int to = i;
+                            lineStart = i + 1;
+                            offset += eof && i == filled - 1 ? lineBytes - 1 : lineBytes;
+                            while (from < to && buffer[from] <= ' ') from++;
+                            while (to > from && buffer[to - 1] <= ' ') to--;
+                            if (from == to || !HouseSchema.isDataLine(buffer[from])) {
+                                continue; // blank line or header
+                            }
+                            
+                            if (chunk == null) {
+                                chunk = free.take();
+                                chunk.size = 0;
+                            }
+                            int columns = HouseSchema.parseCsv(buffer, from, to, row);
+                            if (columns != HouseSchema.NUM_FIELDS) {
+                                throw new IllegalArgumentException("Expected " + HouseSchema.NUM_FIELDS + " columns but found "
+                                    + columns + ": " + new String(buffer, from, to - from, StandardCharsets.UTF_8));
+                            }
+                            System.arraycopy(row, 0, chunk.rows, chunk.size * ROW_WIDTH, ROW_WIDTH);
+                            chunk.size++;
+                            chunk.shardIndex = shard;
+                            chunk.endOffset = offset;
+                            
+                            // Blocks while the accumulator is behind: that is the backpressure
+                            if (chunk.size == chunkRows) {
+                                ready.put(chunk);
+                                chunk = null;
+                            }
+                            if (++rows == rowLimit) {
+                                break reading;
+                            }
+                        }
+                        
+                        // Keep the partial last line for the next read
+                        System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+                        filled -= lineStart;
+                        if (filled == buffer.length) {
+                            throw new IOException("Line longer than " + buffer.length + " bytes in " + (stream != null ? "the input stream" : shards.get(shard)));
+                        }
+                    }
+                }
+            }
+            if (chunk != null) {
+                ready.put(chunk);
+            }
+            Chunk end = free.take();
+            end.endOfStream = true;
+            ready.put(end);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Chunk failed = new Chunk(0);
+            failed.failure = e;
+            try {
+                // Wait for room rather than drop the failure: the accumulator would block on take() forever
+                ready.put(failed);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt(); // the accumulator has already stopped
+            }
+        }
+    }
+    
+    private void writeCheckpoint(TrainingStatistics statistics, int shardIndex, long offset) throws IOException {
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            List<String> names = shardNames();
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+            out.writeInt(shardIndex);
+            out.writeLong(offset);
+            statistics.writeTo(out);
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private List<String> shardNames() {
+        List<String> names = new ArrayList<>();
+        for (Path shard : shards) {
+            names.add(shard.toAbsolutePath().toString());
+        }
+        return names;
+    }
+    
+    /**
+     * Command line: java StreamingTrainer <csv file or shard directory> [checkpoint file] [checkpoint every N rows]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java StreamingTrainer <csv|directory> [checkpointFile] [checkpointEveryRows]");
+            return;
+        }
+        Path checkpoint = args.length > 1 ? Paths.get(args[1]) : null;
+        long every = args.length > 2 ? Long.parseLong(args[2]) : 1_000_000L;
+        
+        long start = System.nanoTime();
+        StreamingTrainer trainer = new StreamingTrainer(Paths.get(args[0]), 8192, 4, checkpoint, every);
+        TrainingStatistics statistics = trainer.run();
+        System.out.printf("Streamed %,d rows in %.1f ms%n", statistics.getCount(), (System.nanoTime() - start) / 1e6);
+        
+        new UltimateHousingPredictor.HousingMLSystem(statistics.toUnivariateModel()).displayModelInfo();
+    }
+}
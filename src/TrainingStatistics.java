@@ -0,0 +1,164 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Mergeable sufficient statistics for linear regression
+ * Tracks means and centered co-moments of the features and the price in one pass,
+ * so models can be fitted without keeping the rows around
+ * With a FeatureExpansion the statistics cover the expanded columns: each raw row is expanded
+ * into a scratch row as it is added, so callers keep passing the nine raw features
+ */
+public class TrainingStatistics {
+    private final int numFeatures;
+    private final int width; // features + price
+    private long count;
+    private final double[] mean;
+    private final double[] comoment; // width x width, row-major
+    private final double[] delta;    // scratch for add()
+    private final FeatureExpansion expansion; // null when rows are used as given
+    private final double[] expanded;          // scratch for add() with an expansion
+    
+    public TrainingStatistics(int numFeatures) {
+        this(numFeatures, null);
+    }
+    
+    /**
+     * Statistics over the expanded columns of raw feature rows; a null expansion means the raw features
+     */
+    public TrainingStatistics(FeatureExpansion expansion) {
+        this(expansion != null ? expansion.width() : HouseSchema.NUM_FEATURES, expansion);
+    }
+    
+    private TrainingStatistics(int numFeatures, FeatureExpansion expansion) {
+        this.numFeatures = numFeatures;
+        this.width = numFeatures + 1;
+        this.mean = new double[width];
+        this.comoment = new double[width * width];
+        this.delta = new double[width];
+        this.expansion = expansion;
+        this.expanded = expansion != null ? new double[numFeatures] : null;
+    }
+    
+    /**
+     * Add one row (not thread-safe; use one instance per thread and merge)
+     */
+    public void add(double[] features, double price) {
+        if (expansion != null) {
+            features = expansion.expand(features, expanded);
+        }
+        count++;
+        double inverseCount = 1.0 / count;
+        
+        for (int j = 0; j < numFeatures; j++) {
+            delta[j] = features[j] - mean[j];
+            mean[j] += delta[j] * inverseCount;
+        }
+        delta[numFeatures] = price - mean[numFeatures];
+        mean[numFeatures] += delta[numFeatures] * inverseCount;
+        
+        // C += delta_old * delta_new^T, where delta_new = delta_old * (n-1)/n; C is symmetric, so only j >= i
+        double scale = (count - 1) * inverseCount;
+        for (int i = 0; i < width; i++) {
+            double di = delta[i] * scale;
+            int row = i * width;
+            for (int j = i; j < width; j++) {
+                comoment[row + j] += di * delta[j];
+            }
+        }
+    }
+    
+    /**
+     * Fold another partition's statistics into this one
+     */
+    public void merge(TrainingStatistics other) {
+        if (other.numFeatures != numFeatures) {
+            throw new IllegalArgumentException("Cannot merge statistics with " + other.numFeatures + " features into " + numFeatures);
+        }
+        if (!Objects.equals(other.expansion, expansion)) {
+            throw new IllegalArgumentException("Cannot merge statistics with a different feature expansion");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = other.count;
+            System.arraycopy(other.mean, 0, mean, 0, width);
+            System.arraycopy(other.comoment, 0, comoment, 0, comoment.length);
+            return;
+        }
+        
+        long total = count + other.count;
+        double weight = (double) count * other.count / total;
+        for (int i = 0; i < width; i++) {
+            delta[i] = other.mean[i] - mean[i];
+        }
+        for (int i = 0; i < width; i++) {
+            int row = i * width;
+            for (int j = i; j < width; j++) {
+                comoment[row + j] += other.comoment[row + j] + delta[i] * delta[j] * weight;
+            }
+            mean[i] += delta[i] * other.count / total;
+        }
+        count = total;
+    }
+    
+    public long getCount() { return count; }
+    public int getNumFeatures() { return numFeatures; }
+    public FeatureExpansion getExpansion() { return expansion; }
+    public double featureMean(int j) { return mean[j]; }
+    public double priceMean() { return mean[numFeatures]; }
+    
+    // Centered sums of products; index numFeatures stands for the price. Only the upper triangle is kept up to date
+    public double comoment(int i, int j) { return i <= j ? comoment[i * width + j] : comoment[j * width + i]; }
+    
+    /**
+     * Per-feature least squares slopes, the same fit HousingMLSystem.trainLinearRegression produces
+     */
+    public UltimateHousingPredictor.LinearRegressionModel toUnivariateModel() {
+        if (count == 0) {
+            throw new IllegalStateException("No training rows");
+        }
+        double[] coefficients = new double[numFeatures];
+        double intercept = priceMean();
+        for (int j = 0; j < numFeatures; j++) {
+            double denominator = comoment(j, j);
+            coefficients[j] = denominator != 0 ? comoment(j, numFeatures) / denominator : 0;
+            intercept -= coefficients[j] * mean[j];
+        }
+        return new UltimateHousingPredictor.LinearRegressionModel(intercept, coefficients, expansion);
+    }
+    
+    // Expanded statistics write a negated width followed by the expansion spec
+    public void writeTo(DataOutput out) throws IOException {
+        if (expansion != null) {
+            out.writeInt(-numFeatures);
+            out.writeUTF(expansion.spec());
+        } else {
+            out.writeInt(numFeatures);
+        }
+        out.writeLong(count);
+        for (double value : mean) out.writeDouble(value);
+        for (double value : comoment) out.writeDouble(value);
+    }
+    
+    public static TrainingStatistics readFrom(DataInput in) throws IOException {
+        int numFeatures = in.readInt();
+        TrainingStatistics statistics;
+        if (numFeatures < 0) {
+            statistics = new TrainingStatistics(FeatureExpansion.parse(in.readUTF()));
+            if (statistics.numFeatures != -numFeatures) {
+                throw new IOException("Statistics were written for " + -numFeatures + " expanded features, the spec gives " + statistics.numFeatures);
+            }
+        } else if (numFeatures > FeatureExpansion.MAX_WIDTH) {
+            throw new IOException("Statistics over " + numFeatures + " features exceed the limit of " + FeatureExpansion.MAX_WIDTH);
+        } else {
+            statistics = new TrainingStatistics(numFeatures);
+        }
+        statistics.count = in.readLong();
+        for (int i = 0; i < statistics.mean.length; i++) statistics.mean[i] = in.readDouble();
+        for (int i = 0; i < statistics.comoment.length; i++) statistics.comoment[i] = in.readDouble();
+        return statistics;
+    }
+}
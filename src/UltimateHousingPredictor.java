@@ -96,64 +96,89 @@ public class UltimateHousingPredictor {
             );
         }
         
-        // Convert to numerical array for ML (all features in one method)
+        // Convert to numerical array for ML; encodings come from the HouseSchema table
         public double[] toFeatureArray() {
-            return new double[] {
-                squareFootage,
-                bedrooms,
-                bathrooms,
-                age,
-                neighborhood,
-                parkingSpaces,
-                locationTypeToNumber(locationType),
-                furnishingStateToNumber(furnishingState),
-                kitchenTypeToNumber(kitchenType)
-            };
-        }
-        
-        private double locationTypeToNumber(LocationType location) {
-            switch (location) {
-                case RURAL: return 1.0;
-                case SUBURB: return 2.0;
-                case UPTOWN: return 3.0;
-                case DOWNTOWN: return 4.0;
-                case METROPOLITAN: return 5.0;
-                case BEACHSIDE: return 6.0;
-                default: return 3.0;
-            }
+            return HouseSchema.toRow(this, new double[HouseSchema.NUM_FEATURES]);
         }
         
-        private double furnishingStateToNumber(FurnishingState furnishing) {
-            switch (furnishing) {
-                case UNFURNISHED: return 1.0;
-                case SEMI_FURNISHED: return 2.0;
-                case FURNISHED: return 3.0;
-                default: return 2.0;
-            }
-        }
-        
-        private double kitchenTypeToNumber(KitchenType kitchen) {
-            return kitchen == KitchenType.OPEN_KITCHEN ? 1.0 : 0.0;
+        // Parse one row of the housing_data.csv schema (as written by DatasetGenerator)
+        public static House fromCsv(String line) {
+            return HouseSchema.houseFromCsv(line);
         }
     }
     
-    // ML Prediction System (simplified version)
+    // ML Prediction System (simplified version), immutable once trained
+    // With an expansion the coefficients cover the expanded columns, but callers still pass raw features
     static class LinearRegressionModel {
-        double intercept;
-        double[] coefficients;
+        final double intercept;
+        final double[] coefficients;
+        final FeatureExpansion expansion; // null for a model over the raw features
+        private volatile CompiledScorer compiled; // set once by compile(); volatile so the scorer is safely published
         
         LinearRegressionModel(double intercept, double[] coefficients) {
+            this(intercept, coefficients, null);
+        }
+        
+        LinearRegressionModel(double intercept, double[] coefficients, FeatureExpansion expansion) {
+            if (expansion != null && coefficients.length != expansion.width()) {
+                throw new IllegalArgumentException("Expected " + expansion.width() + " coefficients for the expansion, got " + coefficients.length);
+            }
             this.intercept = intercept;
-            this.coefficients = coefficients;
+            this.coefficients = coefficients.clone();
+            this.expansion = expansion;
         }
         
         double predict(double[] features) {
+            CompiledScorer scorer = compiled;
+            return scorer != null ? scorer.score(features) : interpret(features);
+        }
+        
+        // The generic path: loops over the coefficient array (and the expansion's terms)
+        double interpret(double[] features) {
+            if (expansion != null) {
+                return intercept + expansion.dot(coefficients, features);
+            }
             double prediction = intercept;
             for (int i = 0; i < features.length; i++) {
                 prediction += coefficients[i] * features[i];
             }
             return prediction;
         }
+        
+        /**
+         * Replace the interpreter with a generated scorer class; a no-op when disabled, too large or already done
+         */
+        synchronized LinearRegressionModel compile() {
+            if (compiled == null) {
+                compiled = CompiledScorer.compile(this);
+            }
+            return this;
+        }
+        
+        CompiledScorer getCompiled() {
+            return compiled;
+        }
+        
+        // Score a columnar block in one pass: columns[j][i] holds feature j of row i
+        void predictColumns(double[][] columns, int rows, double[] out) {
+            CompiledScorer scorer = compiled;
+            if (scorer != null) {
+                scorer.scoreColumns(columns, rows, out);
+                return;
+            }
+            Arrays.fill(out, 0, rows, intercept);
+            int raw = expansion != null ? HouseSchema.NUM_FEATURES : coefficients.length;
+            for (int j = 0; j < raw; j++) {
+                double coefficient = coefficients[j];
+                double[] column = columns[j];
+                for (int i = 0; i < rows; i++) {
+                    out[i] += coefficient * column[i];
+                }
+            }
+            if (expansion != null) {
+                expansion.addTerms(coefficients, columns, rows, out);
+            }
+        }
     }
     
     static class HousingMLSystem {
@@ -165,6 +190,16 @@ public class UltimateHousingPredictor {
             trainModel();
         }
         
+        // Wrap a model that was fitted elsewhere (e.g. from an off-heap store or streamed statistics)
+        HousingMLSystem(LinearRegressionModel model) {
+            this(model, Collections.emptyList());
+        }
+        
+        HousingMLSystem(LinearRegressionModel model, List<House> trainingData) {
+            this.trainingData = trainingData;
+            this.model = model;
+        }
+        
         private void trainModel() {
             // Convert houses to feature arrays and prices
             double[][] features = new double[trainingData.size()][];
@@ -222,6 +257,15 @@ public class UltimateHousingPredictor {
             return model.predict(house.toFeatureArray());
         }
         
+        LinearRegressionModel getModel() {
+            return model;
+        }
+        
+        // Empty when the model was fitted from a store, a stream or a snapshot
+        List<House> getTrainingData() {
+            return trainingData;
+        }
+        
         public void displayModelInfo() {
             System.out.println("\n=== Trained Model Information ===");
             System.out.printf("Intercept: $%,.2f%n", model.intercept);
@@ -234,6 +278,11 @@ public class UltimateHousingPredictor {
                 System.out.printf("%-15s: %+,.2f (price impact per unit)%n", 
                     featureNames[i], model.coefficients[i]);
             }
+            if (model.expansion != null) {
+                for (int i = featureNames.length; i < model.coefficients.length; i++) {
+                    System.out.printf("%-15s: %+,.2f%n", model.expansion.name(i), model.coefficients[i]);
+                }
+            }
         }
     }
     
@@ -502,7 +551,13 @@ public class UltimateHousingPredictor {
         }
     }
     // Main method - How to run in VS Code
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // Non-interactive mode for pipelines: java UltimateHousingPredictor --score [BatchScorer options]
+        if (args.length > 0 && args[0].equals("--score")) {
+            BatchScorer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
         System.out.println("🚀 Starting Ultimate Housing Price Predictor...\n");
         
         // Step 1: Generate sample training data
@@ -0,0 +1,230 @@
+import java.util.*;
+
+/**
+ * What-if price surfaces and partial-dependence curves
+ * A surface varies one or two features of a base house over a grid and scores every grid point
+ * in one columnar predictColumns call. Partial dependence replaces one feature in every training
+ * row with each grid value and averages the predictions; the curves are computed once per model
+ * version and cached until the version is retired and collected.
+ */
+public class WhatIfAnalyzer {
+    public static final int MAX_GRID_POINTS = 10_000;
+    private static final int CURVE_POINTS = 20;
+    private static final int MAX_DEPENDENCE_ROWS = 5_000;
+    
+    private final Map<ModelRegistry.ModelVersion, String> dependenceCache = Collections.synchronizedMap(new WeakHashMap<>());
+    
+    /**
+     * One varied feature: grid values in feature space plus display labels
+     */
+    public static class Axis {
+        final int feature;
+        final double[] values;
+        final String[] labels;
+        
+        public Axis(int feature, double[] values, String[] labels) {
+            this.feature = feature;
+            this.values = values;
+            this.labels = labels;
+        }
+        
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"feature\": \"").append(HouseSchema.FIELDS[feature].name).append("\", \"values\": [");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) json.append(", ");
+                if (labels != null) {
+                    json.append('"').append(labels[i]).append('"');
+                } else {
+                    json.append(format(values[i]));
+                }
+            }
+            return json.append("]}").toString();
+        }
+    }
+    
+    public static int featureIndex(String name) {
+        int index = HouseSchema.fieldIndex(name);
+        if (index >= HouseSchema.NUM_FEATURES) {
+            throw new IllegalArgumentException("Not a model feature: " + name);
+        }
+        return index;
+    }
+    
+    /**
+     * Validate a client-supplied axis length before anything is allocated for it; limit is what is
+     * left of MAX_GRID_POINTS after the other axis
+     */
+    public static int axisPoints(String axis, long count, int limit) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Axis " + axis + " has no points");
+        }
+        if (count > limit) {
+            throw new IllegalArgumentException("Axis " + axis + " has " + count + " points, the limit is " + limit
+                + " (" + MAX_GRID_POINTS + " grid points in all)");
+        }
+        return (int) count;
+    }
+    
+    /**
+     * Evenly spaced numeric grid including both ends
+     */
+    public static double[] range(double from, double to, int steps) {
+        int count = axisPoints("range", Math.max(1, steps), MAX_GRID_POINTS);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = count == 1 ? from : from + (to - from) * i / (count - 1);
+        }
+        return values;
+    }
+    
+    /**
+     * Prices for every grid point, x varying fastest; y may be null for a one-dimensional sweep
+     */
+    public static double[] surface(ModelRegistry.ModelVersion version, double[] base, Axis x, Axis y) {
+        int nx = x.values.length;
+        int ny = y == null ? 1 : y.values.length;
+        long product = (long) nx * ny;
+        if (product > MAX_GRID_POINTS) {
+            throw new IllegalArgumentException("Grid has " + product + " points, the limit is " + MAX_GRID_POINTS);
+        }
+        int points = (int) product;
+        
+        double[][] columns = new double[base.length][];
+        for (int j = 0; j < base.length; j++) {
+            columns[j] = new double[points];
+            Arrays.fill(columns[j], base[j]);
+        }
+        for (int yi = 0; yi < ny; yi++) {
+            for (int xi = 0; xi < nx; xi++) {
+                int point = yi * nx + xi;
+                columns[x.feature][point] = x.values[xi];
+                if (y != null) {
+                    columns[y.feature][point] = y.values[yi];
+                }
+            }
+        }
+        
+        double[] prices = new double[points];
+        version.predictColumns(columns, points, prices);
+        return prices;
+    }
+    
+    public static String surfaceJson(int versionId, Axis x, Axis y, double[] prices) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"modelVersion\": ").append(versionId);
+        json.append(", \"x\": ").append(x.toJson());
+        json.append(", \"y\": ").append(y == null ? "null" : y.toJson());
+        json.append(", \"prices\": [");
+        int nx = x.values.length;
+        int ny = y == null ? 1 : y.values.length;
+        for (int yi = 0; yi < ny; yi++) {
+            if (yi > 0) json.append(", ");
+            if (y != null) json.append('[');
+            for (int xi = 0; xi < nx; xi++) {
+                if (xi > 0) json.append(", ");
+                json.append(String.format(Locale.ROOT, "%.2f", prices[yi * nx + xi]));
+            }
+            if (y != null) json.append(']');
+        }
+        return json.append("]}").toString();
+    }
+    
+    /**
+     * Partial-dependence curves for every feature of a version as JSON, or null when the version
+     * has no training rows to average over (models fitted from a store, stream or snapshot)
+     */
+    public String partialDependenceJson(ModelRegistry.ModelVersion version) {
+        String cached = dependenceCache.get(version);
+        if (cached != null) {
+            return cached;
+        }
+        List<UltimateHousingPredictor.House> houses = version.system.getTrainingData();
+        if (houses.isEmpty()) {
+            return null;
+        }
+        
+        // Columnar copy of (a stride sample of) the training rows
+        int stride = Math.max(1, (houses.size() + MAX_DEPENDENCE_ROWS - 1) / MAX_DEPENDENCE_ROWS);
+        int rows = (houses.size() + stride - 1) / stride;
+        int numFeatures = HouseSchema.NUM_FEATURES;
+        double[][] columns = new double[numFeatures][rows];
+        double[] features = new double[numFeatures];
+        for (int r = 0; r < rows; r++) {
+            HouseSchema.toRow(houses.get(r * stride), features);
+            for (int j = 0; j < numFeatures; j++) {
+                columns[j][r] = features[j];
+            }
+        }
+        
+        double[] prices = new double[rows];
+        StringBuilder json = new StringBuilder();
+        json.append("{\"modelVersion\": ").append(version.id).append(", \"rows\": ").append(rows).append(", \"curves\": [");
+        for (int j = 0; j < numFeatures; j++) {
+            Axis axis = dependenceAxis(j, columns[j]);
+            double[] original = columns[j];
+            double[] replaced = new double[rows];
+            columns[j] = replaced;
+            double[] curve = new double[axis.values.length];
+            for (int v = 0; v < axis.values.length; v++) {
+                Arrays.fill(replaced, axis.values[v]);
+                version.predictColumns(columns, rows, prices);
+                double sum = 0;
+                for (int r = 0; r < rows; r++) {
+                    sum += prices[r];
+                }
+                curve[v] = sum / rows;
+            }
+            columns[j] = original;
+            
+            if (j > 0) json.append(", ");
+            String axisJson = axis.toJson();
+            json.append(axisJson, 0, axisJson.length() - 1).append(", \"averagePrices\": [");
+            for (int v = 0; v < curve.length; v++) {
+                if (v > 0) json.append(", ");
+                json.append(String.format(Locale.ROOT, "%.2f", curve[v]));
+            }
+            json.append("]}");
+        }
+        String result = json.append("]}").toString();
+        dependenceCache.put(version, result);
+        return result;
+    }
+    
+    // Categorical features use the levels present in the data, numeric ones an even grid over the observed range
+    private static Axis dependenceAxis(int feature, double[] column) {
+        HouseSchema.Field field = HouseSchema.FIELDS[feature];
+        if (field.kind == HouseSchema.Kind.CATEGORY) {
+            TreeSet<Double> levels = new TreeSet<>();
+            for (double value : column) {
+                levels.add(value);
+            }
+            double[] values = new double[levels.size()];
+            String[] labels = new String[levels.size()];
+            int i = 0;
+            for (double level : levels) {
+                values[i] = level;
+                labels[i++] = field.labelOfFeature(level);
+            }
+            return new Axis(feature, values, labels);
+        }
+        
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double value : column) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        // Counts (bedrooms, bathrooms, age, parking) step by whole units when the range is short enough
+        boolean counted = field.kind == HouseSchema.Kind.COUNT;
+        int wholeSteps = (int) (max - min) + 1;
+        int points = min == max ? 1 : counted && wholeSteps <= CURVE_POINTS ? wholeSteps : CURVE_POINTS;
+        return new Axis(feature, range(min, max, points), null);
+    }
+    
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+            ? Long.toString((long) value)
+            : String.format(Locale.ROOT, "%.6g", value);
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The AuditLog ring under concurrent producers: every record lands exactly once, in sequence order and
+ * intact, across segment rotations and a restart; once the writer has stopped, records are dropped
+ */
+class AuditLogChecks {
+    private static final int PRODUCERS = 4;
+    private static final int RECORDS_PER_PRODUCER = 20_000;
+    
+    static void run() throws Exception {
+        Path directory = Files.createTempDirectory("audit-checks");
+        try {
+            // An 8-slot ring keeps producers lapping the writer; 500-record segments force rotations
+            long segmentBytes = AuditLog.HEADER_BYTES + 500L * AuditLog.RECORD_BYTES;
+            AuditLog log = new AuditLog(directory, 8, segmentBytes, AuditLog.FsyncPolicy.NONE, 1000);
+            produce(log, 0);
+            log.close();
+            Checks.check(!log.isWriterFailed(), "writer finished cleanly");
+            Checks.check(!log.record(AuditLog.SOURCE_HTTP, 1, new double[HouseSchema.NUM_FEATURES], 1, 1),
+                "a record after close is dropped");
+            Checks.check(log.metricsJson().contains("\"dropped\": 1"), "the dropped record is counted: " + log.metricsJson());
+            
+            int total = PRODUCERS * RECORDS_PER_PRODUCER;
+            verify(directory, total, "first run");
+            Checks.check(AuditLog.segmentFiles(directory).size() == (total + 499) / 500, "one segment per 500 records");
+            
+            // A restarted log continues the sequence after the last intact record
+            AuditLog resumed = new AuditLog(directory, 8, segmentBytes, AuditLog.FsyncPolicy.BATCH, 1000);
+            produce(resumed, 1);
+            resumed.close();
+            verify(directory, 2 * total, "after a restart");
+            
+            long[] visited = new long[1];
+            long next = AuditLog.scan(directory, total + 1, (sequence, millis, version, source, latency, row) -> visited[0]++);
+            Checks.check(visited[0] == total && next == 2 * total + 1, "scan from a sequence visits only the rest");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+    
+    // Each producer writes rows that encode (run, producer, index), so the reader can check every field
+    private static void produce(AuditLog log, int run) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                double[] row = new double[HouseSchema.NUM_FEATURES];
+                double[][] columns = new double[HouseSchema.NUM_FEATURES][1];
+                for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] = i * 10.0 + j;
+                        columns[j][0] = row[j];
+                    }
+                    double price = i * 0.5;
+                    int version = run * 100 + producer;
+                    boolean recorded = i % 2 == 0
+                        ? log.record(AuditLog.SOURCE_HTTP, version, row, price, i)
+                        : log.record(AuditLog.SOURCE_BINARY, version, columns, 0, price, i);
+                    if (!recorded) {
+                        throw new IllegalStateException("record dropped while the writer was running");
+                    }
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + 60_000;
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            if (thread.isAlive()) {
+                throw new IllegalStateException("producers stalled on a ring the writer no longer drains");
+            }
+        }
+    }
+    
+    private static void verify(Path directory, int expectedRecords, String stage) throws IOException {
+        long[] count = new long[1];
+        long[] previous = {0};
+        int[][] nextIndex = new int[2][PRODUCERS]; // per run and producer, records arrive in their own order
+        int[] bad = new int[1];
+        long next = AuditLog.scan(directory, 0, (sequence, millis, version, source, latency, row) -> {
+            count[0]++;
+            int run = version / 100;
+            int producer = version % 100;
+            int i = (int) latency;
+            boolean ok = sequence == previous[0] + 1 && run < 2 && producer < PRODUCERS
+                && i == nextIndex[run][producer]++ && source == (i % 2 == 0 ? AuditLog.SOURCE_HTTP : AuditLog.SOURCE_BINARY)
+                && row[HouseSchema.PRICE] == i * 0.5 && millis > 0;
+            for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+                ok &= row[j] == i * 10.0 + j;
+            }
+            if (!ok) bad[0]++;
+            previous[0] = sequence;
+        });
+        Checks.check(count[0] == expectedRecords, stage + ": " + count[0] + " records scanned, expected " + expectedRecords);
+        Checks.check(bad[0] == 0, stage + ": " + bad[0] + " records out of order or damaged");
+        Checks.check(next == expectedRecords + 1, stage + ": scan continues at " + next);
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Behavior checks for the numeric and storage components, runnable without a test framework
+ * Each suite compares a component against an independent, straightforward computation of the
+ * same result (a brute-force fit, a hand-computed score, a round trip) on fixed-seed data.
+ *
+ * Usage (from src): javac -encoding UTF-8 -d ../out *.java ../test/*.java && java -cp ../out Checks
+ * Exits with status 1 when any check fails.
+ */
+public class Checks {
+    private static final List<String> failures = new ArrayList<>();
+    private static int passed;
+    
+    static void check(boolean condition, String description) {
+        if (condition) {
+            passed++;
+        } else {
+            failures.add(description);
+        }
+    }
+    
+    // Equal within a relative (or, near zero, absolute) tolerance
+    static void close(double expected, double actual, double tolerance, String description) {
+        double scale = Math.max(1, Math.max(Math.abs(expected), Math.abs(actual)));
+        check(Math.abs(expected - actual) <= tolerance * scale,
+            description + ": expected " + expected + ", got " + actual);
+    }
+    
+    static void fails(Class<? extends Throwable> type, Runnable action, String description) {
+        try {
+            action.run();
+            check(false, description + ": no " + type.getSimpleName());
+        } catch (Throwable e) {
+            check(type.isInstance(e), description + ": threw " + e);
+        }
+    }
+    
+    interface Suite {
+        void run() throws Exception;
+    }
+    
+    public static void main(String[] args) {
+        Suite[] suites = {
+            TrainingChecks::run,
+            ScoringChecks::run,
+            SnapshotChecks::run,
+            AuditLogChecks::run,
+            DriftMonitorChecks::run
+        };
+        String[] names = {"training", "scoring", "snapshots", "audit log", "drift"};
+        for (int s = 0; s < suites.length; s++) {
+            int failedBefore = failures.size();
+            int passedBefore = passed;
+            try {
+                suites[s].run();
+            } catch (Exception e) {
+                failures.add(names[s] + " suite threw " + e);
+            }
+            System.out.printf("%-10s %4d passed, %d failed%n", names[s], passed - passedBefore, failures.size() - failedBefore);
+        }
+        for (String failure : failures) {
+            System.out.println("FAILED: " + failure);
+        }
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DriftMonitor scores against hand-computed PSI and KS values, the histogram bucket bounds, and
+ * reports on an unchanged and a shifted stream of houses
+ */
+class DriftMonitorChecks {
+    
+    static void run() throws InterruptedException {
+        scores();
+        buckets();
+        sketches();
+        reports();
+    }
+    
+    private static void scores() {
+        long[] reference = {50, 30, 20};
+        long[] live = {20, 30, 50};
+        int[] bins = {1, 2, 3};
+        Checks.close(0.3 * Math.log(6.25), DriftMonitor.psi(reference, 100, live, 100, 0, bins), 1e-12, "psi of a reversed distribution");
+        Checks.close(0, DriftMonitor.psi(reference, 100, new long[] {100, 60, 40}, 200, 0, bins), 1e-12, "psi of the same shares");
+        Checks.close(0.3, DriftMonitor.kolmogorovSmirnov(reference, 100, live, 100, 0, 3), 1e-12, "ks of a reversed distribution");
+        Checks.close(1, DriftMonitor.kolmogorovSmirnov(new long[] {10, 0}, 10, new long[] {0, 10}, 10, 0, 2), 1e-12, "ks of disjoint distributions");
+        
+        // An empty reference bin counts as a 0.01% share so the score stays finite
+        double expected = (0.9 - 1) * Math.log(0.9) + (0.1 - 1e-4) * Math.log(0.1 / 1e-4);
+        Checks.close(expected, DriftMonitor.psi(new long[] {100, 0}, 100, new long[] {90, 10}, 100, 0, new int[] {1, 2}), 1e-12,
+            "psi with an empty reference bin");
+        
+        // Scores read the field's own slice of a stripe
+        long[] shiftedReference = {7, 7, 50, 30, 20};
+        long[] shiftedLive = {9, 9, 20, 30, 50};
+        Checks.close(0.3, DriftMonitor.kolmogorovSmirnov(shiftedReference, 100, shiftedLive, 100, 2, 3), 1e-12, "ks at an offset");
+        
+        long[] uniform = new long[100];
+        java.util.Arrays.fill(uniform, 1);
+        int[] deciles = DriftMonitor.decileBins(uniform, 100, 0, 100);
+        Checks.check(deciles.length == 10 && deciles[0] == 10 && deciles[9] == 100, "uniform buckets give ten decile bins");
+        int[] collapsed = DriftMonitor.decileBins(new long[] {0, 0, 100, 0}, 100, 0, 4);
+        Checks.check(java.util.Arrays.equals(collapsed, new int[] {3, 4}), "a bucket spanning every decile is one bin, got "
+            + java.util.Arrays.toString(collapsed));
+    }
+    
+    private static void buckets() {
+        Random random = new Random(13);
+        for (int i = 0; i < 10_000; i++) {
+            double value = Math.exp(random.nextDouble() * 25 - 5); // 0.007 to 3.6e8
+            int bucket = DriftMonitor.bucket(0, value);
+            double lower = DriftMonitor.bucketValue(bucket);
+            double upper = DriftMonitor.bucketValue(bucket + 1);
+            Checks.check(lower <= value && value < upper, "bucket of " + value + " is [" + lower + ", " + upper + ")");
+            Checks.check(upper - lower <= lower * 0.0625 * (1 + 1e-12), "bucket width at " + value);
+            Checks.check(DriftMonitor.bucket(0, -value) == 2 * DriftMonitor.bucket(0, 0) - bucket, "negative values mirror " + value);
+        }
+        for (int k = 0; k <= 16; k++) {
+            Checks.check(DriftMonitor.bucketValue(DriftMonitor.bucket(1, k)) == k, "whole number " + k + " has its own bucket");
+        }
+        Checks.check(DriftMonitor.bucket(0, Double.NaN) == DriftMonitor.bucket(0, 0), "NaN counts as zero");
+        int levels = HouseSchema.LOCATION.levelCount();
+        for (int level = 0; level < levels; level++) {
+            Checks.check(DriftMonitor.bucket(HouseSchema.LOCATION_COLUMN, HouseSchema.LOCATION.featureValue(level)) == level,
+                "location level " + level);
+        }
+        Checks.check(DriftMonitor.bucket(HouseSchema.LOCATION_COLUMN, 99) == levels, "unknown location level");
+    }
+    
+    private static void sketches() throws InterruptedException {
+        List<UltimateHousingPredictor.House> houses = DatasetGenerator.generateEnhancedData(4000, 41);
+        DriftMonitor.Sketch striped = new DriftMonitor.Sketch(8);
+        DriftMonitor.Sketch first = new DriftMonitor.Sketch(1);
+        DriftMonitor.Sketch second = new DriftMonitor.Sketch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int from = t * 1000;
+            threads[t] = new Thread(() -> {
+                double[] row = new double[HouseSchema.NUM_FEATURES];
+                for (int i = from; i < from + 1000; i++) {
+                    striped.record(HouseSchema.toRow(houses.get(i), row), houses.get(i).getPrice());
+                }
+            });
+            threads[t].start();
+        }
+        double[] row = new double[HouseSchema.NUM_FEATURES];
+        for (int i = 0; i < houses.size(); i++) {
+            (i < 1500 ? first : second).record(HouseSchema.toRow(houses.get(i), row), houses.get(i).getPrice());
+        }
+        for (Thread thread : threads) thread.join();
+        Checks.check(striped.rows() == 4000, "striped sketch counts every row, got " + striped.rows());
+        Checks.check(java.util.Arrays.equals(striped.totals(), first.merge(second).totals()), "merged halves equal one striped sketch");
+    }
+    
+    private static void reports() {
+        List<UltimateHousingPredictor.House> houses = DatasetGenerator.generateEnhancedData(8000, 43);
+        UltimateHousingPredictor.LinearRegressionModel model = new UltimateHousingPredictor.LinearRegressionModel(
+            20_000, new double[] {150, 5_000, 8_000, -500, 3_000, 2_000, 10_000, 4_000, 6_000});
+        DriftMonitor.Sketch reference = DriftMonitor.reference(houses.subList(0, 4000), model);
+        DriftMonitor.Sketch same = new DriftMonitor.Sketch(1);
+        DriftMonitor.Sketch larger = new DriftMonitor.Sketch(1);
+        double[] row = new double[HouseSchema.NUM_FEATURES];
+        for (UltimateHousingPredictor.House house : houses.subList(4000, 8000)) {
+            HouseSchema.toRow(house, row);
+            same.record(row, model.predict(row));
+            row[0] *= 1.5; // half as much floor space again
+            larger.record(row, model.predict(row));
+        }
+        
+        String unchanged = report(reference, same, 100);
+        for (HouseSchema.Field field : HouseSchema.FIELDS) {
+            double psi = score(unchanged, field.name, "psi");
+            Checks.check(psi >= 0 && psi < 0.05, field.name + " psi between two samples of one distribution: " + psi);
+        }
+        Checks.check(unchanged.contains("\"drifted\": []"), "nothing drifts between two samples: " + unchanged);
+        
+        String shifted = report(reference, larger, 100);
+        Checks.check(score(shifted, "squareFootage", "psi") > 0.25, "squareFootage psi after the shift");
+        Checks.check(score(shifted, "squareFootage", "ks") > 0.2, "squareFootage ks after the shift");
+        Checks.check(score(shifted, "price", "psi") > 0.1, "price psi after the shift");
+        Checks.check(score(shifted, "bedrooms", "psi") < 0.05, "bedrooms psi is unaffected");
+        Checks.check(shifted.contains("\"drifted\": [\"squareFootage\""), "squareFootage is listed as drifted: " + shifted);
+        
+        String early = report(reference, larger, 10_000);
+        Checks.check(!early.contains("\"psi\"") && early.contains("\"drifted\": []"), "no scores below minRows");
+    }
+    
+    private static String report(DriftMonitor.Sketch reference, DriftMonitor.Sketch live, long minRows) {
+        JsonResponseWriter json = new JsonResponseWriter();
+        DriftMonitor.writeJson(json, 1, reference, live, 0.2, minRows);
+        return json.toString();
+    }
+    
+    private static double score(String report, String field, String name) {
+        Matcher matcher = Pattern.compile("\"name\": \"" + field + "\", \"psi\": ([0-9.E-]+)(?:, \"ks\": ([0-9.E-]+))?").matcher(report);
+        if (!matcher.find()) {
+            Checks.check(false, "no " + name + " for " + field + " in " + report);
+            return Double.NaN;
+        }
+        return Double.parseDouble(matcher.group(name.equals("psi") ? 1 : 2));
+    }
+}
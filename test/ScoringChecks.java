@@ -0,0 +1,137 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generated scorers against the coefficient interpreter, and the HouseSchema object, CSV and JSON codecs
+ */
+class ScoringChecks {
+    
+    static void run() {
+        List<UltimateHousingPredictor.House> houses = DatasetGenerator.generateEnhancedData(1000, 21);
+        compiledScorer(houses);
+        schemaCodecs(houses);
+    }
+    
+    private static void compiledScorer(List<UltimateHousingPredictor.House> houses) {
+        Random random = new Random(9);
+        int rows = houses.size() + 3;
+        double[][] columns = new double[HouseSchema.NUM_FEATURES][rows];
+        for (int i = 0; i < houses.size(); i++) {
+            double[] row = HouseSchema.toRow(houses.get(i), new double[HouseSchema.NUM_FEATURES]);
+            for (int j = 0; j < row.length; j++) columns[j][i] = row[j];
+        }
+        // Rows whose categorical values match no level take the generated code's interpreter fallback
+        for (int i = houses.size(); i < rows; i++) {
+            for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) columns[j][i] = columns[j][i - houses.size()];
+            columns[HouseSchema.LOCATION_COLUMN + i - houses.size()][i] = 99;
+        }
+        
+        for (String spec : new String[] {null, "squareFootage*age, age^2, kitchenType*bedrooms", "market"}) {
+            FeatureExpansion expansion = spec != null ? FeatureExpansion.parse(spec) : null;
+            double[] coefficients = new double[expansion != null ? expansion.width() : HouseSchema.NUM_FEATURES];
+            for (int j = 0; j < coefficients.length; j++) {
+                coefficients[j] = j % 7 == 3 ? 0 : random.nextGaussian() * 1000; // zero slopes are skipped by the generator
+            }
+            UltimateHousingPredictor.LinearRegressionModel model =
+                new UltimateHousingPredictor.LinearRegressionModel(50_000, coefficients, expansion);
+            CompiledScorer scorer = CompiledScorer.compile(model);
+            String name = spec == null ? "raw" : spec.equals("market") ? "market" : "interactions";
+            Checks.check(scorer != null, name + " model compiles");
+            if (scorer == null) {
+                continue;
+            }
+            
+            double[] interpreted = new double[rows];
+            double[] row = new double[HouseSchema.NUM_FEATURES];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < row.length; j++) row[j] = columns[j][i];
+                interpreted[i] = model.interpret(row);
+                Checks.close(interpreted[i], scorer.score(row), 1e-9, name + " scorer, row " + i);
+                Checks.close(interpreted[i], scorer.scoreAt(columns, i), 1e-9, name + " columnar scorer, row " + i);
+            }
+            double[] block = new double[rows];
+            model.predictColumns(columns, rows, block); // the interpreter's columnar path, before compile()
+            double[] compiledBlock = new double[rows];
+            model.compile().predictColumns(columns, rows, compiledBlock);
+            for (int i = 0; i < rows; i++) {
+                Checks.close(interpreted[i], block[i], 1e-9, name + " interpreted block, row " + i);
+                Checks.close(interpreted[i], compiledBlock[i], 1e-9, name + " compiled block, row " + i);
+            }
+        }
+    }
+    
+    private static void schemaCodecs(List<UltimateHousingPredictor.House> houses) {
+        double[] row = new double[HouseSchema.NUM_FIELDS];
+        double[] parsed = new double[HouseSchema.NUM_FIELDS];
+        for (UltimateHousingPredictor.House house : houses) {
+            HouseSchema.toRow(house, row);
+            String label = house.toString();
+            
+            // object <-> row
+            Checks.check(java.util.Arrays.equals(row, HouseSchema.toRow(HouseSchema.toHouse(row), parsed)), "row round trip of " + label);
+            
+            // CSV: the same line from the object and from the row, and parsing it gives the row back
+            String csv = HouseSchema.appendCsv(house, new StringBuilder()).toString();
+            Checks.check(csv.equals(HouseSchema.appendCsv(row, new StringBuilder()).toString()), "csv from object and row of " + label);
+            Checks.check(HouseSchema.parseCsv(csv, parsed) == HouseSchema.NUM_FIELDS, "csv column count of " + label);
+            sameFields(row, parsed, "csv", label);
+            byte[] bytes = (" x\n" + csv + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            java.util.Arrays.fill(parsed, Double.NaN);
+            HouseSchema.parseCsv(bytes, 3, bytes.length - 2, parsed);
+            sameFields(row, parsed, "csv bytes", label);
+            Checks.check(HouseSchema.houseFromCsv(csv).getLocationType() == house.getLocationType(), "house from csv of " + label);
+            
+            // JSON in the /api/predict shape
+            String json = HouseSchema.appendJson(row, new StringBuilder()).toString();
+            java.util.Arrays.fill(parsed, Double.NaN);
+            HouseSchema.parseJson(json, parsed);
+            sameFields(row, parsed, "json", label);
+        }
+        
+        // Field order, whitespace, quoted numbers and enum names are all accepted; unknown keys are skipped
+        double[] reordered = new double[HouseSchema.NUM_FIELDS];
+        HouseSchema.parseJson("{ \"kitchenType\": \"OPEN_KITCHEN\", \"extra\": {\"a\": [1, 2]}, \"locationType\": 5, "
+            + "\"furnishingState\": 3, \"squareFootage\": \"1850.5\", \"bedrooms\": 3, \"bathrooms\": 2, \"age\": 12, "
+            + "\"neighborhood\": 7.5, \"parkingSpaces\": 1 }", reordered);
+        Checks.check(reordered[0] == 1850.5 && reordered[3] == 12 && reordered[4] == 7.5, "json numbers in any order");
+        Checks.check(reordered[HouseSchema.LOCATION_COLUMN] == HouseSchema.LOCATION.featureValue(UltimateHousingPredictor.LocationType.BEACHSIDE.ordinal())
+            && reordered[HouseSchema.KITCHEN_COLUMN] == HouseSchema.KITCHEN.featureValue(UltimateHousingPredictor.KitchenType.OPEN_KITCHEN.ordinal()),
+            "json categories by form code and by name");
+        Checks.check(reordered[HouseSchema.PRICE] == 0, "json price defaults to 0");
+        
+        Checks.fails(IllegalArgumentException.class,
+            () -> HouseSchema.parseCsv("1500,2.5,2,10,7.0,2,SUBURB,FURNISHED,OPEN_KITCHEN,250000", new double[HouseSchema.NUM_FIELDS]),
+            "csv count with a fraction");
+        Checks.fails(IllegalArgumentException.class,
+            () -> HouseSchema.parseCsv("1500,3,2,10,7.0,2,MOON,FURNISHED,OPEN_KITCHEN,250000", new double[HouseSchema.NUM_FIELDS]),
+            "csv unknown category");
+        Checks.fails(IllegalArgumentException.class,
+            () -> HouseSchema.parseJson("{\"squareFootage\": 1500}", new double[HouseSchema.NUM_FIELDS]), "json missing features");
+        
+        // The fast decimal path must agree with Double.parseDouble everywhere, including where it falls back
+        String[] numbers = {"0", "-0", "7", "+5", "0.1", "0.3", "-12.345", "1850.75", "123456.789012345", "9007199254740993",
+            "1234567890123456789", "1e3", "-2.5E-4", "0.000000000000000000001", "3.", ".5"};
+        for (String number : numbers) {
+            byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+            double expected = Double.parseDouble(number);
+            Checks.check(HouseSchema.parseDouble(bytes, 0, bytes.length) == expected, "parseDouble bytes " + number);
+            Checks.check(HouseSchema.parseDouble(number, 0, number.length()) == expected, "parseDouble text " + number);
+        }
+        Random random = new Random(17);
+        for (int i = 0; i < 10_000; i++) {
+            String number = Long.toString(random.nextLong() % 100_000_000_000L) + "." + (random.nextInt(10_000) + 10_000);
+            Checks.check(HouseSchema.parseDouble(number, 0, number.length()) == Double.parseDouble(number), "parseDouble " + number);
+        }
+    }
+    
+    // Whole and shortest-form fields must match exactly; fields written with fixed decimals to that precision
+    private static void sameFields(double[] expected, double[] actual, String codec, String label) {
+        for (int j = 0; j < HouseSchema.NUM_FIELDS; j++) {
+            int decimals = HouseSchema.FIELDS[j].decimals;
+            double tolerance = decimals > 0 ? 0.5 / Math.pow(10, decimals) + 1e-9 : 0;
+            Checks.check(Math.abs(expected[j] - actual[j]) <= tolerance,
+                codec + " field " + HouseSchema.FIELDS[j].name + " of " + label + ": " + expected[j] + " vs " + actual[j]);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * ModelSnapshot formats 1 (raw), 2 (expanded) and 3 (segmented): round trips that price houses the same,
+ * and rejection of damaged snapshots
+ */
+class SnapshotChecks {
+    
+    static void run() throws IOException {
+        List<UltimateHousingPredictor.House> houses = DatasetGenerator.generateEnhancedData(4000, 31);
+        double[][] rows = new double[houses.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = HouseSchema.toRow(houses.get(i), new double[HouseSchema.NUM_FEATURES]);
+        }
+        
+        TrainingStatistics raw = new TrainingStatistics((FeatureExpansion) null);
+        FeatureExpansion expansion = FeatureExpansion.parse("market");
+        TrainingStatistics expanded = new TrainingStatistics(expansion);
+        for (UltimateHousingPredictor.House house : houses) {
+            double[] row = HouseSchema.toRow(house, new double[HouseSchema.NUM_FEATURES]);
+            raw.add(row, house.getPrice());
+            expanded.add(row, house.getPrice());
+        }
+        UltimateHousingPredictor.LinearRegressionModel rawModel = new RidgePath(raw).compute(1e-6, 1e3, 20).bestModel();
+        UltimateHousingPredictor.LinearRegressionModel expandedModel = new RidgePath(expanded).compute(1e-6, 1e3, 20).bestModel();
+        SegmentModels segments = new SegmentModels(rawModel, houses.size(), SegmentModels.columns(houses), 4, 20, 0);
+        SegmentModels expandedSegments = new SegmentModels(expandedModel, houses.size(), SegmentModels.columns(houses), 2, 20, 0);
+        
+        ModelSnapshot[] snapshots = {
+            new ModelSnapshot(rawModel, houses.size()),
+            new ModelSnapshot(expandedModel, houses.size()),
+            new ModelSnapshot(rawModel, houses.size(), 1_700_000_000_000L, segments),
+            new ModelSnapshot(expandedModel, houses.size(), 1_700_000_000_000L, expandedSegments)
+        };
+        int[] formats = {1, 2, 3, 3};
+        for (int s = 0; s < snapshots.length; s++) {
+            ModelSnapshot snapshot = snapshots[s];
+            String name = "snapshot " + s;
+            byte[] bytes = snapshot.toBytes();
+            Checks.check(ByteBuffer.wrap(bytes).getInt(4) == formats[s], name + " is written as format " + formats[s]);
+            
+            ModelSnapshot read = ModelSnapshot.fromBytes(bytes);
+            Checks.check(read.trainingSamples == snapshot.trainingSamples && read.createdAt == snapshot.createdAt, name + " header");
+            Checks.check(read.model.intercept == snapshot.model.intercept
+                && Arrays.equals(read.model.coefficients, snapshot.model.coefficients), name + " coefficients");
+            Checks.check(java.util.Objects.equals(read.model.expansion, snapshot.model.expansion), name + " expansion");
+            Checks.check((read.segments != null) == (snapshot.segments != null), name + " segments");
+            for (double[] row : rows) {
+                double expected = snapshot.segments != null ? snapshot.segments.predict(row) : snapshot.model.predict(row);
+                double actual = read.segments != null ? read.segments.predict(row) : read.model.predict(row);
+                if (expected != actual) {
+                    Checks.check(false, name + " prices " + Arrays.toString(row) + " at " + expected + ", restored " + actual);
+                    break;
+                }
+            }
+            Checks.check(Arrays.equals(bytes, read.toBytes()), name + " rewrites to the same bytes");
+            
+            // Every damaged byte, a truncation and a trailing byte are rejected
+            int missed = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                byte[] damaged = bytes.clone();
+                damaged[i] ^= 0x10;
+                if (!rejected(damaged)) missed++;
+            }
+            Checks.check(missed == 0, name + " accepted " + missed + " single-byte corruptions");
+            Checks.check(rejected(Arrays.copyOf(bytes, bytes.length - 1)), name + " truncated");
+            Checks.check(rejected(Arrays.copyOf(bytes, 20)), name + " cut inside the header");
+            Checks.check(rejected(resealed(Arrays.copyOf(bytes, bytes.length + 1))), name + " with a trailing byte and a valid checksum");
+        }
+        Checks.check(segments.predict(rows[0]) != rawModel.predict(rows[0]), "segments price differently from the global model");
+        
+        // Consistent checksums do not make unknown formats or impossible lengths acceptable
+        byte[] bytes = snapshots[0].toBytes();
+        byte[] future = bytes.clone();
+        ByteBuffer.wrap(future).putInt(4, 9);
+        Checks.check(rejected(resealed(future)), "unknown format");
+        byte[] huge = bytes.clone();
+        ByteBuffer.wrap(huge).putInt(32, Integer.MAX_VALUE);
+        Checks.check(rejected(resealed(huge)), "coefficient count beyond the data");
+        byte[] negative = bytes.clone();
+        ByteBuffer.wrap(negative).putInt(32, -1);
+        Checks.check(rejected(resealed(negative)), "negative coefficient count");
+        byte[] expandedBytes = snapshots[1].toBytes();
+        byte[] mismatched = expandedBytes.clone();
+        ByteBuffer.wrap(mismatched).putInt(4, 1);
+        Checks.check(rejected(resealed(mismatched)), "expanded payload read as format 1");
+        Checks.check(rejected(resealed(spec(rawModel, "age^2"))), "expansion spec that does not match the coefficient count");
+        
+        // File round trip replaces the previous snapshot atomically
+        Path directory = Files.createTempDirectory("snapshot-checks");
+        Path file = directory.resolve("model.bin");
+        snapshots[0].write(file);
+        snapshots[2].write(file);
+        Checks.check(ModelSnapshot.read(file).segments != null, "snapshot file holds the latest write");
+        try (var listing = Files.list(directory)) {
+            Checks.check(listing.count() == 1, "no temporary file is left behind");
+        }
+        Files.delete(file);
+        Files.delete(directory);
+    }
+    
+    private static boolean rejected(byte[] bytes) {
+        try {
+            ModelSnapshot.fromBytes(bytes);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+    
+    // Recompute the trailing checksum so only the structural checks stand between the bytes and a model
+    private static byte[] resealed(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        ByteBuffer.wrap(bytes).putLong(bytes.length - Long.BYTES, crc.getValue());
+        return bytes;
+    }
+    
+    // A format 2 snapshot of a raw model carrying the given spec, plus a checksum slot
+    private static byte[] spec(UltimateHousingPredictor.LinearRegressionModel model, String spec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x484D444C);
+        out.writeInt(2);
+        out.writeLong(1);
+        out.writeLong(0);
+        out.writeDouble(model.intercept);
+        out.writeInt(model.coefficients.length);
+        for (double coefficient : model.coefficients) {
+            out.writeDouble(coefficient);
+        }
+        out.writeUTF(spec);
+        out.writeLong(0);
+        return bytes.toByteArray();
+    }
+}
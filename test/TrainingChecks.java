@@ -0,0 +1,366 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * TrainingStatistics merging, the RidgePath GCV path, SubsetSelector scores and FeatureExpansion terms,
+ * each against a direct computation over the rows
+ */
+class TrainingChecks {
+    
+    static void run() throws Exception {
+        List<UltimateHousingPredictor.House> houses = DatasetGenerator.generateEnhancedData(3000, 11);
+        double[][] rows = new double[houses.size()][];
+        double[] prices = new double[houses.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = HouseSchema.toRow(houses.get(i), new double[HouseSchema.NUM_FEATURES]);
+            prices[i] = houses.get(i).getPrice();
+        }
+        statisticsMerge(rows, prices);
+        ridgePath(rows, prices);
+        subsetSelection();
+        featureExpansion(rows, prices);
+    }
+    
+    private static void statisticsMerge(double[][] rows, double[] prices) throws Exception {
+        int p = HouseSchema.NUM_FEATURES;
+        TrainingStatistics whole = new TrainingStatistics(p);
+        TrainingStatistics[] parts = {new TrainingStatistics(p), new TrainingStatistics(p), new TrainingStatistics(p)};
+        for (int i = 0; i < rows.length; i++) {
+            whole.add(rows[i], prices[i]);
+            parts[i < 100 ? 0 : i < 2000 ? 1 : 2].add(rows[i], prices[i]); // uneven partitions
+        }
+        TrainingStatistics merged = new TrainingStatistics(p);
+        merged.merge(new TrainingStatistics(p)); // empty into empty
+        for (TrainingStatistics part : parts) {
+            merged.merge(part);
+        }
+        merged.merge(new TrainingStatistics(p)); // empty into full
+        
+        // Two-pass means and centered sums of products, with the price as column p
+        double[] mean = new double[p + 1];
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = 0; j <= p; j++) mean[j] += value(rows, prices, i, j) / rows.length;
+        }
+        check(merged.getCount() == rows.length, "merged count");
+        for (int a = 0; a <= p; a++) {
+            double expectedMean = mean[a];
+            Checks.close(expectedMean, a < p ? merged.featureMean(a) : merged.priceMean(), 1e-10, "merged mean " + a);
+            for (int b = a; b <= p; b++) {
+                double sum = 0;
+                for (int i = 0; i < rows.length; i++) {
+                    sum += (value(rows, prices, i, a) - mean[a]) * (value(rows, prices, i, b) - mean[b]);
+                }
+                Checks.close(sum, merged.comoment(a, b), 1e-9, "merged comoment " + a + "," + b);
+                Checks.close(whole.comoment(a, b), merged.comoment(b, a), 1e-9, "one pass vs merged comoment " + a + "," + b);
+            }
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        merged.writeTo(new DataOutputStream(bytes));
+        TrainingStatistics read = TrainingStatistics.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        check(read.getCount() == merged.getCount(), "statistics round trip count");
+        for (int a = 0; a <= p; a++) {
+            check(read.comoment(a, p) == merged.comoment(a, p), "statistics round trip comoment " + a);
+        }
+        
+        Checks.fails(IllegalArgumentException.class, () -> merged.merge(new TrainingStatistics(3)), "merge of a different width");
+        Checks.fails(IllegalArgumentException.class,
+            () -> merged.merge(new TrainingStatistics(FeatureExpansion.parse("age^2"))), "merge of a different expansion");
+    }
+    
+    private static void ridgePath(double[][] rows, double[] prices) {
+        TrainingStatistics statistics = new TrainingStatistics(HouseSchema.NUM_FEATURES);
+        for (int i = 0; i < rows.length; i++) {
+            statistics.add(rows[i], prices[i]);
+        }
+        RidgePath path = new RidgePath(statistics).compute(1e-6, 1e3, 20);
+        double n = rows.length;
+        double[][] gram = standardizedGram(rows);
+        
+        // Each scored lambda: the closed-form RSS and GCV must match the model modelAt() actually returns
+        Matcher entry = Pattern.compile("\\{\"lambda\": ([^,]+), \"gcv\": ([^,]+), \"df\": ([^,]+), \"rss\": ([^}]+)\\}").matcher(path.toJson());
+        int entries = 0;
+        double bestGcv = Double.MAX_VALUE;
+        double bestLambda = 0;
+        double previousDf = Double.MAX_VALUE;
+        while (entry.find()) {
+            double lambda = Double.parseDouble(entry.group(1));
+            double gcv = Double.parseDouble(entry.group(2));
+            double df = Double.parseDouble(entry.group(3));
+            double rss = Double.parseDouble(entry.group(4));
+            entries++;
+            UltimateHousingPredictor.LinearRegressionModel model = path.modelAt(lambda);
+            double actual = 0;
+            for (int i = 0; i < rows.length; i++) {
+                double residual = prices[i] - model.interpret(rows[i]);
+                actual += residual * residual;
+            }
+            Checks.close(actual, rss, 1e-4, "ridge rss at lambda " + lambda);
+            Checks.close(1 + hatTrace(gram, lambda), df, 1e-5, "ridge df at lambda " + lambda);
+            Checks.close((rss / n) / Math.pow(1 - df / n, 2), gcv, 1e-4, "ridge gcv at lambda " + lambda);
+            check(df > 1 && df <= HouseSchema.NUM_FEATURES + 1 && df <= previousDf, "ridge df shrinks with lambda: " + df);
+            previousDf = df;
+            if (gcv < bestGcv) {
+                bestGcv = gcv;
+                bestLambda = lambda;
+            }
+        }
+        check(entries == 20, "ridge path has 20 lambdas, found " + entries);
+        Checks.close(bestLambda, path.getBestLambda(), 1e-5, "ridge selects the lowest gcv");
+        
+        // A negligible penalty is ordinary least squares
+        double[] ols = leastSquares(rows, prices, allColumns(HouseSchema.NUM_FEATURES));
+        UltimateHousingPredictor.LinearRegressionModel nearlyOls = path.modelAt(1e-9);
+        Checks.close(ols[0], nearlyOls.intercept, 1e-6, "ridge intercept at lambda 0");
+        for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+            Checks.close(ols[j + 1], nearlyOls.coefficients[j], 1e-6, "ridge coefficient " + j + " at lambda 0");
+        }
+    }
+    
+    private static void subsetSelection() throws InterruptedException {
+        // Price depends on features 0 and 2 only
+        Random random = new Random(5);
+        int n = 2000;
+        int k = 5;
+        double[][] rows = new double[n][4];
+        double[] prices = new double[n];
+        TrainingStatistics[] folds = new TrainingStatistics[k];
+        for (int f = 0; f < k; f++) folds[f] = new TrainingStatistics(4);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < 4; j++) rows[i][j] = random.nextDouble() * 10;
+            prices[i] = 3 + 2 * rows[i][0] - 1.5 * rows[i][2] + random.nextGaussian();
+            folds[i % k].add(rows[i], prices[i]);
+        }
+        
+        SubsetSelector selector = new SubsetSelector(folds).search(SubsetSelector.Criterion.CV, 2);
+        check(selector.getBestMask() == 0b0101, "cv selects the two informative features, got " + selector.getBestMask());
+        for (int mask = 1; mask < 16; mask++) {
+            // Brute force: refit on the other folds' rows, score the held-out rows
+            int[] columns = maskColumns(mask);
+            double squaredError = 0;
+            for (int f = 0; f < k; f++) {
+                List<double[]> trainRows = new ArrayList<>();
+                List<Double> trainPrices = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    if (i % k != f) {
+                        trainRows.add(rows[i]);
+                        trainPrices.add(prices[i]);
+                    }
+                }
+                double[] fit = leastSquares(trainRows.toArray(new double[0][]),
+                    trainPrices.stream().mapToDouble(Double::doubleValue).toArray(), columns);
+                for (int i = f; i < n; i += k) {
+                    double residual = prices[i] - predict(fit, columns, rows[i]);
+                    squaredError += residual * residual;
+                }
+            }
+            Checks.close(Math.sqrt(squaredError / n), selector.score(mask), 1e-8, "cv rmse of subset " + mask);
+        }
+        
+        double[] full = leastSquares(rows, prices, maskColumns(0b0101));
+        UltimateHousingPredictor.LinearRegressionModel best = selector.bestModel();
+        Checks.close(full[0], best.intercept, 1e-8, "best subset intercept");
+        Checks.close(full[1], best.coefficients[0], 1e-8, "best subset coefficient 0");
+        Checks.close(full[2], best.coefficients[2], 1e-8, "best subset coefficient 2");
+        check(best.coefficients[1] == 0 && best.coefficients[3] == 0, "coefficients outside the subset are zero");
+        
+        TrainingStatistics all = new TrainingStatistics(4);
+        for (TrainingStatistics fold : folds) all.merge(fold);
+        check(new SubsetSelector(all).search(SubsetSelector.Criterion.BIC, 1).getBestMask() == 0b0101, "bic selects the two informative features");
+        Checks.fails(IllegalArgumentException.class, () -> {
+            try {
+                new SubsetSelector(all).search(SubsetSelector.Criterion.CV, 1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "cv with one fold");
+    }
+    
+    private static void featureExpansion(double[][] rows, double[] prices) {
+        FeatureExpansion expansion = FeatureExpansion.parse("squareFootage*age, age^2, locationType=*");
+        int levels = HouseSchema.LOCATION.levelCount();
+        check(expansion.termCount() == 2 + levels, "one term per location level, got " + expansion.termCount());
+        check(expansion.width() == HouseSchema.NUM_FEATURES + expansion.termCount(), "width is raw features plus terms");
+        check(FeatureExpansion.parse(expansion.spec()).equals(expansion), "spec round trip");
+        check(FeatureExpansion.parse("age^2; age^2, age").termCount() == 1, "repeated terms and raw features are dropped");
+        Checks.fails(IllegalArgumentException.class, () -> FeatureExpansion.parse("lotSize"), "unknown feature");
+        
+        Random random = new Random(3);
+        double[] coefficients = new double[expansion.width()];
+        for (int j = 0; j < coefficients.length; j++) coefficients[j] = random.nextGaussian();
+        double[] expanded = new double[expansion.width()];
+        double[][] columns = new double[HouseSchema.NUM_FEATURES][100];
+        for (int i = 0; i < 100; i++) {
+            double[] row = rows[i];
+            expansion.expand(row, expanded);
+            for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) {
+                check(expanded[j] == row[j], "raw column " + j + " is copied");
+                columns[j][i] = row[j];
+            }
+            int base = HouseSchema.NUM_FEATURES;
+            Checks.close(row[0] * row[3], expanded[base], 1e-12, "squareFootage*age");
+            Checks.close(row[3] * row[3], expanded[base + 1], 1e-12, "age^2");
+            for (int level = 0; level < levels; level++) {
+                double indicator = row[HouseSchema.LOCATION_COLUMN] == HouseSchema.LOCATION.featureValue(level) ? 1 : 0;
+                check(expanded[base + 2 + level] == indicator, "location indicator " + level);
+            }
+            double dot = 0;
+            for (int j = 0; j < expanded.length; j++) dot += coefficients[j] * expanded[j];
+            Checks.close(dot, expansion.dot(coefficients, row), 1e-9, "dot without building the row");
+        }
+        double[] out = new double[100];
+        expansion.addTerms(coefficients, columns, 100, out);
+        for (int i = 0; i < 100; i++) {
+            double raw = 0;
+            for (int j = 0; j < HouseSchema.NUM_FEATURES; j++) raw += coefficients[j] * rows[i][j];
+            Checks.close(expansion.dot(coefficients, rows[i]) - raw, out[i], 1e-9, "columnar terms of row " + i);
+        }
+        
+        // The market preset exists to fit the generator's multiplicative prices better than the raw features
+        FeatureExpansion market = FeatureExpansion.parse("market");
+        TrainingStatistics rawStatistics = new TrainingStatistics((FeatureExpansion) null);
+        TrainingStatistics marketStatistics = new TrainingStatistics(market);
+        for (int i = 0; i < rows.length; i++) {
+            rawStatistics.add(rows[i], prices[i]);
+            marketStatistics.add(rows[i], prices[i]);
+        }
+        double rawRss = rss(new RidgePath(rawStatistics).compute(1e-6, 1e3, 50).bestModel(), rows, prices);
+        double marketRss = rss(new RidgePath(marketStatistics).compute(1e-6, 1e3, 50).bestModel(), rows, prices);
+        check(marketRss < rawRss / 2, "market expansion halves the residuals: " + marketRss + " vs " + rawRss);
+    }
+    
+    // ---- direct computations -------------------------------------------------------------
+    
+    private static double value(double[][] rows, double[] prices, int i, int j) {
+        return j < rows[i].length ? rows[i][j] : prices[i];
+    }
+    
+    private static void check(boolean condition, String description) {
+        Checks.check(condition, description);
+    }
+    
+    private static int[] allColumns(int p) {
+        int[] columns = new int[p];
+        for (int j = 0; j < p; j++) columns[j] = j;
+        return columns;
+    }
+    
+    private static int[] maskColumns(int mask) {
+        int[] columns = new int[Integer.bitCount(mask)];
+        for (int j = 0, c = 0; c < columns.length; j++) {
+            if ((mask & (1 << j)) != 0) columns[c++] = j;
+        }
+        return columns;
+    }
+    
+    private static double predict(double[] fit, int[] columns, double[] row) {
+        double prediction = fit[0];
+        for (int c = 0; c < columns.length; c++) prediction += fit[c + 1] * row[columns[c]];
+        return prediction;
+    }
+    
+    private static double rss(UltimateHousingPredictor.LinearRegressionModel model, double[][] rows, double[] prices) {
+        double sum = 0;
+        for (int i = 0; i < rows.length; i++) {
+            double residual = prices[i] - model.interpret(rows[i]);
+            sum += residual * residual;
+        }
+        return sum;
+    }
+    
+    // Gram matrix of the centered features, each scaled to unit sum of squares, as the ridge penalty sees them
+    private static double[][] standardizedGram(double[][] rows) {
+        int p = rows[0].length;
+        double[] mean = new double[p];
+        for (double[] row : rows) {
+            for (int j = 0; j < p; j++) mean[j] += row[j] / rows.length;
+        }
+        double[][] gram = new double[p][p];
+        for (double[] row : rows) {
+            for (int a = 0; a < p; a++) {
+                for (int b = 0; b < p; b++) gram[a][b] += (row[a] - mean[a]) * (row[b] - mean[b]);
+            }
+        }
+        double[] scale = new double[p];
+        for (int j = 0; j < p; j++) scale[j] = Math.sqrt(gram[j][j]);
+        for (int a = 0; a < p; a++) {
+            for (int b = 0; b < p; b++) gram[a][b] /= scale[a] * scale[b];
+        }
+        return gram;
+    }
+    
+    // Effective degrees of freedom of the slopes: trace of (G + lambda I)^-1 G, one solve per column of G
+    private static double hatTrace(double[][] gram, double lambda) {
+        int p = gram.length;
+        double trace = 0;
+        for (int c = 0; c < p; c++) {
+            double[][] system = new double[p][p + 1];
+            for (int a = 0; a < p; a++) {
+                for (int b = 0; b < p; b++) system[a][b] = gram[a][b] + (a == b ? lambda : 0);
+                system[a][p] = gram[a][c];
+            }
+            trace += solve(system)[c];
+        }
+        return trace;
+    }
+    
+    /**
+     * Least squares on the given columns from the rows themselves, from the centered normal equations; returns the intercept followed by one slope per column
+     */
+    static double[] leastSquares(double[][] rows, double[] prices, int[] columns) {
+        int p = columns.length;
+        int n = rows.length;
+        double[] mean = new double[p + 1];
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < p; c++) mean[c] += rows[i][columns[c]] / n;
+            mean[p] += prices[i] / n;
+        }
+        double[][] system = new double[p][p + 1];
+        for (int i = 0; i < n; i++) {
+            for (int a = 0; a < p; a++) {
+                double xa = rows[i][columns[a]] - mean[a];
+                for (int b = 0; b < p; b++) system[a][b] += xa * (rows[i][columns[b]] - mean[b]);
+                system[a][p] += xa * (prices[i] - mean[p]);
+            }
+        }
+        double[] slopes = solve(system);
+        double[] fit = new double[p + 1];
+        fit[0] = mean[p];
+        for (int c = 0; c < p; c++) {
+            fit[c + 1] = slopes[c];
+            fit[0] -= slopes[c] * mean[c];
+        }
+        return fit;
+    }
+    
+    // Solve an augmented p x (p + 1) system in place by Gauss-Jordan elimination with partial pivoting
+    private static double[] solve(double[][] system) {
+        int p = system.length;
+        for (int pivot = 0; pivot < p; pivot++) {
+            int best = pivot;
+            for (int r = pivot + 1; r < p; r++) {
+                if (Math.abs(system[r][pivot]) > Math.abs(system[best][pivot])) best = r;
+            }
+            double[] swap = system[pivot];
+            system[pivot] = system[best];
+            system[best] = swap;
+            for (int r = 0; r < p; r++) {
+                if (r == pivot) continue;
+                double factor = system[r][pivot] / system[pivot][pivot];
+                for (int c = pivot; c <= p; c++) system[r][c] -= factor * system[pivot][c];
+            }
+        }
+        double[] solution = new double[p];
+        for (int c = 0; c < p; c++) {
+            solution[c] = system[c][p] / system[c][c];
+        }
+        return solution;
+    }
+}